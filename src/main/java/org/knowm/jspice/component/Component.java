@@ -25,12 +25,13 @@ import java.util.Map;
 import java.util.Set;
 
 import org.knowm.jspice.netlist.Netlist;
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CircuitMatrix;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-public abstract class Component implements Sweepable {
+public abstract class Component implements Sweepable, Cloneable {
 
   /**
    * Boltzman's constant
@@ -61,15 +62,115 @@ public abstract class Component implements Sweepable {
     this.id = id;
   }
 
+  /**
+   * Copy this component, including its parameters and state, i.e. the state variable of a memristor or the initial condition of a capacitor. The
+   * fields of all components are values or immutable, so a field by field copy is a deep one.
+   *
+   * @return
+   */
+  public Component copy() {
+
+    try {
+      return (Component) super.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   public abstract Set<String> getGMatrixColumnIDs(String[] nodes, Double timeStep);
 
   public abstract void modifyUnknowmQuantitiesVector(String[] nodeIDs, String[] nodes, Double timeStep);
 
-  public abstract void stampG(double[][] G, Netlist netList, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap,
-      String[] nodes, Double timeStep);
+  /**
+   * Resolves the G matrix columns this component stamps into. This is called once when the circuit is compiled, and the returned slots are passed back
+   * into stampG and stampRHS, so no node names need to be looked up while stamping. By default the slots are the columns of the nodes, in order.
+   *
+   * @param netlist
+   * @param nodeID2ColumnIdxMap
+   * @param nodes
+   * @param timeStep
+   * @return
+   */
+  public int[] resolveSlots(Netlist netlist, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes, Double timeStep) {
+
+    int[] slots = new int[nodes.length];
+    for (int i = 0; i < nodes.length; i++) {
+      slots[i] = nodeID2ColumnIdxMap.get(nodes[i]);
+    }
+    return slots;
+  }
+
+  /**
+   * The slots of a component with its own branch current column: the node columns followed by the branch column
+   *
+   * @param nodeID2ColumnIdxMap
+   * @param nodes
+   * @return
+   */
+  protected int[] resolveSlotsWithBranch(Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes) {
+
+    int[] slots = new int[nodes.length + 1];
+    for (int i = 0; i < nodes.length; i++) {
+      slots[i] = nodeID2ColumnIdxMap.get(nodes[i]);
+    }
+    slots[nodes.length] = nodeID2ColumnIdxMap.get(getId());
+    return slots;
+  }
+
+  /**
+   * @return the number of values this component keeps in a CircuitState, at least 1 for its sweepable value. Components that change while a circuit
+   *         is solved, i.e. the linearization points of the nonlinear components, keep that in the values following it instead of in their fields, so
+   *         several analyses can solve the same netlist at once.
+   */
+  public int getNumStates() {
+
+    return 1;
+  }
+
+  /**
+   * Writes the initial values of this component into a state, by default only its sweepable value
+   *
+   * @param state
+   * @param stateIdx - the index of the first value of this component
+   */
+  public void initState(CircuitState state, int stateIdx) {
+
+    state.set(stateIdx, getSweepableValue());
+  }
 
-  public abstract void stampRHS(double[] RHS, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes,
-      Double timeStep);
+  /**
+   * Called before the first iteration of a DC operating point that has no previous solution to start from. Nonlinear components can use it to derive an
+   * initial guess from the netlist.
+   *
+   * @param netlist
+   * @param nodes
+   * @param state
+   * @param stateIdx - the index of the first value of this component in the state
+   */
+  public void prepareInitialGuess(Netlist netlist, String[] nodes, CircuitState state, int stateIdx) {
+
+    // Do nothing
+  }
+
+  /**
+   * @param G
+   * @param solution - the previous solution indexed by G matrix column, ground included, or null on the first iteration
+   * @param slots - the slots returned by resolveSlots()
+   * @param state - the values of the analysis being run, the value of this component at stateIdx
+   * @param stateIdx - the index of the first value of this component in the state
+   * @param timeStep
+   */
+  public abstract void stampG(CircuitMatrix G, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep);
+
+  /**
+   * @param RHS
+   * @param solution - the previous solution indexed by G matrix column, ground included, or null on the first iteration
+   * @param slots - the slots returned by resolveSlots()
+   * @param state - the values of the analysis being run, the value of this component at stateIdx
+   * @param stateIdx - the index of the first value of this component in the state
+   * @param timeStep
+   */
+  public abstract void stampRHS(double[] RHS, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep);
 
   public String getId() {
 
@@ -21,9 +21,21 @@
  */
 package org.knowm.jspice.component;
 
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+
 /**
  * @author timmolter
  */
 public interface NonlinearComponent {
 
+  /**
+   * @param state
+   * @param stateIdx - the index of the first value of this component in the state
+   * @return true if the last stampG() linearized around a limited step instead of the solution it was given, in which case the Newton iterations
+   *         have not converged yet
+   */
+  default boolean isLimited(CircuitState state, int stateIdx) {
+
+    return false;
+  }
 }
@@ -22,15 +22,14 @@
 package org.knowm.jspice.component.element.linear;
 
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 import javax.validation.Valid;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
-import org.knowm.jspice.netlist.Netlist;
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CircuitMatrix;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -78,7 +77,17 @@ public class Resistor extends LinearElement {
    */
   public double getCurrent(double voltage) {
 
-    return voltage / this.resistance;
+    return getCurrent(voltage, resistance);
+  }
+
+  /**
+   * @param voltage
+   * @param resistance - the resistance of an analysis, see CircuitState
+   * @return the current thru this resistor
+   */
+  public double getCurrent(double voltage, double resistance) {
+
+    return voltage / resistance;
   }
 
   @Override
@@ -108,32 +117,22 @@ public class Resistor extends LinearElement {
   }
 
   @Override
-  public void stampG(double[][] G, Netlist netList, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap,
-      String[] nodes, Double timeStep) {
-
-    int idxA = nodeID2ColumnIdxMap.get(nodes[0]);
-    int idxB = nodeID2ColumnIdxMap.get(nodes[1]);
-
-    double[][] stamp = new double[2][2];
+  public void stampG(CircuitMatrix G, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
-    double conductance = 1 / this.resistance;
+    int idxA = slots[0];
+    int idxB = slots[1];
 
-    // create stamp
-    stamp[0][0] = conductance;
-    stamp[0][1] = -1 * conductance;
-    stamp[1][0] = -1 * conductance;
-    stamp[1][1] = conductance;
+    double conductance = 1 / state.get(stateIdx);
 
     // apply stamp
-    G[idxA][idxA] += stamp[0][0];
-    G[idxA][idxB] += stamp[0][1];
-    G[idxB][idxA] += stamp[1][0];
-    G[idxB][idxB] += stamp[1][1];
+    G.add(idxA, idxA, conductance);
+    G.add(idxA, idxB, -1 * conductance);
+    G.add(idxB, idxA, -1 * conductance);
+    G.add(idxB, idxB, conductance);
   }
 
   @Override
-  public void stampRHS(double[] RHS, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes,
-      Double timeStep) {
+  public void stampRHS(double[] RHS, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
     // Do nothing
 
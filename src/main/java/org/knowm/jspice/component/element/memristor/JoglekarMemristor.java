@@ -63,21 +63,22 @@ public class JoglekarMemristor extends Memristor {
     System.out.println("w initial = " + w);
   }
 
-  public double getConductance() {
+  @Override
+  public double getConductance(double w) {
 
     return 1 / (Ron * w / D + Roff * (1 - w / D));
   }
 
   @Override
-  public double getCurrent(double voltage) {
+  public double getCurrent(double voltage, double w) {
 
-    return getConductance() * voltage;
+    return getConductance(w) * voltage;
   }
 
   @Override
-  public void dG(double voltage, double dt) {
+  public double getNextState(double voltage, double dt, double w) {
 
-    double current = getCurrent(voltage);
+    double current = getCurrent(voltage, w);
     // boundary condition reversal
     int direction = 0;
     if (current > 0) {
@@ -91,13 +92,13 @@ public class JoglekarMemristor extends Memristor {
     }
 //        System.out.println("voltage: " + voltage);
 
-    double dw = k * getCurrent(voltage) * (1 - (Math.pow(2 * w / D - 1, 2 * p))) * dt;
+    double dw = k * current * (1 - (Math.pow(2 * w / D - 1, 2 * p))) * dt;
 //    System.out.println("getCurrent(voltage): " + getCurrent(voltage));
 //    System.out.println("dw: " + dw);
 //    System.out.println("dt: " + dt);
 //     System.out.println("direction: " + direction);
-    w += dw + (double) direction * borderBump;
-//     System.out.println("w: " + w);
+//     System.out.println("w: " + (w + dw + (double) direction * borderBump));
+    return w + dw + (double) direction * borderBump;
   }
 
   public double getRon() {
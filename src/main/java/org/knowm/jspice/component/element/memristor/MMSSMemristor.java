@@ -94,9 +94,11 @@ public class MMSSMemristor extends Memristor {
    *
    * @param voltage - the instantaneous voltage
    * @param dt - how much time passed since the last update
+   * @param x - the fraction of the switches that are on
+   * @return x after dt
    */
   @Override
-  public void dG(double voltage, double dt) {
+  public double getNextState(double voltage, double dt, double x) {
 
     // Probabilities
     double pOff2on = p0ff2on(voltage, dt);
@@ -118,6 +120,7 @@ public class MMSSMemristor extends Memristor {
       x = 0;
     }
     //        System.out.println(x);
+    return x;
   }
 
   /**
@@ -158,7 +161,7 @@ public class MMSSMemristor extends Memristor {
    * @return
    */
   @Override
-  public double getConductance() {
+  public double getConductance(double x) {
 
     double G = (x / rOn + (1 - x) / rOff);
     //        System.out.println("R= " + 1 / G);
@@ -171,9 +174,9 @@ public class MMSSMemristor extends Memristor {
    * @return the combined MSS and Schottkey current
    */
   @Override
-  public double getCurrent(double voltage) {
+  public double getCurrent(double voltage, double x) {
 
-    double mssCurrent = voltage * getConductance();
+    double mssCurrent = voltage * getConductance(x);
     double schottkeyCurrent = getSchottkyCurrent(voltage);
     // System.out.println("mssCurrent" + mssCurrent);
     // System.out.println("schottkeyCurrent" + schottkeyCurrent);
@@ -107,9 +107,30 @@ public class MSSMemristor extends Memristor {
    *
    * @param voltage - the instantaneous voltage
    * @param dt - how much time passed since the last update
+   * @param x - the fraction of the switches that are on
+   * @return x after dt
    */
   @Override
-  public void dG(double voltage, double dt) {
+  public double getNextState(double voltage, double dt, double x) {
+
+    return getNextState(voltage, dt, x, RANDOM);
+  }
+
+  /**
+   * update device conductance
+   *
+   * @param voltage - the instantaneous voltage
+   * @param dt - how much time passed since the last update
+   * @param x - the fraction of the switches that are on
+   * @param random - the stream the transitions are drawn from, null for the shared default one
+   * @return x after dt
+   */
+  @Override
+  public double getNextState(double voltage, double dt, double x, Random random) {
+
+    if (random == null) {
+      random = RANDOM;
+    }
 
     // Probabilities
     double pOff2on = p0ff2on(voltage, dt);
@@ -128,8 +149,8 @@ public class MSSMemristor extends Memristor {
     double sigmaOff = Math.sqrt((x * n) * pOn2Off * (1 - pOn2Off));
 
     // Number of switches making a transition
-    double n0ff2on = Math.round(normal(uOn, sigmaOn)); // from Off to On
-    double nOn2Off = Math.round(normal(uOff, sigmaOff)); // from On to Off
+    double n0ff2on = Math.round(normal(random, uOn, sigmaOn)); // from Off to On
+    double nOn2Off = Math.round(normal(random, uOff, sigmaOff)); // from On to Off
 
     // update the state of the memristor, contained in this one variable
     x += (n0ff2on - nOn2Off) / n;
@@ -139,6 +160,7 @@ public class MSSMemristor extends Memristor {
       x = 0;
     }
     // System.out.println(x);
+    return x;
   }
 
   /**
@@ -175,13 +197,14 @@ public class MSSMemristor extends Memristor {
   /**
    * Gaussian/Normal distribution
    *
+   * @param random
    * @param u
    * @param stdv
    * @return
    */
-  private double normal(double u, double stdv) {
+  private static double normal(Random random, double u, double stdv) {
 
-    return stdv * RANDOM.nextGaussian() + u;
+    return stdv * random.nextGaussian() + u;
   }
 
   /**
@@ -190,7 +213,7 @@ public class MSSMemristor extends Memristor {
    * @return
    */
   @Override
-  public double getConductance() {
+  public double getConductance(double x) {
 
     double G = (x / rOn + (1 - x) / rOff);
     //     System.out.println("R= " + 1 / G);
@@ -203,9 +226,9 @@ public class MSSMemristor extends Memristor {
    * @return the combined MSS and Schottkey current
    */
   @Override
-  public double getCurrent(double voltage) {
+  public double getCurrent(double voltage, double x) {
 
-    double mssCurrent = voltage * getConductance();
+    double mssCurrent = voltage * getConductance(x);
     double schottkeyCurrent = getSchottkyCurrent(voltage);
     // System.out.println("mssCurrent" + mssCurrent);
     // System.out.println("schottkeyCurrent" + schottkeyCurrent);
@@ -22,12 +22,12 @@
 package org.knowm.jspice.component.element.memristor;
 
 import java.util.HashSet;
-import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import org.knowm.jspice.component.Component;
-import org.knowm.jspice.netlist.Netlist;
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CircuitMatrix;
 
 public abstract class Memristor extends Component {
 
@@ -41,17 +41,74 @@ public abstract class Memristor extends Component {
     super(id);
   }
 
-  public abstract double getCurrent(double voltage);
+  /**
+   * @param voltage
+   * @param x - the state of the memristor, its sweepable value
+   * @return the current thru this memristor
+   */
+  public abstract double getCurrent(double voltage, double x);
+
+  /**
+   * @param voltage - the instantaneous voltage
+   * @param dt - how much time passed since the last update
+   * @param x - the state of the memristor, its sweepable value
+   * @return the state after dt
+   */
+  public abstract double getNextState(double voltage, double dt, double x);
+
+  /**
+   * @param voltage - the instantaneous voltage
+   * @param dt - how much time passed since the last update
+   * @param x - the state of the memristor, its sweepable value
+   * @param random - the stream a stochastic memristor draws from, null for its default one
+   * @return the state after dt
+   */
+  public double getNextState(double voltage, double dt, double x, Random random) {
 
-  public abstract void dG(double voltage, double dt);
+    return getNextState(voltage, dt, x);
+  }
+
+  /**
+   * @param x - the state of the memristor, its sweepable value
+   * @return
+   */
+  public abstract double getConductance(double x);
 
-  public abstract double getConductance();
+  public double getCurrent(double voltage) {
+
+    return getCurrent(voltage, getSweepableValue());
+  }
+
+  /**
+   * update device conductance
+   *
+   * @param voltage - the instantaneous voltage
+   * @param dt - how much time passed since the last update
+   */
+  public void dG(double voltage, double dt) {
+
+    setSweepValue(getNextState(voltage, dt, getSweepableValue()));
+  }
+
+  public double getConductance() {
+
+    return getConductance(getSweepableValue());
+  }
 
   public double getResistance() {
 
     return 1.0 / getConductance();
   }
 
+  /**
+   * @param x - the state of the memristor, its sweepable value
+   * @return
+   */
+  public double getResistance(double x) {
+
+    return 1.0 / getConductance(x);
+  }
+
   @Override
   public Set<String> getGMatrixColumnIDs(String[] nodes, Double timeStep) {
 
@@ -73,37 +130,28 @@ public abstract class Memristor extends Component {
   }
 
   @Override
-  public void stampG(double[][] G, Netlist netList, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes, Double timeStep) {
+  public void stampG(CircuitMatrix G, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
-    if (timeStep != null) {
-      double voltageA = dcOperatingPointResult.getValue("V(" + nodes[0] + ")");
-      double voltageB = dcOperatingPointResult.getValue("V(" + nodes[1] + ")");
-      double Vmemristor = voltageA - voltageB;
-      dG(Vmemristor, timeStep);
-    }
-
-    double[][] stamp = new double[2][2];
+    int idxA = slots[0];
+    int idxB = slots[1];
 
-    double conductance = getConductance();
+    // there is no voltage to step the state with before the first iteration of a convergence aid that starts over from the initial guess
+    if (timeStep != null && solution != null) {
+      double Vmemristor = solution[idxA] - solution[idxB];
+      state.set(stateIdx, getNextState(Vmemristor, timeStep, state.get(stateIdx), state.getRandom()));
+    }
 
-    // create stamp
-    stamp[0][0] = conductance;
-    stamp[0][1] = -1 * conductance;
-    stamp[1][0] = -1 * conductance;
-    stamp[1][1] = conductance;
+    double conductance = getConductance(state.get(stateIdx));
 
     // apply stamp
-    int idxA = nodeID2ColumnIdxMap.get(nodes[0]);
-    int idxB = nodeID2ColumnIdxMap.get(nodes[1]);
-    // int idxI = nodeID2ColumnIdxMap.get(id);
-    G[idxA][idxA] += stamp[0][0];
-    G[idxA][idxB] += stamp[0][1];
-    G[idxB][idxA] += stamp[1][0];
-    G[idxB][idxB] += stamp[1][1];
+    G.add(idxA, idxA, conductance);
+    G.add(idxA, idxB, -1 * conductance);
+    G.add(idxB, idxA, -1 * conductance);
+    G.add(idxB, idxB, conductance);
   }
 
   @Override
-  public void stampRHS(double[] RHS, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes, Double timeStep) {
+  public void stampRHS(double[] RHS, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
     // Do nothing
   }
@@ -55,26 +55,26 @@ public class RSMemristor extends Memristor {
   }
 
   @Override
-  public double getCurrent(double voltage) {
+  public double getCurrent(double voltage, double g) {
 
-    double memristorCurrent = voltage * getConductance();
+    double memristorCurrent = voltage * g;
     double schottkeyCurrent = getSchottkyCurrent(voltage);
 
     return phi * memristorCurrent + (1 - phi) * schottkeyCurrent;
   }
 
   @Override
-  public void dG(double voltage, double dt) {
+  public double getNextState(double voltage, double dt, double g) {
 
     if (voltage > 0) {
-      this.g += alpha * Vt(voltage) * dt * (Gmax - g);
+      return g + alpha * Vt(voltage) * dt * (Gmax - g);
     } else {
-      this.g += alpha * Vt(voltage) * dt * (Gmin - g);
+      return g + alpha * Vt(voltage) * dt * (Gmin - g);
     }
   }
 
   @Override
-  public double getConductance() {
+  public double getConductance(double g) {
 
     return g;
   }
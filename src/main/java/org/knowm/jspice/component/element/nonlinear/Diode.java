@@ -22,16 +22,12 @@
 package org.knowm.jspice.component.element.nonlinear;
 
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 import org.knowm.jspice.component.Component;
 import org.knowm.jspice.component.NonlinearComponent;
-import org.knowm.jspice.component.element.linear.Resistor;
-import org.knowm.jspice.component.source.DCCurrent;
-import org.knowm.jspice.netlist.Netlist;
-import org.knowm.jspice.netlist.NetlistComponent;
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CircuitMatrix;
 
 /**
  * @author timmolter
@@ -43,6 +39,13 @@ public class Diode extends Component implements NonlinearComponent {
    */
   private double IS;
 
+  /**
+   * the values of a diode in a CircuitState following IS: the junction voltage the last stampG() linearized around, which stampRHS() and the next
+   * iteration's limiting start from, NaN before the first one, and 1 if it was limited
+   */
+  private static final int VD_LINEARIZED = 1;
+  private static final int IS_LIMITED = 2;
+
   /**
    * Constructor
    *
@@ -67,12 +70,36 @@ public class Diode extends Component implements NonlinearComponent {
     return IS;
   }
 
+  @Override
+  public int getNumStates() {
+
+    return 3;
+  }
+
+  @Override
+  public void initState(CircuitState state, int stateIdx) {
+
+    super.initState(state, stateIdx);
+    state.set(stateIdx + VD_LINEARIZED, Double.NaN);
+    state.set(stateIdx + IS_LIMITED, 0.0);
+  }
+
   public double getEquivalentCurrent(double voltageGuess) {
 
+    return getEquivalentCurrent(voltageGuess, IS);
+  }
+
+  /**
+   * @param voltageGuess
+   * @param IS - the saturation current of an analysis, see CircuitState
+   * @return
+   */
+  public double getEquivalentCurrent(double voltageGuess, double IS) {
+
     // double VdoGuess = 0.87;
 
     // System.out.println("IS= " + IS);
-    double Ido = getCurrent(voltageGuess);
+    double Ido = getCurrent(voltageGuess, IS);
     // System.out.println("Ido= " + Ido);
     double equivalentG = Ido / Component.VT;
     // System.out.println("equivalentG= " + equivalentG);
@@ -85,8 +112,18 @@ public class Diode extends Component implements NonlinearComponent {
 
   public double getEquivalentResistance(double voltageGuess) {
 
+    return getEquivalentResistance(voltageGuess, IS);
+  }
+
+  /**
+   * @param voltageGuess
+   * @param IS - the saturation current of an analysis, see CircuitState
+   * @return
+   */
+  public double getEquivalentResistance(double voltageGuess, double IS) {
+
     // double VdoGuess = 0.9;
-    double Ido = getCurrent(voltageGuess);
+    double Ido = getCurrent(voltageGuess, IS);
     // double equivalentG = Ido / Component.VT;
     double equivalentR = Component.VT / Ido;
     // double equivalentI = Ido - equivalentG * voltageGuess;
@@ -102,6 +139,16 @@ public class Diode extends Component implements NonlinearComponent {
    */
   public double getCurrent(double voltage) {
 
+    return getCurrent(voltage, IS);
+  }
+
+  /**
+   * @param voltage
+   * @param IS - the saturation current of an analysis, see CircuitState
+   * @return the current thru this diode
+   */
+  public double getCurrent(double voltage, double IS) {
+
     return IS * (Math.exp(voltage / Component.VT) - 1);
   }
 
@@ -134,43 +181,103 @@ public class Diode extends Component implements NonlinearComponent {
   }
 
   @Override
-  public void stampG(double[][] G, Netlist netList, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap,
-      String[] nodes, Double timeStep) {
+  public void stampG(CircuitMatrix G, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
     // current source
     // no contribution
 
     // resistor
-    double VdGuess = getVdGuess(dcOperatingPointResult, nodes);
-
-    Resistor Req = new Resistor(getId() + "_Req", getEquivalentResistance(VdGuess));
-    NetlistComponent req = new NetlistComponent(Req, nodes);
-    req.stampG(G, netList, dcOperatingPointResult, nodeID2ColumnIdxMap, timeStep);
+    double VdGuess = getLimitedVdGuess(solution, slots, state, stateIdx);
+    double conductance = 1 / getEquivalentResistance(VdGuess, state.get(stateIdx));
+
+    int idxA = slots[0];
+    int idxB = slots[1];
+    G.add(idxA, idxA, conductance);
+    G.add(idxA, idxB, -1 * conductance);
+    G.add(idxB, idxA, -1 * conductance);
+    G.add(idxB, idxB, conductance);
   }
 
   @Override
-  public void stampRHS(double[] RHS, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes,
-      Double timeStep) {
+  public void stampRHS(double[] RHS, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
-    // current source
-    double VdGuess = getVdGuess(dcOperatingPointResult, nodes);
-    DCCurrent Ieq = new DCCurrent((getId() + "_Ieq"), getEquivalentCurrent(VdGuess));
-    NetlistComponent ieq = new NetlistComponent(Ieq, nodes);
-    ieq.stampRHS(RHS, dcOperatingPointResult, nodeID2ColumnIdxMap, timeStep);
+    // current source, linearized around the same voltage as G
+    double VdLinearized = state.get(stateIdx + VD_LINEARIZED);
+    double VdGuess = Double.isNaN(VdLinearized) ? getVdGuess(solution, slots) : VdLinearized;
+    double Ieq = getEquivalentCurrent(VdGuess, state.get(stateIdx));
+
+    int idxA = slots[0];
+    int idxB = slots[1];
+    RHS[idxA] += -1 * Ieq;
+    RHS[idxB] += Ieq;
 
     // resistor
     // no contribution
   }
 
-  private double getVdGuess(DCOperatingPointResult dcOperatingPointResult, String[] nodes) {
+  @Override
+  public boolean isLimited(CircuitState state, int stateIdx) {
+
+    return state.get(stateIdx + IS_LIMITED) != 0.0;
+  }
+
+  /**
+   * The voltage of the solution, but with its step from the last iteration limited, as the exponential would otherwise overflow or make the
+   * iterations oscillate
+   *
+   * @param solution
+   * @param slots
+   * @param state
+   * @param stateIdx
+   * @return
+   */
+  private double getLimitedVdGuess(double[] solution, int[] slots, CircuitState state, int stateIdx) {
+
+    double VdGuess = getVdGuess(solution, slots);
+    double VdLinearized = state.get(stateIdx + VD_LINEARIZED);
+    boolean isLimited = false;
+    if (solution != null && !Double.isNaN(VdLinearized)) {
+      double VdLimited = limitJunctionVoltage(VdGuess, VdLinearized, state.get(stateIdx));
+      isLimited = VdLimited != VdGuess;
+      VdGuess = VdLimited;
+    }
+    state.set(stateIdx + VD_LINEARIZED, VdGuess);
+    state.set(stateIdx + IS_LIMITED, isLimited ? 1.0 : 0.0);
+    return VdGuess;
+  }
+
+  /**
+   * Limits the step of a forward biased pn junction to the logarithm of the step of its current (pnjlim of SPICE)
+   *
+   * @param VdNew - the voltage of the current solution
+   * @param VdOld - the voltage of the last iteration
+   * @param IS
+   * @return
+   */
+  private double limitJunctionVoltage(double VdNew, double VdOld, double IS) {
+
+    // above the critical voltage the current changes so fast that a full step overshoots
+    double Vcrit = Component.VT * Math.log(Component.VT / (Math.sqrt(2) * IS));
+    if (VdNew > Vcrit && Math.abs(VdNew - VdOld) > 2 * Component.VT) {
+      if (VdOld > 0) {
+        double arg = 1 + (VdNew - VdOld) / Component.VT;
+        if (arg > 0) {
+          return VdOld + Component.VT * Math.log(arg);
+        }
+        return Vcrit;
+      }
+      return Component.VT * Math.log(VdNew / Component.VT);
+    }
+    return VdNew;
+  }
+
+  private double getVdGuess(double[] solution, int[] slots) {
 
     double VdGuess = 0.0; // Vd = voltage across diode
-    if (dcOperatingPointResult == null) { // first iteration
+    if (solution == null) { // first iteration
       VdGuess = getInitialVoltageGuess();
     } else {
-      double voltageA = dcOperatingPointResult.getValue("V(" + nodes[0] + ")");
-      double voltageB = dcOperatingPointResult.getValue("V(" + nodes[1] + ")");
-      VdGuess = voltageA - voltageB;
+      VdGuess = solution[slots[0]] - solution[slots[1]];
     }
     return VdGuess;
   }
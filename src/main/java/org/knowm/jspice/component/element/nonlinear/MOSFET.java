@@ -22,17 +22,14 @@
 package org.knowm.jspice.component.element.nonlinear;
 
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 import org.knowm.jspice.component.Component;
 import org.knowm.jspice.component.NonlinearComponent;
-import org.knowm.jspice.component.element.linear.Resistor;
-import org.knowm.jspice.component.source.DCCurrent;
 import org.knowm.jspice.netlist.InitialVoltageDropCalculator;
 import org.knowm.jspice.netlist.Netlist;
-import org.knowm.jspice.netlist.NetlistComponent;
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CircuitMatrix;
 
 /**
  * @author timmolter
@@ -49,7 +46,16 @@ public abstract class MOSFET extends Component implements NonlinearComponent {
   //  protected final double K = 5; // mu*Cox*W/L [A/V^2], A.K.A. beta
   private final double n = 1.45; // typical values are between 1.4 and 1.5
 
-  private double[] VgsVdsGuess = null;
+  /**
+   * The values of a MOSFET in a CircuitState following Vthresh: the guesses for the first iteration, see prepareInitialGuess(), Vgs and Vds the last
+   * stampG() linearized around, with the polarity of the device, i.e. negated for a PMOS, NaN before the first one, and 1 if Vgs was limited.
+   * stampRHS() linearizes around the same Vgs and Vds, and the next iteration's limiting starts from them.
+   */
+  private static final int INITIAL_VGS_GUESS = 1;
+  private static final int INITIAL_VDS_GUESS = 2;
+  private static final int VGS_LINEARIZED = 3;
+  private static final int VDS_LINEARIZED = 4;
+  private static final int IS_LIMITED = 5;
 
   /**
    * Constructor
@@ -77,13 +83,41 @@ public abstract class MOSFET extends Component implements NonlinearComponent {
     return Vthresh;
   }
 
+  @Override
+  public int getNumStates() {
+
+    return 6;
+  }
+
+  @Override
+  public void initState(CircuitState state, int stateIdx) {
+
+    super.initState(state, stateIdx);
+    state.set(stateIdx + INITIAL_VGS_GUESS, 0.0);
+    state.set(stateIdx + INITIAL_VDS_GUESS, 0.0);
+    state.set(stateIdx + VGS_LINEARIZED, Double.NaN);
+    state.set(stateIdx + VDS_LINEARIZED, Double.NaN);
+    state.set(stateIdx + IS_LIMITED, 0.0);
+  }
+
   public double getGmVgsCurrent(double vgsGuess, double vdsGuess) {
 
+    return getGmVgsCurrent(vgsGuess, vdsGuess, Vthresh);
+  }
+
+  /**
+   * @param vgsGuess
+   * @param vdsGuess
+   * @param Vthresh - the threshold voltage of an analysis, see CircuitState
+   * @return
+   */
+  public double getGmVgsCurrent(double vgsGuess, double vdsGuess, double Vthresh) {
+
     //    System.out.println("vgsGuess= " + vgsGuess);
     //    System.out.println("vdsGuess= " + vdsGuess);
 
     // determine operating region
-    Mode mode = getOperationMode(vgsGuess, vdsGuess);
+    Mode mode = getOperationMode(vgsGuess, vdsGuess, Vthresh);
 
     if (mode == Mode.CUTOFF) { // cutoff
       // double Ids = getIdsCutoff(vgsGuess, vdsGuess);
@@ -93,7 +127,7 @@ public abstract class MOSFET extends Component implements NonlinearComponent {
       // return gm * vgsGuess;
       return 0.000000001;
     } else if (mode == Mode.SATURATION) { // saturation
-      double Ids = getIdsSaturation(vgsGuess, vdsGuess);
+      double Ids = getIdsSaturation(vgsGuess, vdsGuess, Vthresh);
       double gm = getGmSaturation(Ids);
       return gm * vgsGuess;
     } else { // triode
@@ -104,25 +138,47 @@ public abstract class MOSFET extends Component implements NonlinearComponent {
 
   public double getRo(double vgsGuess, double vdsGuess) {
 
+    return getRo(vgsGuess, vdsGuess, Vthresh);
+  }
+
+  /**
+   * @param vgsGuess
+   * @param vdsGuess
+   * @param Vthresh - the threshold voltage of an analysis, see CircuitState
+   * @return
+   */
+  public double getRo(double vgsGuess, double vdsGuess, double Vthresh) {
+
     // determine operating region
-    Mode mode = getOperationMode(vgsGuess, vdsGuess);
+    Mode mode = getOperationMode(vgsGuess, vdsGuess, Vthresh);
 
     if (mode == Mode.CUTOFF) { // cutoff
 
       // return 1 / getGoCutoff(vgsGuess, vdsGuess);
       return 1000000000000.0; // 10^12 Ohm
     } else if (mode == Mode.SATURATION) { // saturation
-      double Ids = getIdsSaturation(vgsGuess, vdsGuess);
+      double Ids = getIdsSaturation(vgsGuess, vdsGuess, Vthresh);
       return 1 / getGoSaturation(Ids);
     } else { // triode
-      return 1 / getGoTriode(vgsGuess, vdsGuess);
+      return 1 / getGoTriode(vgsGuess, vdsGuess, Vthresh);
     }
   }
 
   public double getEquivalentCurrent(double vgsGuess, double vdsGuess) {
 
+    return getEquivalentCurrent(vgsGuess, vdsGuess, Vthresh);
+  }
+
+  /**
+   * @param vgsGuess
+   * @param vdsGuess
+   * @param Vthresh - the threshold voltage of an analysis, see CircuitState
+   * @return
+   */
+  public double getEquivalentCurrent(double vgsGuess, double vdsGuess, double Vthresh) {
+
     // determine operating region
-    Mode mode = getOperationMode(vgsGuess, vdsGuess);
+    Mode mode = getOperationMode(vgsGuess, vdsGuess, Vthresh);
 
     if (mode == Mode.CUTOFF) { // cutoff
 
@@ -132,14 +188,14 @@ public abstract class MOSFET extends Component implements NonlinearComponent {
       // return Ids - gm * vgsGuess - go * vdsGuess;
       return 0.000000001;
     } else if (mode == Mode.SATURATION) { // saturation
-      double Ids = getIdsSaturation(vgsGuess, vdsGuess);
+      double Ids = getIdsSaturation(vgsGuess, vdsGuess, Vthresh);
       double gm = getGmSaturation(Ids);
       double go = getGoSaturation(Ids);
       return Ids - gm * vgsGuess - go * vdsGuess;
     } else { // triode
-      double Ids = getIdsTriode(vgsGuess, vdsGuess);
+      double Ids = getIdsTriode(vgsGuess, vdsGuess, Vthresh);
       double gm = getGmTriode(vdsGuess);
-      double go = getGoTriode(vgsGuess, vdsGuess);
+      double go = getGoTriode(vgsGuess, vdsGuess, Vthresh);
       return Ids - gm * vgsGuess - go * vdsGuess;
     }
   }
@@ -151,8 +207,19 @@ public abstract class MOSFET extends Component implements NonlinearComponent {
    */
   public double getCurrent(double Vgs, double Vds) {
 
+    return getCurrent(Vgs, Vds, Vthresh);
+  }
+
+  /**
+   * @param Vgs
+   * @param Vds
+   * @param Vthresh - the threshold voltage of an analysis, see CircuitState
+   * @return the current thru this MOSFET
+   */
+  public double getCurrent(double Vgs, double Vds, double Vthresh) {
+
     // determine operating region
-    Mode mode = getOperationMode(Vgs, Vds);
+    Mode mode = getOperationMode(Vgs, Vds, Vthresh);
 
     if (mode == Mode.CUTOFF) { // cutoff
       // System.out.println("cutoff");
@@ -160,15 +227,26 @@ public abstract class MOSFET extends Component implements NonlinearComponent {
       return 0.000000001;
     } else if (mode == Mode.SATURATION) { // saturation
       // System.out.println("saturation");
-      return getIdsSaturation(Vgs, Vds);
+      return getIdsSaturation(Vgs, Vds, Vthresh);
     } else { // triode
       // System.out.println("triode");
-      return getIdsTriode(Vgs, Vds);
+      return getIdsTriode(Vgs, Vds, Vthresh);
     }
   }
 
   public Mode getOperationMode(double vgs, double vds) {
 
+    return getOperationMode(vgs, vds, Vthresh);
+  }
+
+  /**
+   * @param vgs
+   * @param vds
+   * @param Vthresh - the threshold voltage of an analysis, see CircuitState
+   * @return
+   */
+  public Mode getOperationMode(double vgs, double vds, double Vthresh) {
+
     //    System.out.println("vgs " + vgs);
     //    System.out.println("vds " + vds);
 
@@ -213,7 +291,7 @@ public abstract class MOSFET extends Component implements NonlinearComponent {
     return Gm;
   }
 
-  private double getGoCutoff(double vgsGuess, double vdsGuess) {
+  private double getGoCutoff(double vgsGuess, double vdsGuess, double Vthresh) {
 
     // System.out.println("vgsGuess= " + vgsGuess);
     // System.out.println("vdsGuess= " + vdsGuess);
@@ -239,13 +317,13 @@ public abstract class MOSFET extends Component implements NonlinearComponent {
     return Go;
   }
 
-  private double getGoTriode(double vgsGuess, double vdsGuess) {
+  private double getGoTriode(double vgsGuess, double vdsGuess, double Vthresh) {
 
     double Go = K * ((vgsGuess - Vthresh) - vdsGuess);
     return Go;
   }
 
-  private double getIdsCutoff(double vgsGuess, double vdsGuess) {
+  private double getIdsCutoff(double vgsGuess, double vdsGuess, double Vthresh) {
 
     double Ids0Part = K * Component.VT * Component.VT * Math.exp(1.8);
     // double Ids0Part = getIdsSaturation(vgsGuess, vgsGuess - Vthresh);
@@ -256,7 +334,7 @@ public abstract class MOSFET extends Component implements NonlinearComponent {
     return Ids;
   }
 
-  private double getIdsSaturation(double vgsGuess, double vdsGuess) {
+  private double getIdsSaturation(double vgsGuess, double vdsGuess, double Vthresh) {
 
     //    System.out.println("vgsGuess " + vgsGuess);
     //    System.out.println("vdsGuess " + vdsGuess);
@@ -265,7 +343,7 @@ public abstract class MOSFET extends Component implements NonlinearComponent {
     return Ids;
   }
 
-  private double getIdsTriode(double vgsGuess, double vdsGuess) {
+  private double getIdsTriode(double vgsGuess, double vdsGuess, double Vthresh) {
 
     //    System.out.println("vgsGuess " + vgsGuess);
     //    System.out.println("vdsGuess " + vdsGuess);
@@ -303,127 +381,185 @@ public abstract class MOSFET extends Component implements NonlinearComponent {
   }
 
   @Override
-  public void stampG(double[][] G, Netlist netList, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap,
-      String[] nodes, Double timeStep) {
+  public void stampG(CircuitMatrix G, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
     //    System.out.println("stampG");
     // current source
     // no contribution
 
-    //    System.out.println("null = " + (dcOperatingPointResult == null));
-
     // resistor
-    this.VgsVdsGuess = getVgsVdsGuess(netList, dcOperatingPointResult, nodes);
-    double VgsGuess = VgsVdsGuess[0];
-    double VdsGuess = VgsVdsGuess[1];
-
-    //    System.out.println("VgsGuess= " + VgsGuess);
-    //    System.out.println("VdsGuess= " + VdsGuess);
-
-    // Ro
-    NetlistComponent req;
-    if (this instanceof NMOS) {
-      Resistor resistance = new Resistor((getId() + "_Ro"), getRo(VgsGuess, VdsGuess));
-      //      System.out.println("NMOS Res.= " + resistance);
-      req = new NetlistComponent(resistance, nodes[1], nodes[2]);
-    } else {
-      Resistor resistance = new Resistor((getId() + "_Ro"), getRo(-1.0 * VgsGuess, -1.0 * VdsGuess));
-      req = new NetlistComponent(resistance, nodes[2], nodes[1]);
-      //      System.out.println("PMOS Res.= " + resistance);
-    }
-
-    req.stampG(G, netList, dcOperatingPointResult, nodeID2ColumnIdxMap, timeStep);
+    limitGuesses(solution, slots, state, stateIdx);
+    double VgsLinearized = state.get(stateIdx + VGS_LINEARIZED);
+    double VdsLinearized = state.get(stateIdx + VDS_LINEARIZED);
+
+    //    System.out.println("VgsGuess= " + VgsLinearized);
+    //    System.out.println("VdsGuess= " + VdsLinearized);
+
+    // Ro, between drain and source
+    double resistance = getRo(VgsLinearized, VdsLinearized, state.get(stateIdx));
+    //    System.out.println("Res.= " + resistance);
+    double conductance = 1 / resistance;
+
+    int idxD = slots[1];
+    int idxS = slots[2];
+    G.add(idxD, idxD, conductance);
+    G.add(idxD, idxS, -1 * conductance);
+    G.add(idxS, idxD, -1 * conductance);
+    G.add(idxS, idxS, conductance);
   }
 
   @Override
-  public void stampRHS(double[] RHS, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes,
-      Double timeStep) {
+  public void stampRHS(double[] RHS, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
-    // current sources
+    // current sources, from drain to source for NMOS and from source to drain for PMOS
 
-    double VgsGuess = VgsVdsGuess[0];
-    double VdsGuess = VgsVdsGuess[1];
+    // linearized around the same voltages as G
+    if (Double.isNaN(state.get(stateIdx + VGS_LINEARIZED))) {
+      limitGuesses(solution, slots, state, stateIdx);
+    }
+    double VgsLinearized = state.get(stateIdx + VGS_LINEARIZED);
+    double VdsLinearized = state.get(stateIdx + VDS_LINEARIZED);
+    double Vthresh = state.get(stateIdx);
 
-    // GmVgs
-    NetlistComponent GmVgs;
+    int idxFrom;
+    int idxTo;
     if (this instanceof NMOS) {
-      DCCurrent dcCurrent = new DCCurrent((getId() + "_GmVgs"), getGmVgsCurrent(VgsGuess, VdsGuess));
-      GmVgs = new NetlistComponent(dcCurrent, nodes[1], nodes[2]);
+      idxFrom = slots[1];
+      idxTo = slots[2];
     } else {
-      DCCurrent dcCurrent = new DCCurrent((getId() + "_GmVgs"), getGmVgsCurrent(-1.0 * VgsGuess, -1.0 * VdsGuess));
-      GmVgs = new NetlistComponent(dcCurrent, nodes[2], nodes[1]);
+      idxFrom = slots[2];
+      idxTo = slots[1];
     }
-    GmVgs.stampRHS(RHS, dcOperatingPointResult, nodeID2ColumnIdxMap, timeStep);
+    double GmVgs = getGmVgsCurrent(VgsLinearized, VdsLinearized, Vthresh);
+    double Ideq = getEquivalentCurrent(VgsLinearized, VdsLinearized, Vthresh);
+
+    // GmVgs
+    RHS[idxFrom] += -1 * GmVgs;
+    RHS[idxTo] += GmVgs;
 
     // Id,Eq
-    NetlistComponent Ideq;
-    if (this instanceof NMOS) {
-      DCCurrent dcCurrent = new DCCurrent((getId() + "_Id,eq"), getEquivalentCurrent(VgsGuess, VdsGuess));
-      Ideq = new NetlistComponent(dcCurrent, nodes[1], nodes[2]);
-    } else {
-      DCCurrent dcCurrent = new DCCurrent((getId() + "_Id,eq"), getEquivalentCurrent(-1.0 * VgsGuess, -1.0 * VdsGuess));
-      Ideq = new NetlistComponent(dcCurrent, nodes[2], nodes[1]);
-      //      System.out.println(dcCurrent.toString());
-    }
-    Ideq.stampRHS(RHS, dcOperatingPointResult, nodeID2ColumnIdxMap, timeStep);
+    RHS[idxFrom] += -1 * Ideq;
+    RHS[idxTo] += Ideq;
 
     // resistor
     // no contribution
   }
 
-  private double[] getVgsVdsGuess(Netlist netList, DCOperatingPointResult dcOperatingPointResult, String[] nodes) {
+  @Override
+  public void prepareInitialGuess(Netlist netList, String[] nodes, CircuitState state, int stateIdx) {
+
+    // double defaultVgsGuess = mosfet.getSweepableValue() + getRandomKick(1); // threshold voltage
+    double defaultVgsGuess = state.get(stateIdx); // threshold voltage
 
-    double VgsGuess = 0.0;
-    double VdsGuess = 0.0;
+    // Vgs Guess
+    double VgsGuess = InitialVoltageDropCalculator.attemptToDetermineVgs(netList, nodes[0], nodes[2], defaultVgsGuess, this instanceof NMOS, state);
+    //      System.out.println("initialVgs(" + this.getId() + ")= " + VgsGuess);
+
+    // Vds Guess (if Vgs turns MOSFET on, set voltage drop Vds to zero)
+    double VdsGuess = defaultVgsGuess;
+    if (this instanceof PMOS) {
+      if (VgsGuess <= defaultVgsGuess) { // PMOS on, Vds=0
+        VdsGuess = 0.0;
+      }
+    } else if (this instanceof NMOS) {
+      if (VgsGuess >= defaultVgsGuess) { // NMOS on, Vds=0
+        VdsGuess = 0.0;
+      }
+    }
+    // System.out.println("initialVds(" + mosfet.getID() + ")= " + VdsGuess);
 
-    if (dcOperatingPointResult == null) { // first iteration
+    //      System.out.println("vgsGuess= " + VgsGuess);
+    //      System.out.println("vdsGuess= " + VdsGuess);
 
-      // double defaultVgsGuess = mosfet.getSweepableValue() + getRandomKick(1); // threshold voltage
-      double defaultVgsGuess = getSweepableValue(); // threshold voltage
+    state.set(stateIdx + INITIAL_VGS_GUESS, VgsGuess);
+    state.set(stateIdx + INITIAL_VDS_GUESS, VdsGuess);
+  }
 
-      // Vgs Guess
-      VgsGuess = InitialVoltageDropCalculator.attemptToDetermineVgs(netList, nodes[0], nodes[2], defaultVgsGuess, this instanceof NMOS);
-      //      System.out.println("initialVgs(" + this.getId() + ")= " + VgsGuess);
+  @Override
+  public boolean isLimited(CircuitState state, int stateIdx) {
 
-      // Vds Guess (if Vgs turns MOSFET on, set voltage drop Vds to zero)
-      VdsGuess = defaultVgsGuess;
-      if (this instanceof PMOS) {
-        if (VgsGuess <= defaultVgsGuess) { // PMOS on, Vds=0
-          VdsGuess = 0.0;
-        }
-      } else if (this instanceof NMOS) {
-        if (VgsGuess >= defaultVgsGuess) { // NMOS on, Vds=0
-          VdsGuess = 0.0;
+    return state.get(stateIdx + IS_LIMITED) != 0.0;
+  }
+
+  /**
+   * Takes Vgs and Vds of the solution, with the polarity of the device, but limits the step of Vgs from the last iteration so the iterations do not
+   * jump across the operating regions
+   *
+   * @param solution
+   * @param slots
+   * @param state
+   * @param stateIdx
+   */
+  private void limitGuesses(double[] solution, int[] slots, CircuitState state, int stateIdx) {
+
+    double polarity = this instanceof NMOS ? 1.0 : -1.0;
+    double VgsGuess = polarity * getVgsGuess(solution, slots, state, stateIdx);
+    double VdsGuess = polarity * getVdsGuess(solution, slots, state, stateIdx);
+    double VgsLinearized = state.get(stateIdx + VGS_LINEARIZED);
+    boolean isLimited = false;
+    if (solution != null && !Double.isNaN(VgsLinearized)) {
+      // Vds is not limited, the square law of this model has no exponential for it to overshoot on
+      double VgsLimited = limitVgs(VgsGuess, VgsLinearized, state.get(stateIdx));
+      isLimited = VgsLimited != VgsGuess;
+      VgsGuess = VgsLimited;
+    }
+    state.set(stateIdx + VGS_LINEARIZED, VgsGuess);
+    state.set(stateIdx + VDS_LINEARIZED, VdsGuess);
+    state.set(stateIdx + IS_LIMITED, isLimited ? 1.0 : 0.0);
+  }
+
+  /**
+   * Limits the step of Vgs depending on how far it is above the threshold (fetlim of SPICE)
+   *
+   * @param VgsNew - Vgs of the current solution
+   * @param VgsOld - Vgs of the last iteration
+   * @return
+   */
+  private double limitVgs(double VgsNew, double VgsOld, double Vthresh) {
+
+    double VtstHigh = Math.abs(2 * (VgsOld - Vthresh)) + 2;
+    double VtstLow = Math.abs(VgsOld - Vthresh) + 1;
+    double Vtox = Vthresh + 3.5;
+    double deltaV = VgsNew - VgsOld;
+
+    if (VgsOld >= Vthresh) {
+      if (VgsOld >= Vtox) {
+        if (deltaV <= 0) { // going off
+          if (VgsNew >= Vtox) {
+            return -deltaV > VtstLow ? VgsOld - VtstLow : VgsNew;
+          }
+          return Math.max(VgsNew, Vthresh + 2);
         }
+        // staying on
+        return deltaV >= VtstHigh ? VgsOld + VtstHigh : VgsNew;
       }
-      // System.out.println("initialVds(" + mosfet.getID() + ")= " + VdsGuess);
+      // just above the threshold
+      return deltaV <= 0 ? Math.max(VgsNew, Vthresh - .5) : Math.min(VgsNew, Vthresh + 4);
+    }
+    // off
+    if (deltaV <= 0) {
+      return -deltaV > VtstHigh ? VgsOld - VtstHigh : VgsNew;
+    }
+    double Vtemp = Vthresh + .5;
+    if (VgsNew <= Vtemp) {
+      return deltaV > VtstLow ? VgsOld + VtstLow : VgsNew;
+    }
+    return Vtemp;
+  }
 
-      //      System.out.println("vgsGuess= " + VgsGuess);
-      //      System.out.println("vdsGuess= " + VdsGuess);
+  private double getVgsGuess(double[] solution, int[] slots, CircuitState state, int stateIdx) {
 
-    } else {
+    if (solution == null) { // first iteration
+      return state.get(stateIdx + INITIAL_VGS_GUESS);
+    }
+    return solution[slots[0]] - solution[slots[2]]; // gate - source
+  }
 
-      double Vg; // gate
-      double Vd; // drain
-      double Vs; // source
-      Vg = dcOperatingPointResult.getValue("V(" + nodes[0] + ")"); // gate
-      Vd = dcOperatingPointResult.getValue("V(" + nodes[1] + ")"); // drain
-      Vs = dcOperatingPointResult.getValue("V(" + nodes[2] + ")"); // source
-
-      VgsGuess = Vg - Vs;
-      VdsGuess = Vd - Vs;
-      //      System.out.println("vgsGuess= " + VgsGuess);
-      //      System.out.println("Vd= " + Vd);
-      //      System.out.println("Vs= " + Vs);
-      //      System.out.println("vdsGuess= " + VdsGuess);
-
-      // System.out.println("Vgs(" + mosfet.getID() + ")= " + VgsGuess);
-      // System.out.println("Vds(" + mosfet.getID() + ")= " + VdsGuess);
-      // System.out.println("mode(" + mosfet.getID() + ")= " + mosfet.getOperationMode(mosfet instanceof PMOS ? -1.0 * VgsGuess : VgsGuess,
-      // VdsGuess));
+  private double getVdsGuess(double[] solution, int[] slots, CircuitState state, int stateIdx) {
 
+    if (solution == null) { // first iteration
+      return state.get(stateIdx + INITIAL_VDS_GUESS);
     }
-
-    return new double[]{VgsGuess, VdsGuess};
+    return solution[slots[1]] - solution[slots[2]]; // drain - source
   }
 }
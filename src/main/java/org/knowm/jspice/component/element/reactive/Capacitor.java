@@ -26,7 +26,8 @@ import java.util.Map;
 import java.util.Set;
 
 import org.knowm.jspice.netlist.Netlist;
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CircuitMatrix;
 
 /**
  * @author timmolter
@@ -101,83 +102,67 @@ public class Capacitor extends ReactiveElement {
   }
 
   @Override
-  public void stampG(double[][] G, Netlist netList, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap,
-      String[] nodes, Double timeStep) {
+  public int[] resolveSlots(Netlist netlist, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes, Double timeStep) {
+
+    if (timeStep != null) { // transient
+      return resolveSlotsWithBranch(nodeID2ColumnIdxMap, nodes);
+    }
+    return super.resolveSlots(netlist, nodeID2ColumnIdxMap, nodes, timeStep);
+  }
+
+  @Override
+  public void stampG(CircuitMatrix G, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
     // current source
     // no contribution
 
     if (timeStep != null) {
 
-      int idxA = nodeID2ColumnIdxMap.get(nodes[0]);
-      int idxB = nodeID2ColumnIdxMap.get(nodes[1]);
-      int idxI = nodeID2ColumnIdxMap.get(getId());
-
-      // create stamp
-      double[][] stamp = new double[3][3];
-
-      stamp[0][0] = 0.0;
-      stamp[0][1] = 0.0;
-      stamp[0][2] = 1.0;
-      stamp[1][0] = 0.0;
-      stamp[1][1] = 0.0;
-      stamp[1][2] = -1.0;
+      int idxA = slots[0];
+      int idxB = slots[1];
+      int idxI = slots[2];
 
-      double g_eq = capacitance / timeStep;
-      stamp[2][0] = g_eq;
-      stamp[2][1] = -1.0 * g_eq;
-      stamp[2][2] = -1.0;
+      // I = C * dV/dt = C * alpha * V - C * beta
+      double g_eq = state.get(stateIdx) * getCompanionAlpha(state, stateIdx, timeStep);
 
       // apply stamp
-      G[idxA][idxA] += stamp[0][0];
-      G[idxA][idxB] += stamp[0][1];
-      G[idxA][idxI] += stamp[0][2];
-      G[idxB][idxA] += stamp[1][0];
-      G[idxB][idxB] += stamp[1][1];
-      G[idxB][idxI] += stamp[1][2];
-      G[idxI][idxA] += stamp[2][0];
-      G[idxI][idxB] += stamp[2][1];
-      G[idxI][idxI] += stamp[2][2];
+      G.add(idxA, idxI, 1.0);
+      G.add(idxB, idxI, -1.0);
+      G.add(idxI, idxA, g_eq);
+      G.add(idxI, idxB, -1.0 * g_eq);
+      G.add(idxI, idxI, -1.0);
     }
   }
 
   @Override
-  public void stampRHS(double[] RHS, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes,
-      Double timeStep) {
+  public void stampRHS(double[] RHS, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
     if (timeStep != null) {
 
-      double voltageA = dcOperatingPointResult.getValue("V(" + nodes[0] + ")");
-      double voltageB = dcOperatingPointResult.getValue("V(" + nodes[1] + ")");
-      double Vcapacitor = voltageA - voltageB;
-
-      // create stamp
-      double[] stamp = new double[3];
-
-      stamp[0] = 0.0;
-      stamp[1] = 0.0;
-      stamp[2] = capacitance / timeStep * Vcapacitor;
+      int idxI = slots[2];
 
       // apply stamp
-      int idxA = nodeID2ColumnIdxMap.get(nodes[0]);
-      int idxB = nodeID2ColumnIdxMap.get(nodes[1]);
-      int idxI = nodeID2ColumnIdxMap.get(getId());
-      RHS[idxA] += stamp[0];
-      RHS[idxB] += stamp[1];
-      RHS[idxI] += stamp[2];
+      RHS[idxI] += state.get(stateIdx) * getCompanionBeta(solution, slots, state, stateIdx, timeStep);
     }
   }
 
   @Override
-  public void stampSolutionVector(double[] solutionVector, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes) {
-
-    // System.out.println("nodeID2ColumnIdxMap= " + nodeID2ColumnIdxMap);
+  public void stampSolutionVector(double[] solutionVector, int[] slots) {
 
     if (getInitialCondition() != null) {
-      // System.out.println(nodes[0]);
-      int idxA = nodeID2ColumnIdxMap.get(nodes[0]);
-      // System.out.println(idxA);
-      solutionVector[idxA] = getInitialCondition();
+      solutionVector[slots[0]] = getInitialCondition();
     }
   }
+
+  @Override
+  public double getState(double[] solution, int[] slots, CircuitState state, int stateIdx) {
+
+    return solution[slots[0]] - solution[slots[1]];
+  }
+
+  @Override
+  public double getStateDerivative(double[] solution, int[] slots, CircuitState state, int stateIdx) {
+
+    return solution[slots[2]] / state.get(stateIdx);
+  }
 }
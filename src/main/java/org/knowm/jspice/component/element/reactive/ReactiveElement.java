@@ -21,9 +21,9 @@
  */
 package org.knowm.jspice.component.element.reactive;
 
-import java.util.Map;
-
 import org.knowm.jspice.component.Component;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.transientanalysis.IntegrationMethod;
 
 /**
  * @author timmolter
@@ -35,10 +35,164 @@ public abstract class ReactiveElement extends Component {
     super(id);
   }
 
-  public abstract void stampSolutionVector(double[] RHS, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes);
+  /**
+   * Puts the initial condition into the solution vector
+   *
+   * @param solutionVector - indexed by G matrix column
+   * @param slots - the slots returned by resolveSlots()
+   */
+  public abstract void stampSolutionVector(double[] solutionVector, int[] slots);
+
+  /**
+   * The quantity the companion model integrates over time, the voltage across a capacitor or the current through an inductor
+   *
+   * @param solution - indexed by G matrix column
+   * @param slots - the slots returned by resolveSlots() for a transient analysis
+   * @param state
+   * @param stateIdx
+   * @return
+   */
+  public abstract double getState(double[] solution, int[] slots, CircuitState state, int stateIdx);
+
+  /**
+   * @param solution - indexed by G matrix column
+   * @param slots - the slots returned by resolveSlots() for a transient analysis
+   * @param state - the capacitance or inductance at stateIdx
+   * @param stateIdx
+   * @return the time derivative of getState(), the capacitor current over C or the inductor voltage over L
+   */
+  public abstract double getStateDerivative(double[] solution, int[] slots, CircuitState state, int stateIdx);
+
+  /**
+   * the values of a reactive element in a CircuitState following its value: the state one time point before the one the next step starts from, the
+   * step between them, 0 if there is no history, 1 if the derivative in the solution the next step starts from can be trusted, and the ordinal of
+   * the integration method
+   */
+  private static final int HISTORY_STATE = 1;
+  private static final int HISTORY_TIME_STEP = 2;
+  private static final int IS_DERIVATIVE_KNOWN = 3;
+  private static final int INTEGRATION_METHOD = 4;
 
   private Double initialCondition = null;
 
+  /**
+   * the integration method a state starts out with
+   */
+  private IntegrationMethod integrationMethod = IntegrationMethod.BACKWARD_EULER;
+
+  @Override
+  public int getNumStates() {
+
+    return 5;
+  }
+
+  @Override
+  public void initState(CircuitState state, int stateIdx) {
+
+    super.initState(state, stateIdx);
+    state.set(stateIdx + HISTORY_STATE, 0.0);
+    state.set(stateIdx + HISTORY_TIME_STEP, 0.0);
+    state.set(stateIdx + IS_DERIVATIVE_KNOWN, 0.0);
+    state.set(stateIdx + INTEGRATION_METHOD, integrationMethod.ordinal());
+  }
+
+  /**
+   * @param state
+   * @param stateIdx
+   * @param integrationMethod - the integration method of the analysis the state belongs to
+   */
+  public void setIntegrationMethod(CircuitState state, int stateIdx, IntegrationMethod integrationMethod) {
+
+    state.set(stateIdx + INTEGRATION_METHOD, integrationMethod.ordinal());
+  }
+
+  /**
+   * Forgets the previous time points, e.g. at the start of a transient analysis or after a discontinuity. Until the next accepted step the companion
+   * model falls back to the trapezoidal rule if the derivative is known, as it is at a DC operating point, or else to backward Euler.
+   *
+   * @param state
+   * @param stateIdx
+   * @param isDerivativeKnown
+   */
+  public void resetHistory(CircuitState state, int stateIdx, boolean isDerivativeKnown) {
+
+    state.set(stateIdx + HISTORY_TIME_STEP, 0.0);
+    state.set(stateIdx + IS_DERIVATIVE_KNOWN, isDerivativeKnown ? 1.0 : 0.0);
+  }
+
+  /**
+   * Called once a time step is accepted
+   *
+   * @param previousSolution - the solution the step started from
+   * @param slots
+   * @param state
+   * @param stateIdx
+   * @param timeStep
+   */
+  public void acceptTimeStep(double[] previousSolution, int[] slots, CircuitState state, int stateIdx, double timeStep) {
+
+    state.set(stateIdx + HISTORY_STATE, getState(previousSolution, slots, state, stateIdx));
+    state.set(stateIdx + HISTORY_TIME_STEP, timeStep);
+    state.set(stateIdx + IS_DERIVATIVE_KNOWN, 1.0);
+  }
+
+  /**
+   * @param state
+   * @param stateIdx
+   * @return the integration method the next step actually uses
+   */
+  public IntegrationMethod getEffectiveIntegrationMethod(CircuitState state, int stateIdx) {
+
+    IntegrationMethod integrationMethod = IntegrationMethod.values()[(int) state.get(stateIdx + INTEGRATION_METHOD)];
+    if (integrationMethod == IntegrationMethod.BACKWARD_EULER || state.get(stateIdx + HISTORY_TIME_STEP) != 0.0) {
+      return integrationMethod;
+    }
+    return state.get(stateIdx + IS_DERIVATIVE_KNOWN) != 0.0 ? IntegrationMethod.TRAPEZOIDAL : IntegrationMethod.BACKWARD_EULER;
+  }
+
+  /**
+   * The companion models approximate the derivative of the state as x'_n = alpha * x_n - beta
+   *
+   * @param state
+   * @param stateIdx
+   * @param timeStep
+   * @return alpha, which goes into G
+   */
+  protected double getCompanionAlpha(CircuitState state, int stateIdx, double timeStep) {
+
+    switch (getEffectiveIntegrationMethod(state, stateIdx)) {
+      case TRAPEZOIDAL:
+        return 2.0 / timeStep;
+      case GEAR2:
+        double omega = timeStep / state.get(stateIdx + HISTORY_TIME_STEP);
+        return (1.0 + 2.0 * omega) / (1.0 + omega) / timeStep;
+      default:
+        return 1.0 / timeStep;
+    }
+  }
+
+  /**
+   * @param previousSolution - the solution of the previous time point
+   * @param slots
+   * @param state
+   * @param stateIdx
+   * @param timeStep
+   * @return beta, which goes into RHS
+   */
+  protected double getCompanionBeta(double[] previousSolution, int[] slots, CircuitState state, int stateIdx, double timeStep) {
+
+    double previousState = getState(previousSolution, slots, state, stateIdx);
+    switch (getEffectiveIntegrationMethod(state, stateIdx)) {
+      case TRAPEZOIDAL:
+        return 2.0 / timeStep * previousState + getStateDerivative(previousSolution, slots, state, stateIdx);
+      case GEAR2:
+        double omega = timeStep / state.get(stateIdx + HISTORY_TIME_STEP);
+        return ((1.0 + omega) * previousState - omega * omega / (1.0 + omega) * state.get(stateIdx + HISTORY_STATE)) / timeStep;
+      default:
+        return previousState / timeStep;
+    }
+  }
+
   public Double getInitialCondition() {
 
     return initialCondition;
@@ -48,4 +202,14 @@ public abstract class ReactiveElement extends Component {
 
     this.initialCondition = initialCondition;
   }
+
+  public IntegrationMethod getIntegrationMethod() {
+
+    return integrationMethod;
+  }
+
+  public void setIntegrationMethod(IntegrationMethod integrationMethod) {
+
+    this.integrationMethod = integrationMethod;
+  }
 }
@@ -0,0 +1,120 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.component.source;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.knowm.jspice.component.Component;
+import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.netlist.NetlistComponent;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+
+import net.objecthunter.exp4j.Expression;
+
+/**
+ * The expression of an arbitrary source, with its V(...) and I(...) symbols resolved against a compiled circuit, so it can be evaluated from the
+ * solution vector without any name lookups.
+ */
+public final class ArbitraryExpression {
+
+  /**
+   * exp4j expressions keep the values of their variables, so each thread evaluates a copy of its own
+   */
+  private final ThreadLocal<Expression> expression;
+  private final String[] variables;
+  private final String[] symbols;
+
+  /**
+   * Constructor
+   *
+   * @param jspiceExpression - i.e. "I(x)*I(x)"
+   */
+  public ArbitraryExpression(String jspiceExpression) {
+
+    List<String> symbolList = new ArrayList<>();
+    List<String> variableList = new ArrayList<>();
+    Expression builtExpression = ArbitraryUtils.buildExpression(jspiceExpression, symbolList, variableList);
+    this.expression = ThreadLocal.withInitial(() -> new Expression(builtExpression));
+    this.symbols = symbolList.toArray(new String[symbolList.size()]);
+    this.variables = variableList.toArray(new String[variableList.size()]);
+  }
+
+  /**
+   * Resolves V(node) to the column of the node and I(id) to the branch current column of the component. The current of a current source, which has no
+   * column, is taken from the state of the analysis.
+   *
+   * @param netlist
+   * @param nodeID2ColumnIdxMap
+   * @return the column of each symbol, or -1 - the index of the current source in the netlist if it is not read from the solution vector
+   */
+  public int[] resolve(Netlist netlist, Map<String, Integer> nodeID2ColumnIdxMap) {
+
+    int[] columns = new int[symbols.length];
+    for (int i = 0; i < symbols.length; i++) {
+
+      String name = symbols[i].substring(2, symbols[i].length() - 1);
+      Integer column = nodeID2ColumnIdxMap.get(name);
+      Component component = netlist.getComponent(name);
+      if (symbols[i].startsWith("V") && column != null) {
+        columns[i] = column;
+      } else if (symbols[i].startsWith("I") && column != null && component != null) { // branch current
+        columns[i] = column;
+      } else if (symbols[i].startsWith("I") && component instanceof DCCurrent) {
+        columns[i] = -1 - getComponentIdx(netlist, component);
+      } else {
+        throw new IllegalArgumentException("Cannot resolve " + symbols[i] + " in arbitrary expression!");
+      }
+    }
+    return columns;
+  }
+
+  private static int getComponentIdx(Netlist netlist, Component component) {
+
+    List<NetlistComponent> netlistComponents = netlist.getNetlistComponents();
+    for (int i = 0; i < netlistComponents.size(); i++) {
+      if (netlistComponents.get(i).getComponent() == component) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException(component.getId() + " is not in the netlist!");
+  }
+
+  /**
+   * @param solution - indexed by G matrix column
+   * @param slots - the slots of the source, the symbol columns starting at offset
+   * @param offset
+   * @param state - the values of the current sources
+   * @return
+   */
+  public double evaluate(double[] solution, int[] slots, int offset, CircuitState state) {
+
+    Expression expression = this.expression.get();
+    for (int i = 0; i < symbols.length; i++) {
+      int column = slots[offset + i];
+      double value = column < 0 ? state.getSweepValue(-1 - column) : solution[column];
+      expression.setVariable(variables[i], value);
+    }
+    return expression.evaluate();
+  }
+}
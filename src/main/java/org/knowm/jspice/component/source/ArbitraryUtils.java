@@ -21,55 +21,43 @@
  */
 package org.knowm.jspice.component.source;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.regex.Pattern;
 
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
-
 import net.objecthunter.exp4j.Expression;
 import net.objecthunter.exp4j.ExpressionBuilder;
 
 public class ArbitraryUtils {
 
-  public static double getArbitraryValue(DCOperatingPointResult dcOperatingPointResult) {
+  /**
+   * Converts a jspice expression into an exp4j Expression, replacing each V(...) or I(...) function with a variable
+   *
+   * @param jspiceExpression
+   * @param symbols - filled with the replaced functions, i.e. I(x)
+   * @param variables - filled with the variable each function was replaced with
+   * @return
+   */
+  public static Expression buildExpression(String jspiceExpression, List<String> symbols, List<String> variables) {
 
-    Map<String, Double> symbol2ValueMap = new HashMap<>();
     String[] symbolicReplacements = new String[]{"A", "B", "C", "D", "E", "F", "G", "H"};
 
-    String jspiceExpression = "I(x)*I(x)".replaceAll("\\s", "");
-    String exp4jExpression = jspiceExpression;
+    String exp4jExpression = jspiceExpression.replaceAll("\\s", "");
     String subFunction;
     int count = 0;
-    while ((subFunction =
-
-        getNextFunction(exp4jExpression)) != null)
-
-    {
+    while ((subFunction = getNextFunction(exp4jExpression)) != null) {
 
       exp4jExpression = exp4jExpression.replaceFirst(Pattern.quote(subFunction), symbolicReplacements[count]);
-      symbol2ValueMap.put(symbolicReplacements[count], dcOperatingPointResult.getValue(subFunction));
+      symbols.add(subFunction);
+      variables.add(symbolicReplacements[count]);
       count++;
     }
 
     ExpressionBuilder expressionBuilder = new ExpressionBuilder(exp4jExpression);
-    for (
-        Map.Entry<String, Double> stringDoubleEntry : symbol2ValueMap.entrySet())
-
-    {
-      expressionBuilder.variable(stringDoubleEntry.getKey());
-    }
-
-    Expression expression = expressionBuilder.build();
-
-    for (
-        Map.Entry<String, Double> stringDoubleEntry : symbol2ValueMap.entrySet())
-
-    {
-      expression.setVariable(stringDoubleEntry.getKey(), stringDoubleEntry.getValue());
+    for (String variable : variables) {
+      expressionBuilder.variable(variable);
     }
 
-    return expression.evaluate();
+    return expressionBuilder.build();
   }
 
   private static String getNextFunction(String remaining) {
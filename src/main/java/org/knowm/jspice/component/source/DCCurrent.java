@@ -22,14 +22,13 @@
 package org.knowm.jspice.component.source;
 
 import java.util.Collections;
-import java.util.Map;
 import java.util.Set;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
-import org.knowm.jspice.netlist.Netlist;
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CircuitMatrix;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -95,26 +94,21 @@ public class DCCurrent extends Source {
   }
 
   @Override
-  public void stampG(double[][] G, Netlist netList, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap,
-      String[] nodes, Double timeStep) {
+  public void stampG(CircuitMatrix G, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
     // Do nothing
   }
 
   @Override
-  public void stampRHS(double[] RHS, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes,
-      Double timeStep) {
+  public void stampRHS(double[] RHS, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
     //    System.out.println("dcCurrent " + dcCurrent);
 
-    int idxA = nodeID2ColumnIdxMap.get(nodes[0]);
-    int idxB = nodeID2ColumnIdxMap.get(nodes[1]);
+    int idxA = slots[0];
+    int idxB = slots[1];
 
-    double[] stamp = new double[2];
-    stamp[0] = -1 * dcCurrent;
-    stamp[1] = dcCurrent;
-
-    RHS[idxA] += stamp[0];
-    RHS[idxB] += stamp[1];
+    double current = state.get(stateIdx);
+    RHS[idxA] += -1 * current;
+    RHS[idxB] += current;
   }
 }
@@ -26,7 +26,8 @@ import java.util.Map;
 import java.util.Set;
 
 import org.knowm.jspice.netlist.Netlist;
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CircuitMatrix;
 
 /**
  * @author timmolter
@@ -89,53 +90,30 @@ public class DCVoltage extends Source {
   }
 
   @Override
-  public void stampG(double[][] G, Netlist netList, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes, Double timeStep) {
+  public int[] resolveSlots(Netlist netlist, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes, Double timeStep) {
 
-    int idxA = nodeID2ColumnIdxMap.get(nodes[0]);
-    int idxB = nodeID2ColumnIdxMap.get(nodes[1]);
-    int idxI = nodeID2ColumnIdxMap.get(getId());
+    return resolveSlotsWithBranch(nodeID2ColumnIdxMap, nodes);
+  }
 
-    // create stamp
-    double[][] stamp = new double[3][3];
+  @Override
+  public void stampG(CircuitMatrix G, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
-    stamp[0][0] = 0.0;
-    stamp[0][1] = 0.0;
-    stamp[0][2] = 1.0;
-    stamp[1][0] = 0.0;
-    stamp[1][1] = 0.0;
-    stamp[1][2] = -1.0;
-    stamp[2][0] = 1.0;
-    stamp[2][1] = -1.0;
-    stamp[2][2] = 0.0;
+    int idxA = slots[0];
+    int idxB = slots[1];
+    int idxI = slots[2];
 
     // apply stamp
-    G[idxA][idxA] += stamp[0][0];
-    G[idxA][idxB] += stamp[0][1];
-    G[idxA][idxI] += stamp[0][2];
-    G[idxB][idxA] += stamp[1][0];
-    G[idxB][idxB] += stamp[1][1];
-    G[idxB][idxI] += stamp[1][2];
-    G[idxI][idxA] += stamp[2][0];
-    G[idxI][idxB] += stamp[2][1];
-    G[idxI][idxI] += stamp[2][2];
+    G.add(idxA, idxI, 1.0);
+    G.add(idxB, idxI, -1.0);
+    G.add(idxI, idxA, 1.0);
+    G.add(idxI, idxB, -1.0);
   }
 
   @Override
-  public void stampRHS(double[] RHS, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes, Double timeStep) {
-
-    // create stamp
-    double[] stamp = new double[3];
-
-    stamp[0] = 0.0;
-    stamp[1] = 0.0;
-    stamp[2] = dcVoltage;
+  public void stampRHS(double[] RHS, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
     // apply stamp
-    int idxA = nodeID2ColumnIdxMap.get(nodes[0]);
-    int idxB = nodeID2ColumnIdxMap.get(nodes[1]);
-    int idxI = nodeID2ColumnIdxMap.get(getId());
-    RHS[idxA] += stamp[0];
-    RHS[idxB] += stamp[1];
-    RHS[idxI] += stamp[2];
+    int idxI = slots[2];
+    RHS[idxI] += state.get(stateIdx);
   }
 }
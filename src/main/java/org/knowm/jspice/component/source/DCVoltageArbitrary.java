@@ -21,10 +21,12 @@
  */
 package org.knowm.jspice.component.source;
 
+import java.util.Arrays;
 import java.util.Map;
 
 import org.knowm.jspice.component.NonlinearComponent;
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
 
 /**
  * @author timmolter
@@ -32,6 +34,7 @@ import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
 public class DCVoltageArbitrary extends DCVoltage implements NonlinearComponent {
 
   private final String expression;
+  private final ArbitraryExpression arbitraryExpression;
 
   /**
    * Constructor
@@ -42,6 +45,7 @@ public class DCVoltageArbitrary extends DCVoltage implements NonlinearComponent
 
     super(id, 0);
     this.expression = expression;
+    this.arbitraryExpression = new ArbitraryExpression(expression);
   }
 
   @Override
@@ -51,29 +55,30 @@ public class DCVoltageArbitrary extends DCVoltage implements NonlinearComponent
   }
 
   @Override
-  public void stampRHS(double[] RHS, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes, Double timeStep) {
+  public int[] resolveSlots(Netlist netlist, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes, Double timeStep) {
 
-    // create stamp
-    double[] stamp = new double[3];
+    // the node (and branch) slots, followed by the columns of the symbols in the expression
+    int[] slots = super.resolveSlots(netlist, nodeID2ColumnIdxMap, nodes, timeStep);
+    int[] symbolSlots = arbitraryExpression.resolve(netlist, nodeID2ColumnIdxMap);
+    int[] allSlots = Arrays.copyOf(slots, slots.length + symbolSlots.length);
+    System.arraycopy(symbolSlots, 0, allSlots, slots.length, symbolSlots.length);
+    return allSlots;
+  }
 
-    stamp[0] = 0.0;
-    stamp[1] = 0.0;
+  @Override
+  public void stampRHS(double[] RHS, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
     double value = 1.0;
-    if (dcOperatingPointResult != null) {
-      value = ArbitraryUtils.getArbitraryValue(dcOperatingPointResult);
+    if (solution != null) {
+      value = arbitraryExpression.evaluate(solution, slots, 3, state);
     }
-    stamp[2] = value;
 
     // apply stamp
-    int idxA = nodeID2ColumnIdxMap.get(nodes[0]);
-    int idxB = nodeID2ColumnIdxMap.get(nodes[1]);
-    int idxI = nodeID2ColumnIdxMap.get(getId());
-    RHS[idxA] += stamp[0];
-    RHS[idxB] += stamp[1];
-    RHS[idxI] += stamp[2];
+    int idxI = slots[2];
+    RHS[idxI] += value;
 
-    setSweepValue(value);
+    // the value of this iteration, for the initial guesses and the output
+    state.set(stateIdx, value);
   }
 
 }
@@ -22,11 +22,10 @@
 package org.knowm.jspice.component.source;
 
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
-import org.knowm.jspice.netlist.Netlist;
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CircuitMatrix;
 
 /**
  * @author timmolter
@@ -86,60 +85,40 @@ public class VCCS extends Source {
   }
 
   @Override
-  public void stampG(double[][] G, Netlist netList, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes, Double timeStep) {
-
-    int idxA = nodeID2ColumnIdxMap.get(nodes[0]);
-    int idxB = nodeID2ColumnIdxMap.get(nodes[1]);
-    int idxAControl = nodeID2ColumnIdxMap.get(nodes[2]);
-    int idxBControl = nodeID2ColumnIdxMap.get(nodes[3]);
-
-    // create stamp
-    double[][] stamp = new double[4][4];
-
-    stamp[0][0] = 0.0;
-    stamp[0][1] = 0.0;
-    stamp[0][2] = transconductance;
-    stamp[0][3] = -1.0 * transconductance;
-    stamp[1][0] = 0.0;
-    stamp[1][1] = 0.0;
-    stamp[1][2] = -1.0 * transconductance;
-    stamp[1][3] = transconductance;
-    stamp[2][0] = 0.0;
-    stamp[2][1] = 0.0;
-    stamp[2][2] = 0.0;
-    stamp[2][3] = 0.0;
-    stamp[3][0] = 0.0;
-    stamp[3][1] = 0.0;
-    stamp[3][2] = 0.0;
-    stamp[3][3] = 0.0;
+  public void stampG(CircuitMatrix G, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
+
+    int idxA = slots[0];
+    int idxB = slots[1];
+    int idxAControl = slots[2];
+    int idxBControl = slots[3];
+
+    double transconductance = state.get(stateIdx);
 
     // apply stamp
-    G[idxA][idxA] += stamp[0][0];
-    G[idxA][idxB] += stamp[0][1];
-    G[idxA][idxAControl] += stamp[0][2];
-    G[idxA][idxBControl] += stamp[0][3];
-    G[idxB][idxA] += stamp[1][0];
-    G[idxB][idxB] += stamp[1][1];
-    G[idxB][idxAControl] += stamp[1][2];
-    G[idxB][idxBControl] += stamp[1][3];
-    G[idxAControl][idxA] += stamp[2][0];
-    G[idxAControl][idxB] += stamp[2][1];
-    G[idxAControl][idxAControl] += stamp[2][2];
-    G[idxAControl][idxBControl] += stamp[2][3];
-    G[idxBControl][idxA] += stamp[3][0];
-    G[idxBControl][idxB] += stamp[3][1];
-    G[idxBControl][idxAControl] += stamp[3][2];
-    G[idxBControl][idxBControl] += stamp[3][3];
+    G.add(idxA, idxAControl, transconductance);
+    G.add(idxA, idxBControl, -1.0 * transconductance);
+    G.add(idxB, idxAControl, -1.0 * transconductance);
+    G.add(idxB, idxBControl, transconductance);
   }
 
   @Override
-  public void stampRHS(double[] RHS, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes, Double timeStep) {
+  public void stampRHS(double[] RHS, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
     // Do nothing
   }
 
   public double getCurrent(double voltageDiff) {
 
+    return getCurrent(voltageDiff, transconductance);
+  }
+
+  /**
+   * @param voltageDiff
+   * @param transconductance - the transconductance of an analysis, see CircuitState
+   * @return
+   */
+  public double getCurrent(double voltageDiff, double transconductance) {
+
     return -1.0 * voltageDiff * transconductance;
   }
 }
@@ -26,7 +26,8 @@ import java.util.Map;
 import java.util.Set;
 
 import org.knowm.jspice.netlist.Netlist;
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CircuitMatrix;
 
 /**
  * @author timmolter
@@ -89,73 +90,32 @@ public class VCVS extends Source {
   }
 
   @Override
-  public void stampG(double[][] G, Netlist netList, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes, Double timeStep) {
-
-    int idxA = nodeID2ColumnIdxMap.get(nodes[0]);
-    int idxB = nodeID2ColumnIdxMap.get(nodes[1]);
-    int idxAControl = nodeID2ColumnIdxMap.get(nodes[2]);
-    int idxBControl = nodeID2ColumnIdxMap.get(nodes[3]);
-    int idxI = nodeID2ColumnIdxMap.get(getId());
-
-    // create stamp
-    double[][] stamp = new double[5][5];
-
-    stamp[0][0] = 0.0;
-    stamp[0][1] = 0.0;
-    stamp[0][2] = 0.0;
-    stamp[0][3] = 0.0;
-    stamp[0][4] = 1.0;
-    stamp[1][0] = 0.0;
-    stamp[1][1] = 0.0;
-    stamp[1][2] = 0.0;
-    stamp[1][3] = 0.0;
-    stamp[1][4] = -1.0;
-    stamp[2][0] = 0.0;
-    stamp[2][1] = 0.0;
-    stamp[2][2] = 0.0;
-    stamp[2][3] = 0.0;
-    stamp[2][4] = 0.0;
-    stamp[3][0] = 0.0;
-    stamp[3][1] = 0.0;
-    stamp[3][2] = 0.0;
-    stamp[3][3] = 0.0;
-    stamp[3][4] = 0.0;
-    stamp[4][0] = 1.0;
-    stamp[4][1] = -1.0;
-    stamp[4][2] = -1 * gain;
-    stamp[4][3] = gain;
-    stamp[4][4] = 0.0;
+  public int[] resolveSlots(Netlist netlist, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes, Double timeStep) {
+
+    return resolveSlotsWithBranch(nodeID2ColumnIdxMap, nodes);
+  }
+
+  @Override
+  public void stampG(CircuitMatrix G, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
+
+    int idxA = slots[0];
+    int idxB = slots[1];
+    int idxAControl = slots[2];
+    int idxBControl = slots[3];
+    int idxI = slots[4];
 
     // apply stamp
-    G[idxA][idxA] += stamp[0][0];
-    G[idxA][idxB] += stamp[0][1];
-    G[idxA][idxAControl] += stamp[0][2];
-    G[idxA][idxBControl] += stamp[0][3];
-    G[idxA][idxI] += stamp[0][4];
-    G[idxB][idxA] += stamp[1][0];
-    G[idxB][idxB] += stamp[1][1];
-    G[idxB][idxAControl] += stamp[1][2];
-    G[idxB][idxBControl] += stamp[1][3];
-    G[idxB][idxI] += stamp[1][4];
-    G[idxAControl][idxA] += stamp[2][0];
-    G[idxAControl][idxB] += stamp[2][1];
-    G[idxAControl][idxAControl] += stamp[2][2];
-    G[idxAControl][idxBControl] += stamp[2][3];
-    G[idxAControl][idxI] += stamp[2][4];
-    G[idxBControl][idxA] += stamp[3][0];
-    G[idxBControl][idxB] += stamp[3][1];
-    G[idxBControl][idxAControl] += stamp[3][2];
-    G[idxBControl][idxBControl] += stamp[3][3];
-    G[idxBControl][idxI] += stamp[3][4];
-    G[idxI][idxA] += stamp[4][0];
-    G[idxI][idxB] += stamp[4][1];
-    G[idxI][idxAControl] += stamp[4][2];
-    G[idxI][idxBControl] += stamp[4][3];
-    G[idxI][idxI] += stamp[4][4];
+    G.add(idxA, idxI, 1.0);
+    G.add(idxB, idxI, -1.0);
+    G.add(idxI, idxA, 1.0);
+    G.add(idxI, idxB, -1.0);
+    double gain = state.get(stateIdx);
+    G.add(idxI, idxAControl, -1 * gain);
+    G.add(idxI, idxBControl, gain);
   }
 
   @Override
-  public void stampRHS(double[] RHS, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, String[] nodes, Double timeStep) {
+  public void stampRHS(double[] RHS, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
     // Do nothing
   }
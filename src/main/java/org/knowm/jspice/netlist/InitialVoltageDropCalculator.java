@@ -23,6 +23,9 @@ package org.knowm.jspice.netlist;
 
 import java.util.List;
 
+import org.knowm.jspice.component.Component;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+
 /**
  * This class is used to help set Vgs on MOSFETs in a circuit in order to initialize the transistors better than random guessing.
  *
@@ -41,6 +44,21 @@ public class InitialVoltageDropCalculator {
    */
   public static double attemptToDetermineVgs(Netlist netlist, String gateNode, String sourceNode, double defaultValue, boolean isNMOS) {
 
+    return attemptToDetermineVgs(netlist, gateNode, sourceNode, defaultValue, isNMOS, null);
+  }
+
+  /**
+   * @param netlist
+   * @param gateNode
+   * @param sourceNode
+   * @param defaultValue
+   * @param isNMOS
+   * @param state - the state the voltages of the sources are read from, or null to read them from the sources themselves
+   * @return
+   */
+  public static double attemptToDetermineVgs(Netlist netlist, String gateNode, String sourceNode, double defaultValue, boolean isNMOS,
+      CircuitState state) {
+
     //    System.out.println("isNMOS " + isNMOS);
     //    System.out.println("gate= " + gateNode);
     //    System.out.println("source= " + sourceNode);
@@ -56,12 +74,12 @@ public class InitialVoltageDropCalculator {
       //      System.out.println(dcVoltageSource.getNodes()[0]);
       //      System.out.println(dcVoltageSource.getNodes()[1]);
       if (dcVoltageSource.getNodesAsArray()[0].equals(gateNode)) {
-        Vg = dcVoltageSource.getComponent().getSweepableValue();
+        Vg = getVoltage(dcVoltageSource.getComponent(), state);
         //        System.out.println("Vg " + Vg);
 
       }
       if (dcVoltageSource.getNodesAsArray()[0].equals(sourceNode)) {
-        Vs = dcVoltageSource.getComponent().getSweepableValue();
+        Vs = getVoltage(dcVoltageSource.getComponent(), state);
         //        System.out.println("Vs " + Vs);
       }
     }
@@ -90,4 +108,12 @@ public class InitialVoltageDropCalculator {
 
     return initialVoltage;
   }
+
+  private static double getVoltage(Component dcVoltageSource, CircuitState state) {
+
+    if (state == null) {
+      return dcVoltageSource.getSweepableValue();
+    }
+    return state.getSweepValue(state.getComponentIdx(dcVoltageSource.getId()));
+  }
 }
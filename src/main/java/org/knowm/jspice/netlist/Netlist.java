@@ -23,6 +23,7 @@ package org.knowm.jspice.netlist;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -38,6 +39,7 @@ import org.knowm.jspice.component.element.memristor.Memristor;
 import org.knowm.jspice.component.element.nonlinear.MOSFET;
 import org.knowm.jspice.component.element.reactive.ReactiveElement;
 import org.knowm.jspice.simulate.SimulationConfig;
+import org.knowm.jspice.simulate.dcoperatingpoint.CompiledCircuit;
 import org.knowm.jspice.simulate.dcoperatingpoint.DCOPConfig;
 import org.knowm.konfig.Konfigurable;
 
@@ -150,10 +152,26 @@ public class Netlist implements Konfigurable {
   @JsonIgnore
   private boolean isInitialConditions = false;
 
+  /**
+   * The compiled circuits, DC and transient (which has the extra reactive element branches), built lazily and dropped when the topology changes
+   */
+  @JsonIgnore
+  private CompiledCircuit compiledCircuitDC;
+
+  @JsonIgnore
+  private CompiledCircuit compiledCircuitTransient;
+
   private String sourceFile;
   private String resultsFile;
   private String resultsFormat;
 
+  /**
+   * The signals to record, i.e. the probes of a .PRINT line. Null or empty for all of them.
+   */
+  @Nullable
+  @JsonProperty("print")
+  private List<String> printProbes;
+
   /**
    * no-args Constructor - need this!
    */
@@ -175,6 +193,56 @@ public class Netlist implements Konfigurable {
     this.sourceFile = netlistBuilder.sourceFile;
     this.resultsFile = netlistBuilder.resultsFile;
     this.resultsFormat = netlistBuilder.resultsFormat;
+    this.printProbes = netlistBuilder.printProbes;
+  }
+
+  /**
+   * Deep copy this netlist: every netlist component and component is copied with its parameters and state, so the copy can be changed or simulated
+   * without changing this one. The type lists and the ID map are rebuilt from the lists of this netlist, skipping the dispatch and checks of
+   * addNetListComponent. The copy is a plain Netlist and compiles its circuit again the first time it is simulated.
+   *
+   * @return
+   */
+  public Netlist copy() {
+
+    Netlist netlist = new Netlist();
+
+    Map<NetlistComponent, NetlistComponent> copies = new IdentityHashMap<>(2 * netlistComponents.size());
+    for (NetlistComponent netlistComponent : netlistComponents) {
+      NetlistComponent copy = netlistComponent.copy();
+      copies.put(netlistComponent, copy);
+      netlist.netlistComponents.add(copy);
+      netlist.componentIDMap.put(copy.getComponent().getId(), copy.getComponent());
+    }
+
+    copyAll(netListResistors, netlist.netListResistors, copies);
+    copyAll(netListDCVoltageSources, netlist.netListDCVoltageSources, copies);
+    copyAll(netListDCCurrentSources, netlist.netListDCCurrentSources, copies);
+    copyAll(netListDiodes, netlist.netListDiodes, copies);
+    copyAll(netListMOSFETs, netlist.netListMOSFETs, copies);
+    copyAll(netListCapacitors, netlist.netListCapacitors, copies);
+    copyAll(netListInductors, netlist.netListInductors, copies);
+    copyAll(netListMemristors, netlist.netListMemristors, copies);
+    copyAll(netListVCCSs, netlist.netListVCCSs, copies);
+    copyAll(netListVCVSs, netlist.netListVCVSs, copies);
+    copyAll(netListDCVoltageArbitrarys, netlist.netListDCVoltageArbitrarys, copies);
+    copyAll(netListDCCurrentArbitrarys, netlist.netListDCCurrentArbitrarys, copies);
+
+    netlist.isNonlinearCircuit = isNonlinearCircuit;
+    netlist.isInitialConditions = isInitialConditions;
+    netlist.simulationConfig = simulationConfig == null ? null : simulationConfig.copy();
+    netlist.sourceFile = sourceFile;
+    netlist.resultsFile = resultsFile;
+    netlist.resultsFormat = resultsFormat;
+    netlist.printProbes = printProbes == null ? null : new ArrayList<>(printProbes);
+    return netlist;
+  }
+
+  private static void copyAll(List<NetlistComponent> from, List<NetlistComponent> to, Map<NetlistComponent, NetlistComponent> copies) {
+
+    for (NetlistComponent netlistComponent : from) {
+      to.add(copies.get(netlistComponent));
+    }
   }
 
   /**
@@ -214,6 +282,8 @@ public class Netlist implements Konfigurable {
     //    netListComponents.add(netListComponent);
 
     netlistComponents.add(netListComponent);
+    compiledCircuitDC = null;
+    compiledCircuitTransient = null;
     componentIDMap.put(netListComponent.getComponent().getId(), netListComponent.getComponent());
 
     // add to Resistor list
@@ -599,6 +669,29 @@ public class Netlist implements Konfigurable {
     }
   }
 
+  /**
+   * Get the index-resolved circuit, compiling (and verifying) the netlist the first time it is requested after a change to its topology. Analyses
+   * running at the same time share it.
+   *
+   * @param timeStep - null for a DC operating point
+   * @return
+   */
+  @JsonIgnore
+  public synchronized CompiledCircuit getCompiledCircuit(Double timeStep) {
+
+    if (timeStep == null) {
+      if (compiledCircuitDC == null) {
+        compiledCircuitDC = CompiledCircuit.compile(this, null);
+      }
+      return compiledCircuitDC;
+    } else {
+      if (compiledCircuitTransient == null) {
+        compiledCircuitTransient = CompiledCircuit.compile(this, timeStep);
+      }
+      return compiledCircuitTransient;
+    }
+  }
+
   @JsonIgnore
   public boolean isNonlinearCircuit() {
 
@@ -660,4 +753,15 @@ public class Netlist implements Konfigurable {
   public void setResultsFormat(String resultsFormat) {
     this.resultsFormat = resultsFormat;
   }
+
+  public List<String> getPrintProbes() {
+    return printProbes;
+  }
+
+  /**
+   * @param printProbes - the signals to record, i.e. V(2), I(R1), R(M1) or V(2,3). Null or empty for all of them.
+   */
+  public void setPrintProbes(List<String> printProbes) {
+    this.printProbes = printProbes;
+  }
 }
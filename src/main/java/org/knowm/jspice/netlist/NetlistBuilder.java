@@ -22,6 +22,7 @@
 package org.knowm.jspice.netlist;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.knowm.jspice.simulate.SimulationConfig;
@@ -48,6 +49,7 @@ public class NetlistBuilder {
   String sourceFile;
   String resultsFile;
   String resultsFormat;
+  List<String> printProbes;
 
   public NetlistBuilder addNetlistResistor(String id, double resistance, String... nodes) {
 
@@ -137,6 +139,18 @@ public class NetlistBuilder {
     return this;
   }
 
+  /**
+   * @param printProbes - the signals to record, i.e. V(2), I(R1), R(M1) or V(2,3)
+   * @return
+   */
+  public NetlistBuilder addPrintProbes(String... printProbes) {
+    if (this.printProbes == null) {
+      this.printProbes = new ArrayList<>();
+    }
+    this.printProbes.addAll(Arrays.asList(printProbes));
+    return this;
+  }
+
   public Netlist build() {
 
     netlist = new Netlist(this);
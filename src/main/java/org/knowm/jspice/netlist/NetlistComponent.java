@@ -30,7 +30,8 @@ import javax.validation.constraints.NotNull;
 
 import org.apache.commons.lang3.StringUtils;
 import org.knowm.jspice.component.Component;
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CircuitMatrix;
 import org.knowm.konfig.Konfigurable;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -51,7 +52,7 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
                   @Type(value = NetlistMSSMemristor.class, name = "mss_mem"), @Type(value = NetlistMMSSMemristor.class, name = "mmss_mem"),
                   @Type(value = NetlistJoglekarMemristor.class, name = "jog_mem")})
 @JsonPropertyOrder({"nodes"})
-public class NetlistComponent implements Konfigurable {
+public class NetlistComponent implements Konfigurable, Cloneable {
 
   @JsonIgnore
   private Component component;
@@ -103,6 +104,24 @@ public class NetlistComponent implements Konfigurable {
     this.nodes = nodes;
   }
 
+  /**
+   * Copy this netlist component together with its component. The copy is of the same class as this one.
+   *
+   * @return
+   */
+  public NetlistComponent copy() {
+
+    NetlistComponent netlistComponent;
+    try {
+      netlistComponent = (NetlistComponent) super.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+    netlistComponent.component = component.copy();
+    netlistComponent.nodesAsArray = nodesAsArray.clone();
+    return netlistComponent;
+  }
+
   public Set<String> getGMatrixColumnIDs(Double timeStep) {
 
     return component.getGMatrixColumnIDs(nodesAsArray, timeStep);
@@ -113,15 +132,24 @@ public class NetlistComponent implements Konfigurable {
     component.modifyUnknowmQuantitiesVector(nodeIDs, nodesAsArray, timeStep);
   }
 
-  public void stampG(double[][] G, Netlist netList, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap,
-      Double timeStep) {
+  public int[] resolveSlots(Netlist netList, Map<String, Integer> nodeID2ColumnIdxMap, Double timeStep) {
+
+    return component.resolveSlots(netList, nodeID2ColumnIdxMap, nodesAsArray, timeStep);
+  }
+
+  public void prepareInitialGuess(Netlist netList, CircuitState state, int stateIdx) {
+
+    component.prepareInitialGuess(netList, nodesAsArray, state, stateIdx);
+  }
+
+  public void stampG(CircuitMatrix G, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
-    component.stampG(G, netList, dcOperatingPointResult, nodeID2ColumnIdxMap, nodesAsArray, timeStep);
+    component.stampG(G, solution, slots, state, stateIdx, timeStep);
   }
 
-  public void stampRHS(double[] RHS, DCOperatingPointResult dcOperatingPointResult, Map<String, Integer> nodeID2ColumnIdxMap, Double timeStep) {
+  public void stampRHS(double[] RHS, double[] solution, int[] slots, CircuitState state, int stateIdx, Double timeStep) {
 
-    component.stampRHS(RHS, dcOperatingPointResult, nodeID2ColumnIdxMap, nodesAsArray, timeStep);
+    component.stampRHS(RHS, solution, slots, state, stateIdx, timeStep);
   }
 
   public Component getComponent() {
@@ -183,6 +183,10 @@ public class SPICENetlistBuilder {
             //            System.out.println("resFilename: " + resFilename);
             netlistBuilder.setResultsFile(resFilename);
           }
+          // the probes, i.e. I(VPr1) v(Vin)
+          if (printItem.matches("[VvIiRr]\\(.+\\)")) {
+            netlistBuilder.addPrintProbes(printItem);
+          }
         }
       }
 
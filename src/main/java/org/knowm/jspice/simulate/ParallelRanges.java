@@ -0,0 +1,138 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the indices 0 to n - 1 of the items of an analysis, i.e. sweep segments or Monte Carlo runs, into contiguous ranges, one per thread, and
+ * runs them on a ForkJoinPool.
+ */
+public final class ParallelRanges {
+
+  /**
+   * Solves a contiguous range of items on one thread
+   */
+  public interface RangeTask {
+
+    /**
+     * @param from - the first item
+     * @param to - one past the last item
+     * @return the number of Newton iterations of the items
+     */
+    long run(int from, int to);
+  }
+
+  private ParallelRanges() {
+
+  }
+
+  /**
+   * Runs the ranges on a ForkJoinPool of parallelism threads and waits for all of them. A single range runs on the calling thread.
+   *
+   * @param parallelism - the number of threads
+   * @param numItems
+   * @param rangeTask
+   * @return the number of Newton iterations of all the ranges
+   */
+  public static long run(int parallelism, int numItems, RangeTask rangeTask) {
+
+    int numRanges = Math.min(parallelism, numItems);
+    if (numRanges <= 1) {
+      return numItems == 0 ? 0 : rangeTask.run(0, numItems);
+    }
+
+    long[] rangeIterations = new long[numRanges];
+    List<Callable<Void>> workers = new ArrayList<>(numRanges);
+    for (int r = 0; r < numRanges; r++) {
+      int range = r;
+      workers.add(() -> {
+
+        rangeIterations[range] = rangeTask.run(getStart(range, numItems, numRanges), getStart(range + 1, numItems, numRanges));
+        return null;
+      });
+    }
+    invokeAll(parallelism, workers);
+
+    long numIterations = 0;
+    for (long iterations : rangeIterations) {
+      numIterations += iterations;
+    }
+    return numIterations;
+  }
+
+  /**
+   * The lines of a sweep are split into contiguous segments of points, so that continuation still applies within a segment. The segments of all
+   * lines, line by line, are the items run() splits into ranges.
+   *
+   * @param parallelism - the number of threads
+   * @param numLines
+   * @param lineLength - the number of points of each line
+   * @return enough segments per line to keep all threads busy, even if there are fewer lines than threads
+   */
+  public static int getNumSegmentsPerLine(int parallelism, int numLines, int lineLength) {
+
+    return Math.max(1, Math.min(lineLength, (parallelism + numLines - 1) / numLines));
+  }
+
+  /**
+   * @param part
+   * @param numItems
+   * @param numParts
+   * @return the first item of a part when the items are split into numParts contiguous parts of nearly equal size, numItems for part numParts
+   */
+  public static int getStart(int part, int numItems, int numParts) {
+
+    return (int) ((long) part * numItems / numParts);
+  }
+
+  /**
+   * Runs the workers on a ForkJoinPool of parallelism threads and waits for all of them
+   *
+   * @param parallelism
+   * @param workers
+   */
+  private static void invokeAll(int parallelism, List<Callable<Void>> workers) {
+
+    ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+    try {
+      for (Future<Void> future : forkJoinPool.invokeAll(workers)) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the workers!", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      forkJoinPool.shutdown();
+    }
+  }
+}
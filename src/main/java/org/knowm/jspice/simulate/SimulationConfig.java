@@ -35,6 +35,17 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
 @JsonSubTypes({@Type(value = DCOPConfig.class, name = "dcop"), @Type(value = DCSweepConfig.class, name = "sweep"),
                   @Type(value = TransientConfig.class, name = "trans")})
-public abstract class SimulationConfig implements Konfigurable {
+public abstract class SimulationConfig implements Konfigurable, Cloneable {
 
+  /**
+   * @return a copy of this config, which can be changed without changing this one
+   */
+  public SimulationConfig copy() {
+
+    try {
+      return (SimulationConfig) super.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
 }
\ No newline at end of file
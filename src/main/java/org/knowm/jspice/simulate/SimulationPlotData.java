@@ -21,6 +21,7 @@
  */
 package org.knowm.jspice.simulate;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -29,6 +30,12 @@ public final class SimulationPlotData {
   private final List<Number> xData;
   private final List<Number> yData;
 
+  /**
+   * the table this is a view of, or null if the data is in the lists
+   */
+  private final TimeSeriesTable timeSeriesTable;
+  private final int columnIdx;
+
   /**
    * Constructor
    */
@@ -36,6 +43,57 @@ public final class SimulationPlotData {
 
     this.xData = new ArrayList<>();
     this.yData = new ArrayList<>();
+    this.timeSeriesTable = null;
+    this.columnIdx = -1;
+  }
+
+  /**
+   * Constructor - a read only view of one column of a TimeSeriesTable, the values are only boxed when a list element is read
+   *
+   * @param timeSeriesTable
+   * @param columnIdx
+   */
+  public SimulationPlotData(final TimeSeriesTable timeSeriesTable, final int columnIdx) {
+
+    this.xData = new AbstractList<Number>() {
+
+      @Override
+      public Number get(int index) {
+
+        checkIndex(index, timeSeriesTable.getSize());
+        return timeSeriesTable.getTime(index);
+      }
+
+      @Override
+      public int size() {
+
+        return timeSeriesTable.getSize();
+      }
+    };
+    this.yData = new AbstractList<Number>() {
+
+      @Override
+      public Number get(int index) {
+
+        checkIndex(index, timeSeriesTable.getSize());
+        return timeSeriesTable.getValue(columnIdx, index);
+      }
+
+      @Override
+      public int size() {
+
+        return timeSeriesTable.getSize();
+      }
+    };
+    this.timeSeriesTable = timeSeriesTable;
+    this.columnIdx = columnIdx;
+  }
+
+  private static void checkIndex(int index, int size) {
+
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
   }
 
   public List<Number> getxData() {
@@ -48,6 +106,37 @@ public final class SimulationPlotData {
     return yData;
   }
 
+  /**
+   * @return the x values as primitives, e.g. for XChart
+   */
+  public double[] getxValues() {
+
+    if (timeSeriesTable != null) {
+      return timeSeriesTable.getTimeColumn();
+    }
+    return toArray(xData);
+  }
+
+  /**
+   * @return the y values as primitives, e.g. for XChart
+   */
+  public double[] getyValues() {
+
+    if (timeSeriesTable != null) {
+      return timeSeriesTable.getColumn(columnIdx);
+    }
+    return toArray(yData);
+  }
+
+  private static double[] toArray(List<Number> data) {
+
+    double[] values = new double[data.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = data.get(i).doubleValue();
+    }
+    return values;
+  }
+
   @Override
   public String toString() {
 
@@ -54,7 +54,7 @@ public class SimulationPlotter {
       String observableValueID = entrySet.getKey();
       //      yLabelsSet.add(observableValueID.indexOf(" ") == -1 ? observableValueID : observableValueID.substring(0, observableValueID.indexOf(" ")));
       SimulationPlotData simulationData = entrySet.getValue();
-      chart.addSeries(observableValueID, simulationData.getxData(), simulationData.getyData());
+      chart.addSeries(observableValueID, simulationData.getxValues(), simulationData.getyValues());
     }
     //    chart.setYAxisTitle(Arrays.toString(yLabelsSet.toArray()));
 
@@ -83,7 +83,7 @@ public class SimulationPlotter {
             valueToPlot + " is not a valid node value! Please choose from these values: " + simulationResult.getSimulationPlotDataMap().keySet());
       }
 
-      chart.addSeries(valueToPlot, simulationData.getxData(), simulationData.getyData());
+      chart.addSeries(valueToPlot, simulationData.getxValues(), simulationData.getyValues());
     }
 
     new SwingWrapper<>(chart).displayChart();
@@ -109,7 +109,7 @@ public class SimulationPlotter {
       SimulationPlotData simulationData = entrySet.getValue();
       XYChart chart = new XYChart(width, height);
       chart.setYAxisTitle(observableValueID);
-      XYSeries series = chart.addSeries(observableValueID, simulationData.getxData(), simulationData.getyData());
+      XYSeries series = chart.addSeries(observableValueID, simulationData.getxValues(), simulationData.getyValues());
       series.setMarker(SeriesMarkers.NONE);
       chart.getStyler().setLegendVisible(false);
       charts.add(chart);
@@ -145,7 +145,7 @@ public class SimulationPlotter {
       XYChart chart = new XYChart(width, height);
       chart.setXAxisTitle(simulationResult.getxDataLabel());
       chart.setYAxisTitle(valueToPlot);
-      XYSeries series = chart.addSeries(valueToPlot, simulationData.getxData(), simulationData.getyData());
+      XYSeries series = chart.addSeries(valueToPlot, simulationData.getxValues(), simulationData.getyValues());
       series.setMarker(SeriesMarkers.NONE);
       chart.getStyler().setLegendVisible(false);
       charts.add(chart);
@@ -180,7 +180,7 @@ public class SimulationPlotter {
           valuesToPlot[1] + " is not a valid node value! Please choose from these values: " + simulationResult.getSimulationPlotDataMap().keySet());
     }
 
-    XYSeries series = chart.addSeries("X/Y", simulationDataX.getyData(), simulationDataY.getyData());
+    XYSeries series = chart.addSeries("X/Y", simulationDataX.getyValues(), simulationDataY.getyValues());
     series.setMarker(SeriesMarkers.NONE);
 
     chart.getStyler().setLegendVisible(false);
@@ -32,7 +32,12 @@ public class SimulationResult {
   private final String xDataLabel;
   private final String yDataLabel;
   private final Map<String, SimulationPlotData> simulationDataMap;
-  
+
+  /**
+   * the columns behind simulationDataMap, null if the result was not stored column wise
+   */
+  private final TimeSeriesTable timeSeriesTable;
+
   /**
    * Constructor
    *
@@ -44,6 +49,22 @@ public class SimulationResult {
     this.xDataLabel = xDataLabel;
     this.yDataLabel = yDataLabel;
     this.simulationDataMap = simulationDataMap;
+    this.timeSeriesTable = null;
+  }
+
+  /**
+   * Constructor
+   *
+   * @param xDataLabel
+   * @param yDataLabel
+   * @param timeSeriesTable
+   */
+  public SimulationResult(String xDataLabel, String yDataLabel, TimeSeriesTable timeSeriesTable) {
+
+    this.xDataLabel = xDataLabel;
+    this.yDataLabel = yDataLabel;
+    this.simulationDataMap = timeSeriesTable.toSimulationPlotDataMap();
+    this.timeSeriesTable = timeSeriesTable;
   }
 
 
@@ -62,6 +83,14 @@ public class SimulationResult {
     return simulationDataMap;
   }
 
+  /**
+   * @return the primitive columns of a transient analysis, or null
+   */
+  public TimeSeriesTable getTimeSeriesTable() {
+
+    return timeSeriesTable;
+  }
+
   @Override
   public String toString() {
 
@@ -0,0 +1,50 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate;
+
+/**
+ * Receives the samples of an analysis as they are produced, so a run does not have to keep its whole trace in heap. The in memory
+ * SimulationResult is built by a TimeSeriesTableSink, other sinks can write to a file or feed a live consumer.
+ */
+public interface SimulationResultSink {
+
+  /**
+   * Called once before the first sample
+   *
+   * @param xDataLabel - the independent variable, i.e. time or the swept value
+   * @param labels - the signals, in the order of the values passed to accept()
+   */
+  void start(String xDataLabel, String[] labels);
+
+  /**
+   * Called for each accepted sample. The values array is reused by the analysis, so a sink that keeps it must copy it.
+   *
+   * @param x - the time or sweep value
+   * @param values - one per label
+   */
+  void accept(double x, double[] values);
+
+  /**
+   * Called once after the last sample
+   */
+  void end();
+}
@@ -0,0 +1,161 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Column oriented storage of time series: one time column shared by all signals, and one primitive column per signal, so a sample costs 8 bytes
+ * instead of a boxed Number in a List
+ */
+public final class TimeSeriesTable {
+
+  private final String[] labels;
+  private final Map<String, Integer> label2ColumnIdxMap;
+
+  private double[] time;
+  private final double[][] columns;
+  private int size;
+
+  /**
+   * Constructor
+   *
+   * @param labels - the signals, one column each
+   * @param initialCapacity - the expected number of rows, the columns grow as needed
+   */
+  public TimeSeriesTable(String[] labels, int initialCapacity) {
+
+    this.labels = labels.clone();
+    this.label2ColumnIdxMap = new HashMap<>();
+    for (int i = 0; i < labels.length; i++) {
+      label2ColumnIdxMap.put(labels[i], i);
+    }
+    int capacity = Math.max(initialCapacity, 16);
+    this.time = new double[capacity];
+    this.columns = new double[labels.length][capacity];
+  }
+
+  /**
+   * Appends a row
+   *
+   * @param t
+   * @param values - one per column, in the order of the labels
+   */
+  public void addRow(double t, double[] values) {
+
+    if (size == time.length) {
+      int capacity = time.length + (time.length >> 1);
+      time = Arrays.copyOf(time, capacity);
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = Arrays.copyOf(columns[i], capacity);
+      }
+    }
+    time[size] = t;
+    for (int i = 0; i < columns.length; i++) {
+      columns[i][size] = values[i];
+    }
+    size++;
+  }
+
+  /**
+   * @return the number of rows
+   */
+  public int getSize() {
+
+    return size;
+  }
+
+  public String[] getLabels() {
+
+    return labels.clone();
+  }
+
+  public int getNumColumns() {
+
+    return labels.length;
+  }
+
+  /**
+   * @param label
+   * @return the column index of the signal, or -1 if there is no such signal
+   */
+  public int getColumnIdx(String label) {
+
+    Integer columnIdx = label2ColumnIdxMap.get(label);
+    return columnIdx == null ? -1 : columnIdx;
+  }
+
+  public double getTime(int row) {
+
+    return time[row];
+  }
+
+  public double getValue(int columnIdx, int row) {
+
+    return columns[columnIdx][row];
+  }
+
+  /**
+   * @return a copy of the time column
+   */
+  public double[] getTimeColumn() {
+
+    return Arrays.copyOf(time, size);
+  }
+
+  /**
+   * @param columnIdx
+   * @return a copy of the column
+   */
+  public double[] getColumn(int columnIdx) {
+
+    return Arrays.copyOf(columns[columnIdx], size);
+  }
+
+  /**
+   * @param label
+   * @return a copy of the column of the signal
+   */
+  public double[] getColumn(String label) {
+
+    int columnIdx = getColumnIdx(label);
+    if (columnIdx < 0) {
+      throw new IllegalArgumentException(label + " is not a valid signal! Please choose from these values: " + Arrays.toString(labels));
+    }
+    return getColumn(columnIdx);
+  }
+
+  /**
+   * @return a read only SimulationPlotData view of each column, for the callers that expect a SimulationResult map
+   */
+  public Map<String, SimulationPlotData> toSimulationPlotDataMap() {
+
+    Map<String, SimulationPlotData> simulationPlotDataMap = new LinkedHashMap<>();
+    for (int i = 0; i < labels.length; i++) {
+      simulationPlotDataMap.put(labels[i], new SimulationPlotData(this, i));
+    }
+    return simulationPlotDataMap;
+  }
+}
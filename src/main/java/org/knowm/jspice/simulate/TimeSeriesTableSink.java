@@ -0,0 +1,82 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate;
+
+/**
+ * Collects the samples into a TimeSeriesTable, the in memory result of an analysis
+ */
+public class TimeSeriesTableSink implements SimulationResultSink {
+
+  private final int initialCapacity;
+
+  private String xDataLabel;
+  private TimeSeriesTable timeSeriesTable;
+
+  /**
+   * Constructor
+   */
+  public TimeSeriesTableSink() {
+
+    this(0);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param initialCapacity - the expected number of samples
+   */
+  public TimeSeriesTableSink(int initialCapacity) {
+
+    this.initialCapacity = initialCapacity;
+  }
+
+  @Override
+  public void start(String xDataLabel, String[] labels) {
+
+    this.xDataLabel = xDataLabel;
+    this.timeSeriesTable = new TimeSeriesTable(labels, initialCapacity);
+  }
+
+  @Override
+  public void accept(double x, double[] values) {
+
+    timeSeriesTable.addRow(x, values);
+  }
+
+  @Override
+  public void end() {
+
+  }
+
+  public String getxDataLabel() {
+
+    return xDataLabel;
+  }
+
+  /**
+   * @return the collected samples, or null if the analysis has not started
+   */
+  public TimeSeriesTable getTimeSeriesTable() {
+
+    return timeSeriesTable;
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Writes the samples in the same tab separated Xyce STD format as SimulationResult.toXyceString() as they are produced, without buffering the
+ * trace. The writer is flushed but not closed by end().
+ */
+public class XyceStdResultSink implements SimulationResultSink {
+
+  private static final String RETURN_STRING = System.getProperty("line.separator");
+
+  private final Writer writer;
+  private final StringBuilder sb = new StringBuilder();
+
+  private int count;
+
+  /**
+   * Constructor
+   *
+   * @param writer
+   */
+  public XyceStdResultSink(Writer writer) {
+
+    this.writer = writer;
+  }
+
+  @Override
+  public void start(String xDataLabel, String[] labels) {
+
+    sb.setLength(0);
+    sb.append("Index");
+    sb.append("\t");
+    sb.append("Time");
+    sb.append("\t");
+    for (String label : labels) {
+      sb.append(label);
+      sb.append("\t");
+    }
+    sb.append(RETURN_STRING);
+    write();
+  }
+
+  @Override
+  public void accept(double x, double[] values) {
+
+    sb.setLength(0);
+    sb.append(count++);
+    sb.append("\t");
+    sb.append(x);
+    sb.append("\t");
+    for (double value : values) {
+      sb.append(value);
+      sb.append("\t");
+    }
+    sb.append(RETURN_STRING);
+    write();
+  }
+
+  @Override
+  public void end() {
+
+    sb.setLength(0);
+    sb.append("End of JSpice Simulation");
+    write();
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void write() {
+
+    try {
+      writer.append(sb);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
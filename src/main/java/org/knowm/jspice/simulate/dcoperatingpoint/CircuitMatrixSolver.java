@@ -41,12 +41,31 @@ import org.apache.commons.math3.linear.SingularValueDecomposition;
 import org.knowm.jspice.component.element.reactive.ReactiveElement;
 import org.knowm.jspice.netlist.Netlist;
 import org.knowm.jspice.netlist.NetlistComponent;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CSCMatrix;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CircuitMatrix;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.DenseCircuitMatrix;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.SparseCircuitMatrix;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.SparseLU;
 
 /**
  * @author timmolter
  */
 public class CircuitMatrixSolver {
 
+  /**
+   * Circuits with at least this many unknowns (ground node included) are assembled and solved sparse, smaller ones with a dense LU decomposition
+   */
+  public static final int SPARSE_THRESHOLD = 60;
+
+  /**
+   * @param size - the number of rows of the untrimmed G matrix
+   * @return true if a circuit of the given size should be solved with the sparse solver
+   */
+  public static boolean isSparse(int size) {
+
+    return size >= SPARSE_THRESHOLD;
+  }
+
   /**
    * Find all the nodes (and dc voltage sources that need a column) in the circuit, and maps the given node labels to an array index
    *
@@ -108,17 +127,168 @@ public class CircuitMatrixSolver {
   public static double[][] getG(Map<String, Integer> nodeID2ColumnIdxMap, Netlist netlist, DCOperatingPointResult dcOperatingPointResult,
       Double timeStep) {
 
-    double[][] G = new double[nodeID2ColumnIdxMap.size()][nodeID2ColumnIdxMap.size()];
-    // System.out.println("G= " + GtoString(G));
+    DenseCircuitMatrix G = new DenseCircuitMatrix(nodeID2ColumnIdxMap.size());
+    stampG(G, nodeID2ColumnIdxMap, netlist, dcOperatingPointResult, timeStep);
+    // System.out.println("G= " + GtoString(G.getG()));
 
-    for (NetlistComponent netlistComponent : netlist.getNetlistComponents()) {
-      //      System.out.println("netlistComponent " + netlistComponent);
-      netlistComponent.stampG(G, netlist, dcOperatingPointResult, nodeID2ColumnIdxMap, timeStep);
-    }
+    return G.getG();
+  }
+
+  /**
+   * builds G for G v = i as (row, column, value) triplets, for large circuits
+   *
+   * @param nodeID2ColumnIdxMap
+   * @param netlist
+   * @param dcOperatingPointResult
+   * @param timeStep
+   * @return
+   */
+  public static SparseCircuitMatrix getSparseG(Map<String, Integer> nodeID2ColumnIdxMap, Netlist netlist,
+      DCOperatingPointResult dcOperatingPointResult, Double timeStep) {
+
+    SparseCircuitMatrix G = new SparseCircuitMatrix(nodeID2ColumnIdxMap.size());
+    stampG(G, nodeID2ColumnIdxMap, netlist, dcOperatingPointResult, timeStep);
 
     return G;
   }
 
+  /**
+   * stamps all the components into G, resolving their slots from the given map, with the values of the components themselves. Use
+   * stampG(CircuitMatrix, CompiledCircuit, ...) in loops.
+   *
+   * @param G
+   * @param nodeID2ColumnIdxMap
+   * @param netlist
+   * @param dcOperatingPointResult
+   * @param timeStep
+   */
+  public static void stampG(CircuitMatrix G, Map<String, Integer> nodeID2ColumnIdxMap, Netlist netlist,
+      DCOperatingPointResult dcOperatingPointResult, Double timeStep) {
+
+    CircuitState state = new CircuitState(netlist);
+    NetlistComponent[] netlistComponents = netlist.getCompiledCircuit(null).getNetlistComponents();
+    int[] stateIdxs = netlist.getCompiledCircuit(null).getStateIdxs();
+    double[] solution = getSolutionVector(nodeID2ColumnIdxMap, netlist, dcOperatingPointResult, state, timeStep);
+    for (int i = 0; i < netlistComponents.length; i++) {
+      //      System.out.println("netlistComponent " + netlistComponents[i]);
+      netlistComponents[i].stampG(G, solution, netlistComponents[i].resolveSlots(netlist, nodeID2ColumnIdxMap, timeStep), state, stateIdxs[i],
+          timeStep);
+    }
+  }
+
+  /**
+   * stamps all the components of a compiled circuit into G
+   *
+   * @param G
+   * @param compiledCircuit
+   * @param solution - the previous solution indexed by column, ground included, or null on the first iteration
+   * @param state - the values of the components and their state
+   * @param timeStep
+   */
+  public static void stampG(CircuitMatrix G, CompiledCircuit compiledCircuit, double[] solution, CircuitState state, Double timeStep) {
+
+    NetlistComponent[] netlistComponents = compiledCircuit.getNetlistComponents();
+    int[][] slots = compiledCircuit.getSlots();
+    int[] stateIdxs = compiledCircuit.getStateIdxs();
+    for (int i = 0; i < netlistComponents.length; i++) {
+      netlistComponents[i].stampG(G, solution, slots[i], state, stateIdxs[i], timeStep);
+    }
+  }
+
+  /**
+   * stamps some of the components of a compiled circuit into G
+   *
+   * @param G
+   * @param compiledCircuit
+   * @param componentIdxs - i.e. CompiledCircuit.getNonlinearComponentIdxs()
+   * @param solution - the previous solution indexed by column, ground included, or null on the first iteration
+   * @param state - the values of the components and their state
+   * @param timeStep
+   */
+  public static void stampG(CircuitMatrix G, CompiledCircuit compiledCircuit, int[] componentIdxs, double[] solution, CircuitState state,
+      Double timeStep) {
+
+    NetlistComponent[] netlistComponents = compiledCircuit.getNetlistComponents();
+    int[][] slots = compiledCircuit.getSlots();
+    int[] stateIdxs = compiledCircuit.getStateIdxs();
+    for (int i : componentIdxs) {
+      netlistComponents[i].stampG(G, solution, slots[i], state, stateIdxs[i], timeStep);
+    }
+  }
+
+  /**
+   * stamps all the components of a compiled circuit into RHS
+   *
+   * @param RHS
+   * @param compiledCircuit
+   * @param solution - the previous solution indexed by column, ground included, or null on the first iteration
+   * @param state - the values of the components and their state
+   * @param timeStep
+   */
+  public static void stampRHS(double[] RHS, CompiledCircuit compiledCircuit, double[] solution, CircuitState state, Double timeStep) {
+
+    NetlistComponent[] netlistComponents = compiledCircuit.getNetlistComponents();
+    int[][] slots = compiledCircuit.getSlots();
+    int[] stateIdxs = compiledCircuit.getStateIdxs();
+    for (int i = 0; i < netlistComponents.length; i++) {
+      netlistComponents[i].stampRHS(RHS, solution, slots[i], state, stateIdxs[i], timeStep);
+    }
+  }
+
+  /**
+   * stamps some of the components of a compiled circuit into RHS
+   *
+   * @param RHS
+   * @param compiledCircuit
+   * @param componentIdxs - i.e. CompiledCircuit.getNonlinearComponentIdxs()
+   * @param solution - the previous solution indexed by column, ground included, or null on the first iteration
+   * @param state - the values of the components and their state
+   * @param timeStep
+   */
+  public static void stampRHS(double[] RHS, CompiledCircuit compiledCircuit, int[] componentIdxs, double[] solution, CircuitState state,
+      Double timeStep) {
+
+    NetlistComponent[] netlistComponents = compiledCircuit.getNetlistComponents();
+    int[][] slots = compiledCircuit.getSlots();
+    int[] stateIdxs = compiledCircuit.getStateIdxs();
+    for (int i : componentIdxs) {
+      netlistComponents[i].stampRHS(RHS, solution, slots[i], state, stateIdxs[i], timeStep);
+    }
+  }
+
+  /**
+   * The previous solution indexed by the columns of the given map, or null if there is none yet, in which case the components prepare their initial
+   * guess.
+   */
+  private static double[] getSolutionVector(Map<String, Integer> nodeID2ColumnIdxMap, Netlist netlist, DCOperatingPointResult dcOperatingPointResult,
+      CircuitState state, Double timeStep) {
+
+    if (dcOperatingPointResult == null) {
+      NetlistComponent[] netlistComponents = netlist.getCompiledCircuit(null).getNetlistComponents();
+      int[] stateIdxs = netlist.getCompiledCircuit(null).getStateIdxs();
+      for (int i = 0; i < netlistComponents.length; i++) {
+        netlistComponents[i].prepareInitialGuess(netlist, state, stateIdxs[i]);
+      }
+      return null;
+    }
+    double[] solution = new double[nodeID2ColumnIdxMap.size()];
+    CompiledCircuit.toSolutionVector(getUnknownVariableNames(nodeID2ColumnIdxMap, netlist, timeStep), dcOperatingPointResult, solution);
+    return solution;
+  }
+
+  /**
+   * gets rid of the ground node column and row of a sparse G, and compresses it
+   *
+   * @param G
+   * @param nodeID2ColumnIdxMap
+   * @return
+   */
+  public static CSCMatrix trimG(SparseCircuitMatrix G, Map<String, Integer> nodeID2ColumnIdxMap) {
+
+    Integer groundIdx = nodeID2ColumnIdxMap.get("0");
+    return G.toCSC(groundIdx == null ? -1 : groundIdx);
+  }
+
   public static String GtoString(double[][] G) {
 
     StringBuilder sb = new StringBuilder();
@@ -138,13 +308,13 @@ public class CircuitMatrixSolver {
     double[] solutionVector = new double[RHS_trimmed.length];
 
     for (NetlistComponent netlistComponent : netlist.getNetListCapacitors()) {
-      ((ReactiveElement) netlistComponent.getComponent()).stampSolutionVector(solutionVector, nodeID2ColumnIdxMap,
-          netlistComponent.getNodesAsArray());
+      ((ReactiveElement) netlistComponent.getComponent()).stampSolutionVector(solutionVector,
+          netlistComponent.resolveSlots(netlist, nodeID2ColumnIdxMap, null));
     }
 
     for (NetlistComponent netlistComponent : netlist.getNetListInductors()) {
-      ((ReactiveElement) netlistComponent.getComponent()).stampSolutionVector(solutionVector, nodeID2ColumnIdxMap,
-          netlistComponent.getNodesAsArray());
+      ((ReactiveElement) netlistComponent.getComponent()).stampSolutionVector(solutionVector,
+          netlistComponent.resolveSlots(netlist, nodeID2ColumnIdxMap, null));
     }
     return solutionVector;
   }
@@ -167,9 +337,14 @@ public class CircuitMatrixSolver {
 
     // System.out.println("G= " + GtoString(G));
 
-    for (NetlistComponent netlistComponent : netlist.getNetlistComponents()) {
-      //      System.out.println("netlistComponent " + netlistComponent);
-      netlistComponent.stampRHS(RHS, dcOperatingPointResult, nodeID2ColumnIdxMap, timeStep);
+    CircuitState state = new CircuitState(netlist);
+    NetlistComponent[] netlistComponents = netlist.getCompiledCircuit(null).getNetlistComponents();
+    int[] stateIdxs = netlist.getCompiledCircuit(null).getStateIdxs();
+    double[] solution = getSolutionVector(nodeID2ColumnIdxMap, netlist, dcOperatingPointResult, state, timeStep);
+    for (int i = 0; i < netlistComponents.length; i++) {
+      //      System.out.println("netlistComponent " + netlistComponents[i]);
+      netlistComponents[i].stampRHS(RHS, solution, netlistComponents[i].resolveSlots(netlist, nodeID2ColumnIdxMap, timeStep), state, stateIdxs[i],
+          timeStep);
     }
 
     return RHS;
@@ -269,6 +444,22 @@ public class CircuitMatrixSolver {
     return dcOperatingPointResult;
   }
 
+  /**
+   * Solves v for G v = RHS with a sparse LU decomposition
+   *
+   * @param G
+   * @param unknownVariableNames
+   * @param RHS
+   * @return
+   */
+  public static DCOperatingPointResult solveMatrix(CSCMatrix G, String[] unknownVariableNames, double[] RHS) throws SingularMatrixException {
+
+    double[] solution = new SparseLU(G).solve(RHS);
+
+    // the dense G is not built for large circuits
+    return new DCOperatingPointResult(unknownVariableNames, null, solution, RHS);
+  }
+
   public static DCOperatingPointResult solveMatrixWithInitialConditions(double[] solutionVector, double[][] G, String[] unknownVariableNames,
       double[] RHS) throws SingularMatrixException {
 
@@ -0,0 +1,236 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcoperatingpoint;
+
+import java.util.Random;
+
+import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.netlist.NetlistComponent;
+
+/**
+ * Everything an analysis changes while it solves a netlist: the values of the swept and driven components, the states of the memristors, the
+ * linearization points of the nonlinear components, the companion model history of the reactive elements, and the workspaces the Newton iterations
+ * are solved in. The netlist and its CompiledCircuit are only read while solving, so any number of analyses can solve the same netlist at once,
+ * each with a state of its own.
+ * <p>
+ * The values are one flat array. Each component owns Component.getNumStates() of them, starting at CompiledCircuit.getStateIdxs()[componentIdx],
+ * the first one being its sweepable value, i.e. the resistance of a resistor or the state variable of a memristor.
+ */
+public final class CircuitState {
+
+  private final CompiledCircuit compiledCircuit;
+  private final double[] values;
+
+  /**
+   * true while the solution is forced to the initial conditions of the reactive elements, see Netlist.isInitialConditions()
+   */
+  private boolean isInitialConditions;
+
+  /**
+   * the stream the stochastic components draw from, i.e. the transitions of an MSSMemristor, null for their shared default one
+   */
+  private Random random;
+
+  /**
+   * the workspaces of the DC and of the transient circuit, created on first use
+   */
+  private final SolverWorkspace[] solverWorkspaces = new SolverWorkspace[2];
+
+  /**
+   * Constructor
+   *
+   * @param netlist - the values start out as the ones of its components
+   */
+  public CircuitState(Netlist netlist) {
+
+    this(netlist.getCompiledCircuit(null), netlist.isInitialConditions());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param compiledCircuit - the DC or the transient circuit of the netlist, which have the same components in the same order
+   * @param isInitialConditions
+   */
+  public CircuitState(CompiledCircuit compiledCircuit, boolean isInitialConditions) {
+
+    this.compiledCircuit = compiledCircuit;
+    this.values = new double[compiledCircuit.getNumStates()];
+    this.isInitialConditions = isInitialConditions;
+    reset();
+  }
+
+  /**
+   * Copy Constructor, without the workspaces
+   *
+   * @param circuitState
+   */
+  private CircuitState(CircuitState circuitState) {
+
+    this.compiledCircuit = circuitState.compiledCircuit;
+    this.values = circuitState.values.clone();
+    this.isInitialConditions = circuitState.isInitialConditions;
+    this.random = circuitState.random;
+  }
+
+  /**
+   * Starts over from the values of the components
+   */
+  public void reset() {
+
+    NetlistComponent[] netlistComponents = compiledCircuit.getNetlistComponents();
+    int[] stateIdxs = compiledCircuit.getStateIdxs();
+    for (int i = 0; i < netlistComponents.length; i++) {
+      netlistComponents[i].getComponent().initState(this, stateIdxs[i]);
+    }
+  }
+
+  /**
+   * @return a copy of the values, e.g. to evaluate device currents with later on, without the workspaces
+   */
+  public CircuitState copy() {
+
+    return new CircuitState(this);
+  }
+
+  public double get(int stateIdx) {
+
+    return values[stateIdx];
+  }
+
+  public void set(int stateIdx, double value) {
+
+    values[stateIdx] = value;
+  }
+
+  /**
+   * @param componentIdx - the index of the component in CompiledCircuit.getNetlistComponents()
+   * @return the sweepable value of the component in this state
+   */
+  public double getSweepValue(int componentIdx) {
+
+    return values[compiledCircuit.getStateIdxs()[componentIdx]];
+  }
+
+  /**
+   * Changes the value of a component for this state only, the component itself is left as it is
+   *
+   * @param componentIdx - the index of the component in CompiledCircuit.getNetlistComponents()
+   * @param value
+   */
+  public void setSweepValue(int componentIdx, double value) {
+
+    values[compiledCircuit.getStateIdxs()[componentIdx]] = value;
+  }
+
+  /**
+   * @param componentID
+   * @param value
+   */
+  public void setSweepValue(String componentID, double value) {
+
+    setSweepValue(getComponentIdx(componentID), value);
+  }
+
+  /**
+   * @param componentID
+   * @return the index of the component in CompiledCircuit.getNetlistComponents()
+   */
+  public int getComponentIdx(String componentID) {
+
+    Integer componentIdx = compiledCircuit.getComponentID2IdxMap().get(componentID);
+    if (componentIdx == null) {
+      throw new IllegalArgumentException("There is no component with ID " + componentID + " in the circuit!");
+    }
+    return componentIdx;
+  }
+
+  /**
+   * @return the number of values, for save() and restore()
+   */
+  public int getNumValues() {
+
+    return values.length;
+  }
+
+  /**
+   * @param snapshot - of length getNumValues()
+   */
+  public void save(double[] snapshot) {
+
+    System.arraycopy(values, 0, snapshot, 0, values.length);
+  }
+
+  /**
+   * Goes back to the values of a save(), e.g. when a time step is rejected
+   *
+   * @param snapshot
+   */
+  public void restore(double[] snapshot) {
+
+    System.arraycopy(snapshot, 0, values, 0, values.length);
+  }
+
+  public boolean isInitialConditions() {
+
+    return isInitialConditions;
+  }
+
+  public void setInitialConditions(boolean isInitialConditions) {
+
+    this.isInitialConditions = isInitialConditions;
+  }
+
+  /**
+   * @return the stream the stochastic components draw from, null for their shared default one
+   */
+  public Random getRandom() {
+
+    return random;
+  }
+
+  /**
+   * @param random - a seeded stream makes the realization of a stochastic circuit reproducible, null for the shared default one
+   */
+  public void setRandom(Random random) {
+
+    this.random = random;
+  }
+
+  /**
+   * @param compiledCircuit - the DC or the transient circuit of the netlist of this state
+   * @return the workspace the Newton iterations of the circuit are solved in for this state, created on first use, and again if the circuit was
+   *         recompiled
+   */
+  public SolverWorkspace getSolverWorkspace(CompiledCircuit compiledCircuit) {
+
+    if (compiledCircuit.getNumStates() != values.length || compiledCircuit.getNetlistComponents().length != this.compiledCircuit
+        .getNetlistComponents().length) {
+      throw new IllegalStateException("The netlist changed since this state was created!");
+    }
+    int idx = compiledCircuit.isTransient() ? 1 : 0;
+    if (solverWorkspaces[idx] == null || solverWorkspaces[idx].getCompiledCircuit() != compiledCircuit) {
+      solverWorkspaces[idx] = new SolverWorkspace(compiledCircuit, this);
+    }
+    return solverWorkspaces[idx];
+  }
+}
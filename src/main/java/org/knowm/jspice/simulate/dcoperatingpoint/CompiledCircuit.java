@@ -0,0 +1,410 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcoperatingpoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.knowm.jspice.component.Component;
+import org.knowm.jspice.component.NonlinearComponent;
+import org.knowm.jspice.component.element.memristor.Memristor;
+import org.knowm.jspice.component.element.reactive.ReactiveElement;
+import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.netlist.NetlistComponent;
+
+/**
+ * The index-resolved form of a Netlist: which column of G every node and branch current occupies, and the names of the unknowns. It only depends on
+ * the topology of the netlist, so it is built once and reused by every Newton iteration, sweep point and time step until a component is added. It
+ * is not changed while solving, everything that is lives in a CircuitState, so it can be shared by analyses running at the same time.
+ * <p>
+ * The ground node "0" is always column 0, so eliminating it from the system is a matter of dropping the first row and column and shifting the rest by
+ * one, and the solution of the trimmed system has the unknown of column i at index i - 1.
+ */
+public final class CompiledCircuit {
+
+  public static final int GROUND_IDX = 0;
+
+  private final Map<String, Integer> nodeID2ColumnIdxMap;
+  private final String[] unknownQuantityNames;
+  private final Map<String, Integer> unknownQuantityName2IdxMap;
+
+  /**
+   * the absolute convergence tolerance of each unknown, VNTOL for the node voltages and ABSTOL for the branch currents
+   */
+  private final double[] absoluteTolerances;
+  private final boolean isTransient;
+  private final NetlistComponent[] netlistComponents;
+  private final int[][] slots;
+
+  /**
+   * the components whose stamps do not change from one Newton iteration to the next, and the nonlinear ones and memristors that have to be restamped
+   */
+  private final int[] linearComponentIdxs;
+  private final int[] nonlinearComponentIdxs;
+
+  /**
+   * the capacitors and inductors, whose companion models integrate over time
+   */
+  private final int[] reactiveComponentIdxs;
+
+  /**
+   * where the values of each component start in a CircuitState, their total number, and the index of each component by ID
+   */
+  private final int[] stateIdxs;
+  private final int numStates;
+  private final Map<String, Integer> componentID2IdxMap;
+
+  private OutputSelection deviceOutputSelection;
+
+  /**
+   * Constructor
+   *
+   * @param nodeID2ColumnIdxMap
+   * @param unknownQuantityNames
+   * @param isTransient
+   * @param netlistComponents
+   * @param slots
+   */
+  private CompiledCircuit(Map<String, Integer> nodeID2ColumnIdxMap, String[] unknownQuantityNames, boolean isTransient,
+      NetlistComponent[] netlistComponents, int[][] slots) {
+
+    this.nodeID2ColumnIdxMap = Collections.unmodifiableMap(nodeID2ColumnIdxMap);
+    this.unknownQuantityNames = unknownQuantityNames;
+    this.unknownQuantityName2IdxMap = Collections.unmodifiableMap(getName2IdxMap(unknownQuantityNames));
+    this.absoluteTolerances = ConvergenceTracker.getAbsoluteTolerances(unknownQuantityNames);
+    this.isTransient = isTransient;
+    this.netlistComponents = netlistComponents;
+    this.slots = slots;
+
+    int numNonlinear = 0;
+    int numReactive = 0;
+    for (NetlistComponent netlistComponent : netlistComponents) {
+      if (isNonlinear(netlistComponent.getComponent())) {
+        numNonlinear++;
+      }
+      if (netlistComponent.getComponent() instanceof ReactiveElement) {
+        numReactive++;
+      }
+    }
+    this.linearComponentIdxs = new int[netlistComponents.length - numNonlinear];
+    this.nonlinearComponentIdxs = new int[numNonlinear];
+    this.reactiveComponentIdxs = new int[numReactive];
+    int linearIdx = 0;
+    int nonlinearIdx = 0;
+    int reactiveIdx = 0;
+    for (int i = 0; i < netlistComponents.length; i++) {
+      if (isNonlinear(netlistComponents[i].getComponent())) {
+        nonlinearComponentIdxs[nonlinearIdx++] = i;
+      } else {
+        linearComponentIdxs[linearIdx++] = i;
+      }
+      if (netlistComponents[i].getComponent() instanceof ReactiveElement) {
+        reactiveComponentIdxs[reactiveIdx++] = i;
+      }
+    }
+
+    this.stateIdxs = new int[netlistComponents.length];
+    Map<String, Integer> componentID2IdxMap = new HashMap<>();
+    int stateIdx = 0;
+    for (int i = 0; i < netlistComponents.length; i++) {
+      stateIdxs[i] = stateIdx;
+      stateIdx += netlistComponents[i].getComponent().getNumStates();
+      componentID2IdxMap.put(netlistComponents[i].getComponent().getId(), i);
+    }
+    this.numStates = stateIdx;
+    this.componentID2IdxMap = Collections.unmodifiableMap(componentID2IdxMap);
+  }
+
+  /**
+   * @param component
+   * @return true if the stamps of the component depend on the solution of the current Newton iteration
+   */
+  private static boolean isNonlinear(Component component) {
+
+    return component instanceof NonlinearComponent || component instanceof Memristor;
+  }
+
+  /**
+   * Verifies the netlist and resolves all nodes and branches to column indices. Use Netlist.getCompiledCircuit() to get the cached one.
+   *
+   * @param netlist
+   * @param timeStep - null for a DC operating point, otherwise the reactive elements get their own branch current column
+   * @return
+   */
+  public static CompiledCircuit compile(Netlist netlist, Double timeStep) {
+
+    netlist.verifyCircuit();
+
+    // A Set so duplicates are not added
+    Set<String> nodeNameSet = new HashSet<>();
+    for (NetlistComponent netlistComponent : netlist.getNetlistComponents()) {
+      nodeNameSet.addAll(netlistComponent.getGMatrixColumnIDs(timeStep));
+    }
+    nodeNameSet.remove("0");
+
+    // ground first, then the sorted node names
+    List<String> nodeNameList = new ArrayList<>(nodeNameSet);
+    Collections.sort(nodeNameList);
+    nodeNameList.add(GROUND_IDX, "0");
+
+    Map<String, Integer> nodeID2ColumnIdxMap = new HashMap<>();
+    for (int i = 0; i < nodeNameList.size(); i++) {
+      nodeID2ColumnIdxMap.put(nodeNameList.get(i), i);
+    }
+
+    String[] nodeIDs = nodeNameList.toArray(new String[nodeNameList.size()]);
+    for (NetlistComponent netlistComponent : netlist.getNetlistComponents()) {
+      netlistComponent.modifyUnknownQuantitiesVector(nodeIDs, timeStep);
+    }
+    String[] unknownQuantityNames = Arrays.copyOfRange(nodeIDs, 1, nodeIDs.length); // trim V(0) off the front of the array
+
+    // resolve the columns every component stamps into
+    List<NetlistComponent> netlistComponentList = netlist.getNetlistComponents();
+    NetlistComponent[] netlistComponents = netlistComponentList.toArray(new NetlistComponent[netlistComponentList.size()]);
+    int[][] slots = new int[netlistComponents.length][];
+    for (int i = 0; i < netlistComponents.length; i++) {
+      slots[i] = netlistComponents[i].resolveSlots(netlist, nodeID2ColumnIdxMap, timeStep);
+    }
+
+    return new CompiledCircuit(nodeID2ColumnIdxMap, unknownQuantityNames, timeStep != null, netlistComponents, slots);
+  }
+
+  /**
+   * Converts a result to a solution vector indexed by column, ground included. A result of this circuit is copied straight over, one of another
+   * circuit, i.e. the DC operating point a transient analysis starts from, is mapped by name.
+   *
+   * @param dcOperatingPointResult
+   * @return
+   */
+  public double[] getSolutionVector(DCOperatingPointResult dcOperatingPointResult) {
+
+    double[] solution = new double[getSize()];
+    getSolutionVector(dcOperatingPointResult, solution);
+    return solution;
+  }
+
+  /**
+   * Same as getSolutionVector(DCOperatingPointResult), into the given array
+   *
+   * @param dcOperatingPointResult
+   * @param solution - of length getSize()
+   */
+  public void getSolutionVector(DCOperatingPointResult dcOperatingPointResult, double[] solution) {
+
+    if (dcOperatingPointResult.getNodeLabels() == unknownQuantityNames) {
+      solution[GROUND_IDX] = 0.0;
+      System.arraycopy(dcOperatingPointResult.getV(), 0, solution, 1, unknownQuantityNames.length);
+    } else {
+      toSolutionVector(unknownQuantityNames, dcOperatingPointResult, solution);
+    }
+  }
+
+  /**
+   * Looks up the value of each unknown in a result by name. Unknowns the result does not have are 0.
+   *
+   * @param unknownQuantityNames - the names of the unknowns, in the order of the trimmed solution vector
+   * @param dcOperatingPointResult
+   * @param solution - the solution vector indexed by column, ground included
+   */
+  static void toSolutionVector(String[] unknownQuantityNames, DCOperatingPointResult dcOperatingPointResult, double[] solution) {
+
+    double[] unknownQuantities = dcOperatingPointResult.getV();
+    solution[GROUND_IDX] = 0.0;
+    for (int i = 0; i < unknownQuantityNames.length; i++) {
+      int idx = dcOperatingPointResult.getUnknownQuantityIdx(unknownQuantityNames[i]);
+      solution[i + 1] = idx < 0 ? 0.0 : unknownQuantities[idx];
+    }
+  }
+
+  /**
+   * @param names
+   * @return <name, index into names>
+   */
+  static Map<String, Integer> getName2IdxMap(String[] names) {
+
+    Map<String, Integer> name2IdxMap = new HashMap<>();
+    for (int i = 0; i < names.length; i++) {
+      name2IdxMap.put(names[i], i);
+    }
+    return name2IdxMap;
+  }
+
+  /**
+   * @return the solution vector holding the initial conditions of the reactive elements, indexed by column, ground included
+   */
+  public double[] getInitialConditionsSolutionVector() {
+
+    double[] solutionVector = new double[getSize()];
+    for (int i = 0; i < netlistComponents.length; i++) {
+      if (netlistComponents[i].getComponent() instanceof ReactiveElement) {
+        ((ReactiveElement) netlistComponents[i].getComponent()).stampSolutionVector(solutionVector, slots[i]);
+      }
+    }
+    return solutionVector;
+  }
+
+  /**
+   * @return <nodeName or branch component ID, column index of the untrimmed G>
+   */
+  public Map<String, Integer> getNodeID2ColumnIdxMap() {
+
+    return nodeID2ColumnIdxMap;
+  }
+
+  /**
+   * @return the decorated names of the unknowns, i.e. V(1), I(V1), in the order of the trimmed solution vector
+   */
+  public String[] getUnknownQuantityNames() {
+
+    return unknownQuantityNames;
+  }
+
+  /**
+   * @return <decorated name of an unknown, index into getUnknownQuantityNames()>
+   */
+  public Map<String, Integer> getUnknownQuantityName2IdxMap() {
+
+    return unknownQuantityName2IdxMap;
+  }
+
+  /**
+   * @return the absolute convergence tolerance of each unknown, in the order of getUnknownQuantityNames()
+   */
+  public double[] getAbsoluteTolerances() {
+
+    return absoluteTolerances;
+  }
+
+  /**
+   * @return the currents of all devices and the resistances of the memristors, resolved on first use
+   */
+  public synchronized OutputSelection getDeviceOutputSelection() {
+
+    if (deviceOutputSelection == null) {
+      deviceOutputSelection = OutputSelection.compile(this, OutputSelection.getDeviceLabels(this));
+    }
+    return deviceOutputSelection;
+  }
+
+  /**
+   * @return the components of the netlist, in the order of getSlots()
+   */
+  public NetlistComponent[] getNetlistComponents() {
+
+    return netlistComponents;
+  }
+
+  /**
+   * @return the columns each component stamps into, as returned by Component.resolveSlots()
+   */
+  public int[][] getSlots() {
+
+    return slots;
+  }
+
+  /**
+   * @return the index of the first value of each component in a CircuitState, in the order of getNetlistComponents()
+   */
+  public int[] getStateIdxs() {
+
+    return stateIdxs;
+  }
+
+  /**
+   * @return the number of values of a CircuitState of this circuit
+   */
+  public int getNumStates() {
+
+    return numStates;
+  }
+
+  /**
+   * @return <component ID, index into getNetlistComponents()>
+   */
+  public Map<String, Integer> getComponentID2IdxMap() {
+
+    return componentID2IdxMap;
+  }
+
+  /**
+   * @return the indices into getNetlistComponents() of the components whose stamps only depend on the time step and the solution of the previous time
+   *         step, so they are the same for every Newton iteration
+   */
+  public int[] getLinearComponentIdxs() {
+
+    return linearComponentIdxs;
+  }
+
+  /**
+   * @return the indices into getNetlistComponents() of the nonlinear components and memristors, which are restamped every Newton iteration
+   */
+  public int[] getNonlinearComponentIdxs() {
+
+    return nonlinearComponentIdxs;
+  }
+
+  /**
+   * @return the indices into getNetlistComponents() of the capacitors and inductors
+   */
+  public int[] getReactiveComponentIdxs() {
+
+    return reactiveComponentIdxs;
+  }
+
+  /**
+   * @return true if there are no nonlinear components or memristors, so G only depends on the component values and the time step
+   */
+  public boolean isLinear() {
+
+    return nonlinearComponentIdxs.length == 0;
+  }
+
+  /**
+   * @return the size of the untrimmed G, ground included
+   */
+  public int getSize() {
+
+    return nodeID2ColumnIdxMap.size();
+  }
+
+  /**
+   * @return the number of unknowns, the size of the trimmed G
+   */
+  public int getNumUnknowns() {
+
+    return unknownQuantityNames.length;
+  }
+
+  /**
+   * @return true if compiled with the reactive element branch currents of a transient analysis
+   */
+  public boolean isTransient() {
+
+    return isTransient;
+  }
+}
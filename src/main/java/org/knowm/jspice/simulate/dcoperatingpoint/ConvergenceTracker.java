@@ -21,15 +21,16 @@
  */
 package org.knowm.jspice.simulate.dcoperatingpoint;
 
-import java.util.Map;
-import java.util.Map.Entry;
-
 /**
+ * Decides when the Newton iterations have converged by comparing the solution of each iteration to the one of the previous iteration, unknown by
+ * unknown, against |x| * RELTOL plus an absolute tolerance that is looked up once per circuit instead of being derived from the names of the
+ * unknowns on every iteration. Also keeps the norms of the last iteration for diagnostics.
+ *
  * @author timmolter
  */
 public class ConvergenceTracker {
 
-  private static final int MAX_NUM_ITERATIONS = 10000;
+  public static final int MAX_NUM_ITERATIONS = 10000;
 
   /**
    * relative tolerance
@@ -48,91 +49,178 @@ public class ConvergenceTracker {
 
   private final boolean nonLinearCircuit;
   private final boolean isInitialConditions;
+  private final int maxNumIterations;
+
+  /**
+   * the absolute tolerance of each unknown, null until known if it is derived from the names passed to update()
+   */
+  private double[] absoluteTolerances;
 
   private double[] oldValues = null;
 
   private int iterationCounter = 0;
 
   /**
-   * Constructor
+   * the largest change of an unknown in the last iteration, NaN before the second iteration
+   */
+  private double updateNorm = Double.NaN;
+
+  /**
+   * the largest KCL error of the solution the last iteration was linearized around, NaN if it was not computed
+   */
+  private double residualNorm = Double.NaN;
+
+  /**
+   * Constructor, for a tracker that derives the absolute tolerances from the names of the unknowns passed to update(double[], String[])
    *
    * @param nonLinearCircuit
    * @param isInitialConditions
    */
   public ConvergenceTracker(boolean nonLinearCircuit, boolean isInitialConditions) {
 
+    this(nonLinearCircuit, isInitialConditions, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nonLinearCircuit
+   * @param isInitialConditions
+   * @param absoluteTolerances - the absolute tolerance of each unknown, see getAbsoluteTolerances()
+   */
+  public ConvergenceTracker(boolean nonLinearCircuit, boolean isInitialConditions, double[] absoluteTolerances) {
+
+    this(nonLinearCircuit, isInitialConditions, absoluteTolerances, MAX_NUM_ITERATIONS);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nonLinearCircuit
+   * @param isInitialConditions
+   * @param absoluteTolerances - the absolute tolerance of each unknown, see getAbsoluteTolerances()
+   * @param maxNumIterations - the number of iterations after which update() gives up with a NodalAnalysisConvergenceException
+   */
+  public ConvergenceTracker(boolean nonLinearCircuit, boolean isInitialConditions, double[] absoluteTolerances, int maxNumIterations) {
+
     this.nonLinearCircuit = nonLinearCircuit;
     this.isInitialConditions = isInitialConditions;
+    this.absoluteTolerances = absoluteTolerances;
+    this.maxNumIterations = maxNumIterations;
+  }
+
+  /**
+   * @param unknownQuantityNames - the decorated names of the unknowns, i.e. V(1), I(V1)
+   * @return VNTOL for each node voltage and ABSTOL for each branch current
+   */
+  public static double[] getAbsoluteTolerances(String[] unknownQuantityNames) {
+
+    double[] absoluteTolerances = new double[unknownQuantityNames.length];
+    for (int idx = 0; idx < unknownQuantityNames.length; idx++) {
+
+      String nodeLabel = unknownQuantityNames[idx];
+      if (nodeLabel.startsWith("V")) {
+        absoluteTolerances[idx] = VNTOL;
+      } else if (nodeLabel.startsWith("I")) {
+        absoluteTolerances[idx] = ABSTOL;
+      } else {
+        throw new IllegalArgumentException("Unknown node label type encountered!");
+      }
+    }
+    return absoluteTolerances;
   }
 
   public boolean update(DCOperatingPointResult dcOperatingPointResult) {
 
+    return update(dcOperatingPointResult.getV(), dcOperatingPointResult.getNodeLabels());
+  }
+
+  /**
+   * @param unknownQuantities - the solution of this iteration
+   * @param unknownQuantityNames - the decorated names of the unknowns, i.e. V(1), I(V1)
+   * @return true if the solution did not change more than the tolerances since the last iteration
+   */
+  public boolean update(double[] unknownQuantities, String[] unknownQuantityNames) {
+
+    if (absoluteTolerances == null && nonLinearCircuit && !isInitialConditions) {
+      absoluteTolerances = getAbsoluteTolerances(unknownQuantityNames);
+    }
+    return update(unknownQuantities);
+  }
+
+  /**
+   * @param unknownQuantities - the solution of this iteration, in the order of the absolute tolerances
+   * @return true if the solution did not change more than the tolerances since the last iteration
+   * @throws IllegalStateException if the absolute tolerances were neither passed to the constructor nor derived by update(double[], String[])
+   */
+  public boolean update(double[] unknownQuantities) {
+
     if (!nonLinearCircuit || isInitialConditions) { // a linear circuit, or initial conditions are provided
       return true;
     }
+    if (absoluteTolerances == null) {
+      throw new IllegalStateException("The absolute tolerances were never set, pass them to the constructor or the names of the unknowns to update()!");
+    }
 
-    if (iterationCounter++ > MAX_NUM_ITERATIONS) {
+    if (iterationCounter++ > maxNumIterations) {
       throw new NodalAnalysisConvergenceException();
       // return true;
     }
 
-    Map<String, Double> nodeLabels2Value = dcOperatingPointResult.getNodeLabels2Value(); // <"V(1)", 39.2>
     if (oldValues == null) { // just populate the old values array
-      oldValues = new double[nodeLabels2Value.size()];
-      int idx = 0;
-      for (Entry<String, Double> entry : nodeLabels2Value.entrySet()) {
-
-        String nodeLabel = entry.getKey();
-        Double nodeValue = entry.getValue();
-        // System.out.println("nodeLabel= " + nodeLabel);
-        // System.out.println("nodeValue= " + nodeValue);
-
-        oldValues[idx++] = nodeValue;
-      }
+      oldValues = unknownQuantities.clone();
       // System.out.println("---");
       return false;
-    } else {
-      boolean converged = true;
-      int idx = 0;
-      for (Entry<String, Double> entry : nodeLabels2Value.entrySet()) {
-
-        String nodeLabel = entry.getKey();
-        Double nodeValue = entry.getValue();
-        // System.out.println("nodeLabel= " + nodeLabel);
-        // System.out.println("nodeValue= " + nodeValue);
-
-        // compare old to new
-        double difference = Math.abs(nodeValue - oldValues[idx]);
-        // System.out.println(nodeLabel + " difference= " + difference);
-        if (nodeLabel.startsWith("V")) {
-          if (difference > Math.abs(nodeValue) * RELTOL + VNTOL) {
-            // System.out.println("toleranceV= " + Math.abs(nodeValue) * RELTOL + VNTOL);
-            // System.out.println("nodeValue= " + nodeValue);
-            // System.out.println("oldValues[idx]= " + oldValues[idx]);
-            // System.out.println(nodeLabel + " difference= " + difference);
-            converged = false;
-          }
-        } else if (nodeLabel.startsWith("I")) {
-          if (difference > Math.abs(nodeValue) * RELTOL + ABSTOL) {
-            // System.out.println("toleranceI= " + Math.abs(nodeValue) * RELTOL + VNTOL);
-            // System.out.println(nodeLabel + " difference= " + difference);
-            converged = false;
-          }
-        } else {
-          throw new IllegalArgumentException("Unknown node label type encountered!");
-        }
-
-        // rewrite value
-        oldValues[idx] = nodeValue;
-        idx++;
-      }
-      // set converged or not
-      return converged;
     }
+
+    // compare old to new, without branches so the loop stays cheap for large circuits. A NaN never converges.
+    double[] absoluteTolerances = this.absoluteTolerances;
+    double[] oldValues = this.oldValues;
+    double maxDifference = 0.0;
+    int numNotConverged = 0;
+    for (int idx = 0; idx < unknownQuantities.length; idx++) {
+
+      double nodeValue = unknownQuantities[idx];
+      double difference = Math.abs(nodeValue - oldValues[idx]);
+      maxDifference = Math.max(maxDifference, difference);
+      numNotConverged += difference <= Math.abs(nodeValue) * RELTOL + absoluteTolerances[idx] ? 0 : 1;
+    }
+    // System.out.println("numNotConverged= " + numNotConverged);
+
+    // rewrite values
+    System.arraycopy(unknownQuantities, 0, oldValues, 0, unknownQuantities.length);
+    updateNorm = maxDifference;
+
+    // set converged or not
+    return numNotConverged == 0;
+  }
+
+  /**
+   * @param residualNorm - the largest KCL error of the solution the current iteration is linearized around
+   */
+  public void setResidualNorm(double residualNorm) {
+
+    this.residualNorm = residualNorm;
   }
 
   public int getNumIterationsToConvergence() {
 
     return iterationCounter;
   }
-}
\ No newline at end of file
+
+  /**
+   * @return the largest change of an unknown between the last two iterations, NaN if there were less than two
+   */
+  public double getUpdateNorm() {
+
+    return updateNorm;
+  }
+
+  /**
+   * @return the largest KCL error of the solution the last iteration was linearized around, NaN if it was not computed
+   */
+  public double getResidualNorm() {
+
+    return residualNorm;
+  }
+}
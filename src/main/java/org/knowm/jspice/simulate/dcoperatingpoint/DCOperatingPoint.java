@@ -21,16 +21,44 @@
  */
 package org.knowm.jspice.simulate.dcoperatingpoint;
 
-import java.util.Map;
-
+import org.apache.commons.math3.linear.SingularMatrixException;
 import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.netlist.NetlistComponent;
+import org.knowm.jspice.simulate.SimulationResultSink;
 
 public final class DCOperatingPoint {
 
+  public enum ConvergenceAid {
+    NONE, GMIN_STEPPING, SOURCE_STEPPING
+  }
+
+  /**
+   * the iterations plain Newton, and each step of the convergence aids, get before moving on
+   */
+  private static final int MAX_NUM_ITERATIONS_PER_STAGE = 100;
+
+  /**
+   * gmin stepping starts with this conductance from every node to ground, and lowers it a decade at a time this many times before removing it
+   */
+  private static final double GMIN_START = 1e-2;
+  private static final int NUM_GMIN_STEPS = 10;
+
+  /**
+   * source stepping starts with steps of 1 / NUM_SOURCE_STEPS of the sources, and gives up once a step had to be halved below MIN_SOURCE_STEP
+   */
+  private static final int NUM_SOURCE_STEPS = 10;
+  private static final double MIN_SOURCE_STEP = 1e-3;
+
   private final Netlist netlist;
   private final Double timeStep;
   private final DCOperatingPointResult previousDcOperatingPointResult;
+  private final boolean isGUnchanged;
   private ConvergenceTracker convergenceTracker;
+  private ConvergenceAid convergenceAid;
+  private int numIterations;
+  private boolean isRetainMatrices = false;
+  private double[] initialGuess;
+  private CircuitState circuitState;
 
   /**
    * Constructor
@@ -60,9 +88,58 @@ public final class DCOperatingPoint {
    */
   public DCOperatingPoint(DCOperatingPointResult previousDcOperatingPointResult, Netlist netlist, Double timeStep) {
 
+    this(previousDcOperatingPointResult, netlist, timeStep, false);
+  }
+
+  /**
+   * @param previousDcOperatingPointResult
+   * @param netlist
+   * @param timeStep
+   * @param isGUnchanged - true if G is known to be the same as in the last run on this netlist with a time step, i.e. a linear circuit whose drivers
+   *          only drive independent sources. G and its LU decomposition are then reused and only RHS is restamped.
+   */
+  public DCOperatingPoint(DCOperatingPointResult previousDcOperatingPointResult, Netlist netlist, Double timeStep, boolean isGUnchanged) {
+
     this.previousDcOperatingPointResult = previousDcOperatingPointResult;
     this.netlist = netlist;
     this.timeStep = timeStep;
+    this.isGUnchanged = isGUnchanged;
+  }
+
+  /**
+   * @param isRetainMatrices - true to keep G and RHS in the result, for DCOperatingPointResult.getNodalAnalysisMatrix(). Off by default, as they are
+   *          as big as the circuit squared.
+   */
+  public void setRetainMatrices(boolean isRetainMatrices) {
+
+    this.isRetainMatrices = isRetainMatrices;
+  }
+
+  /**
+   * @param initialGuess - the solution, indexed by column, the Newton iterations of a nonlinear circuit start from instead of the previous result,
+   *          e.g. a prediction of the next time point. The previous result stays the history of the reactive elements.
+   */
+  public void setInitialGuess(double[] initialGuess) {
+
+    this.initialGuess = initialGuess;
+  }
+
+  /**
+   * @param circuitState - the values of the components, and the workspace, the run solves with instead of a fresh state from the components, e.g.
+   *          the state of the previous sweep point or time step. Analyses of the same netlist can run at the same time as long as each has a state of
+   *          its own.
+   */
+  public void setCircuitState(CircuitState circuitState) {
+
+    this.circuitState = circuitState;
+  }
+
+  /**
+   * @return the state of the last run, or the one that was set
+   */
+  public CircuitState getCircuitState() {
+
+    return circuitState;
   }
 
   /**
@@ -74,72 +151,258 @@ public final class DCOperatingPoint {
 
     // long start = System.currentTimeMillis();
 
-     netlist.verifyCircuit();
-    //    System.out.println("netlist " + netlist);
+    // determine array indices and component slots, cached in the netlist until its topology changes
+    CompiledCircuit compiledCircuit = netlist.getCompiledCircuit(timeStep);
 
-    DCOperatingPointResult dcOperatingPointResult = previousDcOperatingPointResult;
+    if (circuitState == null) {
+      circuitState = new CircuitState(compiledCircuit, netlist.isInitialConditions());
+    }
 
-    convergenceTracker = new ConvergenceTracker(netlist.isNonlinearCircuit(), netlist.isInitialConditions());
+    // G, RHS and the LU decomposition are reused by every iteration, and by the next run with the same state
+    SolverWorkspace solverWorkspace = circuitState.getSolverWorkspace(compiledCircuit);
 
-    do {
-      //      System.out.println("------------DCOP-------------");
+    if (previousDcOperatingPointResult == null) {
+      prepareInitialGuess(compiledCircuit);
+    }
+    solverWorkspace.setInitialSolution(previousDcOperatingPointResult);
+    if (isGUnchanged) {
+      solverWorkspace.stampStaticRHS(timeStep);
+    } else {
+      solverWorkspace.stampStatic(timeStep);
+    }
 
-      // determine array indices
-      Map<String, Integer> nodeID2ColumnIdxMap = CircuitMatrixSolver.getNodeID2ColumnIdxMap(netlist, timeStep); // <nodeName, array index>
-      // System.out.println("nodeID2ColumnIdxMap= " + nodeID2ColumnIdxMap);
+    numIterations = 0;
+    convergenceAid = ConvergenceAid.NONE;
+    if (netlist.isNonlinearCircuit() && !circuitState.isInitialConditions()) {
+      if (initialGuess != null) {
+        solverWorkspace.setInitialGuess(initialGuess);
+      }
+      solveWithConvergenceAids(compiledCircuit, solverWorkspace);
+    } else {
+      iterate(compiledCircuit, solverWorkspace, ConvergenceTracker.MAX_NUM_ITERATIONS);
+    }
 
-      // unknown Quantity Names
-      String[] unknownQuantityNames = CircuitMatrixSolver.getUnknownVariableNames(nodeID2ColumnIdxMap, netlist, timeStep);
-      // System.out.println("unknownQuantities= " + Arrays.toString(unknownQuantities));
-      // System.out.println("unknownQuantities.length= " + unknownQuantities.length);
+    DCOperatingPointResult dcOperatingPointResult = solverWorkspace.createResult(isRetainMatrices);
+    //    System.out.println(dcOperatingPointResult.getNodalAnalysisMatrix());
 
-      // G
-      // at this point all the non-linear and reactive component have been converted to resistors, dc voltages and current sources.
-      double[][] G = CircuitMatrixSolver.getG(nodeID2ColumnIdxMap, netlist, dcOperatingPointResult, timeStep);
-      // System.out.println("G= " + CircuitMatrixSolver.GtoString(G));
+    // the device currents are only computed if they are asked for
+    dcOperatingPointResult.setDeviceOutputSelection(compiledCircuit.getDeviceOutputSelection(), circuitState);
 
-      // RHS
-      double[] RHS = CircuitMatrixSolver.getRHS(nodeID2ColumnIdxMap, netlist, dcOperatingPointResult, timeStep);
-      // System.out.println("I= " + Arrays.toString(I));
+    //    System.out.println("Iterations= " + convergenceTracker.getNumIterationsToConvergence());
 
-      // trim G, remove "O"th row and column
-      double[][] G_trimmed = CircuitMatrixSolver.trimG(G, nodeID2ColumnIdxMap);
-      // for (int i = 0; i < G2.length; i++) {
-      // for (int j = 0; j < G2[i].length; j++) {
-      // if (G2[i][j] == 0.0) {
-      // G2[i][j] = 0.000000000001; // 10^-12
-      // }
-      // }
-      // }
-      // System.out.println("G_trimmed= " + CircuitMatrixSolver.GtoString(G_trimmed));
+    //    System.out.println(dcOperatingPointResult.getNodalAnalysisMatrix());
 
-      // trim I, remove "O"th row
-      double[] RHS_trimmed = CircuitMatrixSolver.trimVector(RHS, nodeID2ColumnIdxMap);
-      // System.out.println("RHS_trimmed= " + Arrays.toString(RHS_trimmed));
+    // System.out.println("dcOperatingPoint= " + (System.currentTimeMillis() - start));
 
-      if (netlist.isInitialConditions()) {
+    return dcOperatingPointResult;
+  }
 
-        double[] solutionVector = CircuitMatrixSolver.getInitialConditionsSolutionVector(nodeID2ColumnIdxMap, netlist, RHS);
-        double[] solutionVector_trimmed = CircuitMatrixSolver.trimVector(solutionVector, nodeID2ColumnIdxMap);
-        dcOperatingPointResult = CircuitMatrixSolver.solveMatrixWithInitialConditions(solutionVector_trimmed, G_trimmed, unknownQuantityNames,
-            RHS_trimmed);
-      } else {
+  /**
+   * Plain Newton first, then gmin stepping and then source stepping. The aids start over from the components' initial guesses, like the first run
+   * on a circuit, and warm start each of their steps from the last one that converged. A stage gives up after MAX_NUM_ITERATIONS_PER_STAGE
+   * iterations, so a hard point does not burn the full iteration limit before the aids get their turn.
+   * <p>
+   * Each stage also starts over from the state the run started with, so the memristor states and limiting points a failed stage moved with its
+   * non-physical iterates do not carry over. If none of them converge, the state is left as the run found it.
+   *
+   * @param compiledCircuit
+   * @param solverWorkspace
+   * @throws NodalAnalysisConvergenceException - if none of them converged
+   */
+  private void solveWithConvergenceAids(CompiledCircuit compiledCircuit, SolverWorkspace solverWorkspace) {
+
+    double[] stateSnapshot = solverWorkspace.getStateSnapshot();
+    circuitState.save(stateSnapshot);
+    if (tryIterate(compiledCircuit, solverWorkspace)) {
+      return;
+    }
+
+    try {
+      convergenceAid = ConvergenceAid.GMIN_STEPPING;
+      circuitState.restore(stateSnapshot);
+      if (stepGmin(compiledCircuit, solverWorkspace)) {
+        return;
+      }
+      convergenceAid = ConvergenceAid.SOURCE_STEPPING;
+      circuitState.restore(stateSnapshot);
+      if (stepSources(compiledCircuit, solverWorkspace)) {
+        return;
+      }
+    } finally {
+      solverWorkspace.setGmin(0.0);
+      solverWorkspace.setSourceFactor(1.0);
+    }
+    circuitState.restore(stateSnapshot);
+    throw new NodalAnalysisConvergenceException();
+  }
 
-        dcOperatingPointResult = CircuitMatrixSolver.solveMatrix(G_trimmed, unknownQuantityNames, RHS_trimmed);
+  /**
+   * Ties every node to ground with a conductance that starts out large enough to dominate the nonlinear components, and lowers it a decade at a time
+   * down to none
+   *
+   * @param compiledCircuit
+   * @param solverWorkspace
+   * @return true if the circuit without gmin converged
+   */
+  private boolean stepGmin(CompiledCircuit compiledCircuit, SolverWorkspace solverWorkspace) {
+
+    restartFromInitialGuess(compiledCircuit, solverWorkspace);
+    for (int i = 0; i <= NUM_GMIN_STEPS; i++) {
+      solverWorkspace.setGmin(GMIN_START * Math.pow(10, -i));
+      if (!tryIterate(compiledCircuit, solverWorkspace)) {
+        return false;
       }
-      //      System.out.println(dcOperatingPointResult.getNodalAnalysisMatrix());
+    }
+    solverWorkspace.setGmin(0.0);
+    return tryIterate(compiledCircuit, solverWorkspace);
+  }
 
-      dcOperatingPointResult.generateDeviceCurrents(netlist);
+  /**
+   * Ramps the independent sources up from zero, halving the step whenever a step does not converge
+   *
+   * @param compiledCircuit
+   * @param solverWorkspace
+   * @return true if the circuit with the full sources converged
+   */
+  private boolean stepSources(CompiledCircuit compiledCircuit, SolverWorkspace solverWorkspace) {
 
-    } while (!convergenceTracker.update(dcOperatingPointResult));
+    restartFromInitialGuess(compiledCircuit, solverWorkspace);
+    solverWorkspace.setSourceFactor(0.0);
+    if (!tryIterate(compiledCircuit, solverWorkspace)) {
+      return false;
+    }
+    DCOperatingPointResult lastConverged = solverWorkspace.createResult(false);
 
-    //    System.out.println("Iterations= " + convergenceTracker.getNumIterationsToConvergence());
+    double sourceFactor = 0.0;
+    double sourceStep = 1.0 / NUM_SOURCE_STEPS;
+    while (sourceFactor < 1.0) {
 
-    //    System.out.println(dcOperatingPointResult.getNodalAnalysisMatrix());
+      double nextSourceFactor = Math.min(1.0, sourceFactor + sourceStep);
+      solverWorkspace.setSourceFactor(nextSourceFactor);
+      if (tryIterate(compiledCircuit, solverWorkspace)) {
+        sourceFactor = nextSourceFactor;
+        lastConverged = solverWorkspace.createResult(false);
+      } else {
+        sourceStep /= 2;
+        if (sourceStep < MIN_SOURCE_STEP) {
+          return false;
+        }
+        solverWorkspace.setInitialSolution(lastConverged);
+      }
+    }
+    return true;
+  }
 
-    //    dcOperatingPointResult.generateDeviceCurrents(circuit);
+  private void restartFromInitialGuess(CompiledCircuit compiledCircuit, SolverWorkspace solverWorkspace) {
 
-    // System.out.println("dcOperatingPoint= " + (System.currentTimeMillis() - start));
+    prepareInitialGuess(compiledCircuit);
+    solverWorkspace.setInitialSolution(null);
+  }
+
+  private void prepareInitialGuess(CompiledCircuit compiledCircuit) {
+
+    NetlistComponent[] netlistComponents = compiledCircuit.getNetlistComponents();
+    int[] stateIdxs = compiledCircuit.getStateIdxs();
+    for (int i = 0; i < netlistComponents.length; i++) {
+      netlistComponents[i].prepareInitialGuess(netlist, circuitState, stateIdxs[i]);
+    }
+  }
+
+  /**
+   * @param compiledCircuit
+   * @param solverWorkspace
+   * @return true if Newton converged within MAX_NUM_ITERATIONS_PER_STAGE iterations
+   */
+  private boolean tryIterate(CompiledCircuit compiledCircuit, SolverWorkspace solverWorkspace) {
+
+    try {
+      iterate(compiledCircuit, solverWorkspace, MAX_NUM_ITERATIONS_PER_STAGE);
+      return true;
+    } catch (NodalAnalysisConvergenceException | SingularMatrixException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Newton iterations from the current solution of the workspace until the solution stops changing
+   *
+   * @param compiledCircuit
+   * @param solverWorkspace
+   * @param maxNumIterations
+   */
+  private void iterate(CompiledCircuit compiledCircuit, SolverWorkspace solverWorkspace, int maxNumIterations) {
+
+    // the tolerances of the unknowns are looked up once per circuit, not on every iteration
+    convergenceTracker = new ConvergenceTracker(netlist.isNonlinearCircuit(), circuitState.isInitialConditions(), compiledCircuit
+        .getAbsoluteTolerances(), maxNumIterations);
+
+    try {
+      boolean isLimited = false;
+      do {
+        //      System.out.println("------------DCOP-------------");
+
+        // G, without the "O"th row and column, and RHS, starting from the linear stamps
+        // at this point all the non-linear and reactive component have been converted to resistors, dc voltages and current sources.
+        solverWorkspace.stamp(timeStep);
+
+        if (circuitState.isInitialConditions()) {
+          solverWorkspace.useInitialConditions();
+        } else {
+          solverWorkspace.solve();
+          convergenceTracker.setResidualNorm(solverWorkspace.getResidualNorm());
+          // a solution found around limited device voltages is not a solution of the circuit yet
+          isLimited = solverWorkspace.isLimited();
+        }
+
+      } while (!convergenceTracker.update(solverWorkspace.getUnknowns()) || isLimited);
+    } finally {
+      numIterations += convergenceTracker.getNumIterationsToConvergence();
+    }
+  }
+
+  /**
+   * @return the convergence aid the last run needed, NONE if plain Newton converged
+   */
+  public ConvergenceAid getConvergenceAid() {
+
+    return convergenceAid;
+  }
+
+  /**
+   * @return the number of Newton iterations of the last run, over all the convergence aids
+   */
+  public int getNumIterations() {
+
+    return numIterations;
+  }
+
+  /**
+   * @return the convergence tracker of the last Newton iterations of the last run, with their iteration count and the norms of their last iteration,
+   *         or null before the first run
+   */
+  public ConvergenceTracker getConvergenceTracker() {
+
+    return convergenceTracker;
+  }
+
+  /**
+   * Run the DC Operating Point Analysis and pass the requested node voltages and device currents to a sink as a single sample at x = 0
+   *
+   * @param simulationResultSink
+   * @return DCOperatingPointResult
+   */
+  public DCOperatingPointResult run(SimulationResultSink simulationResultSink) {
+
+    DCOperatingPointResult dcOperatingPointResult = run();
+
+    // only the requested signals are evaluated
+    CompiledCircuit compiledCircuit = netlist.getCompiledCircuit(timeStep);
+    OutputSelection outputSelection = OutputSelection.compile(compiledCircuit, netlist.getPrintProbes());
+    double[] values = new double[outputSelection.getNumLabels()];
+    outputSelection.getValues(compiledCircuit.getSolutionVector(dcOperatingPointResult), circuitState, values);
+    simulationResultSink.start("", outputSelection.getLabels());
+    simulationResultSink.accept(0.0, values);
+    simulationResultSink.end();
 
     return dcOperatingPointResult;
   }
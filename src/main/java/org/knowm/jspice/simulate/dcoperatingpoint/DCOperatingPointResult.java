@@ -28,31 +28,34 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 
-import org.knowm.jspice.component.element.linear.Resistor;
-import org.knowm.jspice.component.element.memristor.Memristor;
-import org.knowm.jspice.component.element.nonlinear.Diode;
-import org.knowm.jspice.component.element.nonlinear.MOSFET;
-import org.knowm.jspice.component.element.nonlinear.NMOS;
-import org.knowm.jspice.component.element.reactive.Capacitor;
-import org.knowm.jspice.component.element.reactive.Inductor;
-import org.knowm.jspice.component.source.DCCurrent;
-import org.knowm.jspice.component.source.DCCurrentArbitrary;
-import org.knowm.jspice.component.source.VCCS;
-import org.knowm.jspice.netlist.Netlist;
-import org.knowm.jspice.netlist.NetlistComponent;
-
 /**
+ * The solution of a DC operating point: a primitive vector of the unknowns plus a reference to the names of the unknowns, which are shared by all
+ * results of the same CompiledCircuit. The maps of the node and device values are only built when they are asked for.
+ *
  * @author timmolter
  */
 public final class DCOperatingPointResult {
 
   private final String[] unknownQuantityNames; // decorated i.e. V(1)
-  private final double[][] G;
+  private Map<String, Integer> unknownQuantityName2IdxMap;
   private final double[] unknownQuantities;
-  private final double[] RHS;
 
-  private final Map<String, Double> nodeLabels2Value; // decorated i.e. V(1)
+  /**
+   * only retained for debugging, see DCOperatingPoint.setRetainMatrices()
+   */
+  private double[][] G;
+  private double[] RHS;
 
+  private Map<String, Double> nodeLabels2Value; // decorated i.e. V(1)
+
+  /**
+   * the device currents are derived from the solution on demand, with a copy of the values of the devices' components the solution was found with,
+   * so changing the netlist or running on does not change them
+   */
+  private OutputSelection deviceOutputSelection;
+  private double[] deviceSweepValues;
+  private boolean isInitialConditions;
+  private double[] solution;
   private Map<String, Double> deviceLabels2Value;
 
   /**
@@ -71,11 +74,31 @@ public final class DCOperatingPointResult {
     this.unknownQuantities = unknownQuantities;
     // System.out.println(Arrays.toString(unknownQuantities));
     this.RHS = RHS;
+  }
 
-    nodeLabels2Value = new TreeMap<>();
-    for (int j = 0; j < unknownQuantities.length; j++) {
-      nodeLabels2Value.put(unknownQuantityNames[j], unknownQuantities[j]);
-    }
+  /**
+   * Constructor
+   *
+   * @param compiledCircuit - the circuit that was solved, whose names of the unknowns are shared
+   * @param unknownQuantities - in the order of compiledCircuit.getUnknownQuantityNames()
+   */
+  public DCOperatingPointResult(CompiledCircuit compiledCircuit, double[] unknownQuantities) {
+
+    this.unknownQuantityNames = compiledCircuit.getUnknownQuantityNames();
+    this.unknownQuantityName2IdxMap = compiledCircuit.getUnknownQuantityName2IdxMap();
+    this.unknownQuantities = unknownQuantities;
+  }
+
+  /**
+   * Keeps the system that was solved, for debugging
+   *
+   * @param G - the trimmed G, null if it was solved sparse
+   * @param RHS - the trimmed RHS
+   */
+  void setMatrices(double[][] G, double[] RHS) {
+
+    this.G = G;
+    this.RHS = RHS;
   }
 
   public String[] getNodeLabels() {
@@ -83,16 +106,79 @@ public final class DCOperatingPointResult {
     return unknownQuantityNames;
   }
 
+  /**
+   * @return the values of the unknowns by name, built on the first call
+   */
   public Map<String, Double> getNodeLabels2Value() {
 
+    if (nodeLabels2Value == null) {
+      nodeLabels2Value = new TreeMap<>();
+      for (int j = 0; j < unknownQuantities.length; j++) {
+        nodeLabels2Value.put(unknownQuantityNames[j], unknownQuantities[j]);
+      }
+    }
     return nodeLabels2Value;
   }
 
+  /**
+   * @param unknownQuantityName - i.e. V(1) or I(V1)
+   * @return the index of the unknown in getV(), or -1 if there is no such unknown
+   */
+  public int getUnknownQuantityIdx(String unknownQuantityName) {
+
+    if (unknownQuantityName2IdxMap == null) {
+      unknownQuantityName2IdxMap = CompiledCircuit.getName2IdxMap(unknownQuantityNames);
+    }
+    Integer idx = unknownQuantityName2IdxMap.get(unknownQuantityName);
+    return idx == null ? -1 : idx;
+  }
+
+  /**
+   * @return the currents of all devices and the resistances of the memristors, computed on the first call
+   */
   public Map<String, Double> getDeviceLabels2Value() {
 
+    if (deviceLabels2Value == null && deviceOutputSelection != null) {
+      deviceLabels2Value = new TreeMap<>();
+      String[] deviceLabels = deviceOutputSelection.getLabels();
+      for (int i = 0; i < deviceLabels.length; i++) {
+        deviceLabels2Value.put(deviceLabels[i], getDeviceValue(i));
+      }
+    }
     return deviceLabels2Value;
   }
 
+  /**
+   * Enables the device currents of this result, which are only computed when requested
+   *
+   * @param deviceOutputSelection - the devices of the circuit this result was solved for
+   * @param circuitState - the state this result was solved with, of which only the values of the devices' components are kept
+   */
+  void setDeviceOutputSelection(OutputSelection deviceOutputSelection, CircuitState circuitState) {
+
+    this.deviceOutputSelection = deviceOutputSelection;
+    this.deviceSweepValues = new double[deviceOutputSelection.getNumLabels()];
+    deviceOutputSelection.getSweepValues(circuitState, deviceSweepValues);
+    this.isInitialConditions = circuitState.isInitialConditions();
+    this.deviceLabels2Value = null;
+  }
+
+  private double getDeviceValue(int deviceIdx) {
+
+    // invalidate all calculated results as these would be bogus anyway when in initial conditions are given
+    if (isInitialConditions) {
+      return 0.01;
+    }
+    if (solution == null) {
+      solution = new double[unknownQuantities.length + 1];
+      System.arraycopy(unknownQuantities, 0, solution, 1, unknownQuantities.length);
+    }
+    return deviceOutputSelection.getValue(deviceIdx, solution, isInitialConditions, deviceSweepValues[deviceIdx]);
+  }
+
+  /**
+   * @return G, or null if it was not retained or the circuit was large enough to be solved with the sparse solver
+   */
   public double[][] getG() {
 
     return G;
@@ -103,6 +189,9 @@ public final class DCOperatingPointResult {
     return unknownQuantities;
   }
 
+  /**
+   * @return RHS, or null if it was not retained
+   */
   public double[] getRHS() {
 
     return RHS;
@@ -121,14 +210,18 @@ public final class DCOperatingPointResult {
     if (nodeOrDeviceLabel.equals("V(0)")) { // ground
       return 0.0;
     } else {
-      if (nodeLabels2Value.get(nodeOrDeviceLabel) != null) {
-        return nodeLabels2Value.get(nodeOrDeviceLabel);
-      } else if (deviceLabels2Value.get(nodeOrDeviceLabel) != null) {
-        return deviceLabels2Value.get(nodeOrDeviceLabel);
+      int unknownQuantityIdx = getUnknownQuantityIdx(nodeOrDeviceLabel);
+      int deviceIdx = deviceOutputSelection == null ? -1 : deviceOutputSelection.getLabelIdx(nodeOrDeviceLabel);
+      if (unknownQuantityIdx >= 0) {
+        return unknownQuantities[unknownQuantityIdx];
+      } else if (deviceIdx >= 0) {
+        return getDeviceValue(deviceIdx); // only this device
       } else {
         Set<String> possibleValues = new HashSet<>();
-        possibleValues.addAll(nodeLabels2Value.keySet());
-        possibleValues.addAll(deviceLabels2Value.keySet());
+        possibleValues.addAll(Arrays.asList(unknownQuantityNames));
+        if (getDeviceLabels2Value() != null) {
+          possibleValues.addAll(getDeviceLabels2Value().keySet());
+        }
         throw new RuntimeException("Node or device with label: " + nodeOrDeviceLabel + " contains no value! Possible choices are: " + possibleValues);
       }
     }
@@ -155,7 +248,7 @@ public final class DCOperatingPointResult {
     // sb.append(System.getProperty("line.separator"));
     // }
 
-    for (Entry<String, Double> entry : nodeLabels2Value.entrySet()) {
+    for (Entry<String, Double> entry : getNodeLabels2Value().entrySet()) {
       sb.append(entry.getKey() + " = " + entry.getValue());
       sb.append(System.getProperty("line.separator"));
     }
@@ -163,7 +256,7 @@ public final class DCOperatingPointResult {
     sb.append("----components----");
     sb.append(System.getProperty("line.separator"));
 
-    for (Entry<String, Double> entry : deviceLabels2Value.entrySet()) {
+    for (Entry<String, Double> entry : getDeviceLabels2Value().entrySet()) {
       sb.append(entry.getKey() + " = " + entry.getValue());
       sb.append(System.getProperty("line.separator"));
     }
@@ -174,6 +267,10 @@ public final class DCOperatingPointResult {
 
   private String GtoString(double[][] G) {
 
+    if (G == null) { // solved sparse
+      return "null";
+    }
+
     StringBuilder sb = new StringBuilder();
     sb.append("[");
     for (double[] row : G) {
@@ -186,143 +283,4 @@ public final class DCOperatingPointResult {
     sb.append("]");
     return sb.toString();
   }
-
-  public void generateDeviceCurrents(Netlist netlist) {
-
-    //    System.out.println("HERE");
-
-    deviceLabels2Value = new TreeMap<>();
-
-    // DC Current Sources
-    for (NetlistComponent netListComponent : netlist.getNetListDCCurrentSources()) {
-
-      DCCurrent dcCurrent = (DCCurrent) netListComponent.getComponent();
-
-      double current = dcCurrent.getSweepableValue();
-      deviceLabels2Value.put("I(" + dcCurrent.getId() + ")", current);
-    }
-    // DC Current Source Arbitrary
-    for (NetlistComponent netListComponent : netlist.getNetListDCCurrentArbitrarys()) {
-
-      DCCurrentArbitrary dcCurrent = (DCCurrentArbitrary) netListComponent.getComponent();
-      double current = dcCurrent.getSweepableValue();
-      deviceLabels2Value.put("I(" + dcCurrent.getId() + ")", current);
-    }
-
-    // resistors
-    for (NetlistComponent netListComponent : netlist.getNetListResistors()) {
-
-      Resistor resistor = (Resistor) netListComponent.getComponent();
-      double voltageA = getValue("V(" + netListComponent.getNodesAsArray()[0] + ")");
-      double voltageB = getValue("V(" + netListComponent.getNodesAsArray()[1] + ")");
-      double voltageDiff = voltageA - voltageB;
-      double current = resistor.getCurrent(voltageDiff);
-      deviceLabels2Value.put("I(" + resistor.getId() + ")", current);
-    }
-
-    // diodes
-    for (NetlistComponent netListComponent : netlist.getNetListDiodes()) {
-
-      Diode diode = (Diode) netListComponent.getComponent();
-      double voltageA = getValue("V(" + netListComponent.getNodesAsArray()[0] + ")");
-      double voltageB = getValue("V(" + netListComponent.getNodesAsArray()[1] + ")");
-      double voltageDiff = voltageA - voltageB;
-      double current = diode.getCurrent(voltageDiff);
-      deviceLabels2Value.put("I(" + diode.getId() + ")", current);
-    }
-
-    // MOSFETs
-    for (NetlistComponent netListComponent : netlist.getNetListMOSFETs()) {
-
-      MOSFET mosfet = (MOSFET) netListComponent.getComponent();
-      double Vg = getValue("V(" + netListComponent.getNodesAsArray()[0] + ")"); // gate
-      double Vd = getValue("V(" + netListComponent.getNodesAsArray()[1] + ")"); // drain
-      double Vs = getValue("V(" + netListComponent.getNodesAsArray()[2] + ")"); // source
-      double Vgs = Vg - Vs;
-      double Vds = Vd - Vs;
-
-      //      System.out.println("Vgs= " + Vgs);
-      //      System.out.println("Vds= " + Vds);
-
-      double current;
-      if (mosfet instanceof NMOS) {
-        current = mosfet.getCurrent(Vgs, Vds);
-      } else {
-        current = -1 * mosfet.getCurrent(-1.0 * Vgs, -1.0 * Vds);
-
-      }
-      // System.out.println("current= " + current);
-      //      if (mosfet instanceof NMOS) {
-      //        System.out.println("NMOS mode= " + mosfet.getOperationMode(Vgs, Vds));
-      //      } else {
-      //        System.out.println("PMOS mode= " + mosfet.getOperationMode(-1.0 * Vgs, -1.0 * Vds));
-      //      }
-
-      deviceLabels2Value.put("I(" + mosfet.getId() + ")", current);
-    }
-
-    // capacitors
-    for (NetlistComponent netListComponent : netlist.getNetListCapacitors()) {
-
-      Capacitor capacitor = (Capacitor) netListComponent.getComponent();
-      deviceLabels2Value.put("I(" + capacitor.getId() + ")", nodeLabels2Value.get("I(" + capacitor.getId() + ")"));
-    }
-
-    // inductors
-    for (NetlistComponent netListComponent : netlist.getNetListInductors()) {
-
-      Inductor inductor = (Inductor) netListComponent.getComponent();
-      if (nodeLabels2Value.get("I(" + inductor.getId() + ")") == null) {
-        double voltageA = getValue("V(" + netListComponent.getNodesAsArray()[0] + ")");
-        double voltageB = getValue("V(" + netListComponent.getNodesAsArray()[1] + ")");
-        double voltageDiff = voltageA - voltageB;
-        double current = voltageDiff / Inductor.INDUCTOR_DC_RESISTANCE;
-        // System.out.println("voltageDiff = " + voltageDiff);
-        // System.out.println("current = " + current);
-        deviceLabels2Value.put("I(" + inductor.getId() + ")", current);
-      } else {
-        deviceLabels2Value.put("I(" + inductor.getId() + ")", nodeLabels2Value.get("I(" + inductor.getId() + ")"));
-        // System.out.println("current = " + nodeLabels2Value.get("I(" + inductor.getID() + ")"));
-      }
-    }
-
-    // memristors
-    for (NetlistComponent netListComponent : netlist.getNetListMemristors()) {
-
-      Memristor memristor = (Memristor) netListComponent.getComponent();
-      double voltageA = getValue("V(" + netListComponent.getNodesAsArray()[0] + ")");
-      double voltageB = getValue("V(" + netListComponent.getNodesAsArray()[1] + ")");
-      double voltageDiff = voltageA - voltageB;
-      double current = memristor.getCurrent(voltageDiff);
-      deviceLabels2Value.put("I(" + memristor.getId() + ")", current);
-      deviceLabels2Value.put("R(" + memristor.getId() + ")", memristor.getResistance());
-    }
-
-    // VCCSs
-    for (NetlistComponent netListComponent : netlist.getNetListVCCSs()) {
-
-      VCCS vCCS = (VCCS) netListComponent.getComponent();
-      double voltageA = getValue("V(" + netListComponent.getNodesAsArray()[2] + ")");
-      double voltageB = getValue("V(" + netListComponent.getNodesAsArray()[3] + ")");
-      double voltageDiff = voltageA - voltageB;
-      double current = vCCS.getCurrent(voltageDiff);
-      deviceLabels2Value.put("I(" + vCCS.getId() + ")", current);
-    }
-
-    // // VCVSs
-    // for (NetlistComponent netListComponent : netlist.getNetListVCVSs()) {
-    //
-    // VCVS vCVS = (VCVS) netListComponent.getComponent();
-    // deviceLabels2Value.put("I(" + vCVS.getID() + ")", current);
-    // }
-    // }
-
-    // invalidate all calculated results as these would be bogus anyway when in initial conditions are given
-    if (netlist.isInitialConditions()) {
-      for (String key : deviceLabels2Value.keySet()) {
-        // deviceLabels2Value.put(key, null);
-        deviceLabels2Value.put(key, 0.01);
-      }
-    }
-  }
 }
@@ -0,0 +1,382 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcoperatingpoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.knowm.jspice.component.Component;
+import org.knowm.jspice.component.element.linear.Resistor;
+import org.knowm.jspice.component.element.memristor.Memristor;
+import org.knowm.jspice.component.element.nonlinear.Diode;
+import org.knowm.jspice.component.element.nonlinear.MOSFET;
+import org.knowm.jspice.component.element.nonlinear.NMOS;
+import org.knowm.jspice.component.element.reactive.Capacitor;
+import org.knowm.jspice.component.element.reactive.Inductor;
+import org.knowm.jspice.component.element.reactive.ReactiveElement;
+import org.knowm.jspice.component.source.DCCurrent;
+import org.knowm.jspice.component.source.VCCS;
+import org.knowm.jspice.netlist.NetlistComponent;
+
+/**
+ * The signals an analysis records, i.e. the probes of a .PRINT line, resolved against a CompiledCircuit. Node voltages and branch currents are read
+ * straight out of the solution vector by column, and a device current is only computed if it was asked for, with the values of the components in
+ * the CircuitState the solution was found with.
+ */
+public final class OutputSelection {
+
+  private static final int COLUMN = 0;
+  private static final int VOLTAGE_DIFFERENCE = 1;
+  private static final int ZERO = 2;
+  private static final int CURRENT_SOURCE = 3;
+  private static final int RESISTOR = 4;
+  private static final int DIODE = 5;
+  private static final int MOSFET_CURRENT = 6;
+  private static final int INDUCTOR_DC = 7;
+  private static final int MEMRISTOR_CURRENT = 8;
+  private static final int MEMRISTOR_RESISTANCE = 9;
+  private static final int VCCS_CURRENT = 10;
+
+  private final String[] labels;
+  private final Map<String, Integer> label2IdxMap;
+  private final int[] kinds;
+  private final int[][] columns;
+  private final Component[] components;
+  private final int[] componentIdxs;
+
+  /**
+   * Constructor
+   *
+   * @param labels
+   * @param kinds
+   * @param columns
+   * @param components
+   * @param componentIdxs - the indices of the components in CompiledCircuit.getNetlistComponents(), for their values in a CircuitState
+   */
+  private OutputSelection(String[] labels, int[] kinds, int[][] columns, Component[] components, int[] componentIdxs) {
+
+    this.labels = labels;
+    this.label2IdxMap = new HashMap<>();
+    for (int i = 0; i < labels.length; i++) {
+      label2IdxMap.put(labels[i], i);
+    }
+    this.kinds = kinds;
+    this.columns = columns;
+    this.components = components;
+    this.componentIdxs = componentIdxs;
+  }
+
+  /**
+   * Resolves the signals to record
+   *
+   * @param compiledCircuit
+   * @param probes - i.e. V(2), I(R1), R(M1) or V(2,3), null or empty for all node voltages, branch currents and device currents
+   * @return
+   */
+  public static OutputSelection compile(CompiledCircuit compiledCircuit, List<String> probes) {
+
+    Map<String, NetlistComponent> id2NetlistComponentMap = new HashMap<>();
+    for (NetlistComponent netlistComponent : compiledCircuit.getNetlistComponents()) {
+      id2NetlistComponentMap.put(netlistComponent.getComponent().getId(), netlistComponent);
+    }
+
+    String[] labels;
+    if (probes == null || probes.isEmpty()) {
+      labels = getAllLabels(compiledCircuit);
+    } else {
+      labels = new String[probes.size()];
+      for (int i = 0; i < labels.length; i++) {
+        labels[i] = normalize(probes.get(i));
+      }
+    }
+
+    Map<String, Integer> unknown2ColumnIdxMap = new HashMap<>();
+    String[] unknownQuantityNames = compiledCircuit.getUnknownQuantityNames();
+    for (int i = 0; i < unknownQuantityNames.length; i++) {
+      unknown2ColumnIdxMap.put(unknownQuantityNames[i], i + 1);
+    }
+    unknown2ColumnIdxMap.put("V(0)", CompiledCircuit.GROUND_IDX);
+
+    int[] kinds = new int[labels.length];
+    int[][] columns = new int[labels.length][];
+    Component[] components = new Component[labels.length];
+    int[] componentIdxs = new int[labels.length];
+    for (int i = 0; i < labels.length; i++) {
+
+      // node voltages and branch currents first, so a reactive element's own branch current wins over the device current
+      Integer columnIdx = unknown2ColumnIdxMap.get(labels[i]);
+      if (columnIdx != null) {
+        kinds[i] = COLUMN;
+        columns[i] = new int[]{columnIdx};
+        continue;
+      }
+
+      String quantity = labels[i].substring(0, 1);
+      String id = labels[i].substring(2, labels[i].length() - 1);
+      if (quantity.equals("V") && id.contains(",")) {
+        String[] nodes = id.split(",");
+        kinds[i] = VOLTAGE_DIFFERENCE;
+        columns[i] = new int[]{getColumnIdx(unknown2ColumnIdxMap, "V(" + nodes[0].trim() + ")", labels[i]), getColumnIdx(unknown2ColumnIdxMap, "V("
+            + nodes[1].trim() + ")", labels[i])};
+        continue;
+      }
+
+      NetlistComponent netlistComponent = id2NetlistComponentMap.get(id);
+      if (netlistComponent == null || !(quantity.equals("I") || quantity.equals("R"))) {
+        throw new IllegalArgumentException(labels[i] + " is not a valid signal! Please choose from these values: " + Arrays.toString(getAllLabels(
+            compiledCircuit)));
+      }
+      Component component = netlistComponent.getComponent();
+      components[i] = component;
+      componentIdxs[i] = compiledCircuit.getComponentID2IdxMap().get(id);
+      String[] nodes = netlistComponent.getNodesAsArray();
+      columns[i] = new int[nodes.length];
+      for (int j = 0; j < nodes.length; j++) {
+        columns[i][j] = getColumnIdx(unknown2ColumnIdxMap, "V(" + nodes[j] + ")", labels[i]);
+      }
+      kinds[i] = getDeviceKind(component, quantity, labels[i]);
+    }
+
+    return new OutputSelection(labels, kinds, columns, components, componentIdxs);
+  }
+
+  /**
+   * @param compiledCircuit
+   * @return the node voltages and the branch currents of the sources, followed by the device currents, the same signals a DCOperatingPointResult holds
+   */
+  private static String[] getAllLabels(CompiledCircuit compiledCircuit) {
+
+    Set<String> reactiveBranchLabels = new HashSet<>();
+    for (NetlistComponent netlistComponent : compiledCircuit.getNetlistComponents()) {
+      Component component = netlistComponent.getComponent();
+      if (component instanceof ReactiveElement) {
+        reactiveBranchLabels.add("I(" + component.getId() + ")");
+      }
+    }
+
+    Set<String> nodeLabels = new TreeSet<>();
+    for (String unknownQuantityName : compiledCircuit.getUnknownQuantityNames()) {
+      if (!reactiveBranchLabels.contains(unknownQuantityName)) {
+        nodeLabels.add(unknownQuantityName);
+      }
+    }
+
+    Set<String> labelSet = new LinkedHashSet<>(nodeLabels);
+    labelSet.addAll(getDeviceLabels(compiledCircuit));
+    return labelSet.toArray(new String[labelSet.size()]);
+  }
+
+  /**
+   * @param compiledCircuit
+   * @return the sorted currents of the devices, and the resistances of the memristors
+   */
+  static List<String> getDeviceLabels(CompiledCircuit compiledCircuit) {
+
+    Set<String> deviceLabels = new TreeSet<>();
+    for (NetlistComponent netlistComponent : compiledCircuit.getNetlistComponents()) {
+      Component component = netlistComponent.getComponent();
+      if (component instanceof DCCurrent || component instanceof Resistor || component instanceof Diode || component instanceof MOSFET
+          || component instanceof ReactiveElement || component instanceof Memristor || component instanceof VCCS) {
+        deviceLabels.add("I(" + component.getId() + ")");
+      }
+      if (component instanceof Memristor) {
+        deviceLabels.add("R(" + component.getId() + ")");
+      }
+    }
+    return new ArrayList<>(deviceLabels);
+  }
+
+  private static int getDeviceKind(Component component, String quantity, String label) {
+
+    if (quantity.equals("R")) {
+      if (component instanceof Memristor) {
+        return MEMRISTOR_RESISTANCE;
+      }
+    } else if (component instanceof DCCurrent) {
+      return CURRENT_SOURCE;
+    } else if (component instanceof Resistor) {
+      return RESISTOR;
+    } else if (component instanceof Diode) {
+      return DIODE;
+    } else if (component instanceof MOSFET) {
+      return MOSFET_CURRENT;
+    } else if (component instanceof Capacitor) {
+      return ZERO; // no branch current column at a DC operating point
+    } else if (component instanceof Inductor) {
+      return INDUCTOR_DC;
+    } else if (component instanceof Memristor) {
+      return MEMRISTOR_CURRENT;
+    } else if (component instanceof VCCS) {
+      return VCCS_CURRENT;
+    }
+    throw new IllegalArgumentException(label + " is not a valid signal!");
+  }
+
+  private static int getColumnIdx(Map<String, Integer> unknown2ColumnIdxMap, String nodeLabel, String label) {
+
+    Integer columnIdx = unknown2ColumnIdxMap.get(nodeLabel);
+    if (columnIdx == null) {
+      throw new IllegalArgumentException(label + " is not a valid signal! " + nodeLabel + " is not a node of the circuit.");
+    }
+    return columnIdx;
+  }
+
+  /**
+   * @param probe - i.e. v(Vmr) as written on a .PRINT line
+   * @return the probe with an upper case quantity, i.e. V(Vmr)
+   */
+  static String normalize(String probe) {
+
+    String trimmed = probe.trim();
+    if (trimmed.length() < 4 || trimmed.charAt(1) != '(' || !trimmed.endsWith(")")) {
+      throw new IllegalArgumentException(probe + " is not a valid signal! Use V(node), V(node,node), I(component) or R(memristor).");
+    }
+    return trimmed.substring(0, 1).toUpperCase() + trimmed.substring(1);
+  }
+
+  /**
+   * @return the recorded signals, in the order of the values of getValues()
+   */
+  public String[] getLabels() {
+
+    return labels.clone();
+  }
+
+  public int getNumLabels() {
+
+    return labels.length;
+  }
+
+  /**
+   * @param label
+   * @return the index of the signal, or -1 if it is not selected
+   */
+  public int getLabelIdx(String label) {
+
+    Integer idx = label2IdxMap.get(label);
+    return idx == null ? -1 : idx;
+  }
+
+  /**
+   * Evaluates the selected signals
+   *
+   * @param solution - the converged solution vector indexed by column, ground included
+   * @param state - the state the solution was found with
+   * @param values - one per label
+   */
+  public void getValues(double[] solution, CircuitState state, double[] values) {
+
+    for (int i = 0; i < labels.length; i++) {
+      values[i] = getValue(i, solution, state);
+    }
+  }
+
+  /**
+   * Evaluates a single selected signal
+   *
+   * @param i - the index of the label
+   * @param solution - the converged solution vector indexed by column, ground included
+   * @param state - the state the solution was found with
+   * @return
+   */
+  public double getValue(int i, double[] solution, CircuitState state) {
+
+    return getValue(i, solution, state.isInitialConditions(), components[i] == null ? 0.0 : state.getSweepValue(componentIdxs[i]));
+  }
+
+  /**
+   * Takes the values of the components of the selected devices out of a state, the only part of it a device value needs besides the initial
+   * conditions flag, so a result does not have to keep the whole state
+   *
+   * @param state
+   * @param sweepValues - one per label, left as they are for node voltages and branch currents
+   */
+  public void getSweepValues(CircuitState state, double[] sweepValues) {
+
+    for (int i = 0; i < labels.length; i++) {
+      if (components[i] != null) {
+        sweepValues[i] = state.getSweepValue(componentIdxs[i]);
+      }
+    }
+  }
+
+  /**
+   * Evaluates a single selected signal
+   *
+   * @param i - the index of the label
+   * @param solution - the converged solution vector indexed by column, ground included
+   * @param isInitialConditions - if the solution was forced to the initial conditions
+   * @param sweepValue - the value of the component of a device in the state the solution was found with, see getSweepValues()
+   * @return
+   */
+  public double getValue(int i, double[] solution, boolean isInitialConditions, double sweepValue) {
+
+    int[] columnIdxs = columns[i];
+    if (kinds[i] == COLUMN) {
+      return solution[columnIdxs[0]];
+    } else if (kinds[i] == VOLTAGE_DIFFERENCE) {
+      return solution[columnIdxs[0]] - solution[columnIdxs[1]];
+    }
+
+    // device values are meaningless when the solution was forced to the initial conditions
+    if (isInitialConditions) {
+      return 0.01;
+    }
+
+    double value = sweepValue;
+    switch (kinds[i]) {
+    case CURRENT_SOURCE:
+      return value;
+    case RESISTOR:
+      return ((Resistor) components[i]).getCurrent(solution[columnIdxs[0]] - solution[columnIdxs[1]], value);
+    case DIODE:
+      return ((Diode) components[i]).getCurrent(solution[columnIdxs[0]] - solution[columnIdxs[1]], value);
+    case MOSFET_CURRENT: {
+      MOSFET mosfet = (MOSFET) components[i];
+      double Vgs = solution[columnIdxs[0]] - solution[columnIdxs[2]]; // gate - source
+      double Vds = solution[columnIdxs[1]] - solution[columnIdxs[2]]; // drain - source
+      if (mosfet instanceof NMOS) {
+        return mosfet.getCurrent(Vgs, Vds, value);
+      } else {
+        return -1 * mosfet.getCurrent(-1.0 * Vgs, -1.0 * Vds, value);
+      }
+    }
+    case INDUCTOR_DC:
+      return (solution[columnIdxs[0]] - solution[columnIdxs[1]]) / Inductor.INDUCTOR_DC_RESISTANCE;
+    case MEMRISTOR_CURRENT:
+      return ((Memristor) components[i]).getCurrent(solution[columnIdxs[0]] - solution[columnIdxs[1]], value);
+    case MEMRISTOR_RESISTANCE:
+      return ((Memristor) components[i]).getResistance(value);
+    case VCCS_CURRENT:
+      return ((VCCS) components[i]).getCurrent(solution[columnIdxs[2]] - solution[columnIdxs[3]], value);
+    default:
+      return 0.0;
+    }
+  }
+}
@@ -0,0 +1,569 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcoperatingpoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.SingularMatrixException;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+import org.knowm.jspice.component.Component;
+import org.knowm.jspice.component.NonlinearComponent;
+import org.knowm.jspice.component.source.DCCurrent;
+import org.knowm.jspice.component.source.DCVoltage;
+import org.knowm.jspice.netlist.NetlistComponent;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CSCMatrix;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.DenseCircuitMatrix;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.DenseLU;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.PatternCircuitMatrix;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.SparseLU;
+
+/**
+ * The matrices, vectors and LU decomposition of a Newton iteration, allocated once per CompiledCircuit and reused by every iteration, time step and
+ * sweep point. The linear components are stamped once per run into a static G and RHS, which every Newton iteration starts from before the nonlinear
+ * components are restamped in place. Small circuits are factored in preallocated storage, large ones are refactored on the
+ * pattern of the previous factorization as long as its pivots stay acceptable. Once the sparse pattern has settled, an iteration allocates nothing.
+ * <p>
+ * A workspace belongs to one CircuitState, see CircuitState.getSolverWorkspace(), and the components stamp with the values of that state.
+ */
+public final class SolverWorkspace {
+
+  private final CompiledCircuit compiledCircuit;
+  private final CircuitState state;
+  private final int size;
+  private final boolean isSparse;
+
+  /**
+   * the nonlinear components that may limit the steps of their voltages, and where their values start in the state, see isLimited()
+   */
+  private final NonlinearComponent[] limitingComponents;
+  private final int[] limitingStateIdxs;
+
+  /**
+   * the columns of the node voltages, which gmin ties to ground
+   */
+  private final int[] nodeColumns;
+
+  /**
+   * the convergence aids of DCOperatingPoint, a conductance from every node to ground and the factor the independent sources are scaled by
+   */
+  private double gmin = 0.0;
+  private double sourceFactor = 1.0;
+
+  private final DenseCircuitMatrix denseG;
+  private final DenseCircuitMatrix staticDenseG;
+  private final DenseLU denseLU;
+  private final PatternCircuitMatrix sparseG;
+  private SparseLU sparseLU;
+  private boolean isPatternChanged;
+
+  /**
+   * true once the linear components were stamped, true while G holds only their stamps, and true while the LU decomposition is the one of G
+   */
+  private boolean isStaticStamped;
+  private boolean isGStatic;
+  private boolean isFactored;
+  private long numFactorizations;
+
+  /**
+   * the independent voltage and current sources among the linear and among the nonlinear components, and all the other components of each. The
+   * sources are stamped into RHS of their own, so source stepping can scale them and nothing else.
+   */
+  private final int[] staticSourceIdxs;
+  private final int[] staticOtherIdxs;
+  private final int[] nonlinearSourceIdxs;
+  private final int[] nonlinearOtherIdxs;
+
+  private final double[] RHS;
+  private final double[] staticRHS;
+  private final double[] staticSourceRHS;
+  private final double[] sourceRHS;
+  private final double[] RHS_trimmed;
+
+  /**
+   * G x - RHS of the solution the current stamps were linearized around, and its largest entry, NaN if it was not computed
+   */
+  private final double[] residual;
+  private double residualNorm = Double.NaN;
+
+  /**
+   * the solution of the trimmed system
+   */
+  private final double[] unknowns;
+
+  /**
+   * the same solution indexed by column, ground included, which is what the components stamp from
+   */
+  private final double[] solution;
+  private boolean hasSolution;
+
+  /**
+   * the state a run started from, which each convergence aid starts over from, created on first use
+   */
+  private double[] stateSnapshot;
+
+  /**
+   * Constructor
+   *
+   * @param compiledCircuit
+   * @param state
+   */
+  SolverWorkspace(CompiledCircuit compiledCircuit, CircuitState state) {
+
+    this.compiledCircuit = compiledCircuit;
+    this.state = state;
+    this.size = compiledCircuit.getSize();
+    this.isSparse = CircuitMatrixSolver.isSparse(size);
+    List<Integer> limitingComponentIdxs = new ArrayList<>();
+    for (int idx : compiledCircuit.getNonlinearComponentIdxs()) {
+      Component component = compiledCircuit.getNetlistComponents()[idx].getComponent();
+      if (component instanceof NonlinearComponent) {
+        limitingComponentIdxs.add(idx);
+      }
+    }
+    this.limitingComponents = new NonlinearComponent[limitingComponentIdxs.size()];
+    this.limitingStateIdxs = new int[limitingComponentIdxs.size()];
+    for (int i = 0; i < limitingComponents.length; i++) {
+      int idx = limitingComponentIdxs.get(i);
+      limitingComponents[i] = (NonlinearComponent) compiledCircuit.getNetlistComponents()[idx].getComponent();
+      limitingStateIdxs[i] = compiledCircuit.getStateIdxs()[idx];
+    }
+    String[] unknownQuantityNames = compiledCircuit.getUnknownQuantityNames();
+    int numNodes = 0;
+    for (String unknownQuantityName : unknownQuantityNames) {
+      if (unknownQuantityName.startsWith("V")) {
+        numNodes++;
+      }
+    }
+    this.nodeColumns = new int[numNodes];
+    for (int i = 0, nodeIdx = 0; i < unknownQuantityNames.length; i++) {
+      if (unknownQuantityNames[i].startsWith("V")) {
+        nodeColumns[nodeIdx++] = i + 1;
+      }
+    }
+    if (isSparse) {
+      this.denseG = null;
+      this.staticDenseG = null;
+      this.denseLU = null;
+      this.sparseG = new PatternCircuitMatrix(size);
+    } else {
+      this.denseG = new DenseCircuitMatrix(size, true);
+      this.staticDenseG = new DenseCircuitMatrix(size, true);
+      this.denseLU = new DenseLU(size - 1);
+      this.sparseG = null;
+    }
+    this.staticSourceIdxs = getComponentIdxs(compiledCircuit, compiledCircuit.getLinearComponentIdxs(), true);
+    this.staticOtherIdxs = getComponentIdxs(compiledCircuit, compiledCircuit.getLinearComponentIdxs(), false);
+    this.nonlinearSourceIdxs = getComponentIdxs(compiledCircuit, compiledCircuit.getNonlinearComponentIdxs(), true);
+    this.nonlinearOtherIdxs = getComponentIdxs(compiledCircuit, compiledCircuit.getNonlinearComponentIdxs(), false);
+    this.RHS = new double[size];
+    this.staticRHS = new double[size];
+    this.staticSourceRHS = new double[size];
+    this.sourceRHS = new double[size];
+    this.RHS_trimmed = new double[size - 1];
+    this.residual = new double[size - 1];
+    this.unknowns = new double[size - 1];
+    this.solution = new double[size];
+  }
+
+  /**
+   * @param compiledCircuit
+   * @param componentIdxs - i.e. CompiledCircuit.getLinearComponentIdxs()
+   * @param isSources - true for the independent sources among them, false for the others
+   * @return the indices of the independent sources, or of the other components, in the same order
+   */
+  private static int[] getComponentIdxs(CompiledCircuit compiledCircuit, int[] componentIdxs, boolean isSources) {
+
+    NetlistComponent[] netlistComponents = compiledCircuit.getNetlistComponents();
+    return Arrays.stream(componentIdxs).filter(idx -> isIndependentSource(netlistComponents[idx].getComponent()) == isSources).toArray();
+  }
+
+  /**
+   * @param component
+   * @return true for the voltage and current sources whose value does not depend on other branches, the arbitrary ones included
+   */
+  private static boolean isIndependentSource(Component component) {
+
+    return component instanceof DCVoltage || component instanceof DCCurrent;
+  }
+
+  /**
+   * Sets the solution the first iteration linearizes around
+   *
+   * @param dcOperatingPointResult - the previous result, or null if there is none, in which case the components use their own initial guess
+   */
+  public void setInitialSolution(DCOperatingPointResult dcOperatingPointResult) {
+
+    if (dcOperatingPointResult == null) {
+      hasSolution = false;
+    } else {
+      compiledCircuit.getSolutionVector(dcOperatingPointResult, solution);
+      hasSolution = true;
+    }
+  }
+
+  /**
+   * Replaces the solution the first iteration linearizes around, after the linear components were stamped around the initial solution
+   *
+   * @param initialGuess - indexed by column, ground included
+   */
+  public void setInitialGuess(double[] initialGuess) {
+
+    System.arraycopy(initialGuess, 0, solution, 0, size);
+    hasSolution = true;
+  }
+
+  /**
+   * Stamps the linear components, whose contributions to G and RHS stay the same for all Newton iterations of a run. They are stamped around the
+   * initial solution, so the reactive elements see the solution of the previous time step as their history.
+   *
+   * @param timeStep
+   */
+  public void stampStatic(Double timeStep) {
+
+    int[] linearComponentIdxs = compiledCircuit.getLinearComponentIdxs();
+    double[] previousSolution = getSolution();
+
+    if (isSparse) {
+      sparseG.clear();
+      CircuitMatrixSolver.stampG(sparseG, compiledCircuit, linearComponentIdxs, previousSolution, state, timeStep);
+      isPatternChanged |= sparseG.updatePattern();
+      sparseG.saveBaseline();
+    } else {
+      staticDenseG.clear();
+      CircuitMatrixSolver.stampG(staticDenseG, compiledCircuit, linearComponentIdxs, previousSolution, state, timeStep);
+    }
+
+    isStaticStamped = true;
+    isGStatic = false;
+    isFactored = false;
+
+    stampStaticRHS(timeStep);
+  }
+
+  /**
+   * Only restamps the RHS of the linear components, keeping their G and its LU decomposition from the last run. This is only valid if nothing that
+   * goes into G changed since then, i.e. for a linear circuit with a fixed time step whose drivers only drive independent sources. Falls back on
+   * stampStatic() if nothing was stamped yet.
+   *
+   * @param timeStep
+   */
+  public void stampStaticRHS(Double timeStep) {
+
+    if (!isStaticStamped) {
+      stampStatic(timeStep);
+      return;
+    }
+
+    Arrays.fill(staticRHS, 0.0);
+    Arrays.fill(staticSourceRHS, 0.0);
+    CircuitMatrixSolver.stampRHS(staticRHS, compiledCircuit, staticOtherIdxs, getSolution(), state, timeStep);
+    CircuitMatrixSolver.stampRHS(staticSourceRHS, compiledCircuit, staticSourceIdxs, getSolution(), state, timeStep);
+  }
+
+  /**
+   * Starts G and RHS from the linear stamps and restamps the nonlinear components around the current solution
+   *
+   * @param timeStep
+   */
+  public void stamp(Double timeStep) {
+
+    int[] nonlinearComponentIdxs = compiledCircuit.getNonlinearComponentIdxs();
+    double[] previousSolution = getSolution();
+
+    // a linear circuit keeps G, and its LU decomposition, until the linear components are restamped
+    if (!isGStatic || nonlinearComponentIdxs.length > 0) {
+      if (isSparse) {
+        sparseG.resetToBaseline();
+      } else {
+        double[][] G = denseG.getG();
+        double[][] staticG = staticDenseG.getG();
+        for (int i = 0; i < G.length; i++) {
+          System.arraycopy(staticG[i], 0, G[i], 0, G.length);
+        }
+      }
+      CircuitMatrixSolver.stampG(isSparse ? sparseG : denseG, compiledCircuit, nonlinearComponentIdxs, previousSolution, state, timeStep);
+      if (gmin != 0.0) {
+        for (int nodeColumn : nodeColumns) {
+          (isSparse ? sparseG : denseG).add(nodeColumn, nodeColumn, gmin);
+        }
+      }
+      isGStatic = nonlinearComponentIdxs.length == 0 && gmin == 0.0;
+      isFactored = false;
+    }
+
+    // the independent sources, and only them, are scaled while source stepping, the companion currents of the reactive elements are not
+    if (sourceFactor == 1.0) {
+      for (int i = 0; i < size; i++) {
+        RHS[i] = staticRHS[i] + staticSourceRHS[i];
+      }
+      CircuitMatrixSolver.stampRHS(RHS, compiledCircuit, nonlinearComponentIdxs, previousSolution, state, timeStep);
+    } else {
+      for (int i = 0; i < size; i++) {
+        RHS[i] = staticRHS[i] + sourceFactor * staticSourceRHS[i];
+      }
+      CircuitMatrixSolver.stampRHS(RHS, compiledCircuit, nonlinearOtherIdxs, previousSolution, state, timeStep);
+      Arrays.fill(sourceRHS, 0.0);
+      CircuitMatrixSolver.stampRHS(sourceRHS, compiledCircuit, nonlinearSourceIdxs, previousSolution, state, timeStep);
+      for (int i = 0; i < size; i++) {
+        RHS[i] += sourceFactor * sourceRHS[i];
+      }
+    }
+
+    // trim RHS, remove "O"th row
+    System.arraycopy(RHS, 1, RHS_trimmed, 0, size - 1);
+  }
+
+  /**
+   * @param gmin - the conductance from every node to ground stamp() adds to G, 0 for none
+   */
+  public void setGmin(double gmin) {
+
+    if (gmin != this.gmin) {
+      this.gmin = gmin;
+      isGStatic = false;
+    }
+  }
+
+  /**
+   * @param sourceFactor - the factor stamp() scales the independent voltage and current sources by, the arbitrary ones included, 1 for none. The
+   *          companion currents of the capacitors and inductors are not scaled, so a transient step ramps up from its history with the sources off.
+   */
+  public void setSourceFactor(double sourceFactor) {
+
+    this.sourceFactor = sourceFactor;
+  }
+
+  /**
+   * Factors the stamped G, unless it is already, and solves for the new solution. For a nonlinear circuit the residual of the solution the stamps
+   * were linearized around is computed on the way, see getResidualNorm().
+   *
+   * @throws SingularMatrixException - only for sparse circuits, dense ones fall back on a least squares solution
+   */
+  public void solve() throws SingularMatrixException {
+
+    residualNorm = Double.NaN;
+
+    if (isFactored) {
+
+      if (isSparse) {
+        sparseLU.solve(RHS_trimmed, unknowns);
+      } else {
+        denseLU.solve(RHS_trimmed, unknowns);
+      }
+    } else if (isSparse) {
+
+      isPatternChanged |= sparseG.updatePattern();
+      CSCMatrix G = sparseG.getCSC();
+      computeResidualNorm(G);
+      if (sparseLU == null || isPatternChanged) {
+        sparseLU = null;
+        sparseLU = new SparseLU(G);
+        isPatternChanged = false;
+      } else if (!sparseLU.refactor(G)) {
+        // the pivots have to be chosen again, but the ordering is still good
+        int[] q = sparseLU.getColumnOrdering();
+        sparseLU = null;
+        sparseLU = new SparseLU(G, q);
+      }
+      isFactored = true;
+      numFactorizations++;
+      sparseLU.solve(RHS_trimmed, unknowns);
+    } else {
+
+      computeResidualNorm(denseG.getG());
+      if (denseLU.factor(denseG.getG())) {
+        isFactored = true;
+        numFactorizations++;
+        denseLU.solve(RHS_trimmed, unknowns);
+      } else {
+        DecompositionSolver solver = new SingularValueDecomposition(new Array2DRowRealMatrix(denseG.getG(), false)).getSolver();
+        double[] leastSquares = solver.solve(new ArrayRealVector(RHS_trimmed, false)).toArray();
+        System.arraycopy(leastSquares, 0, unknowns, 0, unknowns.length);
+      }
+    }
+    // System.out.println("node voltages: " + Arrays.toString(unknowns));
+
+    updateSolution();
+  }
+
+  /**
+   * G x - RHS at the previous solution, i.e. the KCL error of the nonlinear circuit at the last iterate. Only done for nonlinear circuits, as the
+   * solution of a linear circuit satisfies its equations up to round off.
+   *
+   * @param G - the trimmed G
+   */
+  private void computeResidualNorm(CSCMatrix G) {
+
+    if (!hasSolution || compiledCircuit.isLinear()) {
+      return;
+    }
+
+    for (int i = 0; i < residual.length; i++) {
+      residual[i] = -RHS_trimmed[i];
+    }
+    int[] columnPointers = G.getColumnPointers();
+    int[] rowIndices = G.getRowIndices();
+    double[] values = G.getValues();
+    for (int j = 0; j < residual.length; j++) {
+      double x = solution[j + 1];
+      for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++) {
+        residual[rowIndices[p]] += values[p] * x;
+      }
+    }
+    double norm = 0.0;
+    for (double r : residual) {
+      norm = Math.max(norm, Math.abs(r));
+    }
+    residualNorm = norm;
+  }
+
+  /**
+   * @param G - the trimmed G
+   */
+  private void computeResidualNorm(double[][] G) {
+
+    if (!hasSolution || compiledCircuit.isLinear()) {
+      return;
+    }
+
+    double norm = 0.0;
+    for (int i = 0; i < residual.length; i++) {
+      double[] row = G[i];
+      double r = -RHS_trimmed[i];
+      for (int j = 0; j < row.length; j++) {
+        r += row[j] * solution[j + 1];
+      }
+      residual[i] = r;
+      norm = Math.max(norm, Math.abs(r));
+    }
+    residualNorm = norm;
+  }
+
+  /**
+   * Takes the initial conditions of the reactive elements as the solution instead of solving
+   */
+  public void useInitialConditions() {
+
+    double[] initialConditions = compiledCircuit.getInitialConditionsSolutionVector();
+    System.arraycopy(initialConditions, 1, unknowns, 0, unknowns.length);
+    updateSolution();
+  }
+
+  private void updateSolution() {
+
+    System.arraycopy(unknowns, 0, solution, 1, unknowns.length);
+    hasSolution = true;
+  }
+
+  /**
+   * @param isRetainMatrices - true to also keep copies of RHS and, for dense circuits, G, for debugging
+   * @return a result holding a copy of the current solution
+   */
+  public DCOperatingPointResult createResult(boolean isRetainMatrices) {
+
+    DCOperatingPointResult dcOperatingPointResult = new DCOperatingPointResult(compiledCircuit, unknowns.clone());
+    if (isRetainMatrices) {
+      double[][] G = null;
+      if (!isSparse) {
+        double[][] denseArray = denseG.getG();
+        G = new double[denseArray.length][];
+        for (int i = 0; i < denseArray.length; i++) {
+          G[i] = denseArray[i].clone();
+        }
+      }
+      dcOperatingPointResult.setMatrices(G, RHS_trimmed.clone());
+    }
+    return dcOperatingPointResult;
+  }
+
+  /**
+   * @return true if a component linearized around a limited step instead of the solution in the last stamp(), in which case the solution of the
+   *         following solve() is not converged even if it hardly changed
+   */
+  public boolean isLimited() {
+
+    for (int i = 0; i < limitingComponents.length; i++) {
+      if (limitingComponents[i].isLimited(state, limitingStateIdxs[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return an array for CircuitState.save() and restore() of the state of this workspace, reused by every run
+   */
+  public double[] getStateSnapshot() {
+
+    if (stateSnapshot == null) {
+      stateSnapshot = new double[state.getNumValues()];
+    }
+    return stateSnapshot;
+  }
+
+  public CompiledCircuit getCompiledCircuit() {
+
+    return compiledCircuit;
+  }
+
+  /**
+   * @return the solution indexed by column, ground included, or null if there is none yet
+   */
+  public double[] getSolution() {
+
+    return hasSolution ? solution : null;
+  }
+
+  /**
+   * @return the solution of the trimmed system, in the order of CompiledCircuit.getUnknownQuantityNames()
+   */
+  public double[] getUnknowns() {
+
+    return unknowns;
+  }
+
+  /**
+   * @return the largest entry of G x - RHS at the solution the last solve() was linearized around, NaN if it was not computed
+   */
+  public double getResidualNorm() {
+
+    return residualNorm;
+  }
+
+  /**
+   * @return the number of LU decompositions done so far, refactorizations included
+   */
+  public long getNumFactorizations() {
+
+    return numFactorizations;
+  }
+
+  public boolean isSparse() {
+
+    return isSparse;
+  }
+}
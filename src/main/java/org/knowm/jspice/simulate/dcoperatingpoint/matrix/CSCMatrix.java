@@ -0,0 +1,227 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcoperatingpoint.matrix;
+
+/**
+ * A square sparse matrix in compressed sparse column (CSC) format. The row indices of column j are stored in rowIndices[columnPointers[j]] to
+ * rowIndices[columnPointers[j+1]-1], in ascending order and without duplicates. Explicit zeros are kept so the pattern only depends on which entries
+ * the components stamp, not on their values.
+ */
+public final class CSCMatrix {
+
+  private final int n;
+  private final int[] columnPointers;
+  private final int[] rowIndices;
+  private final double[] values;
+
+  /**
+   * Constructor
+   *
+   * @param n
+   * @param columnPointers
+   * @param rowIndices
+   * @param values
+   */
+  public CSCMatrix(int n, int[] columnPointers, int[] rowIndices, double[] values) {
+
+    this.n = n;
+    this.columnPointers = columnPointers;
+    this.rowIndices = rowIndices;
+    this.values = values;
+  }
+
+  /**
+   * Builds a CSC matrix from (row, column, value) triplets, summing duplicates and dropping the row and column given by skipIdx
+   *
+   * @param size - the size of the matrix the triplets index into
+   * @param rows
+   * @param columns
+   * @param values
+   * @param numEntries - the number of valid triplets
+   * @param skipIdx - the row and column to drop, or -1 to keep all
+   * @return
+   */
+  public static CSCMatrix fromTriplets(int size, int[] rows, int[] columns, double[] values, int numEntries, int skipIdx) {
+
+    int n = skipIdx >= 0 ? size - 1 : size;
+
+    // first compress by row, so that the transpose below leaves the row indices of each column sorted
+    int[] rowPointers = new int[n + 1];
+    int nnz = 0;
+    for (int k = 0; k < numEntries; k++) {
+      if (rows[k] != skipIdx && columns[k] != skipIdx) {
+        rowPointers[shift(rows[k], skipIdx) + 1]++;
+        nnz++;
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      rowPointers[i + 1] += rowPointers[i];
+    }
+    int[] next = new int[n];
+    System.arraycopy(rowPointers, 0, next, 0, n);
+    int[] csrColumns = new int[nnz];
+    double[] csrValues = new double[nnz];
+    for (int k = 0; k < numEntries; k++) {
+      if (rows[k] != skipIdx && columns[k] != skipIdx) {
+        int p = next[shift(rows[k], skipIdx)]++;
+        csrColumns[p] = shift(columns[k], skipIdx);
+        csrValues[p] = values[k];
+      }
+    }
+
+    // transpose into CSC
+    int[] columnPointers = new int[n + 1];
+    for (int p = 0; p < nnz; p++) {
+      columnPointers[csrColumns[p] + 1]++;
+    }
+    for (int j = 0; j < n; j++) {
+      columnPointers[j + 1] += columnPointers[j];
+    }
+    System.arraycopy(columnPointers, 0, next, 0, n);
+    int[] rowIndices = new int[nnz];
+    double[] cscValues = new double[nnz];
+    for (int i = 0; i < n; i++) {
+      for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+        int q = next[csrColumns[p]]++;
+        rowIndices[q] = i;
+        cscValues[q] = csrValues[p];
+      }
+    }
+
+    // sum duplicates, which are now adjacent
+    int count = 0;
+    for (int j = 0; j < n; j++) {
+      int start = columnPointers[j];
+      columnPointers[j] = count;
+      int lastRow = -1;
+      for (int p = start; p < columnPointers[j + 1]; p++) {
+        if (rowIndices[p] == lastRow) {
+          cscValues[count - 1] += cscValues[p];
+        } else {
+          rowIndices[count] = rowIndices[p];
+          cscValues[count] = cscValues[p];
+          lastRow = rowIndices[p];
+          count++;
+        }
+      }
+    }
+    columnPointers[n] = count;
+
+    int[] trimmedRowIndices = new int[count];
+    double[] trimmedValues = new double[count];
+    System.arraycopy(rowIndices, 0, trimmedRowIndices, 0, count);
+    System.arraycopy(cscValues, 0, trimmedValues, 0, count);
+
+    return new CSCMatrix(n, columnPointers, trimmedRowIndices, trimmedValues);
+  }
+
+  private static int shift(int idx, int skipIdx) {
+
+    return skipIdx >= 0 && idx > skipIdx ? idx - 1 : idx;
+  }
+
+  /**
+   * Builds a CSC matrix from a dense array, keeping only the non-zero entries
+   *
+   * @param A
+   * @return
+   */
+  public static CSCMatrix fromDense(double[][] A) {
+
+    int n = A.length;
+    int nnz = 0;
+    for (double[] row : A) {
+      for (double value : row) {
+        if (value != 0.0) {
+          nnz++;
+        }
+      }
+    }
+    int[] columnPointers = new int[n + 1];
+    int[] rowIndices = new int[nnz];
+    double[] values = new double[nnz];
+    int p = 0;
+    for (int j = 0; j < n; j++) {
+      columnPointers[j] = p;
+      for (int i = 0; i < n; i++) {
+        if (A[i][j] != 0.0) {
+          rowIndices[p] = i;
+          values[p] = A[i][j];
+          p++;
+        }
+      }
+    }
+    columnPointers[n] = p;
+    return new CSCMatrix(n, columnPointers, rowIndices, values);
+  }
+
+  public double[][] toDense() {
+
+    double[][] A = new double[n][n];
+    for (int j = 0; j < n; j++) {
+      for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++) {
+        A[rowIndices[p]][j] += values[p];
+      }
+    }
+    return A;
+  }
+
+  /**
+   * @param x
+   * @return A x
+   */
+  public double[] multiply(double[] x) {
+
+    double[] y = new double[n];
+    for (int j = 0; j < n; j++) {
+      for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++) {
+        y[rowIndices[p]] += values[p] * x[j];
+      }
+    }
+    return y;
+  }
+
+  public int getN() {
+
+    return n;
+  }
+
+  public int getNumNonZeros() {
+
+    return columnPointers[n];
+  }
+
+  public int[] getColumnPointers() {
+
+    return columnPointers;
+  }
+
+  public int[] getRowIndices() {
+
+    return rowIndices;
+  }
+
+  public double[] getValues() {
+
+    return values;
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcoperatingpoint.matrix;
+
+/**
+ * The coefficient matrix G of the MNA equation G v = i, as seen by the components while stamping. Row and column indices are the full (untrimmed)
+ * column indices, including the ground node.
+ */
+public interface CircuitMatrix {
+
+  /**
+   * Adds a value to the entry at the given row and column
+   *
+   * @param row
+   * @param column
+   * @param value
+   */
+  void add(int row, int column, double value);
+
+  /**
+   * Sets all entries to zero, keeping the allocated storage so the matrix can be restamped
+   */
+  void clear();
+
+  /**
+   * @return the number of rows (and columns), including the ground node
+   */
+  int getSize();
+}
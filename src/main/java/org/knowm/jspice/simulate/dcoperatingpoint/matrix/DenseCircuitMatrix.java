@@ -0,0 +1,97 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcoperatingpoint.matrix;
+
+import java.util.Arrays;
+
+/**
+ * A CircuitMatrix backed by a plain dense 2D array. Used for small circuits where a dense LU decomposition is the fastest.
+ */
+public class DenseCircuitMatrix implements CircuitMatrix {
+
+  private final double[][] G;
+
+  /**
+   * 1 if row and column 0 (ground) are dropped while stamping, 0 otherwise
+   */
+  private final int offset;
+
+  /**
+   * Constructor
+   *
+   * @param size
+   */
+  public DenseCircuitMatrix(int size) {
+
+    this(new double[size][size]);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param size - the size including ground
+   * @param isGroundEliminated - if true, stamps to row or column 0 are dropped and G is (size-1) x (size-1)
+   */
+  public DenseCircuitMatrix(int size, boolean isGroundEliminated) {
+
+    this.offset = isGroundEliminated ? 1 : 0;
+    this.G = new double[size - offset][size - offset];
+  }
+
+  /**
+   * Constructor
+   *
+   * @param G - the array to stamp into
+   */
+  public DenseCircuitMatrix(double[][] G) {
+
+    this.G = G;
+    this.offset = 0;
+  }
+
+  @Override
+  public void add(int row, int column, double value) {
+
+    if (row >= offset && column >= offset) {
+      G[row - offset][column - offset] += value;
+    }
+  }
+
+  @Override
+  public void clear() {
+
+    for (double[] row : G) {
+      Arrays.fill(row, 0.0);
+    }
+  }
+
+  @Override
+  public int getSize() {
+
+    return G.length + offset;
+  }
+
+  public double[][] getG() {
+
+    return G;
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcoperatingpoint.matrix;
+
+/**
+ * Dense LU decomposition with partial pivoting that factors a preallocated n x n array in place, so it can be reused for every Newton iteration
+ * without allocating. The algorithm and the singularity threshold are the same as the commons-math LUDecomposition it replaces.
+ */
+public final class DenseLU {
+
+  public static final double SINGULARITY_THRESHOLD = 1e-11;
+
+  private final int n;
+  private final double[][] lu;
+  private final int[] pivot;
+  private final double[] work;
+  private boolean singular;
+
+  /**
+   * Constructor
+   *
+   * @param n
+   */
+  public DenseLU(int n) {
+
+    this.n = n;
+    this.lu = new double[n][n];
+    this.pivot = new int[n];
+    this.work = new double[n];
+  }
+
+  /**
+   * Factors a copy of A, A itself is left untouched
+   *
+   * @param A - n x n
+   * @return false if A is singular, in which case solve() must not be called
+   */
+  public boolean factor(double[][] A) {
+
+    for (int row = 0; row < n; row++) {
+      System.arraycopy(A[row], 0, lu[row], 0, n);
+      pivot[row] = row;
+    }
+    singular = false;
+
+    for (int col = 0; col < n; col++) {
+
+      // upper
+      for (int row = 0; row < col; row++) {
+        double[] luRow = lu[row];
+        double sum = luRow[col];
+        for (int i = 0; i < row; i++) {
+          sum -= luRow[i] * lu[i][col];
+        }
+        luRow[col] = sum;
+      }
+
+      // lower
+      int max = col;
+      double largest = Double.NEGATIVE_INFINITY;
+      for (int row = col; row < n; row++) {
+        double[] luRow = lu[row];
+        double sum = luRow[col];
+        for (int i = 0; i < col; i++) {
+          sum -= luRow[i] * lu[i][col];
+        }
+        luRow[col] = sum;
+        if (Math.abs(sum) > largest) {
+          largest = Math.abs(sum);
+          max = row;
+        }
+      }
+
+      if (Math.abs(lu[max][col]) < SINGULARITY_THRESHOLD) {
+        singular = true;
+        return false;
+      }
+
+      // swap the rows
+      if (max != col) {
+        double[] tmp = lu[max];
+        lu[max] = lu[col];
+        lu[col] = tmp;
+        int temp = pivot[max];
+        pivot[max] = pivot[col];
+        pivot[col] = temp;
+      }
+
+      double luDiag = lu[col][col];
+      for (int row = col + 1; row < n; row++) {
+        lu[row][col] /= luDiag;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Solves A x = b with the last factored A
+   *
+   * @param b
+   * @param solution
+   */
+  public void solve(double[] b, double[] solution) {
+
+    if (singular) {
+      throw new IllegalStateException("Matrix is singular!");
+    }
+
+    for (int row = 0; row < n; row++) {
+      work[row] = b[pivot[row]];
+    }
+    // L y = P b
+    for (int col = 0; col < n; col++) {
+      double bpCol = work[col];
+      for (int i = col + 1; i < n; i++) {
+        work[i] -= bpCol * lu[i][col];
+      }
+    }
+    // U x = y
+    for (int col = n - 1; col >= 0; col--) {
+      work[col] /= lu[col][col];
+      double bpCol = work[col];
+      for (int i = 0; i < col; i++) {
+        work[i] -= bpCol * lu[i][col];
+      }
+    }
+    System.arraycopy(work, 0, solution, 0, n);
+  }
+
+  public int getN() {
+
+    return n;
+  }
+}
@@ -0,0 +1,174 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcoperatingpoint.matrix;
+
+import java.util.Arrays;
+
+/**
+ * A fill-reducing ordering for sparse LU factorization. Nodes of the graph of A + A' are eliminated one by one, always picking the node with the
+ * fewest remaining neighbours, and the neighbours of an eliminated node are joined into a clique (the fill-in it would create).
+ */
+public final class MinimumDegreeOrdering {
+
+  /**
+   * Private Constructor
+   */
+  private MinimumDegreeOrdering() {
+
+  }
+
+  /**
+   * @param A
+   * @return the column permutation, q[k] being the column of A to eliminate at step k
+   */
+  public static int[] order(CSCMatrix A) {
+
+    int n = A.getN();
+    int[] Ap = A.getColumnPointers();
+    int[] Ai = A.getRowIndices();
+
+    // adjacency lists of A + A', without the diagonal
+    int[] count = new int[n];
+    for (int j = 0; j < n; j++) {
+      for (int p = Ap[j]; p < Ap[j + 1]; p++) {
+        if (Ai[p] != j) {
+          count[Ai[p]]++;
+          count[j]++;
+        }
+      }
+    }
+    int[][] adjacency = new int[n][];
+    for (int i = 0; i < n; i++) {
+      adjacency[i] = new int[count[i]];
+    }
+    Arrays.fill(count, 0);
+    for (int j = 0; j < n; j++) {
+      for (int p = Ap[j]; p < Ap[j + 1]; p++) {
+        int i = Ai[p];
+        if (i != j) {
+          adjacency[i][count[i]++] = j;
+          adjacency[j][count[j]++] = i;
+        }
+      }
+    }
+    int[] degree = new int[n];
+    for (int i = 0; i < n; i++) {
+      Arrays.sort(adjacency[i]);
+      degree[i] = unique(adjacency[i]);
+    }
+
+    // degree buckets as doubly linked lists
+    int[] head = new int[n + 1];
+    int[] next = new int[n];
+    int[] previous = new int[n];
+    Arrays.fill(head, -1);
+    for (int i = n - 1; i >= 0; i--) {
+      insert(i, degree[i], head, next, previous);
+    }
+
+    int[] q = new int[n];
+    int minDegree = 0;
+    int[] merged = new int[n];
+    for (int k = 0; k < n; k++) {
+
+      while (head[minDegree] == -1) {
+        minDegree++;
+      }
+      int v = head[minDegree];
+      remove(v, degree[v], head, next, previous);
+      q[k] = v;
+
+      int[] neighbours = adjacency[v];
+      int numNeighbours = degree[v];
+      for (int a = 0; a < numNeighbours; a++) {
+
+        int u = neighbours[a];
+        remove(u, degree[u], head, next, previous);
+
+        // adjacency(u) = adjacency(u) U neighbours(v) - {u, v}
+        int[] list = adjacency[u];
+        int length = degree[u];
+        int x = 0;
+        int y = 0;
+        int m = 0;
+        while (x < length || y < numNeighbours) {
+          int candidate;
+          if (y >= numNeighbours || (x < length && list[x] < neighbours[y])) {
+            candidate = list[x++];
+          } else if (x >= length || neighbours[y] < list[x]) {
+            candidate = neighbours[y++];
+          } else {
+            candidate = list[x++];
+            y++;
+          }
+          if (candidate != u && candidate != v) {
+            merged[m++] = candidate;
+          }
+        }
+        if (m > list.length) {
+          list = new int[Math.max(m, 2 * list.length)];
+          adjacency[u] = list;
+        }
+        System.arraycopy(merged, 0, list, 0, m);
+        degree[u] = m;
+
+        insert(u, m, head, next, previous);
+        minDegree = Math.min(minDegree, m);
+      }
+      adjacency[v] = null;
+    }
+    return q;
+  }
+
+  private static int unique(int[] sorted) {
+
+    int m = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (m == 0 || sorted[i] != sorted[m - 1]) {
+        sorted[m++] = sorted[i];
+      }
+    }
+    return m;
+  }
+
+  private static void insert(int i, int degree, int[] head, int[] next, int[] previous) {
+
+    next[i] = head[degree];
+    previous[i] = -1;
+    if (head[degree] != -1) {
+      previous[head[degree]] = i;
+    }
+    head[degree] = i;
+  }
+
+  private static void remove(int i, int degree, int[] head, int[] next, int[] previous) {
+
+    if (previous[i] != -1) {
+      next[previous[i]] = next[i];
+    } else {
+      head[degree] = next[i];
+    }
+    if (next[i] != -1) {
+      previous[next[i]] = previous[i];
+    }
+  }
+}
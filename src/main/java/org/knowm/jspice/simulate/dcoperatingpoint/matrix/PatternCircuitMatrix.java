@@ -0,0 +1,158 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcoperatingpoint.matrix;
+
+import java.util.Arrays;
+
+/**
+ * A CircuitMatrix that stamps straight into the values of a CSC matrix with a fixed pattern, dropping the ground row and column. Stamps to entries
+ * that are not in the pattern yet are collected as triplets, and {@link #updatePattern()} merges them into a grown pattern. The pattern only ever
+ * grows, so after the first few iterations restamping allocates nothing and the CSC matrix keeps its identity, which lets a {@link SparseLU} be
+ * refactored instead of rebuilt. A baseline of values, i.e. the stamps of the linear components, can be kept and restored instead of clearing.
+ */
+public class PatternCircuitMatrix implements CircuitMatrix {
+
+  private final int size;
+
+  private CSCMatrix csc;
+  private final SparseCircuitMatrix overflow;
+
+  /**
+   * the values restored by resetToBaseline(), null if there are none
+   */
+  private double[] baseline;
+
+  /**
+   * Constructor
+   *
+   * @param size - the size including ground
+   */
+  public PatternCircuitMatrix(int size) {
+
+    this.size = size;
+    this.csc = new CSCMatrix(size - 1, new int[size], new int[0], new double[0]);
+    this.overflow = new SparseCircuitMatrix(size);
+  }
+
+  @Override
+  public void add(int row, int column, double value) {
+
+    if (row == 0 || column == 0) {
+      return;
+    }
+    int r = row - 1;
+    int c = column - 1;
+    int[] columnPointers = csc.getColumnPointers();
+    int idx = Arrays.binarySearch(csc.getRowIndices(), columnPointers[c], columnPointers[c + 1], r);
+    if (idx >= 0) {
+      csc.getValues()[idx] += value;
+    } else {
+      overflow.add(row, column, value);
+    }
+  }
+
+  @Override
+  public void clear() {
+
+    Arrays.fill(csc.getValues(), 0.0);
+    overflow.clear();
+  }
+
+  /**
+   * Keeps the current values, which must all be in the pattern, as the starting point for resetToBaseline()
+   */
+  public void saveBaseline() {
+
+    double[] values = csc.getValues();
+    if (baseline == null || baseline.length != values.length) {
+      baseline = new double[values.length];
+    }
+    System.arraycopy(values, 0, baseline, 0, values.length);
+  }
+
+  /**
+   * Like clear(), but sets the values to the ones kept by saveBaseline() instead of zero
+   */
+  public void resetToBaseline() {
+
+    if (baseline == null) {
+      clear();
+    } else {
+      System.arraycopy(baseline, 0, csc.getValues(), 0, baseline.length);
+      overflow.clear();
+    }
+  }
+
+  @Override
+  public int getSize() {
+
+    return size;
+  }
+
+  /**
+   * Merges the stamps that fell outside of the pattern into it
+   *
+   * @return true if the pattern changed, in which case getCSC() returns a new matrix
+   */
+  public boolean updatePattern() {
+
+    if (overflow.getNumEntries() == 0) {
+      return false;
+    }
+
+    // the current entries as triplets in untrimmed indices, followed by the overflow
+    int[] columnPointers = csc.getColumnPointers();
+    int[] rowIndices = csc.getRowIndices();
+    double[] values = csc.getValues();
+    SparseCircuitMatrix merged = new SparseCircuitMatrix(size);
+    for (int j = 0; j < csc.getN(); j++) {
+      for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++) {
+        merged.add(rowIndices[p] + 1, j + 1, values[p]);
+      }
+    }
+    overflow.copyTo(merged);
+    csc = merged.toCSC(0);
+    overflow.clear();
+
+    // move the baseline over to the new pattern
+    if (baseline != null) {
+      double[] newBaseline = new double[csc.getNumNonZeros()];
+      int[] newColumnPointers = csc.getColumnPointers();
+      for (int j = 0; j < csc.getN(); j++) {
+        for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++) {
+          int idx = Arrays.binarySearch(csc.getRowIndices(), newColumnPointers[j], newColumnPointers[j + 1], rowIndices[p]);
+          newBaseline[idx] = baseline[p];
+        }
+      }
+      baseline = newBaseline;
+    }
+    return true;
+  }
+
+  /**
+   * @return the stamped matrix, without the ground row and column. Only complete after updatePattern() was called.
+   */
+  public CSCMatrix getCSC() {
+
+    return csc;
+  }
+}
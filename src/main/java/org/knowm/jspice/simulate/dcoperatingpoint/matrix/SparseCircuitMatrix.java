@@ -0,0 +1,107 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcoperatingpoint.matrix;
+
+import java.util.Arrays;
+
+/**
+ * A CircuitMatrix that collects the stamps as (row, column, value) triplets. Each component only touches a handful of entries, so for large
+ * circuits this is far smaller than a dense n x n array. Duplicate entries are summed when the triplets are compressed with {@link #toCSC(int)}.
+ */
+public class SparseCircuitMatrix implements CircuitMatrix {
+
+  private final int size;
+
+  private int[] rows;
+  private int[] columns;
+  private double[] values;
+  private int numEntries;
+
+  /**
+   * Constructor
+   *
+   * @param size
+   */
+  public SparseCircuitMatrix(int size) {
+
+    this.size = size;
+    int capacity = Math.max(16, 4 * size);
+    rows = new int[capacity];
+    columns = new int[capacity];
+    values = new double[capacity];
+  }
+
+  @Override
+  public void add(int row, int column, double value) {
+
+    if (numEntries == rows.length) {
+      int capacity = 2 * rows.length;
+      rows = Arrays.copyOf(rows, capacity);
+      columns = Arrays.copyOf(columns, capacity);
+      values = Arrays.copyOf(values, capacity);
+    }
+    rows[numEntries] = row;
+    columns[numEntries] = column;
+    values[numEntries] = value;
+    numEntries++;
+  }
+
+  @Override
+  public void clear() {
+
+    numEntries = 0;
+  }
+
+  @Override
+  public int getSize() {
+
+    return size;
+  }
+
+  public int getNumEntries() {
+
+    return numEntries;
+  }
+
+  /**
+   * Adds all the triplets of this matrix to another one
+   *
+   * @param other
+   */
+  public void copyTo(CircuitMatrix other) {
+
+    for (int k = 0; k < numEntries; k++) {
+      other.add(rows[k], columns[k], values[k]);
+    }
+  }
+
+  /**
+   * Compresses the triplets into a CSC matrix, removing the ground node row and column
+   *
+   * @param groundIdx - the index of the ground node, or -1 if there is none
+   * @return
+   */
+  public CSCMatrix toCSC(int groundIdx) {
+
+    return CSCMatrix.fromTriplets(size, rows, columns, values, numEntries, groundIdx);
+  }
+}
@@ -0,0 +1,354 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcoperatingpoint.matrix;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.linear.SingularMatrixException;
+
+/**
+ * Sparse LU factorization P A Q = L U of a CSC matrix. The columns are permuted with a {@link MinimumDegreeOrdering} to keep the fill-in low and
+ * each column is factored left-looking (Gilbert-Peierls): a sparse triangular solve with the part of L computed so far, followed by threshold
+ * partial pivoting. The diagonal entry is preferred as pivot when it is within PIVOT_TOLERANCE of the largest candidate, so the fill-reducing
+ * ordering is not destroyed by row swaps. The algorithm follows cs_lu from Tim Davis' CSparse.
+ */
+public final class SparseLU {
+
+  public static final double PIVOT_TOLERANCE = 0.001;
+
+  private final int n;
+  private final int[] q;
+  private final int[] pinv;
+
+  private int[] Lp;
+  private int[] Li;
+  private double[] Lx;
+  private int[] Up;
+  private int[] Ui;
+  private double[] Ux;
+
+  // work arrays
+  private final double[] x;
+  private final int[] xi;
+  private final int[] pstack;
+  private final int[] mark;
+
+  /**
+   * Constructor - orders and factors A
+   *
+   * @param A
+   * @throws SingularMatrixException
+   */
+  public SparseLU(CSCMatrix A) throws SingularMatrixException {
+
+    this(A, MinimumDegreeOrdering.order(A));
+  }
+
+  /**
+   * Constructor - factors A with the given column ordering
+   *
+   * @param A
+   * @param q - the column permutation
+   * @throws SingularMatrixException
+   */
+  public SparseLU(CSCMatrix A, int[] q) throws SingularMatrixException {
+
+    this.n = A.getN();
+    this.q = q;
+    this.pinv = new int[n];
+    this.x = new double[n];
+    this.xi = new int[n];
+    this.pstack = new int[n];
+    this.mark = new int[n];
+
+    factor(A);
+  }
+
+  private void factor(CSCMatrix A) {
+
+    int[] Ap = A.getColumnPointers();
+    int[] Ai = A.getRowIndices();
+    double[] Ax = A.getValues();
+
+    int capacity = 4 * A.getNumNonZeros() + n;
+    Lp = new int[n + 1];
+    Li = new int[capacity];
+    Lx = new double[capacity];
+    Up = new int[n + 1];
+    Ui = new int[capacity];
+    Ux = new double[capacity];
+
+    Arrays.fill(pinv, -1);
+    Arrays.fill(mark, -1);
+    int lnz = 0;
+    int unz = 0;
+
+    for (int k = 0; k < n; k++) {
+
+      Lp[k] = lnz;
+      Up[k] = unz;
+      if (lnz + n > Li.length) {
+        Li = Arrays.copyOf(Li, 2 * Li.length + n);
+        Lx = Arrays.copyOf(Lx, 2 * Lx.length + n);
+      }
+      if (unz + n > Ui.length) {
+        Ui = Arrays.copyOf(Ui, 2 * Ui.length + n);
+        Ux = Arrays.copyOf(Ux, 2 * Ux.length + n);
+      }
+      int col = q[k];
+
+      // x = L \ A(:,col)
+      int top = reach(Ap, Ai, col, k);
+      for (int p = top; p < n; p++) {
+        x[xi[p]] = 0.0;
+      }
+      for (int p = Ap[col]; p < Ap[col + 1]; p++) {
+        x[Ai[p]] = Ax[p];
+      }
+      for (int px = top; px < n; px++) {
+        int j = xi[px];
+        int J = pinv[j];
+        if (J < 0) {
+          continue;
+        }
+        double xj = x[j]; // L is unit diagonal, stored first in each column
+        for (int p = Lp[J] + 1; p < Lp[J + 1]; p++) {
+          x[Li[p]] -= Lx[p] * xj;
+        }
+      }
+
+      // find the pivot, and store the already pivotal rows in U
+      int ipiv = -1;
+      double a = -1.0;
+      for (int p = top; p < n; p++) {
+        int i = xi[p];
+        if (pinv[i] < 0) {
+          double t = Math.abs(x[i]);
+          if (t > a) {
+            a = t;
+            ipiv = i;
+          }
+        } else {
+          Ui[unz] = pinv[i];
+          Ux[unz++] = x[i];
+        }
+      }
+      if (ipiv == -1 || a <= 0.0) {
+        throw new SingularMatrixException();
+      }
+      if (pinv[col] < 0 && Math.abs(x[col]) >= a * PIVOT_TOLERANCE) {
+        ipiv = col;
+      }
+
+      // U(k,k) is stored last in column k of U
+      double pivot = x[ipiv];
+      Ui[unz] = k;
+      Ux[unz++] = pivot;
+      pinv[ipiv] = k;
+      Li[lnz] = ipiv;
+      Lx[lnz++] = 1.0;
+      for (int p = top; p < n; p++) {
+        int i = xi[p];
+        if (pinv[i] < 0) {
+          Li[lnz] = i;
+          Lx[lnz++] = x[i] / pivot;
+        }
+        x[i] = 0.0;
+      }
+    }
+    Lp[n] = lnz;
+    Up[n] = unz;
+
+    // the row indices of L are now known in their final, permuted, order
+    for (int p = 0; p < lnz; p++) {
+      Li[p] = pinv[Li[p]];
+    }
+  }
+
+  /**
+   * Refactors A, which must have the same pattern as the matrix this was built from, reusing the column ordering, the row permutation and the
+   * patterns of L and U. Nothing is allocated, which makes it much cheaper than a new factorization in a Newton loop.
+   *
+   * @param A
+   * @return false if a pivot became too small compared to the rest of its column, in which case this must not be used for solving anymore and a new
+   *         SparseLU has to be built
+   */
+  public boolean refactor(CSCMatrix A) {
+
+    int[] Ap = A.getColumnPointers();
+    int[] Ai = A.getRowIndices();
+    double[] Ax = A.getValues();
+
+    // x is indexed by pivot row here, and solve() leaves it dirty
+    Arrays.fill(x, 0.0);
+
+    for (int k = 0; k < n; k++) {
+
+      int col = q[k];
+      for (int p = Ap[col]; p < Ap[col + 1]; p++) {
+        x[pinv[Ai[p]]] = Ax[p];
+      }
+
+      // x = L \ A(:,col), the rows of U(:,k) being stored in topological order with the diagonal last
+      int diag = Up[k + 1] - 1;
+      for (int p = Up[k]; p < diag; p++) {
+        int J = Ui[p];
+        double xj = x[J];
+        Ux[p] = xj;
+        x[J] = 0.0;
+        for (int pl = Lp[J] + 1; pl < Lp[J + 1]; pl++) {
+          x[Li[pl]] -= Lx[pl] * xj;
+        }
+      }
+
+      // the pivot must still be acceptable
+      double pivot = x[k];
+      x[k] = 0.0;
+      double largest = Math.abs(pivot);
+      for (int p = Lp[k] + 1; p < Lp[k + 1]; p++) {
+        largest = Math.max(largest, Math.abs(x[Li[p]]));
+      }
+      if (pivot == 0.0 || Math.abs(pivot) < largest * PIVOT_TOLERANCE) {
+        return false;
+      }
+
+      Ux[diag] = pivot;
+      for (int p = Lp[k] + 1; p < Lp[k + 1]; p++) {
+        Lx[p] = x[Li[p]] / pivot;
+        x[Li[p]] = 0.0;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Finds the nonzero pattern of L \ A(:,col) by a depth first search in the graph of L, the result being in xi[top..n-1] in topological order
+   */
+  private int reach(int[] Ap, int[] Ai, int col, int k) {
+
+    int top = n;
+    for (int p = Ap[col]; p < Ap[col + 1]; p++) {
+      if (mark[Ai[p]] != k) {
+        top = dfs(Ai[p], top, k);
+      }
+    }
+    return top;
+  }
+
+  private int dfs(int start, int top, int k) {
+
+    // xi[0..head] is used as the recursion stack, it never overlaps with xi[top..n-1]
+    int head = 0;
+    xi[0] = start;
+    while (head >= 0) {
+      int j = xi[head];
+      int jnew = pinv[j];
+      if (mark[j] != k) {
+        mark[j] = k;
+        pstack[head] = jnew < 0 ? 0 : Lp[jnew] + 1;
+      }
+      boolean done = true;
+      int p2 = jnew < 0 ? 0 : Lp[jnew + 1];
+      for (int p = pstack[head]; p < p2; p++) {
+        int i = Li[p];
+        if (mark[i] == k) {
+          continue;
+        }
+        pstack[head] = p;
+        xi[++head] = i;
+        done = false;
+        break;
+      }
+      if (done) {
+        head--;
+        xi[--top] = j;
+      }
+    }
+    return top;
+  }
+
+  /**
+   * Solves A x = b
+   *
+   * @param b
+   * @return x
+   */
+  public double[] solve(double[] b) {
+
+    double[] solution = new double[n];
+    solve(b, solution);
+    return solution;
+  }
+
+  /**
+   * Solves A x = b into the given array
+   *
+   * @param b
+   * @param solution
+   */
+  public void solve(double[] b, double[] solution) {
+
+    for (int i = 0; i < n; i++) {
+      x[pinv[i]] = b[i];
+    }
+    // L y = P b
+    for (int j = 0; j < n; j++) {
+      double xj = x[j];
+      for (int p = Lp[j] + 1; p < Lp[j + 1]; p++) {
+        x[Li[p]] -= Lx[p] * xj;
+      }
+    }
+    // U z = y
+    for (int j = n - 1; j >= 0; j--) {
+      x[j] /= Ux[Up[j + 1] - 1];
+      double xj = x[j];
+      for (int p = Up[j]; p < Up[j + 1] - 1; p++) {
+        x[Ui[p]] -= Ux[p] * xj;
+      }
+    }
+    // x = Q z
+    for (int k = 0; k < n; k++) {
+      solution[q[k]] = x[k];
+    }
+  }
+
+  /**
+   * @return the column permutation
+   */
+  public int[] getColumnOrdering() {
+
+    return q;
+  }
+
+  public int getN() {
+
+    return n;
+  }
+
+  /**
+   * @return the number of nonzeros in L and U together, a measure of the fill-in
+   */
+  public int getNumNonZeros() {
+
+    return Lp[n] + Up[n];
+  }
+}
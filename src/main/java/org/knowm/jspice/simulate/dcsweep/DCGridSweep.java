@@ -0,0 +1,197 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcsweep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.simulate.ParallelRanges;
+import org.knowm.jspice.simulate.SimulationPreCheck;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+
+/**
+ * Sweeps any number of components over the full grid of their values and records the observables into a DCSweepCube. The first sweep definition
+ * is the innermost one, along which each point starts from the solution of the previous one.
+ */
+public class DCGridSweep {
+
+  private final Netlist netlist;
+  private final List<DCSweepConfig> dcSweepConfigs = new ArrayList<>();
+
+  /**
+   * if true each point starts from the solution of the previous one along the first axis instead of the components' initial guesses
+   */
+  private boolean isContinuation = true;
+
+  /**
+   * the number of threads the points are solved on
+   */
+  private int parallelism = 1;
+
+  /**
+   * the Newton iterations of all the points of the last run
+   */
+  private long numIterations;
+
+  /**
+   * Constructor
+   *
+   * @param netlist
+   */
+  public DCGridSweep(Netlist netlist) {
+
+    this.netlist = netlist;
+  }
+
+  /**
+   * Adds an axis to the grid, the first one varying fastest
+   *
+   * @param sweepDef
+   */
+  public void addSweepConfig(DCSweepConfig sweepDef) {
+
+    // make sure componentToSweepID is actually in the circuit netlist
+    SimulationPreCheck.verifyComponentToSweepOrDriveId(netlist, sweepDef.getSweepID());
+    dcSweepConfigs.add(sweepDef);
+  }
+
+  /**
+   * @param isContinuation - true to start each point from the solution of the previous one along the first axis, the default, false to start every
+   *          point from scratch
+   */
+  public void setContinuation(boolean isContinuation) {
+
+    this.isContinuation = isContinuation;
+  }
+
+  /**
+   * Spreads the lines of the grid along the first axis over several threads, all sharing the netlist, each solving its lines with a CircuitState of
+   * its own. If there are fewer lines than threads, the lines are split into segments as well.
+   *
+   * @param parallelism - the number of threads, 1 to solve the points one after the other, the default
+   */
+  public void setParallelism(int parallelism) {
+
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("The parallelism must be at least 1!");
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * @return the number of Newton iterations of all the points of the last run
+   */
+  public long getNumIterations() {
+
+    return numIterations;
+  }
+
+  /**
+   * @param observables - i.e. V(2) or I(R1), none for all node voltages, branch currents and device currents
+   * @return the observables at every point of the grid
+   */
+  public DCSweepCube run(String... observables) {
+
+    numIterations = 0;
+    netlist.verifyCircuit();
+    if (dcSweepConfigs.isEmpty()) {
+      throw new IllegalArgumentException("No sweepDef found! Use addSweepDef() to add one!");
+    }
+
+    int numDimensions = dcSweepConfigs.size();
+    String[] sweepIDs = new String[numDimensions];
+    double[][] axisValues = new double[numDimensions][];
+    for (int axis = 0; axis < numDimensions; axis++) {
+      sweepIDs[axis] = dcSweepConfigs.get(axis).getSweepID();
+      axisValues[axis] = DCSweep.getSweepValues(dcSweepConfigs.get(axis));
+    }
+    List<String> observableList = Arrays.asList(observables);
+    SweepSolver sweepSolver = new SweepSolver(netlist, observableList, isContinuation, true);
+    DCSweepCube dcSweepCube = new DCSweepCube(sweepIDs, axisValues, sweepSolver.getLabels());
+
+    int lineLength = axisValues[0].length;
+    int numLines = lineLength == 0 ? 0 : dcSweepCube.getNumPoints() / lineLength;
+    if (parallelism == 1 || numLines == 0) {
+      numIterations = sweep(sweepSolver, dcSweepCube, 1, 0, numLines);
+      return dcSweepCube;
+    }
+
+    // each line is split into enough segments to keep all threads busy
+    int numSegmentsPerLine = ParallelRanges.getNumSegmentsPerLine(parallelism, numLines, lineLength);
+    int numSegments = numLines * numSegmentsPerLine;
+    numIterations = ParallelRanges.run(parallelism, numSegments, (firstSegment, lastSegment) -> {
+
+      SweepSolver workerSweepSolver = new SweepSolver(netlist, observableList, isContinuation, true);
+      return sweep(workerSweepSolver, dcSweepCube, numSegmentsPerLine, firstSegment, lastSegment);
+    });
+    return dcSweepCube;
+  }
+
+  /**
+   * Solves a range of segments of the lines along the first axis. Each segment starts over, as it does not follow on from the one solved before it.
+   *
+   * @param sweepSolver - the solver of the thread, whose state the swept values are set in
+   * @param dcSweepCube - the observables are written here
+   * @param numSegmentsPerLine
+   * @param firstSegment
+   * @param lastSegment - one past the last segment to solve
+   * @return the number of Newton iterations of the points
+   */
+  private long sweep(SweepSolver sweepSolver, DCSweepCube dcSweepCube, int numSegmentsPerLine, int firstSegment, int lastSegment) {
+
+    int numDimensions = dcSweepConfigs.size();
+    CircuitState circuitState = sweepSolver.getCircuitState();
+    int[] sweepableComponentIdxs = new int[numDimensions];
+    double[][] axisValues = new double[numDimensions][];
+    for (int axis = 0; axis < numDimensions; axis++) {
+      sweepableComponentIdxs[axis] = circuitState.getComponentIdx(dcSweepConfigs.get(axis).getSweepID());
+      axisValues[axis] = dcSweepCube.getAxisValues(axis);
+    }
+    int lineLength = axisValues[0].length;
+    double[] values = new double[dcSweepCube.getObservables().length];
+
+    for (int segment = firstSegment; segment < lastSegment; segment++) {
+
+      // set the other axes to the values of the line, the second axis varying fastest
+      int line = segment / numSegmentsPerLine;
+      int part = segment % numSegmentsPerLine;
+      int remainder = line;
+      for (int axis = 1; axis < numDimensions; axis++) {
+        circuitState.setSweepValue(sweepableComponentIdxs[axis], axisValues[axis][remainder % axisValues[axis].length]);
+        remainder /= axisValues[axis].length;
+      }
+
+      int from = ParallelRanges.getStart(part, lineLength, numSegmentsPerLine);
+      int to = ParallelRanges.getStart(part + 1, lineLength, numSegmentsPerLine);
+      sweepSolver.reset();
+      for (int i = from; i < to; i++) {
+        circuitState.setSweepValue(sweepableComponentIdxs[0], axisValues[0][i]);
+        if (sweepSolver.solve(axisValues[0][i], values)) {
+          dcSweepCube.set(line * lineLength + i, values);
+        }
+      }
+    }
+    return sweepSolver.getNumIterations();
+  }
+}
@@ -22,7 +22,10 @@
 package org.knowm.jspice.simulate.dcsweep;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -33,12 +36,14 @@ import org.knowm.jspice.component.source.DCVoltage;
 import org.knowm.jspice.component.source.VCCS;
 import org.knowm.jspice.component.source.VCVS;
 import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.simulate.ParallelRanges;
 import org.knowm.jspice.simulate.SimulationPlotData;
 import org.knowm.jspice.simulate.SimulationPreCheck;
 import org.knowm.jspice.simulate.SimulationResult;
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPoint;
-import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
-import org.knowm.jspice.simulate.dcoperatingpoint.NodalAnalysisConvergenceException;
+import org.knowm.jspice.simulate.SimulationResultSink;
+import org.knowm.jspice.simulate.TimeSeriesTable;
+import org.knowm.jspice.simulate.TimeSeriesTableSink;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
 
 public class DCSweep {
 
@@ -47,6 +52,23 @@ public class DCSweep {
   private DCSweepConfig dcSweepConfig;
   private DCSweepConfig dcSweepConfigOrthoganol;
 
+  /**
+   * if true each point starts from the solution of the previous one instead of the components' initial guesses, extrapolated along the last step if
+   * isExtrapolation is true as well
+   */
+  private boolean isContinuation = true;
+  private boolean isExtrapolation = true;
+
+  /**
+   * the Newton iterations of all the points of the last run
+   */
+  private long numIterations;
+
+  /**
+   * the number of threads the points are solved on
+   */
+  private int parallelism = 1;
+
   /**
    * Constructor
    *
@@ -57,6 +79,46 @@ public class DCSweep {
     this.netlist = netlist;
   }
 
+  /**
+   * @param isContinuation - true to start each point from the solution of the previous one, the default, false to start every point from scratch
+   */
+  public void setContinuation(boolean isContinuation) {
+
+    this.isContinuation = isContinuation;
+  }
+
+  /**
+   * @param isExtrapolation - true to extrapolate the solutions of the two previous points onto the next one, the default, false to start from the
+   *          previous solution as it is. Only used with continuation.
+   */
+  public void setExtrapolation(boolean isExtrapolation) {
+
+    this.isExtrapolation = isExtrapolation;
+  }
+
+  /**
+   * Spreads the points over several threads. The threads share the netlist, each solving its points with a CircuitState of its own, and the
+   * results are merged in sweep order. The continuation restarts at the first point of each thread, so the results match those of a sequential sweep
+   * up to the convergence tolerance.
+   *
+   * @param parallelism - the number of threads, 1 to solve the points one after the other, the default
+   */
+  public void setParallelism(int parallelism) {
+
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("The parallelism must be at least 1!");
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * @return the number of Newton iterations of all the points of the last run
+   */
+  public long getNumIterations() {
+
+    return numIterations;
+  }
+
   /**
    * Add a SweepDefinition
    *
@@ -72,7 +134,7 @@ public class DCSweep {
       this.dcSweepConfigOrthoganol = sweepDef;
       verify(sweepDef);
     } else {
-      throw new IllegalArgumentException("Only two SweepDefinitions maximum allowed!");
+      throw new IllegalArgumentException("Only two SweepDefinitions maximum allowed! Use a DCGridSweep for more.");
     }
   }
 
@@ -89,34 +151,42 @@ public class DCSweep {
 
   public SimulationResult run(String observable) {
 
-    netlist.verifyCircuit();
-    //    System.out.println("netlist " + netlist);
-
-    if (dcSweepConfig == null) {
-      throw new IllegalArgumentException("No sweepDef found! Use addSweepDef() to add one!");
-    }
+    verifyRun();
 
     // 1. load variable to sweep, from sweepDef1
     Component sweepableComponent1 = netlist.getComponent(dcSweepConfig.getSweepID());
     SimulationResult dcSweepResult;
+    double[] sweepValues = getSweepValues(dcSweepConfig);
 
     if (dcSweepConfigOrthoganol == null) {
-      dcSweepResult = new SimulationResult(getSweepLabel(sweepableComponent1), observable,
-          getSingleDCSweepResult(dcSweepConfig, sweepableComponent1, observable));
+      Map<String, SimulationPlotData> simulationPlotDataMap;
+      if (parallelism > 1) {
+        simulationPlotDataMap = runParallel(observable, sweepValues, null)[0].toSimulationPlotDataMap();
+      } else {
+        simulationPlotDataMap = getSingleDCSweepResult(sweepValues, sweepableComponent1, null, observable);
+      }
+      dcSweepResult = new SimulationResult(getSweepLabel(sweepableComponent1), observable, simulationPlotDataMap);
     } else {
 
       Map<String, SimulationPlotData> combinedSimulationPlotDataMap = new LinkedHashMap<>();
 
       Component sweepableComponent2 = netlist.getComponent(dcSweepConfigOrthoganol.getSweepID());
       String sweepLabel2 = getSweepLabel(sweepableComponent2);
-      for (double i = dcSweepConfigOrthoganol.getStartValue(); i <= dcSweepConfigOrthoganol.getEndValue(); i += dcSweepConfigOrthoganol.getStepSize()) {
-
-        // change component value in sweep 1 to i
-        netlist.getComponent(dcSweepConfigOrthoganol.getSweepID()).setSweepValue(i);
+      double[] orthogonalValues = getSweepValues(dcSweepConfigOrthoganol);
+      TimeSeriesTable[] parallelResults = parallelism > 1 ? runParallel(observable, sweepValues, orthogonalValues) : null;
+      for (int k = 0; k < orthogonalValues.length; k++) {
+
+        double i = orthogonalValues[k];
+        Map<String, SimulationPlotData> simulationPlotDataMap;
+        if (parallelResults != null) {
+          simulationPlotDataMap = parallelResults[k].toSimulationPlotDataMap();
+        } else {
+          // change component value in sweep 1 to i
+          simulationPlotDataMap = getSingleDCSweepResult(sweepValues, sweepableComponent1, i, observable);
+        }
         String orthoganolValue = (sweepLabel2 + " = " + i);
         // System.out.println(orthoganolValue);
-        SimulationResult singleSimulationResult = new SimulationResult(getSweepLabel(sweepableComponent1), observable,
-            getSingleDCSweepResult(dcSweepConfig, sweepableComponent1, observable));
+        SimulationResult singleSimulationResult = new SimulationResult(getSweepLabel(sweepableComponent1), observable, simulationPlotDataMap);
         for (Entry<String, SimulationPlotData> entrySet : singleSimulationResult.getSimulationPlotDataMap().entrySet()) {
           //          String observableValueID = entrySet.getKey();
           //          System.out.println("observableValueID " + observableValueID);
@@ -132,51 +202,204 @@ public class DCSweep {
     return dcSweepResult;
   }
 
+  /**
+   * Run the sweep, passing each converged point to the sink as soon as it is available instead of collecting the results. The signals are the swept
+   * component and the observable, followed by the value of the orthogonal sweep if there is one. A parallel sweep passes them on in the same order
+   * once all points are solved.
+   *
+   * @param observable
+   * @param simulationResultSink
+   */
+  public void run(String observable, SimulationResultSink simulationResultSink) {
+
+    verifyRun();
+
+    Component sweepableComponent1 = netlist.getComponent(dcSweepConfig.getSweepID());
+    String sweepLabel1 = getSweepLabel(sweepableComponent1);
+    double[] sweepValues = getSweepValues(dcSweepConfig);
+
+    if (dcSweepConfigOrthoganol == null) {
+      simulationResultSink.start(sweepLabel1, new String[]{sweepableComponent1.getId(), observable});
+      if (parallelism > 1) {
+        replay(runParallel(observable, sweepValues, null)[0], new double[2], simulationResultSink);
+      } else {
+        numIterations += sweep(sweepValues, 0, sweepValues.length, null, observable, new double[2], simulationResultSink);
+      }
+    } else {
+      Component sweepableComponent2 = netlist.getComponent(dcSweepConfigOrthoganol.getSweepID());
+      simulationResultSink.start(sweepLabel1, new String[]{sweepableComponent1.getId(), observable, getSweepLabel(sweepableComponent2)});
+      double[] values = new double[3];
+      double[] orthogonalValues = getSweepValues(dcSweepConfigOrthoganol);
+      TimeSeriesTable[] parallelResults = parallelism > 1 ? runParallel(observable, sweepValues, orthogonalValues) : null;
+      for (int k = 0; k < orthogonalValues.length; k++) {
+        values[2] = orthogonalValues[k];
+        if (parallelResults != null) {
+          replay(parallelResults[k], values, simulationResultSink);
+        } else {
+          numIterations += sweep(sweepValues, 0, sweepValues.length, orthogonalValues[k], observable, values, simulationResultSink);
+        }
+      }
+    }
+    simulationResultSink.end();
+  }
+
+  private void verifyRun() {
+
+    numIterations = 0;
+    netlist.verifyCircuit();
+    //    System.out.println("netlist " + netlist);
+
+    if (dcSweepConfig == null) {
+      throw new IllegalArgumentException("No sweepDef found! Use addSweepDef() to add one!");
+    }
+  }
+
   /**
    * @param sweepDefinition
+   * @return the swept values, stepped in decimal so the last one is not lost to round off
+   */
+  static double[] getSweepValues(DCSweepConfig sweepDefinition) {
+
+    BigDecimal firstPoint = BigDecimal.valueOf(sweepDefinition.getStartValue());
+    BigDecimal stepSize = BigDecimal.valueOf(sweepDefinition.getStepSize());
+    BigDecimal stopValue = BigDecimal.valueOf(sweepDefinition.getEndValue());
+    List<Double> sweepValues = new ArrayList<>();
+    for (BigDecimal i = firstPoint; i.compareTo(stopValue) <= 0; i = i.add(stepSize)) {
+      sweepValues.add(i.doubleValue());
+    }
+    double[] values = new double[sweepValues.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = sweepValues.get(i);
+    }
+    return values;
+  }
+
+  /**
+   * @param sweepValues
    * @param sweepableComponent
+   * @param orthogonalValue - the value of the orthogonal sweep, null without one
    * @param observable
    * @return
    */
-  private Map<String, SimulationPlotData> getSingleDCSweepResult(DCSweepConfig sweepDefinition, Component sweepableComponent,
+  private Map<String, SimulationPlotData> getSingleDCSweepResult(double[] sweepValues, Component sweepableComponent, Double orthogonalValue,
       String observable) {
 
-    Map<String, SimulationPlotData> simulationDataMap = new LinkedHashMap<>();
     //    System.out.println("sweepableComponent " + sweepableComponent);
-    //    System.out.println("simulationDataMap " + simulationDataMap);
 
-    simulationDataMap.put(sweepableComponent.getId(), new SimulationPlotData());
-    simulationDataMap.put(observable, new SimulationPlotData());
+    TimeSeriesTableSink timeSeriesTableSink = new TimeSeriesTableSink(sweepValues.length);
+    timeSeriesTableSink.start(getSweepLabel(sweepableComponent), new String[]{sweepableComponent.getId(), observable});
+    numIterations += sweep(sweepValues, 0, sweepValues.length, orthogonalValue, observable, new double[2], timeSeriesTableSink);
+    timeSeriesTableSink.end();
 
-    // 2. for each step, get DC Operating Point
-    DCOperatingPointResult dCOperatingPointResult = null;
-    BigDecimal firstPoint = BigDecimal.valueOf(sweepDefinition.getStartValue());
-    BigDecimal stepSize = BigDecimal.valueOf(sweepDefinition.getStepSize());
-    BigDecimal stopValue = BigDecimal.valueOf(sweepDefinition.getEndValue());
-    for (BigDecimal i = firstPoint; i.compareTo(stopValue) <= 0; i = i.add(stepSize)) {
+    // 3. return the raw data
+    return timeSeriesTableSink.getTimeSeriesTable().toSimulationPlotDataMap();
+  }
 
-      sweepableComponent.setSweepValue(i.doubleValue());
+  /**
+   * Solves the points on a ForkJoinPool of parallelism threads. The points of each orthogonal value are split into contiguous segments, so that
+   * continuation still applies within a segment, and the segments are dealt out to the threads in contiguous groups. All threads solve their
+   * segments on the same netlist.
+   *
+   * @param observable
+   * @param sweepValues
+   * @param orthogonalValues - null without an orthogonal sweep
+   * @return the swept values and the observable, for each orthogonal value in turn, in sweep order
+   */
+  private TimeSeriesTable[] runParallel(String observable, double[] sweepValues, double[] orthogonalValues) {
+
+    String sweepID = dcSweepConfig.getSweepID();
+    int numOrthogonalValues = orthogonalValues == null ? 1 : orthogonalValues.length;
+
+    // the line of each orthogonal value is split into enough segments to keep all threads busy
+    int numSegmentsPerOrthogonalValue = ParallelRanges.getNumSegmentsPerLine(parallelism, numOrthogonalValues, sweepValues.length);
+    int numSegments = numOrthogonalValues * numSegmentsPerOrthogonalValue;
+    TimeSeriesTableSink[] segmentResults = new TimeSeriesTableSink[numSegments];
+    numIterations += ParallelRanges.run(parallelism, numSegments, (firstSegment, lastSegment) -> {
+
+      long iterations = 0;
+      for (int segment = firstSegment; segment < lastSegment; segment++) {
+        int orthogonalIndex = segment / numSegmentsPerOrthogonalValue;
+        int part = segment % numSegmentsPerOrthogonalValue;
+        Double orthogonalValue = orthogonalValues == null ? null : orthogonalValues[orthogonalIndex];
+        int from = ParallelRanges.getStart(part, sweepValues.length, numSegmentsPerOrthogonalValue);
+        int to = ParallelRanges.getStart(part + 1, sweepValues.length, numSegmentsPerOrthogonalValue);
+        segmentResults[segment] = new TimeSeriesTableSink(to - from);
+        segmentResults[segment].start(sweepID, new String[]{sweepID, observable});
+        iterations += sweep(sweepValues, from, to, orthogonalValue, observable, new double[2], segmentResults[segment]);
+      }
+      return iterations;
+    });
+
+    // merge the segments in order
+    TimeSeriesTable[] results = new TimeSeriesTable[numOrthogonalValues];
+    for (int k = 0; k < numOrthogonalValues; k++) {
+      results[k] = new TimeSeriesTable(new String[]{sweepID, observable}, sweepValues.length);
+      for (int segment = k * numSegmentsPerOrthogonalValue; segment < (k + 1) * numSegmentsPerOrthogonalValue; segment++) {
+        TimeSeriesTable segmentResult = segmentResults[segment].getTimeSeriesTable();
+        double[] row = new double[2];
+        for (int r = 0; r < segmentResult.getSize(); r++) {
+          row[0] = segmentResult.getValue(0, r);
+          row[1] = segmentResult.getValue(1, r);
+          results[k].addRow(segmentResult.getTime(r), row);
+        }
+      }
+    }
+    return results;
+  }
 
-      //      System.out.println("i= " + i);
+  /**
+   * @param timeSeriesTable - the swept values and the observable
+   * @param values - the swept value and the observable are written to the first two elements, the rest is passed on unchanged
+   * @param simulationResultSink
+   */
+  private static void replay(TimeSeriesTable timeSeriesTable, double[] values, SimulationResultSink simulationResultSink) {
 
-      // Note: sometimes the DC Op will not converge. Therefore we catch the NodalAnalysisConvergenceException and just skip it
-      try {
-        dCOperatingPointResult = new DCOperatingPoint(netlist).run();
-        //        System.out.println(dCOperatingPointResult.toString());
+    for (int r = 0; r < timeSeriesTable.getSize(); r++) {
+      values[0] = timeSeriesTable.getValue(0, r);
+      values[1] = timeSeriesTable.getValue(1, r);
+      simulationResultSink.accept(timeSeriesTable.getTime(r), values);
+    }
+  }
 
-        simulationDataMap.get(sweepableComponent.getId()).getxData().add(i);
-        simulationDataMap.get(sweepableComponent.getId()).getyData().add(i);
+  /**
+   * Solves the points with a CircuitState of their own, so the netlist is left as it is
+   *
+   * @param sweepValues
+   * @param from - the first point to solve
+   * @param to - one past the last point to solve
+   * @param orthogonalValue - the value of the orthogonal sweep, null without one
+   * @param observable
+   * @param values - the swept value and the observable are written to the first two elements, the rest is passed on unchanged
+   * @param simulationResultSink
+   * @return the number of Newton iterations of the points
+   */
+  private long sweep(double[] sweepValues, int from, int to, Double orthogonalValue, String observable, double[] values,
+      SimulationResultSink simulationResultSink) {
+
+    // only the observable is evaluated
+    SweepSolver sweepSolver = new SweepSolver(netlist, Collections.singletonList(observable), isContinuation, isExtrapolation);
+    CircuitState circuitState = sweepSolver.getCircuitState();
+    int sweepableComponentIdx = circuitState.getComponentIdx(dcSweepConfig.getSweepID());
+    if (orthogonalValue != null) {
+      circuitState.setSweepValue(dcSweepConfigOrthoganol.getSweepID(), orthogonalValue);
+    }
+    double[] observableValue = new double[1];
 
-        simulationDataMap.get(observable).getxData().add(i);
-        simulationDataMap.get(observable).getyData().add(dCOperatingPointResult.getValue(observable));
+    // 2. for each step, get DC Operating Point
+    for (int i = from; i < to; i++) {
+
+      double sweepValue = sweepValues[i];
+      circuitState.setSweepValue(sweepableComponentIdx, sweepValue);
+
+      //      System.out.println("i= " + i);
 
-      } catch (NodalAnalysisConvergenceException e) {
-        System.out.println("skipping value " + i + " because of failure to converge!");
+      if (sweepSolver.solve(sweepValue, observableValue)) {
+        values[0] = sweepValue;
+        values[1] = observableValue[0];
+        simulationResultSink.accept(values[0], values);
       }
     }
-
-    // 3. return the raw data
-    return simulationDataMap;
+    return sweepSolver.getNumIterations();
   }
 
   /**
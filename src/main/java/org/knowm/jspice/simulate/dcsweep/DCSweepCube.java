@@ -0,0 +1,227 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcsweep;
+
+import java.util.Arrays;
+
+/**
+ * The observables of a DCGridSweep at every point of its grid, in one primitive array. Axis 0 is the first sweep definition and varies fastest.
+ * Points that did not converge are NaN.
+ */
+public final class DCSweepCube {
+
+  private final String[] sweepIDs;
+  private final double[][] axisValues;
+  private final String[] observables;
+  private final int[] shape;
+  private final int numPoints;
+
+  /**
+   * the values of observable i are at i * numPoints plus the flat index of the point
+   */
+  private final double[] data;
+
+  /**
+   * Constructor
+   *
+   * @param sweepIDs - the swept component of each axis
+   * @param axisValues - the swept values of each axis
+   * @param observables
+   */
+  DCSweepCube(String[] sweepIDs, double[][] axisValues, String[] observables) {
+
+    this.sweepIDs = sweepIDs;
+    this.axisValues = axisValues;
+    this.observables = observables;
+    this.shape = new int[axisValues.length];
+    long numPoints = 1;
+    for (int axis = 0; axis < shape.length; axis++) {
+      shape[axis] = axisValues[axis].length;
+      numPoints *= shape[axis];
+    }
+    if (numPoints * Math.max(1, observables.length) > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The sweep grid has too many points!");
+    }
+    this.numPoints = (int) numPoints;
+    this.data = new double[this.numPoints * observables.length];
+    Arrays.fill(data, Double.NaN);
+  }
+
+  /**
+   * @param flatIndex - the index of the point, with axis 0 varying fastest
+   * @param values - one per observable
+   */
+  void set(int flatIndex, double[] values) {
+
+    for (int i = 0; i < observables.length; i++) {
+      data[i * numPoints + flatIndex] = values[i];
+    }
+  }
+
+  public int getNumDimensions() {
+
+    return shape.length;
+  }
+
+  /**
+   * @return the number of points along each axis
+   */
+  public int[] getShape() {
+
+    return shape.clone();
+  }
+
+  public int getNumPoints() {
+
+    return numPoints;
+  }
+
+  public String[] getSweepIDs() {
+
+    return sweepIDs.clone();
+  }
+
+  /**
+   * @param axis
+   * @return the swept values along the axis
+   */
+  public double[] getAxisValues(int axis) {
+
+    return axisValues[axis].clone();
+  }
+
+  public String[] getObservables() {
+
+    return observables.clone();
+  }
+
+  /**
+   * @param observable - i.e. V(2) or I(R1)
+   * @return its index
+   */
+  public int getObservableIdx(String observable) {
+
+    for (int i = 0; i < observables.length; i++) {
+      if (observables[i].equals(observable)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException(observable + " was not recorded!");
+  }
+
+  /**
+   * @param observable
+   * @param indices - one per axis
+   * @return the value of the observable at the point, NaN if it did not converge
+   */
+  public double get(String observable, int... indices) {
+
+    return get(getObservableIdx(observable), indices);
+  }
+
+  /**
+   * @param observableIdx
+   * @param indices - one per axis
+   * @return the value of the observable at the point, NaN if it did not converge
+   */
+  public double get(int observableIdx, int... indices) {
+
+    if (indices.length != shape.length) {
+      throw new IllegalArgumentException("Expected " + shape.length + " indices!");
+    }
+    int flatIndex = 0;
+    int stride = 1;
+    for (int axis = 0; axis < shape.length; axis++) {
+      if (indices[axis] < 0 || indices[axis] >= shape[axis]) {
+        throw new IndexOutOfBoundsException("Index " + indices[axis] + " is out of bounds for axis " + axis + "!");
+      }
+      flatIndex += indices[axis] * stride;
+      stride *= shape[axis];
+    }
+    return data[observableIdx * numPoints + flatIndex];
+  }
+
+  /**
+   * @param observable
+   * @param indices - one per axis, -1 for the axes to keep
+   * @return see getSlice(int, int...)
+   */
+  public double[] getSlice(String observable, int... indices) {
+
+    return getSlice(getObservableIdx(observable), indices);
+  }
+
+  /**
+   * Takes the values of an observable along the axes whose index is -1, at the given indices of the other axes, e.g. getSlice(0, -1, 3) is the
+   * sweep along axis 0 at the fourth value of axis 1.
+   *
+   * @param observableIdx
+   * @param indices - one per axis, -1 for the axes to keep
+   * @return the values along the kept axes, the first of them varying fastest
+   */
+  public double[] getSlice(int observableIdx, int... indices) {
+
+    if (indices.length != shape.length) {
+      throw new IllegalArgumentException("Expected " + shape.length + " indices!");
+    }
+
+    // the offset of the fixed axes, and the shape and strides of the kept ones
+    int offset = observableIdx * numPoints;
+    int[] keptShape = new int[shape.length];
+    int[] keptStrides = new int[shape.length];
+    int numKeptAxes = 0;
+    int sliceSize = 1;
+    int stride = 1;
+    for (int axis = 0; axis < shape.length; axis++) {
+      if (indices[axis] == -1) {
+        keptShape[numKeptAxes] = shape[axis];
+        keptStrides[numKeptAxes] = stride;
+        numKeptAxes++;
+        sliceSize *= shape[axis];
+      } else if (indices[axis] < 0 || indices[axis] >= shape[axis]) {
+        throw new IndexOutOfBoundsException("Index " + indices[axis] + " is out of bounds for axis " + axis + "!");
+      } else {
+        offset += indices[axis] * stride;
+      }
+      stride *= shape[axis];
+    }
+
+    double[] slice = new double[sliceSize];
+    int[] counter = new int[numKeptAxes];
+    int flatIndex = offset;
+    for (int i = 0; i < sliceSize; i++) {
+      slice[i] = data[flatIndex];
+
+      // step the counter of the kept axes, the first one fastest
+      for (int k = 0; k < numKeptAxes; k++) {
+        counter[k]++;
+        flatIndex += keptStrides[k];
+        if (counter[k] < keptShape[k]) {
+          break;
+        }
+        flatIndex -= counter[k] * keptStrides[k];
+        counter[k] = 0;
+      }
+    }
+    return slice;
+  }
+}
@@ -0,0 +1,169 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.dcsweep;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.CompiledCircuit;
+import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPoint;
+import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.NodalAnalysisConvergenceException;
+import org.knowm.jspice.simulate.dcoperatingpoint.OutputSelection;
+
+/**
+ * Solves the points along one swept value of a netlist, each starting from the solution of the previous one if continuation is on. The swept values
+ * are set in the CircuitState of the solver, not in the netlist. Not thread safe, a parallel sweep uses one per thread, all on the same netlist.
+ */
+final class SweepSolver {
+
+  private final Netlist netlist;
+  private final CompiledCircuit compiledCircuit;
+  private final CircuitState circuitState;
+  private final OutputSelection outputSelection;
+  private final boolean isContinuation;
+  private final boolean isExtrapolation;
+  private final double[] solution;
+
+  /**
+   * the solutions of the last two points that converged, and the first order prediction for the next one
+   */
+  private final int numUnknowns;
+  private DCOperatingPointResult lastResult;
+  private double lastValue;
+  private final double[] secondLastUnknowns;
+  private double secondLastValue;
+  private boolean hasSecondLast;
+  private final double[] predictedUnknowns;
+  private final DCOperatingPointResult predictedResult;
+
+  private long numIterations;
+
+  /**
+   * Constructor
+   *
+   * @param netlist - the netlist to solve the points on
+   * @param observables - the signals to evaluate at each point, null or empty for all of them
+   * @param isContinuation - true to start each point from the solution of the previous one
+   * @param isExtrapolation - true to extrapolate the solutions of the two previous points onto the next one
+   */
+  SweepSolver(Netlist netlist, List<String> observables, boolean isContinuation, boolean isExtrapolation) {
+
+    this.netlist = netlist;
+    this.compiledCircuit = netlist.getCompiledCircuit(null);
+    this.circuitState = new CircuitState(compiledCircuit, netlist.isInitialConditions());
+    this.outputSelection = OutputSelection.compile(compiledCircuit, observables);
+    this.isContinuation = isContinuation;
+    this.isExtrapolation = isExtrapolation;
+    this.solution = new double[compiledCircuit.getSize()];
+    this.numUnknowns = compiledCircuit.getNumUnknowns();
+    this.secondLastUnknowns = new double[numUnknowns];
+    this.predictedUnknowns = new double[numUnknowns];
+    this.predictedResult = new DCOperatingPointResult(compiledCircuit, predictedUnknowns);
+  }
+
+  /**
+   * @return the evaluated signals, in the order of the values written by solve()
+   */
+  String[] getLabels() {
+
+    return outputSelection.getLabels();
+  }
+
+  /**
+   * @return the state the points are solved with, whose sweep values are the ones to set before solve()
+   */
+  CircuitState getCircuitState() {
+
+    return circuitState;
+  }
+
+  /**
+   * Makes the next point start over, e.g. at the start of a new line of a grid
+   */
+  void reset() {
+
+    lastResult = null;
+    hasSecondLast = false;
+  }
+
+  /**
+   * Solves the netlist with its swept component already set to sweepValue in getCircuitState()
+   *
+   * @param sweepValue - the value along the sweep, for the extrapolation
+   * @param values - the evaluated signals are written here
+   * @return false if the point did not converge, in which case values is left as it is and the next point starts over
+   */
+  boolean solve(double sweepValue, double[] values) {
+
+    DCOperatingPointResult initialGuess = null;
+    if (isContinuation && lastResult != null) {
+      if (isExtrapolation && hasSecondLast) {
+        double[] lastUnknowns = lastResult.getV();
+        double slope = (sweepValue - lastValue) / (lastValue - secondLastValue);
+        for (int k = 0; k < numUnknowns; k++) {
+          predictedUnknowns[k] = lastUnknowns[k] + (lastUnknowns[k] - secondLastUnknowns[k]) * slope;
+        }
+        initialGuess = predictedResult;
+      } else {
+        initialGuess = lastResult;
+      }
+    }
+
+    // Note: sometimes the DC Op will not converge. Therefore we catch the NodalAnalysisConvergenceException and just skip it
+    DCOperatingPoint dcOperatingPoint = new DCOperatingPoint(initialGuess, netlist, null);
+    dcOperatingPoint.setCircuitState(circuitState);
+    try {
+      DCOperatingPointResult dCOperatingPointResult = dcOperatingPoint.run();
+      //        System.out.println(dCOperatingPointResult.toString());
+
+      compiledCircuit.getSolutionVector(dCOperatingPointResult, solution);
+      outputSelection.getValues(solution, circuitState, values);
+
+      if (lastResult != null) {
+        System.arraycopy(lastResult.getV(), 0, secondLastUnknowns, 0, numUnknowns);
+        secondLastValue = lastValue;
+        hasSecondLast = true;
+      }
+      lastResult = dCOperatingPointResult;
+      lastValue = sweepValue;
+      return true;
+
+    } catch (NodalAnalysisConvergenceException e) {
+      System.out.println("skipping value " + BigDecimal.valueOf(sweepValue) + " because of failure to converge!");
+      reset();
+      return false;
+    } finally {
+      numIterations += dcOperatingPoint.getNumIterations();
+    }
+  }
+
+  /**
+   * @return the number of Newton iterations of all the points solved so far
+   */
+  long getNumIterations() {
+
+    return numIterations;
+  }
+}
@@ -0,0 +1,242 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.montecarlo;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.netlist.spice.SPICEUtils;
+import org.knowm.jspice.simulate.ParallelRanges;
+import org.knowm.jspice.simulate.SimulationResult;
+import org.knowm.jspice.simulate.SimulationResultSink;
+import org.knowm.jspice.simulate.TimeSeriesTableSink;
+import org.knowm.jspice.simulate.transientanalysis.TransientAnalysis;
+import org.knowm.jspice.simulate.transientanalysis.TransientConfig;
+
+/**
+ * Runs a transient analysis of a stochastic circuit, i.e. one with an MSSMemristor, many times, each run a realization of its own. Each run draws
+ * from a Random stream of its own, seeded from the seed of the analysis, so the analysis is reproducible however the runs are spread over the
+ * threads. The statistics of the signals are accumulated while the runs go, so only the traces of the retained runs are kept in memory.
+ * <p>
+ * All runs solve the same netlist, each with a CircuitState of its own, and add their samples to one set of statistics. The statistics take about
+ * 16 bytes per time point and observable, or 48 bytes with the quantiles, plus 8 bytes per bucket the values of the runs at the time point fall into,
+ * see MonteCarloStatistics. Select the observables to keep that down, by default every node voltage and device current is accumulated. The quantiles
+ * do not depend on the order the runs add their samples in, the means and variances only up to rounding if the analysis runs on more than one
+ * thread.
+ */
+public class MonteCarloAnalysis {
+
+  private final Netlist netlist;
+  private final TransientConfig transientConfig;
+  private final int numRuns;
+
+  private long seed = new Random().nextLong();
+  private int parallelism = 1;
+  private int[] retainedRuns = new int[0];
+  private List<String> observables;
+  private boolean isQuantiles = true;
+  private double relativeAccuracy = 0.01;
+
+  /**
+   * the Newton iterations of all the runs of the last analysis
+   */
+  private long numIterations;
+
+  /**
+   * Constructor
+   *
+   * @param netlist
+   * @param transientConfig
+   * @param numRuns
+   */
+  public MonteCarloAnalysis(Netlist netlist, TransientConfig transientConfig, int numRuns) {
+
+    if (numRuns < 1) {
+      throw new IllegalArgumentException("The number of runs must be at least 1!");
+    }
+    this.netlist = netlist;
+    this.transientConfig = transientConfig;
+    this.numRuns = numRuns;
+  }
+
+  /**
+   * @param seed - the seeds of the runs are derived from it, random by default
+   */
+  public void setSeed(long seed) {
+
+    this.seed = seed;
+  }
+
+  /**
+   * @param parallelism - the number of threads, 1 to run one realization after the other, the default
+   */
+  public void setParallelism(int parallelism) {
+
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("The parallelism must be at least 1!");
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * @param retainedRuns - the indices of the runs whose full traces are kept, none by default
+   */
+  public void setRetainedRuns(int... retainedRuns) {
+
+    for (int runIdx : retainedRuns) {
+      if (runIdx < 0 || runIdx >= numRuns) {
+        throw new IllegalArgumentException("There is no run " + runIdx + "!");
+      }
+    }
+    this.retainedRuns = retainedRuns.clone();
+  }
+
+  /**
+   * @param observables - the signals to accumulate, i.e. V(2), I(R1), R(M1) or V(2,3). None for the print probes of the netlist, or all node voltages
+   *          and device currents if it has none.
+   */
+  public void setObservables(String... observables) {
+
+    this.observables = observables.length == 0 ? null : Arrays.asList(observables.clone());
+  }
+
+  /**
+   * @param isQuantiles - false to only accumulate the means and variances, which takes less memory, true by default
+   */
+  public void setQuantiles(boolean isQuantiles) {
+
+    this.isQuantiles = isQuantiles;
+  }
+
+  /**
+   * @param relativeAccuracy - of the quantiles, 0.01 by default
+   */
+  public void setRelativeAccuracy(double relativeAccuracy) {
+
+    if (relativeAccuracy < 1E-6 || relativeAccuracy >= 1) {
+      throw new IllegalArgumentException("The relative accuracy must be at least 1E-6 and less than 1!");
+    }
+    this.relativeAccuracy = relativeAccuracy;
+  }
+
+  /**
+   * @return the Newton iterations of all the runs of the last analysis
+   */
+  public long getNumIterations() {
+
+    return numIterations;
+  }
+
+  public MonteCarloResult run() {
+
+    BigDecimal timeStep = SPICEUtils.bigDecimalFromString(transientConfig.getTimeStep());
+    BigDecimal stopTime = SPICEUtils.bigDecimalFromString(transientConfig.getStopTime());
+    long numTimePoints = stopTime.divide(timeStep, 0, RoundingMode.CEILING).longValue();
+    if (numTimePoints > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The analysis has too many time points!");
+    }
+
+    // the seed of each run only depends on its index
+    long[] runSeeds = new long[numRuns];
+    SplittableRandom splittableRandom = new SplittableRandom(seed);
+    for (int runIdx = 0; runIdx < numRuns; runIdx++) {
+      runSeeds[runIdx] = splittableRandom.nextLong();
+    }
+    boolean[] isRetained = new boolean[numRuns];
+    for (int runIdx : retainedRuns) {
+      isRetained[runIdx] = true;
+    }
+
+    // each thread runs a contiguous range of runs, all of them into the same statistics
+    MonteCarloStatistics statistics = new MonteCarloStatistics(timeStep.doubleValue(), (int) numTimePoints, isQuantiles, relativeAccuracy);
+    SimulationResult[] traces = new SimulationResult[numRuns];
+    numIterations = ParallelRanges.run(parallelism, numRuns, (firstRun, lastRun) -> {
+
+      long iterations = 0;
+      SimulationResultSink statisticsSink = statistics.createSink();
+      for (int runIdx = firstRun; runIdx < lastRun; runIdx++) {
+        TransientAnalysis transientAnalysis = new TransientAnalysis(netlist, transientConfig);
+        transientAnalysis.setRandom(new Random(runSeeds[runIdx]));
+        transientAnalysis.setPrintProbes(observables);
+        if (isRetained[runIdx]) {
+          TimeSeriesTableSink timeSeriesTableSink = new TimeSeriesTableSink((int) Math.min(numTimePoints, 1 << 20));
+          transientAnalysis.run(new TeeSink(statisticsSink, timeSeriesTableSink));
+          traces[runIdx] = new SimulationResult(timeSeriesTableSink.getxDataLabel(), "", timeSeriesTableSink.getTimeSeriesTable());
+        } else {
+          transientAnalysis.run(statisticsSink);
+        }
+        iterations += transientAnalysis.getNumIterations();
+      }
+      return iterations;
+    });
+
+    Map<Integer, SimulationResult> retainedTraces = new TreeMap<>();
+    for (int runIdx : retainedRuns) {
+      retainedTraces.put(runIdx, traces[runIdx]);
+    }
+
+    return new MonteCarloResult(statistics, seed, runSeeds, retainedTraces);
+  }
+
+  /**
+   * Passes the samples of a run on to its statistics and to the sink of its full trace
+   */
+  private static final class TeeSink implements SimulationResultSink {
+
+    private final SimulationResultSink first;
+    private final SimulationResultSink second;
+
+    TeeSink(SimulationResultSink first, SimulationResultSink second) {
+
+      this.first = first;
+      this.second = second;
+    }
+
+    @Override
+    public void start(String xDataLabel, String[] labels) {
+
+      first.start(xDataLabel, labels);
+      second.start(xDataLabel, labels);
+    }
+
+    @Override
+    public void accept(double x, double[] values) {
+
+      first.accept(x, values);
+      second.accept(x, values);
+    }
+
+    @Override
+    public void end() {
+
+      first.end();
+      second.end();
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.montecarlo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.knowm.jspice.simulate.SimulationResult;
+
+/**
+ * The statistics of the signals of all runs of a MonteCarloAnalysis at each of its time points, and the full traces of the runs that were retained.
+ * A time point is left out if no run has a sample at it, and a run that skipped a time point because it failed to converge is not counted at it.
+ */
+public final class MonteCarloResult {
+
+  private final MonteCarloStatistics statistics;
+  private final long seed;
+  private final long[] runSeeds;
+  private final Map<Integer, SimulationResult> traces;
+
+  /**
+   * the indices of the time points with samples
+   */
+  private final int[] timeIdxs;
+
+  /**
+   * Constructor
+   *
+   * @param statistics - of all runs
+   * @param seed
+   * @param runSeeds
+   * @param traces - run index, trace
+   */
+  MonteCarloResult(MonteCarloStatistics statistics, long seed, long[] runSeeds, Map<Integer, SimulationResult> traces) {
+
+    this.statistics = statistics;
+    this.seed = seed;
+    this.runSeeds = runSeeds;
+    this.traces = Collections.unmodifiableMap(traces);
+
+    int numTimeIdxs = 0;
+    int[] timeIdxs = new int[statistics.getNumTimePoints()];
+    for (int t = 0; t < timeIdxs.length; t++) {
+      if (statistics.getCount(t) > 0) {
+        timeIdxs[numTimeIdxs++] = t;
+      }
+    }
+    this.timeIdxs = Arrays.copyOf(timeIdxs, numTimeIdxs);
+  }
+
+  public int getNumRuns() {
+
+    return runSeeds.length;
+  }
+
+  /**
+   * @return the seed all the run seeds were derived from
+   */
+  public long getSeed() {
+
+    return seed;
+  }
+
+  /**
+   * @param runIdx
+   * @return the seed of the run, which TransientAnalysis.setRandom(new Random(seed)) repeats the run with
+   */
+  public long getRunSeed(int runIdx) {
+
+    return runSeeds[runIdx];
+  }
+
+  /**
+   * @return the recorded signals
+   */
+  public String[] getLabels() {
+
+    String[] labels = statistics.getLabels();
+    return labels == null ? new String[0] : labels.clone();
+  }
+
+  /**
+   * @return the time points
+   */
+  public double[] getTimes() {
+
+    double[] times = new double[timeIdxs.length];
+    for (int i = 0; i < timeIdxs.length; i++) {
+      times[i] = timeIdxs[i] * statistics.getTimeStep();
+    }
+    return times;
+  }
+
+  /**
+   * @return the number of runs with a sample at each time point
+   */
+  public int[] getCounts() {
+
+    int[] counts = new int[timeIdxs.length];
+    for (int i = 0; i < timeIdxs.length; i++) {
+      counts[i] = statistics.getCount(timeIdxs[i]);
+    }
+    return counts;
+  }
+
+  /**
+   * @param label - i.e. V(2) or I(M1)
+   * @return the mean of the signal at each time point
+   */
+  public double[] getMean(String label) {
+
+    int s = getSignalIdx(label);
+    double[] mean = new double[timeIdxs.length];
+    for (int i = 0; i < timeIdxs.length; i++) {
+      mean[i] = statistics.getMean(timeIdxs[i], s);
+    }
+    return mean;
+  }
+
+  /**
+   * @param label
+   * @return the sample variance of the signal at each time point, NaN where there are fewer than 2 samples
+   */
+  public double[] getVariance(String label) {
+
+    int s = getSignalIdx(label);
+    double[] variance = new double[timeIdxs.length];
+    for (int i = 0; i < timeIdxs.length; i++) {
+      variance[i] = statistics.getVariance(timeIdxs[i], s);
+    }
+    return variance;
+  }
+
+  /**
+   * @param label
+   * @return the sample standard deviation of the signal at each time point
+   */
+  public double[] getStandardDeviation(String label) {
+
+    double[] standardDeviation = getVariance(label);
+    for (int i = 0; i < standardDeviation.length; i++) {
+      standardDeviation[i] = Math.sqrt(standardDeviation[i]);
+    }
+    return standardDeviation;
+  }
+
+  /**
+   * @param label
+   * @param quantile - between 0 and 1, i.e. 0.5 for the median
+   * @return the quantile of the signal at each time point, within the relative accuracy of the analysis
+   */
+  public double[] getQuantile(String label, double quantile) {
+
+    if (quantile < 0 || quantile > 1) {
+      throw new IllegalArgumentException("The quantile must be between 0 and 1!");
+    }
+    if (!statistics.isQuantiles()) {
+      throw new IllegalStateException("The quantiles were not accumulated!");
+    }
+    int s = getSignalIdx(label);
+    double[] values = new double[timeIdxs.length];
+    for (int i = 0; i < timeIdxs.length; i++) {
+      values[i] = statistics.getQuantile(timeIdxs[i], s, quantile);
+    }
+    return values;
+  }
+
+  /**
+   * @return run index, full trace of the retained runs
+   */
+  public Map<Integer, SimulationResult> getTraces() {
+
+    return traces;
+  }
+
+  /**
+   * @param runIdx
+   * @return the full trace of the run
+   */
+  public SimulationResult getTrace(int runIdx) {
+
+    SimulationResult simulationResult = traces.get(runIdx);
+    if (simulationResult == null) {
+      throw new IllegalArgumentException("The trace of run " + runIdx + " was not retained!");
+    }
+    return simulationResult;
+  }
+
+  private int getSignalIdx(String label) {
+
+    String[] labels = getLabels();
+    for (int i = 0; i < labels.length; i++) {
+      if (labels[i].equals(label)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException(label + " was not recorded!");
+  }
+}
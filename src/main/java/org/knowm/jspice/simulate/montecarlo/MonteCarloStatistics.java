@@ -0,0 +1,238 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.montecarlo;
+
+import java.util.Arrays;
+
+import org.knowm.jspice.simulate.SimulationResultSink;
+
+/**
+ * Accumulates the samples of all runs of a MonteCarloAnalysis as they are produced: the count, and the mean and sum of squared deviations (Welford's
+ * algorithm) and optionally the QuantileSketches of each signal at each time point. There is one set of statistics for all threads. Each thread
+ * buffers the samples of its run for a block of BLOCK_SIZE time points and adds them under the lock of the block once the run moves on, so threads
+ * at different time points do not wait for each other.
+ * <p>
+ * The statistics take 4 bytes per time point and 16 bytes per time point and signal. The quantiles take about another 32 bytes per time point and
+ * signal, plus 8 bytes per bucket, see QuantileSketches. Each thread adds a buffer of BLOCK_SIZE time points.
+ */
+final class MonteCarloStatistics {
+
+  static final int BLOCK_SIZE = 256;
+
+  private final double timeStep;
+  private final int numTimePoints;
+  private final double relativeAccuracy;
+  private final boolean isQuantiles;
+  private final Object[] blockLocks;
+
+  private String[] labels;
+  private int numSignals;
+
+  /**
+   * the number of runs with a sample at each time point
+   */
+  private int[] counts;
+
+  /**
+   * the values of signal s at time point t are at t * numSignals + s
+   */
+  private double[] means;
+  private double[] sumsOfSquaredDeviations;
+  private QuantileSketches quantileSketches;
+
+  /**
+   * Constructor
+   *
+   * @param timeStep - the time_step of the transient analysis, the samples are on its grid
+   * @param numTimePoints
+   * @param isQuantiles - if false only the means and variances are accumulated
+   * @param relativeAccuracy - of the quantiles
+   */
+  MonteCarloStatistics(double timeStep, int numTimePoints, boolean isQuantiles, double relativeAccuracy) {
+
+    this.timeStep = timeStep;
+    this.numTimePoints = numTimePoints;
+    this.isQuantiles = isQuantiles;
+    this.relativeAccuracy = relativeAccuracy;
+    this.blockLocks = new Object[(numTimePoints + BLOCK_SIZE - 1) / BLOCK_SIZE];
+    for (int i = 0; i < blockLocks.length; i++) {
+      blockLocks[i] = new Object();
+    }
+  }
+
+  /**
+   * @return a sink for the runs of one thread
+   */
+  SimulationResultSink createSink() {
+
+    return new BlockSink();
+  }
+
+  /**
+   * Allocates the statistics on the first run, and checks that the other runs record the same signals
+   *
+   * @param labels
+   */
+  private synchronized void start(String[] labels) {
+
+    if (this.labels == null) {
+      this.labels = labels.clone();
+      this.numSignals = labels.length;
+      this.counts = new int[numTimePoints];
+      this.means = new double[numTimePoints * numSignals];
+      this.sumsOfSquaredDeviations = new double[numTimePoints * numSignals];
+      this.quantileSketches = isQuantiles ? new QuantileSketches(numTimePoints * numSignals, relativeAccuracy) : null;
+    } else if (!Arrays.equals(this.labels, labels)) {
+      throw new IllegalStateException("The runs recorded different signals!");
+    }
+  }
+
+  /**
+   * Adds the samples of one run at some of the time points of a block
+   *
+   * @param block
+   * @param values - the samples of time point t are at (t - block * BLOCK_SIZE) * numSignals
+   * @param isSampled - if the run has a sample at the time point
+   */
+  private void add(int block, double[] values, boolean[] isSampled) {
+
+    synchronized (blockLocks[block]) {
+      int firstTimeIdx = block * BLOCK_SIZE;
+      for (int i = 0; i < BLOCK_SIZE; i++) {
+        if (!isSampled[i]) {
+          continue;
+        }
+        int t = firstTimeIdx + i;
+        int n = ++counts[t];
+        for (int s = 0; s < numSignals; s++) {
+          int idx = t * numSignals + s;
+          double value = values[i * numSignals + s];
+          double delta = value - means[idx];
+          means[idx] += delta / n;
+          sumsOfSquaredDeviations[idx] += delta * (value - means[idx]);
+          if (quantileSketches != null) {
+            quantileSketches.add(idx, value);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the recorded signals, or null if no run has started
+   */
+  String[] getLabels() {
+
+    return labels;
+  }
+
+  double getTimeStep() {
+
+    return timeStep;
+  }
+
+  int getNumTimePoints() {
+
+    return numTimePoints;
+  }
+
+  boolean isQuantiles() {
+
+    return isQuantiles;
+  }
+
+  int getCount(int t) {
+
+    return counts == null ? 0 : counts[t];
+  }
+
+  double getMean(int t, int s) {
+
+    return counts[t] == 0 ? Double.NaN : means[t * numSignals + s];
+  }
+
+  /**
+   * @param t
+   * @param s
+   * @return the sample variance, NaN for fewer than 2 samples
+   */
+  double getVariance(int t, int s) {
+
+    return counts[t] < 2 ? Double.NaN : sumsOfSquaredDeviations[t * numSignals + s] / (counts[t] - 1);
+  }
+
+  double getQuantile(int t, int s, double quantile) {
+
+    return quantileSketches.getQuantile(t * numSignals + s, quantile);
+  }
+
+  /**
+   * Buffers the samples of the current run of a thread for one block of time points at a time
+   */
+  private final class BlockSink implements SimulationResultSink {
+
+    private double[] values;
+    private final boolean[] isSampled = new boolean[BLOCK_SIZE];
+    private int block = -1;
+
+    @Override
+    public void start(String xDataLabel, String[] labels) {
+
+      MonteCarloStatistics.this.start(labels);
+      if (values == null) {
+        values = new double[BLOCK_SIZE * numSignals];
+      }
+    }
+
+    @Override
+    public void accept(double x, double[] values) {
+
+      long timeIdx = Math.round(x / timeStep);
+      if (timeIdx < 0 || timeIdx >= numTimePoints) {
+        return;
+      }
+      int t = (int) timeIdx;
+      if (t / BLOCK_SIZE != block) {
+        flush();
+        block = t / BLOCK_SIZE;
+      }
+      int i = t - block * BLOCK_SIZE;
+      System.arraycopy(values, 0, this.values, i * numSignals, numSignals);
+      isSampled[i] = true;
+    }
+
+    @Override
+    public void end() {
+
+      flush();
+    }
+
+    private void flush() {
+
+      if (block >= 0) {
+        add(block, values, isSampled);
+        Arrays.fill(isSampled, false);
+        block = -1;
+      }
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.montecarlo;
+
+/**
+ * Histograms of values with logarithmically spaced buckets, one per cell, i.e. per signal and time point, so that the quantiles they return are
+ * within a relative accuracy of the exact ones. The bucket a value falls into does not depend on the order the values come in, so the quantiles do
+ * not depend on how the runs are spread over the threads.
+ * <p>
+ * Each cell is one array of the buckets that were hit, sorted by bucket, with the key of a bucket in the upper and its count in the lower 32 bits of
+ * a long. A cell costs 8 bytes per bucket it holds, at most one per value added, and the values of the runs at the same time point usually fall
+ * into a few buckets. The keys grow with the values: negative values have negative keys, 0 and the values within Double.MIN_NORMAL of it have key
+ * 0, and positive values have positive keys.
+ */
+final class QuantileSketches {
+
+  private final double gamma;
+  private final double logGamma;
+
+  /**
+   * added to the index of a bucket to get its key, so the smallest index is key 1
+   */
+  private final int keyOffset;
+
+  private final long[][] buckets;
+  private final int[] numBuckets;
+
+  /**
+   * Constructor
+   *
+   * @param numCells
+   * @param relativeAccuracy - i.e. 0.01 for quantiles within 1% of the exact ones, at least 1E-6
+   */
+  QuantileSketches(int numCells, double relativeAccuracy) {
+
+    this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+    this.logGamma = Math.log(gamma);
+    this.keyOffset = 1 - (int) Math.ceil(Math.log(Double.MIN_NORMAL) / logGamma);
+    this.buckets = new long[numCells][];
+    this.numBuckets = new int[numCells];
+  }
+
+  /**
+   * @param cell
+   * @param value - NaN and infinite values are not counted
+   */
+  void add(int cell, double value) {
+
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return;
+    }
+    int key;
+    if (value > Double.MIN_NORMAL) {
+      key = getIndex(value) + keyOffset;
+    } else if (value < -Double.MIN_NORMAL) {
+      key = -(getIndex(-value) + keyOffset);
+    } else {
+      key = 0;
+    }
+
+    long[] cellBuckets = buckets[cell];
+    int size = numBuckets[cell];
+    int position = find(cellBuckets, size, key);
+    if (position >= 0) {
+      cellBuckets[position]++;
+      return;
+    }
+
+    // a bucket of its own, in order
+    position = -position - 1;
+    if (cellBuckets == null) {
+      cellBuckets = new long[2];
+      buckets[cell] = cellBuckets;
+    } else if (size == cellBuckets.length) {
+      long[] newCellBuckets = new long[2 * size];
+      System.arraycopy(cellBuckets, 0, newCellBuckets, 0, position);
+      System.arraycopy(cellBuckets, position, newCellBuckets, position + 1, size - position);
+      cellBuckets = newCellBuckets;
+      buckets[cell] = cellBuckets;
+    } else {
+      System.arraycopy(cellBuckets, position, cellBuckets, position + 1, size - position);
+    }
+    cellBuckets[position] = ((long) key << 32) | 1;
+    numBuckets[cell] = size + 1;
+  }
+
+  /**
+   * @param cell
+   * @param quantile - between 0 and 1
+   * @return the value of rank quantile * (count - 1), rounded down, NaN if no value was added to the cell
+   */
+  double getQuantile(int cell, double quantile) {
+
+    long[] cellBuckets = buckets[cell];
+    int size = numBuckets[cell];
+    long count = 0;
+    for (int i = 0; i < size; i++) {
+      count += getCount(cellBuckets[i]);
+    }
+    if (count == 0) {
+      return Double.NaN;
+    }
+
+    long rank = (long) (quantile * (count - 1));
+    long numBelow = 0;
+    for (int i = 0; i < size; i++) {
+      numBelow += getCount(cellBuckets[i]);
+      if (rank < numBelow) {
+        return getValue(getKey(cellBuckets[i]));
+      }
+    }
+    return getValue(getKey(cellBuckets[size - 1]));
+  }
+
+  /**
+   * @param cellBuckets
+   * @param size
+   * @param key
+   * @return the position of the bucket, or -(insertion point) - 1 if there is none, like Arrays.binarySearch()
+   */
+  private static int find(long[] cellBuckets, int size, int key) {
+
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midKey = getKey(cellBuckets[mid]);
+      if (midKey < key) {
+        low = mid + 1;
+      } else if (midKey > key) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private static int getKey(long bucket) {
+
+    return (int) (bucket >> 32);
+  }
+
+  private static long getCount(long bucket) {
+
+    return bucket & 0xFFFFFFFFL;
+  }
+
+  private int getIndex(double magnitude) {
+
+    return (int) Math.ceil(Math.log(magnitude) / logGamma);
+  }
+
+  /**
+   * @param key
+   * @return the value in the bucket with the least relative error to all of the values that fall into it
+   */
+  private double getValue(int key) {
+
+    if (key == 0) {
+      return 0.0;
+    }
+    int index = Math.abs(key) - keyOffset;
+    double value = 2 * Math.exp(index * logGamma) / (gamma + 1);
+    return key > 0 ? value : -value;
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.transientanalysis;
+
+import org.knowm.jspice.component.element.reactive.ReactiveElement;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.CompiledCircuit;
+
+/**
+ * Keeps the history of the capacitor and inductor companion models of a transient analysis, and tells when their G stamps are the same as in the
+ * previous time step. The history itself lives in the CircuitState of the analysis.
+ */
+final class CompanionModelHistory {
+
+  private final CircuitState state;
+  private final ReactiveElement[] reactiveElements;
+  private final int[][] slots;
+  private final int[] stateIdxs;
+  private final IntegrationMethod integrationMethod;
+
+  private boolean hasHistory;
+  private boolean isDerivativeKnown;
+  private double historyTimeStep;
+
+  /**
+   * what the G stamps of the last run were made from, NaN if they are unknown
+   */
+  private double lastTimeStep = Double.NaN;
+  private IntegrationMethod lastIntegrationMethod;
+  private double lastHistoryTimeStep;
+
+  /**
+   * Constructor
+   *
+   * @param compiledCircuit - compiled for a transient analysis
+   * @param state - the state of the analysis
+   * @param integrationMethod
+   */
+  CompanionModelHistory(CompiledCircuit compiledCircuit, CircuitState state, IntegrationMethod integrationMethod) {
+
+    this.state = state;
+    int[] reactiveComponentIdxs = compiledCircuit.getReactiveComponentIdxs();
+    this.reactiveElements = new ReactiveElement[reactiveComponentIdxs.length];
+    this.slots = new int[reactiveComponentIdxs.length][];
+    this.stateIdxs = new int[reactiveComponentIdxs.length];
+    for (int i = 0; i < reactiveComponentIdxs.length; i++) {
+      reactiveElements[i] = (ReactiveElement) compiledCircuit.getNetlistComponents()[reactiveComponentIdxs[i]].getComponent();
+      slots[i] = compiledCircuit.getSlots()[reactiveComponentIdxs[i]];
+      stateIdxs[i] = compiledCircuit.getStateIdxs()[reactiveComponentIdxs[i]];
+      reactiveElements[i].setIntegrationMethod(state, stateIdxs[i], integrationMethod);
+    }
+    this.integrationMethod = integrationMethod;
+  }
+
+  /**
+   * Forgets the previous time points
+   *
+   * @param isDerivativeKnown - true at a DC operating point, false at a discontinuity or initial conditions
+   */
+  void reset(boolean isDerivativeKnown) {
+
+    for (int i = 0; i < reactiveElements.length; i++) {
+      reactiveElements[i].resetHistory(state, stateIdxs[i], isDerivativeKnown);
+    }
+    this.hasHistory = false;
+    this.isDerivativeKnown = isDerivativeKnown;
+  }
+
+  /**
+   * @param previousSolution - the solution the accepted step started from, indexed by the columns of the transient circuit
+   * @param timeStep
+   */
+  void accept(double[] previousSolution, double timeStep) {
+
+    for (int i = 0; i < reactiveElements.length; i++) {
+      reactiveElements[i].acceptTimeStep(previousSolution, slots[i], state, stateIdxs[i], timeStep);
+    }
+    hasHistory = true;
+    isDerivativeKnown = true;
+    historyTimeStep = timeStep;
+  }
+
+  /**
+   * @return the integration method the next step uses, the same as ReactiveElement.getEffectiveIntegrationMethod()
+   */
+  IntegrationMethod getEffectiveIntegrationMethod() {
+
+    if (integrationMethod == IntegrationMethod.BACKWARD_EULER || hasHistory) {
+      return integrationMethod;
+    }
+    return isDerivativeKnown ? IntegrationMethod.TRAPEZOIDAL : IntegrationMethod.BACKWARD_EULER;
+  }
+
+  /**
+   * @return the order of the integration method the next step uses
+   */
+  int getOrder() {
+
+    return getEffectiveIntegrationMethod().getOrder();
+  }
+
+  /**
+   * @param timeStep - the step about to be taken
+   * @return true if the companion model G stamps are the same as in the last run
+   */
+  boolean isGUnchanged(double timeStep) {
+
+    IntegrationMethod effectiveIntegrationMethod = getEffectiveIntegrationMethod();
+
+    // GEAR2 coefficients depend on the ratio of the time steps
+    double gearHistoryTimeStep = effectiveIntegrationMethod == IntegrationMethod.GEAR2 ? historyTimeStep : 0.0;
+
+    boolean isGUnchanged =
+        timeStep == lastTimeStep && effectiveIntegrationMethod == lastIntegrationMethod && gearHistoryTimeStep == lastHistoryTimeStep;
+    lastTimeStep = timeStep;
+    lastIntegrationMethod = effectiveIntegrationMethod;
+    lastHistoryTimeStep = gearHistoryTimeStep;
+    return isGUnchanged;
+  }
+
+  /**
+   * The next run has to restamp G, e.g. after it failed to converge
+   */
+  void invalidate() {
+
+    lastTimeStep = Double.NaN;
+  }
+}
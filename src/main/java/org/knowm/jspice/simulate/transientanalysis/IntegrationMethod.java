@@ -0,0 +1,60 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.transientanalysis;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * How the companion models of capacitors and inductors approximate the time derivative of their state
+ */
+public enum IntegrationMethod {
+
+  /**
+   * first order, x'_n = (x_n - x_n-1) / h
+   */
+  @JsonProperty("backward_euler")
+  BACKWARD_EULER(1),
+
+  /**
+   * second order, x'_n = 2 / h * (x_n - x_n-1) - x'_n-1
+   */
+  @JsonProperty("trapezoidal")
+  TRAPEZOIDAL(2),
+
+  /**
+   * second order backward differentiation formula, x'_n = (3/2 * x_n - 2 * x_n-1 + 1/2 * x_n-2) / h for equal time steps
+   */
+  @JsonProperty("gear2")
+  GEAR2(2);
+
+  private final int order;
+
+  IntegrationMethod(int order) {
+
+    this.order = order;
+  }
+
+  public int getOrder() {
+
+    return order;
+  }
+}
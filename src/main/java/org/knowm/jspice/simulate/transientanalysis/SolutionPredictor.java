@@ -0,0 +1,109 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.transientanalysis;
+
+/**
+ * Extrapolates the solutions of the last accepted time points onto the next one, as the starting point of its Newton iterations. The polynomial
+ * through the last two points predicts a backward Euler step, the one through the last three a second order step, since a prediction of higher
+ * order than the integration method follows the discretization less closely than the solution itself.
+ */
+final class SolutionPredictor {
+
+  /**
+   * the solutions at the last three accepted time points, the latest first, and their times
+   */
+  private double[] solution1;
+  private double[] solution2;
+  private double[] solution3;
+  private double t1;
+  private double t2;
+  private double t3;
+  private int numPoints;
+
+  /**
+   * Constructor
+   *
+   * @param size - the size of the solution vectors, ground included
+   */
+  SolutionPredictor(int size) {
+
+    this.solution1 = new double[size];
+    this.solution2 = new double[size];
+    this.solution3 = new double[size];
+  }
+
+  /**
+   * Forgets the previous time points, e.g. at a discontinuity, where they say nothing about the next one
+   */
+  void reset() {
+
+    numPoints = 0;
+  }
+
+  /**
+   * @param solution - the solution of an accepted time point
+   * @param t - its time
+   */
+  void accept(double[] solution, double t) {
+
+    double[] temp = solution3;
+    solution3 = solution2;
+    solution2 = solution1;
+    solution1 = temp;
+    System.arraycopy(solution, 0, solution1, 0, solution.length);
+    t3 = t2;
+    t2 = t1;
+    t1 = t;
+    numPoints = Math.min(numPoints + 1, 3);
+  }
+
+  /**
+   * @param t - the time to predict the solution at
+   * @param order - the order of the integration method of the step to t
+   * @param prediction - the predicted solution is written here
+   * @return false if there are not enough points for a prediction, in which case prediction is left as it is
+   */
+  boolean predict(double t, int order, double[] prediction) {
+
+    if (numPoints < 2) {
+      return false;
+    }
+
+    if (order >= 2 && numPoints >= 3) {
+
+      // Lagrange polynomial through the last three points
+      double l1 = (t - t2) * (t - t3) / ((t1 - t2) * (t1 - t3));
+      double l2 = (t - t1) * (t - t3) / ((t2 - t1) * (t2 - t3));
+      double l3 = (t - t1) * (t - t2) / ((t3 - t1) * (t3 - t2));
+      for (int i = 0; i < prediction.length; i++) {
+        prediction[i] = l1 * solution1[i] + l2 * solution2[i] + l3 * solution3[i];
+      }
+    } else {
+
+      double slope = (t - t1) / (t1 - t2);
+      for (int i = 0; i < prediction.length; i++) {
+        prediction[i] = solution1[i] + (solution1[i] - solution2[i]) * slope;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,228 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.simulate.transientanalysis;
+
+import org.knowm.jspice.component.element.reactive.Inductor;
+import org.knowm.jspice.component.element.reactive.ReactiveElement;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.CompiledCircuit;
+
+/**
+ * Chooses the time steps of an adaptive transient analysis from the local truncation error (LTE) of the reactive element companion models. Backward
+ * Euler makes an error of h^2 / 2 * x'' per step, where x is the capacitor voltage or inductor current, the second order methods one of
+ * C * h^3 * x'''. The derivatives are estimated by divided differences over the last time points. A step whose error exceeds the tolerance is
+ * rejected and retried with a smaller one, and after an accepted step the next one grows as far as the error allows.
+ */
+public final class TimeStepController {
+
+  /**
+   * how much larger than the Newton tolerances the LTE may be, the same factor SPICE uses
+   */
+  private static final double TRTOL = 7.0;
+
+  private static final double RELTOL = 0.001;
+  private static final double VNTOL = 0.000001; // 1 microVolt
+  private static final double ABSTOL = .0000000001; // 100 pA
+
+  private static final double SAFETY = 0.9;
+  private static final double MAX_GROWTH = 2.0;
+  private static final double MAX_SHRINK = 0.25;
+
+  private final CircuitState circuitState;
+  private final ReactiveElement[] reactiveElements;
+  private final int[][] slots;
+  private final int[] stateIdxs;
+  private final double[] absoluteTolerances;
+
+  /**
+   * the LTE constant of the second order method
+   */
+  private final double secondOrderErrorConstant;
+
+  private final double minTimeStep;
+  private final double maxTimeStep;
+
+  /**
+   * the states at the last three accepted time points, and the steps between them
+   */
+  private double[] states1;
+  private double[] states2;
+  private double[] states3;
+  private double timeStep1;
+  private double timeStep2;
+  private int numAcceptedPoints;
+
+  private int numAccepted;
+  private int numRejected;
+
+  /**
+   * Constructor
+   *
+   * @param compiledCircuit - compiled for a transient analysis
+   * @param circuitState - the state of the analysis
+   * @param integrationMethod
+   * @param minTimeStep
+   * @param maxTimeStep
+   */
+  public TimeStepController(CompiledCircuit compiledCircuit, CircuitState circuitState, IntegrationMethod integrationMethod, double minTimeStep,
+      double maxTimeStep) {
+
+    this.circuitState = circuitState;
+    int[] reactiveComponentIdxs = compiledCircuit.getReactiveComponentIdxs();
+    this.reactiveElements = new ReactiveElement[reactiveComponentIdxs.length];
+    this.slots = new int[reactiveComponentIdxs.length][];
+    this.stateIdxs = new int[reactiveComponentIdxs.length];
+    this.absoluteTolerances = new double[reactiveComponentIdxs.length];
+    for (int i = 0; i < reactiveComponentIdxs.length; i++) {
+      reactiveElements[i] = (ReactiveElement) compiledCircuit.getNetlistComponents()[reactiveComponentIdxs[i]].getComponent();
+      slots[i] = compiledCircuit.getSlots()[reactiveComponentIdxs[i]];
+      stateIdxs[i] = compiledCircuit.getStateIdxs()[reactiveComponentIdxs[i]];
+      absoluteTolerances[i] = reactiveElements[i] instanceof Inductor ? ABSTOL : VNTOL;
+    }
+    this.secondOrderErrorConstant = integrationMethod == IntegrationMethod.GEAR2 ? 2.0 / 9.0 : 1.0 / 12.0;
+    this.minTimeStep = minTimeStep;
+    this.maxTimeStep = maxTimeStep;
+    this.states1 = new double[reactiveElements.length];
+    this.states2 = new double[reactiveElements.length];
+    this.states3 = new double[reactiveElements.length];
+  }
+
+  /**
+   * Sets the initial time point, i.e. the DC operating point, or restarts after a breakpoint, where the history says nothing about the derivatives
+   *
+   * @param solution - indexed by the columns of the transient circuit
+   */
+  public void start(double[] solution) {
+
+    getStates(solution, states1);
+    numAcceptedPoints = 1;
+  }
+
+  /**
+   * @param solution - the solution at the end of the step, indexed by the columns of the transient circuit
+   * @param timeStep - the step that led to it
+   * @param order - the order of the integration method the step used
+   * @return the largest ratio of LTE to tolerance, the step has to be rejected if it is larger than 1
+   */
+  public double getErrorRatio(double[] solution, double timeStep, int order) {
+
+    if (numAcceptedPoints < 2) { // the derivatives are not known yet
+      return 0.0;
+    }
+
+    double errorRatio = 0.0;
+    for (int i = 0; i < reactiveElements.length; i++) {
+
+      double state = reactiveElements[i].getState(solution, slots[i], circuitState, stateIdxs[i]);
+
+      // divided differences of the last points, the second one is x'' / 2
+      double slope = (state - states1[i]) / timeStep;
+      double slope1 = (states1[i] - states2[i]) / timeStep1;
+      double curvature = (slope - slope1) / (timeStep + timeStep1);
+
+      double lte;
+      if (order == 2 && numAcceptedPoints >= 3) {
+        double slope2 = (states2[i] - states3[i]) / timeStep2;
+        double curvature1 = (slope1 - slope2) / (timeStep1 + timeStep2);
+        double thirdDerivative = 6.0 * (curvature - curvature1) / (timeStep + timeStep1 + timeStep2);
+        lte = secondOrderErrorConstant * timeStep * timeStep * timeStep * Math.abs(thirdDerivative);
+      } else { // also a conservative estimate for a second order step without enough history
+        lte = timeStep * timeStep * Math.abs(curvature);
+      }
+
+      double tolerance = TRTOL * (RELTOL * Math.max(Math.abs(state), Math.abs(states1[i])) + absoluteTolerances[i]);
+      errorRatio = Math.max(errorRatio, lte / tolerance);
+    }
+    return errorRatio;
+  }
+
+  /**
+   * Makes the solution the latest time point
+   *
+   * @param solution
+   * @param timeStep - the step that led to it
+   */
+  public void accept(double[] solution, double timeStep) {
+
+    double[] temp = states3;
+    states3 = states2;
+    states2 = states1;
+    states1 = temp;
+    getStates(solution, states1);
+    timeStep2 = timeStep1;
+    timeStep1 = timeStep;
+    numAcceptedPoints++;
+    numAccepted++;
+  }
+
+  /**
+   * Counts a rejected step
+   */
+  public void reject() {
+
+    numRejected++;
+  }
+
+  /**
+   * @param timeStep - the step that was just taken
+   * @param errorRatio - its error ratio
+   * @param order - the order of the integration method the step used
+   * @return the step to take next, or to retry with if the step was rejected
+   */
+  public double getNextTimeStep(double timeStep, double errorRatio, int order) {
+
+    // the LTE scales with h^(order + 1)
+    double factor =
+        errorRatio <= 0.0 ? MAX_GROWTH : Math.max(MAX_SHRINK, Math.min(MAX_GROWTH, SAFETY * Math.pow(errorRatio, -1.0 / (order + 1))));
+    return Math.max(minTimeStep, Math.min(maxTimeStep, timeStep * factor));
+  }
+
+  private void getStates(double[] solution, double[] states) {
+
+    for (int i = 0; i < reactiveElements.length; i++) {
+      states[i] = reactiveElements[i].getState(solution, slots[i], circuitState, stateIdxs[i]);
+    }
+  }
+
+  public double getMinTimeStep() {
+
+    return minTimeStep;
+  }
+
+  public double getMaxTimeStep() {
+
+    return maxTimeStep;
+  }
+
+  /**
+   * @return the number of accepted time steps
+   */
+  public int getNumAccepted() {
+
+    return numAccepted;
+  }
+
+  public int getNumRejected() {
+
+    return numRejected;
+  }
+}
@@ -22,25 +22,65 @@
 package org.knowm.jspice.simulate.transientanalysis;
 
 import java.math.BigDecimal;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Random;
 
 import org.knowm.jspice.component.Component;
+import org.knowm.jspice.component.source.DCCurrent;
+import org.knowm.jspice.component.source.DCVoltage;
 import org.knowm.jspice.netlist.Netlist;
 import org.knowm.jspice.netlist.spice.SPICEUtils;
-import org.knowm.jspice.simulate.SimulationPlotData;
 import org.knowm.jspice.simulate.SimulationPreCheck;
 import org.knowm.jspice.simulate.SimulationResult;
+import org.knowm.jspice.simulate.SimulationResultSink;
+import org.knowm.jspice.simulate.TimeSeriesTableSink;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.CompiledCircuit;
 import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPoint;
 import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
 import org.knowm.jspice.simulate.dcoperatingpoint.NodalAnalysisConvergenceException;
+import org.knowm.jspice.simulate.dcoperatingpoint.OutputSelection;
 import org.knowm.jspice.simulate.transientanalysis.driver.Driver;
 
 public class TransientAnalysis {
 
+  private static final String X_DATA_LABEL = "Time [s]";
+
   private final Netlist netlist;
   private final TransientConfig transientAnalysisDefinition;
 
+  /**
+   * if true the Newton iterations of each time point of a nonlinear circuit start from the solutions of the last time points extrapolated onto it,
+   * instead of from the solution of the last one
+   */
+  private boolean isPrediction = true;
+
+  /**
+   * the stream the stochastic components of each run draw from, null for their shared default one
+   */
+  private Random random;
+
+  /**
+   * the signals to record instead of the print probes of the netlist, null for those of the netlist
+   */
+  private List<String> printProbes;
+
+  /**
+   * the Newton iterations of all the time points of the last run
+   */
+  private long numIterations;
+
+  /**
+   * the driven values, memristor states and companion model history of the last run, which leaves the netlist as it is
+   */
+  private CircuitState circuitState;
+
+  /**
+   * if true the runs continue from the state that was set instead of starting from a fresh state of the components
+   */
+  private boolean isCircuitStateSet;
+
   /**
    * Constructor
    *
@@ -53,59 +93,157 @@ public class TransientAnalysis {
     this.transientAnalysisDefinition = transientAnalysisDefinition;
   }
 
+  /**
+   * @param isPrediction - true to start each time point from the extrapolation of the last ones, the default, false to start it from the last one
+   */
+  public void setPrediction(boolean isPrediction) {
+
+    this.isPrediction = isPrediction;
+  }
+
+  /**
+   * @param random - a seeded stream makes a run of a stochastic circuit, i.e. one with an MSSMemristor, reproducible. Null for the shared default
+   *          stream, the default.
+   */
+  public void setRandom(Random random) {
+
+    this.random = random;
+  }
+
+  /**
+   * @param printProbes - the signals to record instead of the print probes of the netlist, i.e. V(2), I(R1), R(M1) or V(2,3). Null for those of the
+   *          netlist, the default.
+   */
+  public void setPrintProbes(List<String> printProbes) {
+
+    this.printProbes = printProbes;
+  }
+
+  /**
+   * @param circuitState - the state the runs start from and leave their final state in, instead of a fresh state from the components, e.g. the
+   *          state of a previous run, so the memristors continue from where that run stopped. Analyses of the same netlist can run at the same time as
+   *          long as each has a state of its own. Null to start each run from a fresh state, the default.
+   */
+  public void setCircuitState(CircuitState circuitState) {
+
+    this.circuitState = circuitState;
+    this.isCircuitStateSet = circuitState != null;
+  }
+
+  /**
+   * @return the final state of the last run, i.e. the memristor states, or the one that was set
+   */
+  public CircuitState getCircuitState() {
+
+    return circuitState;
+  }
+
   public SimulationResult run() {
 
     // long start = System.currentTimeMillis();
 
+    BigDecimal timeStep = SPICEUtils.bigDecimalFromString(transientAnalysisDefinition.getTimeStep());
+    BigDecimal stopTime = SPICEUtils.bigDecimalFromString(transientAnalysisDefinition.getStopTime());
+    TimeSeriesTableSink timeSeriesTableSink = new TimeSeriesTableSink((int) Math.min(getNumTimePoints(timeStep, stopTime), 1 << 20));
+    run(timeSeriesTableSink);
+    SimulationResult simulationResult = new SimulationResult(X_DATA_LABEL, "", timeSeriesTableSink.getTimeSeriesTable());
+
+    // System.out.println("transientAnalyis= " + (System.currentTimeMillis() - start));
+
+    return simulationResult;
+  }
+
+  /**
+   * Run the transient analysis, passing each output time point to the sink as soon as it is available instead of collecting the results
+   *
+   * @param simulationResultSink
+   */
+  public void run(SimulationResultSink simulationResultSink) {
+
     // sanity checks
     verify(transientAnalysisDefinition);
 
-    // add single sweep result to SimulationResult
-    SimulationResult simulationResult = new SimulationResult("Time [s]", "", getSingleTransientAnalyisResult());
+    numIterations = 0;
+    if (!isCircuitStateSet) {
+      circuitState = new CircuitState(netlist);
+    }
+    if (random != null) {
+      circuitState.setRandom(random);
+    }
+    if (transientAnalysisDefinition.isAdaptive()) {
+      runAdaptiveTransientAnalysis(simulationResultSink);
+    } else {
+      runSingleTransientAnalysis(simulationResultSink);
+    }
+    simulationResultSink.end();
+  }
 
-    // System.out.println("transientAnalyis= " + (System.currentTimeMillis() - start));
+  /**
+   * @return the number of Newton iterations of all the time points of the last run
+   */
+  public long getNumIterations() {
 
-    return simulationResult;
+    return numIterations;
   }
 
-  private Map<String, SimulationPlotData> getSingleTransientAnalyisResult() {
+  /**
+   * @return the number of LU factorizations of the time points of the last run, which is 1 for a linear circuit with a fixed time step
+   */
+  public long getNumFactorizations() {
+
+    if (circuitState == null) {
+      return 0;
+    }
+    BigDecimal timeStep = SPICEUtils.bigDecimalFromString(transientAnalysisDefinition.getTimeStep());
+    return circuitState.getSolverWorkspace(netlist.getCompiledCircuit(timeStep.doubleValue())).getNumFactorizations();
+  }
 
-    Map<String, SimulationPlotData> timeSeriesDataMap = new LinkedHashMap<>();
+  private void runSingleTransientAnalysis(SimulationResultSink simulationResultSink) {
 
-    BigDecimal firstPoint = BigDecimal.ZERO;
     BigDecimal timeStep = SPICEUtils.bigDecimalFromString(transientAnalysisDefinition.getTimeStep());
     BigDecimal stopTime = SPICEUtils.bigDecimalFromString(transientAnalysisDefinition.getStopTime());
+    double timeStepValue = timeStep.doubleValue();
+    long numTimePoints = getNumTimePoints(timeStep, stopTime);
 
     DCOperatingPointResult dCOperatingPointResult = null;
 
-    // for each time step
-    for (BigDecimal t = firstPoint; t.compareTo(stopTime) < 0; t = t.add(timeStep)) {
+    // for a linear circuit with a fixed time step G never changes once the companion models have their history, so it is factored only once or twice
+    boolean isTimeInvariant = isTimeInvariant(timeStepValue);
+    CompiledCircuit compiledCircuit = netlist.getCompiledCircuit(timeStepValue);
+    CompanionModelHistory companionModelHistory = new CompanionModelHistory(compiledCircuit, circuitState, transientAnalysisDefinition
+        .getIntegrationMethod());
 
-      // update drivers' values
-      for (int i = 0; i < transientAnalysisDefinition.getDrivers().length; i++) {
+    // only the requested signals are evaluated and recorded
+    OutputSelection outputSelection = OutputSelection.compile(compiledCircuit, printProbes == null ? netlist.getPrintProbes() : printProbes);
+    double[] solution = new double[compiledCircuit.getSize()];
+    double[] values = new double[outputSelection.getNumLabels()];
+    simulationResultSink.start(X_DATA_LABEL, outputSelection.getLabels());
 
-        Driver driver = transientAnalysisDefinition.getDrivers()[i];
-        double signal = driver.getSignal(t);
-//        System.out.println(t);
-//        System.out.println(signal);
-//        System.out.println("---");
+    // the Newton iterations of a nonlinear circuit start from the extrapolation of the last time points
+    SolutionPredictor solutionPredictor = isPrediction && netlist.isNonlinearCircuit() ? new SolutionPredictor(compiledCircuit.getSize()) : null;
+    double[] predictedSolution = new double[compiledCircuit.getSize()];
 
-        Component sweepableComponent = netlist.getComponent(transientAnalysisDefinition.getDrivers()[i].getId());
-        //        System.out.println("sweepableComponent " + sweepableComponent);
-        sweepableComponent.setSweepValue(signal);
-      }
+    // for each time step, counted in ticks so the time does not drift the way a running sum would
+    for (long tick = 0; tick < numTimePoints; tick++) {
+
+      double t = tick * timeStepValue;
+
+      // update drivers' values
+      setDriverSignals(t, circuitState);
 
       if (dCOperatingPointResult == null) { // initial DC operating point, no reactive component linear companion models
 
         // get operating point to generate a node list for keeping track of time series data map
-        dCOperatingPointResult = new DCOperatingPoint(netlist).run();
+        DCOperatingPoint dcOperatingPoint = new DCOperatingPoint(netlist);
+        dcOperatingPoint.setCircuitState(circuitState);
+        dCOperatingPointResult = dcOperatingPoint.run();
+        numIterations += dcOperatingPoint.getNumIterations();
         //        System.out.println(dCOperatingPointResult.toString());
 
-        for (String nodeLabel : dCOperatingPointResult.getNodeLabels2Value().keySet()) {
-          timeSeriesDataMap.put(nodeLabel, new SimulationPlotData());
-        }
-        for (String deviceID : dCOperatingPointResult.getDeviceLabels2Value().keySet()) {
-          timeSeriesDataMap.put(deviceID, new SimulationPlotData());
+        // the capacitor currents and inductor voltages are 0 at a DC operating point, but not if it was forced to the initial conditions
+        companionModelHistory.reset(!circuitState.isInitialConditions());
+        if (solutionPredictor != null) {
+          solutionPredictor.accept(compiledCircuit.getSolutionVector(dCOperatingPointResult), t);
         }
         continue;
       }
@@ -113,32 +251,255 @@ public class TransientAnalysis {
       // ////////////////////////////////////////////////////
 
       try {
-        netlist.setInitialConditions(false);
+        circuitState.setInitialConditions(false);
 
         // solve DC operating point
-        dCOperatingPointResult = new DCOperatingPoint(dCOperatingPointResult, netlist, SPICEUtils.bigDecimalFromString(transientAnalysisDefinition.getTimeStep()).doubleValue())
-            .run();
+        double[] previousSolution = compiledCircuit.getSolutionVector(dCOperatingPointResult);
+        boolean isGUnchanged = companionModelHistory.isGUnchanged(timeStepValue) && isTimeInvariant;
+        DCOperatingPoint dcOperatingPoint = new DCOperatingPoint(dCOperatingPointResult, netlist, timeStepValue, isGUnchanged);
+        dcOperatingPoint.setCircuitState(circuitState);
+        if (solutionPredictor != null && solutionPredictor.predict(t, companionModelHistory.getOrder(), predictedSolution)) {
+          dcOperatingPoint.setInitialGuess(predictedSolution);
+        }
+        try {
+          dCOperatingPointResult = dcOperatingPoint.run();
+        } finally {
+          numIterations += dcOperatingPoint.getNumIterations();
+        }
+        companionModelHistory.accept(previousSolution, timeStepValue);
         //        System.out.println(dCOperatingPointResult.toString());
 
-        // add all node voltage values
-        for (String nodeLabel : dCOperatingPointResult.getNodeLabels2Value().keySet()) {
-          if (timeSeriesDataMap.get(nodeLabel) != null) {
-            timeSeriesDataMap.get(nodeLabel).getxData().add(t);
-            timeSeriesDataMap.get(nodeLabel).getyData().add(dCOperatingPointResult.getNodeLabels2Value().get(nodeLabel));
-          }
-        }
-        // add all device current values
-        for (String deviceID : dCOperatingPointResult.getDeviceLabels2Value().keySet()) {
-          timeSeriesDataMap.get(deviceID).getxData().add(t);
-          timeSeriesDataMap.get(deviceID).getyData().add(dCOperatingPointResult.getDeviceLabels2Value().get(deviceID));
+        // add the requested node voltage and device current values
+        compiledCircuit.getSolutionVector(dCOperatingPointResult, solution);
+        outputSelection.getValues(solution, circuitState, values);
+        simulationResultSink.accept(t, values);
+        if (solutionPredictor != null) {
+          solutionPredictor.accept(solution, t);
         }
       } catch (NodalAnalysisConvergenceException e) {
+        companionModelHistory.invalidate();
+        if (solutionPredictor != null) {
+          solutionPredictor.reset();
+        }
         System.out.println("skipping value at t= " + t + " because of failure to converge!");
       }
     }
+  }
+
+  /**
+   * Steps through time with a step size chosen by a TimeStepController, landing exactly on the drivers' breakpoints, and linearly interpolates the
+   * results onto the same time_step grid the fixed step analysis reports
+   *
+   * @param simulationResultSink
+   */
+  private void runAdaptiveTransientAnalysis(SimulationResultSink simulationResultSink) {
+
+    BigDecimal timeStep = SPICEUtils.bigDecimalFromString(transientAnalysisDefinition.getTimeStep());
+    BigDecimal stopTime = SPICEUtils.bigDecimalFromString(transientAnalysisDefinition.getStopTime());
+    double outputTimeStep = timeStep.doubleValue();
+    long numTimePoints = getNumTimePoints(timeStep, stopTime);
+
+    double maxTimeStep;
+    if (transientAnalysisDefinition.getMaxTimeStep() == null) {
+      maxTimeStep = Math.max(outputTimeStep, stopTime.doubleValue() / 50);
+    } else {
+      maxTimeStep = SPICEUtils.bigDecimalFromString(transientAnalysisDefinition.getMaxTimeStep()).doubleValue();
+    }
+
+    double timeStepValue = Math.min(outputTimeStep, maxTimeStep) / 10;
+    CompiledCircuit compiledCircuit = netlist.getCompiledCircuit(timeStepValue);
+
+    // only the requested signals are evaluated and recorded
+    OutputSelection outputSelection = OutputSelection.compile(compiledCircuit, printProbes == null ? netlist.getPrintProbes() : printProbes);
+    int numLabels = outputSelection.getNumLabels();
+    simulationResultSink.start(X_DATA_LABEL, outputSelection.getLabels());
+
+    // the output points are the same ticks the fixed step analysis reports, except for t = 0
+    if (numTimePoints < 2) {
+      return;
+    }
+    double finalTime = (numTimePoints - 1) * outputTimeStep;
+    double timeEpsilon = outputTimeStep * 1E-9;
+
+    // initial DC operating point, no reactive component linear companion models
+    setDriverSignals(0.0, circuitState);
+    DCOperatingPoint initialDCOperatingPoint = new DCOperatingPoint(netlist);
+    initialDCOperatingPoint.setCircuitState(circuitState);
+    DCOperatingPointResult dCOperatingPointResult = initialDCOperatingPoint.run();
+    numIterations += initialDCOperatingPoint.getNumIterations();
+
+    double[] previousSolution = compiledCircuit.getSolutionVector(dCOperatingPointResult);
+    double[] values = new double[numLabels];
+    double[] newValues = new double[numLabels];
+    double[] interpolatedValues = new double[numLabels];
+    outputSelection.getValues(previousSolution, circuitState, values);
+
+    // memristor states are updated while stamping, so the state is rolled back when a step is rejected
+    double[] stateSnapshot = new double[circuitState.getNumValues()];
+
+    IntegrationMethod integrationMethod = transientAnalysisDefinition.getIntegrationMethod();
+    TimeStepController timeStepController = new TimeStepController(compiledCircuit, circuitState, integrationMethod, maxTimeStep * 1E-9, maxTimeStep);
+    CompanionModelHistory companionModelHistory = new CompanionModelHistory(compiledCircuit, circuitState, integrationMethod);
+    companionModelHistory.reset(!circuitState.isInitialConditions());
+    timeStepController.start(previousSolution);
+
+    // the Newton iterations of a nonlinear circuit start from the extrapolation of the last time points
+    SolutionPredictor solutionPredictor = isPrediction && netlist.isNonlinearCircuit() ? new SolutionPredictor(compiledCircuit.getSize()) : null;
+    double[] predictedSolution = new double[compiledCircuit.getSize()];
+    if (solutionPredictor != null) {
+      solutionPredictor.accept(previousSolution, 0.0);
+    }
+
+    boolean isTimeInvariant = isTimeInvariant(timeStepValue);
+
+    double t = 0.0;
+    double nextBreakpoint = getNextBreakpoint(t);
+    long outputTick = 1;
+    while (outputTick < numTimePoints) {
+
+      // don't step past the last output point
+      double plannedTimeStepValue = timeStepValue;
+      timeStepValue = Math.min(timeStepValue, finalTime - t);
+
+      // land exactly on the next driver edge, also if the step would end just short of it
+      boolean isBreakpoint = nextBreakpoint - t <= timeStepValue + timeStepController.getMinTimeStep();
+      double newT;
+      if (isBreakpoint) {
+        newT = nextBreakpoint;
+        timeStepValue = newT - t;
+      } else {
+        newT = t + timeStepValue;
+      }
+
+      setDriverSignals(newT, circuitState);
+      circuitState.save(stateSnapshot);
+
+      DCOperatingPointResult newDCOperatingPointResult;
+      try {
+        circuitState.setInitialConditions(false);
+
+        // G only depends on the time step and the companion models for a linear circuit
+        boolean isGUnchanged = companionModelHistory.isGUnchanged(timeStepValue) && isTimeInvariant;
+        DCOperatingPoint dcOperatingPoint = new DCOperatingPoint(dCOperatingPointResult, netlist, timeStepValue, isGUnchanged);
+        dcOperatingPoint.setCircuitState(circuitState);
+        if (solutionPredictor != null && solutionPredictor.predict(newT, companionModelHistory.getOrder(), predictedSolution)) {
+          dcOperatingPoint.setInitialGuess(predictedSolution);
+        }
+        try {
+          newDCOperatingPointResult = dcOperatingPoint.run();
+        } finally {
+          numIterations += dcOperatingPoint.getNumIterations();
+        }
+      } catch (NodalAnalysisConvergenceException e) {
+        if (timeStepValue <= timeStepController.getMinTimeStep()) {
+          throw e;
+        }
+        // System.out.println("retrying at t= " + t + " with a smaller time step because of failure to converge!");
+        circuitState.restore(stateSnapshot);
+        companionModelHistory.invalidate();
+        timeStepController.reject();
+        timeStepValue = Math.max(timeStepController.getMinTimeStep(), timeStepValue / 8);
+        continue;
+      }
+
+      double[] solution = compiledCircuit.getSolutionVector(newDCOperatingPointResult);
+      int order = companionModelHistory.getOrder();
+      double errorRatio = timeStepController.getErrorRatio(solution, timeStepValue, order);
+      if (errorRatio > 1.0 && timeStepValue > timeStepController.getMinTimeStep()) {
+        circuitState.restore(stateSnapshot);
+        timeStepController.reject();
+        timeStepValue = timeStepController.getNextTimeStep(timeStepValue, errorRatio, order);
+        continue;
+      }
+      timeStepController.accept(solution, timeStepValue);
+      companionModelHistory.accept(previousSolution, timeStepValue);
+      previousSolution = solution;
+      if (solutionPredictor != null) {
+        solutionPredictor.accept(solution, newT);
+      }
+
+      // interpolate onto the output points covered by this step
+      outputSelection.getValues(solution, circuitState, newValues);
+      while (outputTick < numTimePoints && outputTick * outputTimeStep <= newT + timeEpsilon) {
+        double outputTime = outputTick * outputTimeStep;
+        double fraction = Math.max(0.0, Math.min(1.0, (outputTime - t) / timeStepValue));
+        for (int i = 0; i < numLabels; i++) {
+          interpolatedValues[i] = values[i] + fraction * (newValues[i] - values[i]);
+        }
+        simulationResultSink.accept(outputTime, interpolatedValues);
+        outputTick++;
+      }
+
+      double[] temp = values;
+      values = newValues;
+      newValues = temp;
+      dCOperatingPointResult = newDCOperatingPointResult;
+      t = newT;
+      if (isBreakpoint) {
+
+        // the slope changes at an edge, so start over with a small backward Euler step and no history
+        timeStepController.start(solution);
+        companionModelHistory.reset(false);
+        if (solutionPredictor != null) {
+          solutionPredictor.reset();
+          solutionPredictor.accept(solution, t);
+        }
+        nextBreakpoint = getNextBreakpoint(t);
+        timeStepValue = Math.max(timeStepController.getMinTimeStep(), 0.1 * Math.min(plannedTimeStepValue, nextBreakpoint - t));
+      } else {
+        timeStepValue = timeStepController.getNextTimeStep(timeStepValue, errorRatio, order);
+      }
+    }
+    // System.out.println("accepted= " + timeStepController.getNumAccepted() + ", rejected= " + timeStepController.getNumRejected());
+  }
+
+  /**
+   * @param timeStep
+   * @param stopTime
+   * @return the number of time points k * timeStep before stopTime, t = 0 included
+   */
+  private static long getNumTimePoints(BigDecimal timeStep, BigDecimal stopTime) {
 
-    // return the timeseries data
-    return timeSeriesDataMap;
+    return stopTime.divide(timeStep, 0, RoundingMode.CEILING).longValue();
+  }
+
+  private void setDriverSignals(double t, CircuitState state) {
+
+    for (Driver driver : transientAnalysisDefinition.getDrivers()) {
+      state.setSweepValue(driver.getId(), driver.getSignal(t));
+    }
+  }
+
+  /**
+   * @param t
+   * @return the first driver breakpoint after t, or Double.POSITIVE_INFINITY if there is none
+   */
+  private double getNextBreakpoint(double t) {
+
+    double nextBreakpoint = Double.POSITIVE_INFINITY;
+    for (Driver driver : transientAnalysisDefinition.getDrivers()) {
+      nextBreakpoint = Math.min(nextBreakpoint, driver.getNextBreakpoint(t));
+    }
+    return nextBreakpoint;
+  }
+
+  /**
+   * @param timeStep
+   * @return true if G is the same for every time step: the circuit is linear and the drivers only change the values of independent sources, which
+   *         only go into RHS
+   */
+  private boolean isTimeInvariant(double timeStep) {
+
+    if (!netlist.getCompiledCircuit(timeStep).isLinear()) {
+      return false;
+    }
+    for (Driver driver : transientAnalysisDefinition.getDrivers()) {
+      Component drivenComponent = netlist.getComponent(driver.getId());
+      if (!(drivenComponent instanceof DCVoltage || drivenComponent instanceof DCCurrent)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -48,6 +48,24 @@ public class TransientConfig extends SimulationConfig {
   @JsonProperty("drivers")
   Driver[] drivers;
 
+  /**
+   * the companion model of the capacitors and inductors
+   */
+  @JsonProperty("method")
+  IntegrationMethod integrationMethod = IntegrationMethod.BACKWARD_EULER;
+
+  /**
+   * if true the time steps are chosen from the local truncation error, and the results are interpolated onto the time_step grid
+   */
+  @JsonProperty("adaptive")
+  boolean adaptive = false;
+
+  /**
+   * the largest step an adaptive analysis may take, optional
+   */
+  @JsonProperty("max_time_step")
+  String maxTimeStep;
+
   public TransientConfig(@JsonProperty("stop_time") String stopTime, @JsonProperty("time_step") String timeStep,
       @JsonProperty("drivers") Driver... drivers) {
     this.stopTime = stopTime;
@@ -67,12 +85,50 @@ public class TransientConfig extends SimulationConfig {
     return drivers;
   }
 
+  public IntegrationMethod getIntegrationMethod() {
+    return integrationMethod;
+  }
+
+  public void setIntegrationMethod(IntegrationMethod integrationMethod) {
+    this.integrationMethod = integrationMethod;
+  }
+
+  public boolean isAdaptive() {
+    return adaptive;
+  }
+
+  public void setAdaptive(boolean adaptive) {
+    this.adaptive = adaptive;
+  }
+
+  public String getMaxTimeStep() {
+    return maxTimeStep;
+  }
+
+  public void setMaxTimeStep(String maxTimeStep) {
+    this.maxTimeStep = maxTimeStep;
+  }
+
+  /**
+   * The drivers are immutable, so the copy shares them.
+   */
+  @Override
+  public TransientConfig copy() {
+
+    TransientConfig transientConfig = (TransientConfig) super.copy();
+    transientConfig.drivers = drivers.clone();
+    return transientConfig;
+  }
+
   @Override
   public String toString() {
     return "TransientConfig{" +
         "stopTime=" + stopTime +
         ", timeStep=" + timeStep +
         ", drivers=" + Arrays.toString(drivers) +
+        ", integrationMethod=" + integrationMethod +
+        ", adaptive=" + adaptive +
+        ", maxTimeStep=" + maxTimeStep +
         "} ";
   }
 }
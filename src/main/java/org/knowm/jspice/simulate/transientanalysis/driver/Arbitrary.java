@@ -21,14 +21,17 @@
  */
 package org.knowm.jspice.simulate.transientanalysis.driver;
 
-import java.math.BigDecimal;
-
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class Arbitrary extends Driver {
 
   private final String[] activePhases;
 
+  /**
+   * the active phases parsed once, pairs of start and end, as fractions of the period
+   */
+  private final double[] activePhaseValues;
+
   /**
    * Constructor
    *
@@ -48,17 +51,19 @@ public class Arbitrary extends Driver {
 
     super(matchingSourceId, dcOffset, phase, amplitude, frequency);
     this.activePhases = activePhases;
+    this.activePhaseValues = new double[activePhases.length];
+    for (int i = 0; i < activePhases.length; i++) {
+      activePhaseValues[i] = Double.parseDouble(activePhases[i]);
+    }
   }
 
   @Override
-  public double getSignal(BigDecimal time) {
+  public double getSignal(double time) {
 
-    BigDecimal remainderTime = (time.add(phaseBD)).remainder(T);
+    double fraction = getPhaseFraction(time);
     boolean isActive = false;
-    for (int i = 0; i < activePhases.length; i = i + 2) {
-      BigDecimal start = new BigDecimal(activePhases[i]);
-      BigDecimal end = new BigDecimal(activePhases[i + 1]);
-      if (remainderTime.compareTo(T .multiply(start)) >= 0 && remainderTime.compareTo(T .multiply(end)) < 0 ) {
+    for (int i = 0; i < activePhaseValues.length; i = i + 2) {
+      if (!isBefore(fraction, activePhaseValues[i]) && isBefore(fraction, activePhaseValues[i + 1])) {
         isActive = true;
       }
     }
@@ -68,4 +73,10 @@ public class Arbitrary extends Driver {
       return 0.0;
     }
   }
+
+  @Override
+  public double getNextBreakpoint(double time) {
+
+    return getNextPeriodicBreakpoint(time, activePhaseValues);
+  }
 }
@@ -21,8 +21,6 @@
  */
 package org.knowm.jspice.simulate.transientanalysis.driver;
 
-import java.math.BigDecimal;
-
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class DC extends Driver {
@@ -39,7 +37,7 @@ public class DC extends Driver {
   }
 
   @Override
-  public double getSignal(BigDecimal time) {
+  public double getSignal(double time) {
 
     return dcOffset;
   }
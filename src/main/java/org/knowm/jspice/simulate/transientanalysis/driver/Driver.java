@@ -22,7 +22,6 @@
 package org.knowm.jspice.simulate.transientanalysis.driver;
 
 import java.math.BigDecimal;
-import java.math.MathContext;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
@@ -76,13 +75,16 @@ public abstract class Driver implements Konfigurable {
   protected final BigDecimal frequencyBD;
 
   /**
-   * Helpful Constants
+   * the phase, frequency and period parsed once, 0 if there is no frequency
    */
-  protected final BigDecimal point5 = new BigDecimal("0.5");
-  protected final BigDecimal point25 = new BigDecimal("0.25");
-  protected final BigDecimal point75 = new BigDecimal("0.75");
-  protected final BigDecimal twopi = new BigDecimal(Math.PI).multiply(new BigDecimal("2"));
-  protected final BigDecimal T;
+  protected final double phaseValue;
+  protected final double frequencyValue;
+  protected final double T;
+
+  /**
+   * how close to an edge, in periods, a time has to be to count as being on it, so e.g. 0.1 + 0.2 is not taken for being before an edge at 0.3
+   */
+  private static final double EDGE_TOLERANCE = 1E-9;
 
   /**
    * Constructor
@@ -106,11 +108,12 @@ public abstract class Driver implements Konfigurable {
     this.amplitude = amplitude;
     this.frequency = frequency;
     this.frequencyBD = SPICEUtils.bigDecimalFromString(frequency, "0");
-    if (!frequencyBD.equals(BigDecimal.ZERO)) {
-      //this.T = BigDecimal.ONE.divide(frequencyBD, MathContext.DECIMAL128);
-      this.T = BigDecimal.ONE.divide(frequencyBD, MathContext.DECIMAL128);
+    this.phaseValue = phaseBD.doubleValue();
+    this.frequencyValue = frequencyBD.doubleValue();
+    if (frequencyValue != 0.0) {
+      this.T = 1.0 / frequencyValue;
     } else {
-      this.T = BigDecimal.ZERO;
+      this.T = 0.0;
     }
   }
 
@@ -147,5 +150,76 @@ public abstract class Driver implements Konfigurable {
     return frequencyBD;
   }
 
-  public abstract double getSignal(BigDecimal time);
+  /**
+   * @param time - in seconds
+   * @return the signal at time
+   */
+  public abstract double getSignal(double time);
+
+  /**
+   * @param time - in seconds
+   * @return the signal at time
+   */
+  public double getSignal(BigDecimal time) {
+
+    return getSignal(time.doubleValue());
+  }
+
+  /**
+   * @param time
+   * @return where in its period (time + phase) is, between 0 and 1, snapped to 0 right before the end of the period
+   */
+  protected double getPhaseFraction(double time) {
+
+    double cycles = (time + phaseValue) / T;
+    double fraction = cycles - Math.floor(cycles);
+    return fraction > 1.0 - EDGE_TOLERANCE ? 0.0 : fraction;
+  }
+
+  /**
+   * @param fraction - as returned by getPhaseFraction()
+   * @param edge - between 0 and 1
+   * @return true if fraction is before edge, and not on it
+   */
+  protected static boolean isBefore(double fraction, double edge) {
+
+    return fraction < edge - EDGE_TOLERANCE;
+  }
+
+  /**
+   * A transient analysis with adaptive time steps lands a step exactly on each breakpoint, so an edge is neither missed nor smeared
+   *
+   * @param time
+   * @return the time of the first discontinuity in the signal, or its slope, after time, or Double.POSITIVE_INFINITY if there is none
+   */
+  public double getNextBreakpoint(double time) {
+
+    return Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * @param time
+   * @param fractionsOfPeriod - where in the period the discontinuities are, between 0 and 1
+   * @return the first time after time, and not on it, where (time + phase) % T is one of the fractions of T
+   */
+  protected double getNextPeriodicBreakpoint(double time, double... fractionsOfPeriod) {
+
+    if (T == 0.0) {
+      return Double.POSITIVE_INFINITY;
+    }
+
+    double cycles = (time + phaseValue) / T;
+    double periodStart = Math.floor(cycles);
+
+    double nextBreakpointCycles = Double.POSITIVE_INFINITY;
+    for (int period = 0; period < 2; period++) {
+      for (double fractionOfPeriod : fractionsOfPeriod) {
+        double breakpointCycles = periodStart + period + fractionOfPeriod;
+        if (breakpointCycles > cycles + EDGE_TOLERANCE) {
+          nextBreakpointCycles = Math.min(nextBreakpointCycles, breakpointCycles);
+        }
+      }
+    }
+    return nextBreakpointCycles * T - phaseValue;
+  }
 }
@@ -22,7 +22,6 @@
 package org.knowm.jspice.simulate.transientanalysis.driver;
 
 import java.math.BigDecimal;
-import java.math.MathContext;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -30,6 +29,7 @@ public class Pulse extends Driver {
 
   private final String dutyCycle;
   private final BigDecimal dutyCycleBD;
+  private final double dutyCycleValue;
 
   /**
    * Constructor
@@ -47,16 +47,14 @@ public class Pulse extends Driver {
     super(id, dcOffset, phase, amplitude, frequency);
     this.dutyCycle = dutyCycle;
     this.dutyCycleBD = new BigDecimal(dutyCycle);
+    this.dutyCycleValue = dutyCycleBD.doubleValue();
   }
 
   @Override
-  public double getSignal(BigDecimal time) {
-
-    BigDecimal remainderTime = (time.add(phaseBD)).remainder(T).multiply(point5).divide(dutyCycleBD, MathContext.DECIMAL128);
+  public double getSignal(double time) {
 
     // up phase
-    if (BigDecimal.ZERO.compareTo(remainderTime) <= 0
-        && remainderTime.multiply(T).compareTo(point5.divide(frequencyBD, MathContext.DECIMAL128).multiply(T)) < 0) {
+    if (isBefore(getPhaseFraction(time), dutyCycleValue)) {
       return amplitude + dcOffset;
     }
 
@@ -66,6 +64,12 @@ public class Pulse extends Driver {
     }
   }
 
+  @Override
+  public double getNextBreakpoint(double time) {
+
+    return getNextPeriodicBreakpoint(time, 0.0, dutyCycleValue);
+  }
+
   public String getDutyCycle() {
 
     return dutyCycle;
@@ -21,9 +21,6 @@
  */
 package org.knowm.jspice.simulate.transientanalysis.driver;
 
-import java.math.BigDecimal;
-import java.math.MathContext;
-
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class Sawtooth extends Driver {
@@ -44,19 +41,24 @@ public class Sawtooth extends Driver {
   }
 
   @Override
-  public double getSignal(BigDecimal time) {
+  public double getSignal(double time) {
 
-    BigDecimal remainderTime = (time.add(phaseBD)).remainder(T);
+    double fraction = getPhaseFraction(time);
 
     // up phase
-    if (BigDecimal.ZERO.compareTo(remainderTime) <= 0
-        && remainderTime.multiply(T).compareTo(point5.divide(frequencyBD, MathContext.DECIMAL128).multiply(T)) < 0) {
-      return 2 * frequencyBD.doubleValue() * amplitude * (remainderTime.doubleValue()) + dcOffset;
+    if (isBefore(fraction, 0.5)) {
+      return 2 * amplitude * fraction + dcOffset;
     }
 
     // up phase
     else {
-      return 2 * frequencyBD.doubleValue() * amplitude * (remainderTime.doubleValue()) - 2 * amplitude + dcOffset;
+      return 2 * amplitude * fraction - 2 * amplitude + dcOffset;
     }
   }
+
+  @Override
+  public double getNextBreakpoint(double time) {
+
+    return getNextPeriodicBreakpoint(time, 0.5);
+  }
 }
@@ -21,8 +21,6 @@
  */
 package org.knowm.jspice.simulate.transientanalysis.driver;
 
-import java.math.BigDecimal;
-
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
@@ -49,8 +47,8 @@ public class Sine extends Driver {
   }
 
   @Override
-  public double getSignal(BigDecimal time) {
+  public double getSignal(double time) {
 
-    return amplitude * Math.sin(twopi.multiply(frequencyBD) .multiply(time).subtract( phaseBD).doubleValue()) + dcOffset;
+    return amplitude * Math.sin(2 * Math.PI * frequencyValue * time - phaseValue) + dcOffset;
   }
 }
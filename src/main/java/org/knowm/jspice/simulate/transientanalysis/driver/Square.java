@@ -21,8 +21,6 @@
  */
 package org.knowm.jspice.simulate.transientanalysis.driver;
 
-import java.math.BigDecimal;
-
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class Square extends Driver {
@@ -46,12 +44,10 @@ public class Square extends Driver {
   }
 
   @Override
-  public double getSignal(BigDecimal time) {
-
-    BigDecimal remainderTime = (time.add(phaseBD)).remainder(T);
+  public double getSignal(double time) {
 
     // up phase
-    if (BigDecimal.ZERO.compareTo(remainderTime) <= 0 && remainderTime.multiply(T).compareTo(point5.divide(frequencyBD).multiply(T)) < 0) {
+    if (isBefore(getPhaseFraction(time), 0.5)) {
       return amplitude + dcOffset;
     }
 
@@ -60,4 +56,10 @@ public class Square extends Driver {
       return -1.0 * amplitude + dcOffset;
     }
   }
+
+  @Override
+  public double getNextBreakpoint(double time) {
+
+    return getNextPeriodicBreakpoint(time, 0.0, 0.5);
+  }
 }
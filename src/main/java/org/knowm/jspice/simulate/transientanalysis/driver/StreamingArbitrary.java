@@ -21,7 +21,7 @@
  */
 package org.knowm.jspice.simulate.transientanalysis.driver;
 
-import java.math.BigDecimal;
+import java.util.Arrays;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -31,7 +31,13 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 public class StreamingArbitrary extends Driver {
 
   private final String[] activePhases;
+
+  /**
+   * the active phases parsed once, pairs of start and end, as fractions of the period
+   */
+  private final double[] activePhaseValues;
   private final String[] bitStream;
+  private final boolean[] bitStreamValues;
 
   /**
    * Constructor
@@ -54,26 +60,36 @@ public class StreamingArbitrary extends Driver {
 
     super(matchingSourceId, dcOffset, phase, amplitude, frequency);
     this.activePhases = activePhases;
+    this.activePhaseValues = new double[activePhases.length];
+    for (int i = 0; i < activePhases.length; i++) {
+      activePhaseValues[i] = Double.parseDouble(activePhases[i]);
+    }
     this.bitStream = bitStream;
+    this.bitStreamValues = new boolean[bitStream.length];
+    for (int i = 0; i < bitStream.length; i++) {
+      bitStreamValues[i] = !bitStream[i].equals("0");
+    }
   }
 
   @Override
-  public double getSignal(BigDecimal time) {
-
-    BigDecimal remainderTime = (time.add(phaseBD)).remainder(T);
+  public double getSignal(double time) {
 
-    int periodCounter = (time.divide(T)).remainder(new BigDecimal(bitStream.length)).intValue();
+    // the bit is picked by the period time is in, regardless of the phase
+    double periods = time / T;
+    long periodCounter = (long) Math.floor(periods);
+    if (periods - periodCounter > 1.0 - 1E-9) {
+      periodCounter++;
+    }
     // System.out.println(periodCounter);
 
-    if (bitStream[periodCounter].equals("0")) {
+    if (!bitStreamValues[(int) (periodCounter % bitStreamValues.length)]) {
       return 0.0;
     }
 
+    double fraction = getPhaseFraction(time);
     boolean isActive = false;
-    for (int i = 0; i < activePhases.length; i = i + 2) {
-      BigDecimal start = new BigDecimal(activePhases[i]);
-      BigDecimal end = new BigDecimal(activePhases[i + 1]);
-      if (remainderTime.compareTo(T .multiply( start)) >= 0 && remainderTime.compareTo(T .multiply( end)) < 0) {
+    for (int i = 0; i < activePhaseValues.length; i = i + 2) {
+      if (!isBefore(fraction, activePhaseValues[i]) && isBefore(fraction, activePhaseValues[i + 1])) {
         isActive = true;
       }
     }
@@ -83,4 +99,18 @@ public class StreamingArbitrary extends Driver {
       return 0.0;
     }
   }
+
+  @Override
+  public double getNextBreakpoint(double time) {
+
+    if (T == 0.0) {
+      return Double.POSITIVE_INFINITY;
+    }
+
+    // the active phases, plus the start of each period where the next bit is picked, which does not depend on the phase
+    double[] fractionsOfPeriod = Arrays.copyOf(activePhaseValues, activePhaseValues.length + 1);
+    double phaseFraction = phaseValue / T;
+    fractionsOfPeriod[activePhaseValues.length] = phaseFraction - Math.floor(phaseFraction);
+    return getNextPeriodicBreakpoint(time, fractionsOfPeriod);
+  }
 }
@@ -21,9 +21,6 @@
  */
 package org.knowm.jspice.simulate.transientanalysis.driver;
 
-import java.math.BigDecimal;
-import java.math.MathContext;
-
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class Triangle extends Driver {
@@ -44,27 +41,29 @@ public class Triangle extends Driver {
   }
 
   @Override
-  public double getSignal(BigDecimal time) {
+  public double getSignal(double time) {
 
-    BigDecimal remainderTime = (time.add(phaseBD)).remainder(T);
+    double fraction = getPhaseFraction(time);
 
     // up phase
-    if (BigDecimal.ZERO.compareTo(remainderTime) <= 0
-        && remainderTime.multiply(T).compareTo(point25.divide(frequencyBD, MathContext.DECIMAL128).multiply(T)) < 0) {
-      return 4 * frequencyBD.doubleValue() * amplitude * (remainderTime.doubleValue()) + dcOffset;
+    if (isBefore(fraction, 0.25)) {
+      return 4 * amplitude * fraction + dcOffset;
     }
 
     // up phase
-    else if (point75.divide(frequencyBD, MathContext.DECIMAL128).multiply(T).compareTo(remainderTime.multiply(T)) <= 0
-        && remainderTime.multiply(T).compareTo(BigDecimal.ONE.divide(frequencyBD, MathContext.DECIMAL128).multiply(T)) < 0) {
-
-      //    else if (.75 / frequency * T <= (remainderTime) * T && (remainderTime) * T < 1.0 / frequency * T) {
-      return 4 * frequencyBD.doubleValue() * amplitude * (remainderTime.doubleValue()) - 4 * amplitude + dcOffset;
+    else if (!isBefore(fraction, 0.75)) {
+      return 4 * amplitude * fraction - 4 * amplitude + dcOffset;
     }
 
     // down phase
     else {
-      return -4 * frequencyBD.doubleValue() * amplitude * (remainderTime.doubleValue()) + 2 * amplitude + dcOffset;
+      return -4 * amplitude * fraction + 2 * amplitude + dcOffset;
     }
   }
+
+  @Override
+  public double getNextBreakpoint(double time) {
+
+    return getNextPeriodicBreakpoint(time, 0.25, 0.75);
+  }
 }
@@ -31,6 +31,7 @@ import org.knowm.configuration.provider.ResourceConfigurationSourceProvider;
 import org.knowm.jspice.component.element.memristor.MMSSMemristor;
 import org.knowm.jspice.netlist.Netlist;
 import org.knowm.jspice.netlist.spice.SPICENetlistBuilder;
+import org.knowm.jspice.simulate.SimulationResult;
 import org.knowm.jspice.simulate.transientanalysis.TransientConfig;
 
 public class TestSPICENetlistBuilder {
@@ -180,4 +181,16 @@ public class TestSPICENetlistBuilder {
     JSpice.simulate(netlist);
   }
 
+  @Test
+  public void testPrintProbes() throws IOException {
+
+    Netlist netlist = SPICENetlistBuilder.buildFromSPICENetlist("knowm_mem1_sine.cir", new ResourceConfigurationSourceProvider());
+    assertThat(netlist.getPrintProbes()).containsExactly("I(VPr1)", "v(Vmr)");
+
+    // only the probes are recorded
+    SimulationResult simulationResult = JSpice.simulate(netlist);
+    assertThat(simulationResult.getSimulationPlotDataMap().keySet()).containsExactly("I(VPr1)", "V(Vmr)");
+    assertThat(simulationResult.getSimulationPlotDataMap().get("V(Vmr)").getyData()).hasSize(100);
+  }
+
 }
@@ -28,7 +28,11 @@ import java.util.Map;
 import org.junit.Test;
 import org.knowm.jspice.circuits.I1V1R6;
 import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.netlist.NetlistResistor;
 import org.knowm.jspice.simulate.dcoperatingpoint.CircuitMatrixSolver;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.CompiledCircuit;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.DenseCircuitMatrix;
 
 /**
  * @author timmolter
@@ -94,4 +98,44 @@ public class TestCircuitMatrixSolver {
     // assertThat(I.length).isEqualTo(7)));
 
   }
+
+  @Test
+  public void testCompiledCircuit() {
+
+    CompiledCircuit compiledCircuit = circuit.getCompiledCircuit(null);
+
+    Map<String, Integer> nodeID2ColumnIdxMap = CircuitMatrixSolver.getNodeID2ColumnIdxMap(circuit, null);
+    assertThat(compiledCircuit.getNodeID2ColumnIdxMap()).isEqualTo(nodeID2ColumnIdxMap);
+    assertThat(compiledCircuit.getNodeID2ColumnIdxMap().get("0")).isEqualTo(CompiledCircuit.GROUND_IDX);
+    assertThat(compiledCircuit.getUnknownQuantityNames()).containsExactly(CircuitMatrixSolver.getUnknownVariableNames(nodeID2ColumnIdxMap, circuit,
+        null));
+
+    // cached until the topology changes
+    assertThat(circuit.getCompiledCircuit(null)).isSameAs(compiledCircuit);
+    circuit.addNetListComponent(new NetlistResistor("R100", 100, "5", "0"));
+    assertThat(circuit.getCompiledCircuit(null)).isNotSameAs(compiledCircuit);
+  }
+
+  @Test
+  public void testCompiledCircuitSlots() {
+
+    CompiledCircuit compiledCircuit = circuit.getCompiledCircuit(null);
+
+    int[][] slots = compiledCircuit.getSlots();
+    assertThat(slots.length).isEqualTo(compiledCircuit.getNetlistComponents().length);
+    assertThat(slots[0]).containsExactly(0, 4); // I a
+    assertThat(slots[1]).containsExactly(2, 5, 6); // V x, with its branch current column
+    assertThat(slots[7]).containsExactly(1, 4); // R6
+
+    // the stamped G and RHS are the same as the ones built from the map
+    CircuitState circuitState = new CircuitState(circuit);
+    DenseCircuitMatrix G = new DenseCircuitMatrix(compiledCircuit.getSize());
+    CircuitMatrixSolver.stampG(G, compiledCircuit, null, circuitState, null);
+    double[] RHS = new double[compiledCircuit.getSize()];
+    CircuitMatrixSolver.stampRHS(RHS, compiledCircuit, null, circuitState, null);
+
+    Map<String, Integer> nodeID2ColumnIdxMap = compiledCircuit.getNodeID2ColumnIdxMap();
+    assertThat(G.getG()).isEqualTo(CircuitMatrixSolver.getG(nodeID2ColumnIdxMap, circuit, null, null));
+    assertThat(RHS).containsExactly(CircuitMatrixSolver.getRHS(nodeID2ColumnIdxMap, circuit, null, null));
+  }
 }
@@ -23,6 +23,9 @@ package org.knowm.jspice.dcop;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.within;
+import static org.junit.Assert.fail;
+
+import java.util.stream.IntStream;
 
 import org.junit.Test;
 import org.knowm.jspice.circuits.CMOSInverterCircuit;
@@ -43,9 +46,17 @@ import org.knowm.jspice.circuits.V1R4;
 import org.knowm.jspice.circuits.V2R4;
 import org.knowm.jspice.circuits.V2R5;
 import org.knowm.jspice.circuits.V2R6;
+import org.knowm.jspice.component.element.memristor.Memristor;
 import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.netlist.NetlistBuilder;
+import org.knowm.jspice.netlist.NetlistComponent;
+import org.knowm.jspice.netlist.NetlistDCCurrentArbitrary;
+import org.knowm.jspice.netlist.NetlistDiode;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.ConvergenceTracker;
 import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPoint;
 import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.SolverWorkspace;
 
 /**
  * @author timmolter
@@ -135,6 +146,38 @@ public class TestDCOPCircuits {
     assertThat(dcOpResult.getV()[0]).isEqualTo(10.0);
   }
 
+  @Test
+  public void testDeviceCurrentsAreComputedOnDemand() {
+
+    Netlist circuit = new V1R1();
+    DCOperatingPointResult dcOpResult = new DCOperatingPoint(circuit).run();
+
+    // a single device, without building the map of all devices
+    assertThat(dcOpResult.getValue("I(R1)")).isCloseTo(0.01, within(1e-12));
+    assertThat(dcOpResult.getDeviceLabels2Value()).containsOnlyKeys("I(R1)");
+    assertThat(dcOpResult.getDeviceLabels2Value().get("I(R1)")).isCloseTo(0.01, within(1e-12));
+  }
+
+  @Test
+  public void testMatricesAreOnlyRetainedOnRequest() {
+
+    Netlist circuit = new V1R3();
+    DCOperatingPointResult dcOpResult = new DCOperatingPoint(circuit).run();
+    assertThat(dcOpResult.getG()).isNull();
+    assertThat(dcOpResult.getRHS()).isNull();
+
+    DCOperatingPoint dcOperatingPoint = new DCOperatingPoint(circuit);
+    dcOperatingPoint.setRetainMatrices(true);
+    DCOperatingPointResult debugResult = dcOperatingPoint.run();
+    assertThat(debugResult.getG().length).isEqualTo(debugResult.getV().length);
+    assertThat(debugResult.getRHS()).hasSize(debugResult.getV().length);
+
+    // the results share the names of the unknowns of the compiled circuit
+    assertThat(debugResult.getNodeLabels()).isSameAs(dcOpResult.getNodeLabels());
+    assertThat(debugResult.getV()).containsExactly(dcOpResult.getV());
+    assertThat(dcOpResult.getValue("V(1)")).isEqualTo(dcOpResult.getNodeLabels2Value().get("V(1)"));
+  }
+
   @Test
   public void testV1R3() {
 
@@ -208,6 +251,255 @@ public class TestDCOPCircuits {
     assertThat(dcOpResult.getValue("I(D1)")).isCloseTo(11.65, within(.1));
   }
 
+  @Test
+  public void testCircuitStatesSolveTheSameNetlistAtOnce() {
+
+    Netlist circuit = new V1D1();
+    double[] voltages = new double[32];
+    double[] sequentialCurrents = new double[voltages.length];
+    for (int i = 0; i < voltages.length; i++) {
+      voltages[i] = 0.5 + 0.0125 * i;
+      sequentialCurrents[i] = solveDiodeCurrent(circuit, voltages[i]);
+    }
+
+    double[] parallelCurrents = new double[voltages.length];
+    IntStream.range(0, voltages.length).parallel().forEach(i -> parallelCurrents[i] = solveDiodeCurrent(circuit, voltages[i]));
+
+    assertThat(parallelCurrents).containsExactly(sequentialCurrents);
+    assertThat(sequentialCurrents[voltages.length - 1]).isGreaterThan(sequentialCurrents[0]);
+
+    // the netlist itself is left as it is
+    assertThat(circuit.getComponent("Va").getSweepableValue()).isEqualTo(0.95);
+  }
+
+  @Test
+  public void testDeviceValuesOfAResultDoNotChangeWithTheState() {
+
+    Netlist circuit = new V1D1();
+    CircuitState circuitState = new CircuitState(circuit);
+    DCOperatingPoint dcOperatingPoint = new DCOperatingPoint(circuit);
+    dcOperatingPoint.setCircuitState(circuitState);
+    DCOperatingPointResult dcOpResult = dcOperatingPoint.run();
+    double current = new DCOperatingPoint(circuit).run().getValue("I(D1)");
+
+    // the state runs on, the device values of the result are computed later on
+    circuitState.setSweepValue("D1", 1E-12);
+    assertThat(dcOpResult.getValue("I(D1)")).isEqualTo(current);
+    assertThat(dcOpResult.getDeviceLabels2Value().get("I(D1)")).isEqualTo(current);
+  }
+
+  @Test
+  public void testNetlistCopy() {
+
+    Netlist circuit = new V1D1();
+    Netlist copy = circuit.copy();
+
+    assertThat(copy.getNetlistComponents()).hasSize(2);
+    assertThat(copy.getNetListDCVoltageSources()).hasSize(1);
+    assertThat(copy.getNetListDiodes()).hasSize(1);
+    assertThat(copy.getNetListDiodes().get(0)).isInstanceOf(NetlistDiode.class);
+    assertThat(copy.getNetListDiodes().get(0)).isSameAs(copy.getNetlistComponents().get(1));
+    assertThat(copy.getComponent("D1")).isSameAs(copy.getNetListDiodes().get(0).getComponent());
+    assertThat(copy.getComponent("D1")).isNotSameAs(circuit.getComponent("D1"));
+    assertThat(copy.isNonlinearCircuit()).isTrue();
+    assertThat(new DCOperatingPoint(copy).run().getValue("I(D1)")).isEqualTo(new DCOperatingPoint(circuit).run().getValue("I(D1)"));
+
+    // changing the copy leaves the original as it is
+    copy.getComponent("Va").setSweepValue(0.5);
+    assertThat(circuit.getComponent("Va").getSweepableValue()).isEqualTo(0.95);
+    assertThat(new DCOperatingPoint(copy).run().getValue("I(D1)")).isLessThan(new DCOperatingPoint(circuit).run().getValue("I(D1)"));
+  }
+
+  private static double solveDiodeCurrent(Netlist circuit, double voltage) {
+
+    CircuitState circuitState = new CircuitState(circuit);
+    circuitState.setSweepValue("Va", voltage);
+    DCOperatingPoint dcOperatingPoint = new DCOperatingPoint(circuit);
+    dcOperatingPoint.setCircuitState(circuitState);
+    return dcOperatingPoint.run().getValue("I(D1)");
+  }
+
+  @Test
+  public void testConvergenceNorms() {
+
+    Netlist circuit = new V1D1();
+    DCOperatingPoint dcOperatingPoint = new DCOperatingPoint(circuit);
+    dcOperatingPoint.run();
+    ConvergenceTracker convergenceTracker = dcOperatingPoint.getConvergenceTracker();
+    // System.out.println("iterations= " + convergenceTracker.getNumIterationsToConvergence());
+
+    // the last iteration hardly moved, and the solution it started from nearly satisfies KCL already
+    assertThat(convergenceTracker.getNumIterationsToConvergence()).isGreaterThan(1);
+    assertThat(convergenceTracker.getUpdateNorm()).isLessThan(0.01);
+    assertThat(convergenceTracker.getResidualNorm()).isLessThan(0.1);
+
+    // a linear circuit converges after its single solve and has no residual to report
+    dcOperatingPoint = new DCOperatingPoint(new V1R3());
+    dcOperatingPoint.run();
+    assertThat(dcOperatingPoint.getConvergenceTracker().getResidualNorm()).isNaN();
+
+    assertThat(ConvergenceTracker.getAbsoluteTolerances(new String[]{"V(1)", "I(V1)"})).containsExactly(1e-6, 1e-10);
+
+    // without the tolerances or the names of the unknowns there is nothing to check a nonlinear circuit against
+    convergenceTracker = new ConvergenceTracker(true, false);
+    try {
+      convergenceTracker.update(new double[]{1.0, 0.001});
+      fail("Expected exception");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    assertThat(convergenceTracker.update(new double[]{1.0, 0.001}, new String[]{"V(1)", "I(V1)"})).isFalse();
+    assertThat(convergenceTracker.update(new double[]{1.0, 0.001})).isTrue();
+  }
+
+  @Test
+  public void testDiodeStepIsLimited() {
+
+    Netlist circuit = new NetlistBuilder().addNetlistDCVoltage("V1", 0.0, "1", "0").addNetlistResistor("R1", 1000, "1", "2").build();
+    circuit.addNetListComponent(new NetlistDiode("D1", 1e-14, "2", "0"));
+    DCOperatingPointResult offResult = new DCOperatingPoint(circuit).run();
+
+    // starting from the diode being off, the first solution puts all 50 V across it, which would overflow the exponential without limiting
+    circuit.getComponent("V1").setSweepValue(50.0);
+    DCOperatingPoint dcOperatingPoint = new DCOperatingPoint(offResult, circuit, null);
+    DCOperatingPointResult dcOpResult = dcOperatingPoint.run();
+
+    assertThat(dcOpResult.getValue("V(2)")).isCloseTo(0.75, within(.01));
+    assertThat(dcOpResult.getValue("I(R1)")).isCloseTo(0.04925, within(.0001));
+    assertThat(dcOperatingPoint.getConvergenceTracker().getNumIterationsToConvergence()).isLessThan(20);
+  }
+
+  @Test
+  public void testConvergenceAidsTakeOverFromPlainNewton() {
+
+    // a diode so weak that it is off, with 5 V across it
+    Netlist circuit = new NetlistBuilder().addNetlistDCVoltage("V1", 5.0, "1", "0").addNetlistResistor("R1", 1000, "1", "2").build();
+    circuit.addNetListComponent(new NetlistDiode("D1", 1e-100, "2", "0"));
+    DCOperatingPointResult offResult = new DCOperatingPoint(circuit).run();
+    assertThat(offResult.getValue("V(2)")).isCloseTo(5.0, within(.001));
+
+    // starting from 5 V, Newton only comes down about a thermal voltage per iteration, too slow for plain Newton
+    circuit.getComponent("D1").setSweepValue(1e-14);
+    DCOperatingPoint dcOperatingPoint = new DCOperatingPoint(offResult, circuit, null);
+    DCOperatingPointResult dcOpResult = dcOperatingPoint.run();
+
+    assertThat(dcOperatingPoint.getConvergenceAid()).isEqualTo(DCOperatingPoint.ConvergenceAid.GMIN_STEPPING);
+    assertThat(dcOperatingPoint.getNumIterations()).isLessThan(1000);
+    assertThat(dcOpResult.getValue("V(2)")).isCloseTo(0.688, within(.001));
+
+    // the aids do not stay on for the next run
+    dcOperatingPoint = new DCOperatingPoint(dcOpResult, circuit, null);
+    assertThat(dcOperatingPoint.run().getValue("V(2)")).isCloseTo(0.688, within(.001));
+    assertThat(dcOperatingPoint.getConvergenceAid()).isEqualTo(DCOperatingPoint.ConvergenceAid.NONE);
+  }
+
+  @Test
+  public void testConvergenceAidsStartOverFromTheStateOfTheRun() {
+
+    // the same weak diode, with a memristor across it that counts the times it is stamped with a time step
+    Netlist circuit = new NetlistBuilder().addNetlistDCVoltage("V1", 5.0, "1", "0").addNetlistResistor("R1", 1000, "1", "2").build();
+    circuit.addNetListComponent(new NetlistDiode("D1", 1e-100, "2", "0"));
+    circuit.addNetListComponent(new NetlistComponent(new StampCountingMemristor("M1"), "2", "0"));
+    DCOperatingPointResult offResult = new DCOperatingPoint(circuit).run();
+
+    circuit.getComponent("D1").setSweepValue(1e-14);
+    CircuitState circuitState = new CircuitState(circuit);
+    DCOperatingPoint dcOperatingPoint = new DCOperatingPoint(offResult, circuit, 1e-3);
+    dcOperatingPoint.setCircuitState(circuitState);
+    DCOperatingPointResult dcOpResult = dcOperatingPoint.run();
+
+    assertThat(dcOperatingPoint.getConvergenceAid()).isEqualTo(DCOperatingPoint.ConvergenceAid.GMIN_STEPPING);
+    assertThat(dcOpResult.getValue("V(2)")).isCloseTo(0.688, within(.001));
+
+    // the failed plain Newton stage did not move the memristor
+    double numStamps = circuitState.getSweepValue(circuitState.getComponentIdx("M1"));
+    assertThat(numStamps).isGreaterThan(0);
+    assertThat(numStamps).isLessThanOrEqualTo(dcOperatingPoint.getNumIterations() - 100);
+  }
+
+  @Test
+  public void testSourceSteppingOnlyScalesTheIndependentSources() {
+
+    // a charged capacitor behind a voltage source, and an arbitrary current source, which is stamped as a nonlinear component
+    Netlist circuit = new NetlistBuilder().addNetlistDCVoltage("V1", 5.0, "1", "0").addNetlistResistor("R1", 1000, "1", "2").addNetlistCapacitor(
+        "C1", 1e-6, "2", "0").addNetlistResistor("R2", 1000, "3", "0").build();
+    circuit.addNetListComponent(new NetlistDCCurrentArbitrary("I2", "0.005", "0", "3"));
+    DCOperatingPointResult dcOpResult = new DCOperatingPoint(circuit).run();
+    assertThat(dcOpResult.getValue("V(2)")).isCloseTo(5.0, within(1e-9));
+    assertThat(dcOpResult.getValue("V(3)")).isCloseTo(5.0, within(1e-9));
+
+    // a backward Euler step of 0.1 ms, stamped around the charged capacitor
+    double timeStep = 1e-4;
+    SolverWorkspace solverWorkspace = new CircuitState(circuit).getSolverWorkspace(circuit.getCompiledCircuit(timeStep));
+    solverWorkspace.setInitialSolution(dcOpResult);
+    solverWorkspace.stampStatic(timeStep);
+
+    // with the sources off the capacitor still discharges from its history, G_C = C / dt = 0.01 and G_R1 = 0.001
+    solverWorkspace.setSourceFactor(0.0);
+    solverWorkspace.stamp(timeStep);
+    solverWorkspace.solve();
+    DCOperatingPointResult offResult = solverWorkspace.createResult(false);
+    assertThat(offResult.getValue("V(1)")).isCloseTo(0.0, within(1e-9));
+    assertThat(offResult.getValue("V(2)")).isCloseTo(5.0 * 0.01 / 0.011, within(1e-9));
+    assertThat(offResult.getValue("V(3)")).isCloseTo(0.0, within(1e-9));
+
+    solverWorkspace.setSourceFactor(0.5);
+    solverWorkspace.stamp(timeStep);
+    solverWorkspace.solve();
+    DCOperatingPointResult halfResult = solverWorkspace.createResult(false);
+    assertThat(halfResult.getValue("V(1)")).isCloseTo(2.5, within(1e-9));
+    assertThat(halfResult.getValue("V(2)")).isCloseTo((5.0 * 0.01 + 2.5 * 0.001) / 0.011, within(1e-9));
+    assertThat(halfResult.getValue("V(3)")).isCloseTo(2.5, within(1e-9));
+
+    solverWorkspace.setSourceFactor(1.0);
+    solverWorkspace.stamp(timeStep);
+    solverWorkspace.solve();
+    assertThat(solverWorkspace.createResult(false).getValue("V(2)")).isCloseTo(5.0, within(1e-9));
+  }
+
+  /**
+   * A memristor that hardly conducts, whose state is the number of times it was stamped with a time step
+   */
+  private static class StampCountingMemristor extends Memristor {
+
+    private double numStamps;
+
+    StampCountingMemristor(String id) {
+
+      super(id);
+    }
+
+    @Override
+    public double getCurrent(double voltage, double x) {
+
+      return voltage * getConductance(x);
+    }
+
+    @Override
+    public double getNextState(double voltage, double dt, double x) {
+
+      return x + 1;
+    }
+
+    @Override
+    public double getConductance(double x) {
+
+      return 1e-12;
+    }
+
+    @Override
+    public void setSweepValue(double value) {
+
+      numStamps = value;
+    }
+
+    @Override
+    public double getSweepableValue() {
+
+      return numStamps;
+    }
+  }
+
   @Test
   public void testNMOSInverter() {
 
@@ -0,0 +1,104 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.dcop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+import org.knowm.jspice.circuits.CMOSInverterCircuit;
+import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.netlist.NetlistBuilder;
+import org.knowm.jspice.netlist.NetlistDiode;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPoint;
+import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.SolverWorkspace;
+
+public class TestSolverWorkspace {
+
+  @Test
+  public void testDenseIterationDoesNotAllocate() {
+
+    Netlist netlist = new CMOSInverterCircuit();
+    CircuitState circuitState = new CircuitState(netlist);
+    DCOperatingPoint dcOperatingPoint = new DCOperatingPoint(netlist);
+    dcOperatingPoint.setCircuitState(circuitState);
+    DCOperatingPointResult dcOpResult = dcOperatingPoint.run();
+
+    SolverWorkspace solverWorkspace = circuitState.getSolverWorkspace(netlist.getCompiledCircuit(null));
+    assertThat(solverWorkspace.isSparse()).isFalse();
+
+    allocatedBytes(solverWorkspace, 10000); // warm up
+    assertThat(allocatedBytes(solverWorkspace, 10000)).isLessThan(1000);
+
+    // iterating around the converged solution stays there
+    assertThat(solverWorkspace.getUnknowns()).containsExactly(dcOpResult.getV(), within(1e-6));
+  }
+
+  @Test
+  public void testSparseIterationDoesNotAllocate() {
+
+    // a resistor ladder with a diode to ground at every node, large enough to be solved sparse
+    int N = 100;
+    NetlistBuilder builder = new NetlistBuilder().addNetlistDCVoltage("Vdd", 5.0, "1", "0");
+    for (int i = 1; i <= N; i++) {
+      builder.addNetlistResistor("R" + i, 100, "" + i, "" + (i + 1));
+    }
+    Netlist netlist = builder.build();
+    for (int i = 2; i <= N + 1; i++) {
+      netlist.addNetListComponent(new NetlistDiode("D" + i, 1e-15, "" + i, "0"));
+    }
+    CircuitState circuitState = new CircuitState(netlist);
+    DCOperatingPoint dcOperatingPoint = new DCOperatingPoint(netlist);
+    dcOperatingPoint.setCircuitState(circuitState);
+    DCOperatingPointResult dcOpResult = dcOperatingPoint.run();
+    assertThat(dcOpResult.getG()).isNull();
+    assertThat(dcOpResult.getValue("V(2)")).isBetween(0.6, 0.9);
+
+    SolverWorkspace solverWorkspace = circuitState.getSolverWorkspace(netlist.getCompiledCircuit(null));
+    assertThat(solverWorkspace.isSparse()).isTrue();
+
+    allocatedBytes(solverWorkspace, 1000); // warm up
+    assertThat(allocatedBytes(solverWorkspace, 1000)).isLessThan(1000);
+
+    assertThat(solverWorkspace.getUnknowns()).containsExactly(dcOpResult.getV(), within(1e-6));
+  }
+
+  /**
+   * @return the number of bytes allocated by this thread while running the given number of Newton iterations
+   */
+  private static long allocatedBytes(SolverWorkspace solverWorkspace, int numIterations) {
+
+    com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+
+    long start = threadMXBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < numIterations; i++) {
+      solverWorkspace.stamp(null);
+      solverWorkspace.solve();
+    }
+    return threadMXBean.getThreadAllocatedBytes(threadId) - start;
+  }
+}
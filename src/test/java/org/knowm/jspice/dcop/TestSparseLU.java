@@ -0,0 +1,159 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.dcop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.junit.Test;
+import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.netlist.NetlistBuilder;
+import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPoint;
+import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPointResult;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.CSCMatrix;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.SparseCircuitMatrix;
+import org.knowm.jspice.simulate.dcoperatingpoint.matrix.SparseLU;
+
+public class TestSparseLU {
+
+  @Test
+  public void testTripletsToCSC() {
+
+    SparseCircuitMatrix G = new SparseCircuitMatrix(3);
+    G.add(0, 0, 5.0); // ground, dropped
+    G.add(1, 1, 1.0);
+    G.add(2, 1, -1.0);
+    G.add(1, 1, 2.0); // duplicate, summed
+    G.add(1, 2, 4.0);
+    G.add(2, 0, 7.0); // ground, dropped
+
+    CSCMatrix csc = G.toCSC(0);
+
+    assertThat(csc.getN()).isEqualTo(2);
+    assertThat(csc.getNumNonZeros()).isEqualTo(3);
+    double[][] dense = csc.toDense();
+    assertThat(dense[0][0]).isEqualTo(3.0);
+    assertThat(dense[0][1]).isEqualTo(4.0);
+    assertThat(dense[1][0]).isEqualTo(-1.0);
+    assertThat(dense[1][1]).isEqualTo(0.0);
+  }
+
+  @Test
+  public void testSolveAgainstDenseLU() {
+
+    Random random = new Random(1234);
+    int n = 80;
+
+    for (int trial = 0; trial < 10; trial++) {
+
+      // a random sparse matrix with some zero diagonals, like the branch rows of voltage sources
+      double[][] A = new double[n][n];
+      for (int i = 0; i < n; i++) {
+        if (i % 7 != 3) {
+          A[i][i] = 1.0 + random.nextDouble();
+        }
+        for (int k = 0; k < 3; k++) {
+          int j = random.nextInt(n);
+          A[i][j] += random.nextDouble() - 0.5;
+          A[j][i] += random.nextDouble() - 0.5;
+        }
+      }
+      double[] b = new double[n];
+      for (int i = 0; i < n; i++) {
+        b[i] = random.nextDouble();
+      }
+
+      double[] expected = new LUDecomposition(new Array2DRowRealMatrix(A)).getSolver().solve(new ArrayRealVector(b)).toArray();
+      double[] x = new SparseLU(CSCMatrix.fromDense(A)).solve(b);
+
+      for (int i = 0; i < n; i++) {
+        assertThat(x[i]).isCloseTo(expected[i], within(1e-9 * Math.max(1.0, Math.abs(expected[i]))));
+      }
+    }
+  }
+
+  @Test
+  public void testRefactor() {
+
+    Random random = new Random(5678);
+    int n = 50;
+
+    // a diagonally dominant matrix, so the pivots chosen for the first values stay good for the second
+    double[][] A = new double[n][n];
+    for (int i = 0; i < n; i++) {
+      int j = random.nextInt(n);
+      A[i][j] = random.nextDouble() - 0.5;
+      A[j][i] = random.nextDouble() - 0.5;
+      A[i][i] = 10.0;
+    }
+    CSCMatrix csc = CSCMatrix.fromDense(A);
+    SparseLU sparseLU = new SparseLU(csc);
+
+    // same pattern, other values
+    double[] values = csc.getValues();
+    for (int p = 0; p < values.length; p++) {
+      values[p] *= 1.0 + random.nextDouble();
+    }
+    double[] b = new double[n];
+    for (int i = 0; i < n; i++) {
+      b[i] = random.nextDouble();
+    }
+    assertThat(sparseLU.refactor(csc)).isTrue();
+
+    double[] expected = new LUDecomposition(new Array2DRowRealMatrix(csc.toDense())).getSolver().solve(new ArrayRealVector(b)).toArray();
+    double[] x = sparseLU.solve(b);
+    for (int i = 0; i < n; i++) {
+      assertThat(x[i]).isCloseTo(expected[i], within(1e-9 * Math.max(1.0, Math.abs(expected[i]))));
+    }
+
+    // a pivot that became zero is rejected
+    Arrays.fill(values, 0.0);
+    assertThat(sparseLU.refactor(csc)).isFalse();
+  }
+
+  @Test
+  public void testLargeResistorLadder() {
+
+    // a voltage divider made of N equal resistors, large enough to be solved sparse
+    int N = 200;
+    NetlistBuilder builder = new NetlistBuilder().addNetlistDCVoltage("Vdd", 10.0, "1", "0");
+    for (int i = 1; i < N; i++) {
+      builder.addNetlistResistor("R" + i, 1000, "" + i, "" + (i + 1));
+    }
+    builder.addNetlistResistor("R" + N, 1000, "" + N, "0");
+    Netlist netlist = builder.build();
+
+    DCOperatingPointResult dcOpResult = new DCOperatingPoint(netlist).run();
+
+    assertThat(dcOpResult.getG()).isNull();
+    for (int i = 1; i <= N; i++) {
+      assertThat(dcOpResult.getValue("V(" + i + ")")).isCloseTo(10.0 * (N - i + 1) / N, within(1e-9));
+    }
+    assertThat(dcOpResult.getValue("I(Vdd)")).isCloseTo(-10.0 / (N * 1000), within(1e-12));
+  }
+}
@@ -0,0 +1,118 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.dcsweep;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import org.junit.Test;
+import org.knowm.jspice.circuits.I1V1R6;
+import org.knowm.jspice.circuits.V2NMOS1;
+import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.simulate.dcoperatingpoint.DCOperatingPoint;
+import org.knowm.jspice.simulate.dcsweep.DCGridSweep;
+import org.knowm.jspice.simulate.dcsweep.DCSweepConfig;
+import org.knowm.jspice.simulate.dcsweep.DCSweepCube;
+
+public class TestDCGridSweep {
+
+  @Test
+  public void testEveryPointOfTheGridIsSolved() {
+
+    DCGridSweep dcGridSweep = new DCGridSweep(new I1V1R6());
+    dcGridSweep.addSweepConfig(new DCSweepConfig("a", "V(3)", 0.0, 0.02, 0.005));
+    dcGridSweep.addSweepConfig(new DCSweepConfig("x", "V(3)", 5.0, 10.0, 1.0));
+    dcGridSweep.addSweepConfig(new DCSweepConfig("R1", "V(3)", 100, 300, 100));
+    DCSweepCube dcSweepCube = dcGridSweep.run("V(3)", "I(R1)");
+
+    assertThat(dcSweepCube.getShape()).containsExactly(5, 6, 3);
+    assertThat(dcSweepCube.getObservables()).containsExactly("V(3)", "I(R1)");
+
+    // the same points solved one at a time
+    Netlist netlist = new I1V1R6();
+    for (int i = 0; i < 5; i++) {
+      for (int j = 0; j < 6; j++) {
+        for (int k = 0; k < 3; k++) {
+          netlist.getComponent("a").setSweepValue(dcSweepCube.getAxisValues(0)[i]);
+          netlist.getComponent("x").setSweepValue(dcSweepCube.getAxisValues(1)[j]);
+          netlist.getComponent("R1").setSweepValue(dcSweepCube.getAxisValues(2)[k]);
+          double expected = new DCOperatingPoint(netlist).run().getNodeLabels2Value().get("V(3)");
+          assertThat(dcSweepCube.get("V(3)", i, j, k)).isCloseTo(expected, within(1e-9));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSlices() {
+
+    DCGridSweep dcGridSweep = new DCGridSweep(new I1V1R6());
+    dcGridSweep.addSweepConfig(new DCSweepConfig("a", "V(3)", 0.0, 0.02, 0.005));
+    dcGridSweep.addSweepConfig(new DCSweepConfig("x", "V(3)", 5.0, 10.0, 1.0));
+    dcGridSweep.addSweepConfig(new DCSweepConfig("R1", "V(3)", 100, 300, 100));
+    DCSweepCube dcSweepCube = dcGridSweep.run("V(3)");
+
+    // a line along the second axis
+    double[] line = dcSweepCube.getSlice(0, 2, -1, 1);
+    assertThat(line).hasSize(6);
+    for (int j = 0; j < 6; j++) {
+      assertThat(line[j]).isEqualTo(dcSweepCube.get(0, 2, j, 1));
+    }
+
+    // a plane of the first and last axes, the first varying fastest
+    double[] plane = dcSweepCube.getSlice("V(3)", -1, 4, -1);
+    assertThat(plane).hasSize(15);
+    for (int k = 0; k < 3; k++) {
+      for (int i = 0; i < 5; i++) {
+        assertThat(plane[k * 5 + i]).isEqualTo(dcSweepCube.get(0, i, 4, k));
+      }
+    }
+  }
+
+  @Test
+  public void testParallelGridSweepMatchesSequentialGridSweep() {
+
+    // every point starts from scratch, so the threads solve exactly the same points
+    DCSweepCube sequentialCube = getNMOSGridSweep(1).run("I(NMOS1)");
+    DCSweepCube parallelCube = getNMOSGridSweep(4).run("I(NMOS1)");
+
+    int[] shape = sequentialCube.getShape();
+    assertThat(sequentialCube.get(0, shape[0] - 1, shape[1] - 1)).isGreaterThan(0.0);
+    for (int i = 0; i < shape[0]; i++) {
+      for (int j = 0; j < shape[1]; j++) {
+        assertThat(parallelCube.get(0, i, j)).isEqualTo(sequentialCube.get(0, i, j));
+      }
+    }
+  }
+
+  private static DCGridSweep getNMOSGridSweep(int parallelism) {
+
+    DCGridSweep dcGridSweep = new DCGridSweep(new V2NMOS1());
+    dcGridSweep.addSweepConfig(new DCSweepConfig("Vdd", "I(NMOS1)", 0.0, 10.0, 0.1));
+    dcGridSweep.addSweepConfig(new DCSweepConfig("Vg", "I(NMOS1)", 0.0, 5.0, 1.0));
+    dcGridSweep.setContinuation(false);
+    if (parallelism > 1) {
+      dcGridSweep.setParallelism(parallelism);
+    }
+    return dcGridSweep;
+  }
+}
@@ -0,0 +1,155 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.dcsweep;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.knowm.jspice.circuits.HalfWaveRectifier;
+import org.knowm.jspice.circuits.V1D1;
+import org.knowm.jspice.circuits.V2NMOS1;
+import org.knowm.jspice.component.Component;
+import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.simulate.SimulationPlotData;
+import org.knowm.jspice.simulate.TimeSeriesTable;
+import org.knowm.jspice.simulate.TimeSeriesTableSink;
+import org.knowm.jspice.simulate.dcsweep.DCSweep;
+import org.knowm.jspice.simulate.dcsweep.DCSweepConfig;
+
+public class TestDCSweep {
+
+  @Test
+  public void testContinuationNeedsFewerIterations() {
+
+    DCSweep coldSweep = new DCSweep(new HalfWaveRectifier());
+    coldSweep.addSweepConfig(new DCSweepConfig("Vsrc", "I(D1)", 0, 5.0, .05));
+    coldSweep.setContinuation(false);
+    SimulationPlotData coldResult = coldSweep.run("I(D1)").getSimulationPlotDataMap().get("I(D1)");
+
+    DCSweep warmSweep = new DCSweep(new HalfWaveRectifier());
+    warmSweep.addSweepConfig(new DCSweepConfig("Vsrc", "I(D1)", 0, 5.0, .05));
+    SimulationPlotData warmResult = warmSweep.run("I(D1)").getSimulationPlotDataMap().get("I(D1)");
+    // System.out.println(coldSweep.getNumIterations() + " " + warmSweep.getNumIterations());
+
+    assertThat(warmSweep.getNumIterations()).isLessThan(coldSweep.getNumIterations() / 4);
+
+    // the current through Rsrc and Rload is the diode current, closer to it than the cold starts that approach it from above get
+    double[] sweepValues = warmResult.getxValues();
+    double[] current = warmResult.getyValues();
+    assertThat(current).hasSize(coldResult.getyValues().length);
+    for (int i = 0; i < current.length; i++) {
+      double Vd = Component.VT * Math.log(current[i] / 3.872e-9 + 1);
+      assertThat(current[i]).isCloseTo((sweepValues[i] - Vd) / 1050, within(1e-7));
+    }
+  }
+
+  @Test
+  public void testExtrapolationFollowsTheCurve() {
+
+    DCSweep previousPointSweep = new DCSweep(new V1D1());
+    previousPointSweep.addSweepConfig(new DCSweepConfig("Va", "I(D1)", 0.5, .95, .005));
+    previousPointSweep.setExtrapolation(false);
+    previousPointSweep.run("I(D1)");
+
+    DCSweep extrapolatedSweep = new DCSweep(new V1D1());
+    extrapolatedSweep.addSweepConfig(new DCSweepConfig("Va", "I(D1)", 0.5, .95, .005));
+    extrapolatedSweep.run("I(D1)");
+
+    assertThat(extrapolatedSweep.getNumIterations()).isLessThan(previousPointSweep.getNumIterations());
+  }
+
+  @Test
+  public void testParallelSweepMatchesSequentialSweep() {
+
+    // every point starts from scratch, so the threads solve exactly the same points as a sequential sweep
+    Map<String, SimulationPlotData> sequentialResult = getNMOSSweep(1).run("I(NMOS1)").getSimulationPlotDataMap();
+    Map<String, SimulationPlotData> parallelResult = getNMOSSweep(4).run("I(NMOS1)").getSimulationPlotDataMap();
+
+    assertThat(new ArrayList<>(parallelResult.keySet())).isEqualTo(new ArrayList<>(sequentialResult.keySet()));
+    for (String key : sequentialResult.keySet()) {
+      assertThat(parallelResult.get(key).getxValues()).isEqualTo(sequentialResult.get(key).getxValues());
+      assertThat(parallelResult.get(key).getyValues()).isEqualTo(sequentialResult.get(key).getyValues());
+    }
+  }
+
+  @Test
+  public void testParallelSweepKeepsTheOrderOfThePoints() {
+
+    // both sweeps share the netlist, which neither of them changes
+    Netlist netlist = new HalfWaveRectifier();
+    DCSweep sequentialSweep = new DCSweep(netlist);
+    sequentialSweep.addSweepConfig(new DCSweepConfig("Vsrc", "I(D1)", 0, 5.0, .05));
+    TimeSeriesTableSink sequentialSink = new TimeSeriesTableSink();
+    sequentialSweep.run("I(D1)", sequentialSink);
+
+    DCSweep parallelSweep = new DCSweep(netlist);
+    parallelSweep.addSweepConfig(new DCSweepConfig("Vsrc", "I(D1)", 0, 5.0, .05));
+    parallelSweep.setParallelism(3);
+    TimeSeriesTableSink parallelSink = new TimeSeriesTableSink();
+    parallelSweep.run("I(D1)", parallelSink);
+
+    // each thread continues along its own part of the sweep from a cold start, so the points agree up to the relative convergence tolerance
+    TimeSeriesTable sequentialTable = sequentialSink.getTimeSeriesTable();
+    TimeSeriesTable parallelTable = parallelSink.getTimeSeriesTable();
+    assertThat(parallelTable.getSize()).isEqualTo(sequentialTable.getSize());
+    for (int r = 0; r < sequentialTable.getSize(); r++) {
+      assertThat(parallelTable.getTime(r)).isEqualTo(sequentialTable.getTime(r));
+      double current = sequentialTable.getValue(1, r);
+      assertThat(parallelTable.getValue(1, r)).isCloseTo(current, within(1e-3 * Math.abs(current) + 1e-12));
+    }
+    assertThat(parallelSweep.getNumIterations()).isGreaterThan(0L);
+  }
+
+  @Test
+  public void testOrthogonalValuesAreSteppedInDecimal() {
+
+    // 0.1 added up in double overshoots 0.3, which used to drop the last curve
+    DCSweep dcSweep = new DCSweep(new V2NMOS1());
+    dcSweep.addSweepConfig(new DCSweepConfig("Vdd", "I(NMOS1)", 0.0, 1.0, 0.5));
+    dcSweep.addSweepConfig(new DCSweepConfig("Vg", "I(NMOS1)", 0.0, 0.3, 0.1));
+    Map<String, SimulationPlotData> result = dcSweep.run("I(NMOS1)").getSimulationPlotDataMap();
+
+    assertThat(new ArrayList<>(result.keySet())).containsExactly("V(Vg) = 0.0", "V(Vg) = 0.1", "V(Vg) = 0.2", "V(Vg) = 0.3");
+
+    TimeSeriesTableSink timeSeriesTableSink = new TimeSeriesTableSink();
+    dcSweep.run("I(NMOS1)", timeSeriesTableSink);
+    assertThat(timeSeriesTableSink.getTimeSeriesTable().getColumn("V(Vg)")).containsExactly(0.0, 0.0, 0.0, 0.1, 0.1, 0.1, 0.2, 0.2, 0.2, 0.3, 0.3,
+        0.3);
+  }
+
+  private static DCSweep getNMOSSweep(int parallelism) {
+
+    DCSweep dcSweep = new DCSweep(new V2NMOS1());
+    dcSweep.addSweepConfig(new DCSweepConfig("Vdd", "I(NMOS1)", 0.0, 10.0, 0.1));
+    dcSweep.addSweepConfig(new DCSweepConfig("Vg", "I(NMOS1)", 0.0, 5.0, 1.0));
+    dcSweep.setContinuation(false);
+    if (parallelism > 1) {
+      dcSweep.setParallelism(parallelism);
+    }
+    return dcSweep;
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.montecarlo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.knowm.jspice.memristor.V1MSSMemristor1;
+import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.simulate.TimeSeriesTable;
+import org.knowm.jspice.simulate.montecarlo.MonteCarloAnalysis;
+import org.knowm.jspice.simulate.montecarlo.MonteCarloResult;
+import org.knowm.jspice.simulate.transientanalysis.TransientAnalysis;
+import org.knowm.jspice.simulate.transientanalysis.TransientConfig;
+import org.knowm.jspice.simulate.transientanalysis.driver.Sine;
+
+public class TestMonteCarloAnalysis {
+
+  private static final int NUM_RUNS = 12;
+
+  private static TransientConfig getTransientConfig() {
+
+    return new TransientConfig(".01", ".00002", new Sine("Vdd", 0.0, "0", 0.5, "100.0"));
+  }
+
+  @Test
+  public void testStatisticsOfTheRetainedTraces() {
+
+    MonteCarloAnalysis monteCarloAnalysis = new MonteCarloAnalysis(new V1MSSMemristor1(), getTransientConfig(), NUM_RUNS);
+    monteCarloAnalysis.setSeed(42);
+    monteCarloAnalysis.setParallelism(3);
+    int[] allRuns = new int[NUM_RUNS];
+    Arrays.setAll(allRuns, i -> i);
+    monteCarloAnalysis.setRetainedRuns(allRuns);
+    MonteCarloResult monteCarloResult = monteCarloAnalysis.run();
+
+    double[] times = monteCarloResult.getTimes();
+    double[] mean = monteCarloResult.getMean("I(M1)");
+    double[] variance = monteCarloResult.getVariance("I(M1)");
+    double[] median = monteCarloResult.getQuantile("I(M1)", 0.5);
+    assertThat(monteCarloResult.getTraces()).hasSize(NUM_RUNS);
+    assertThat(times.length).isEqualTo(monteCarloResult.getTrace(0).getTimeSeriesTable().getSize());
+
+    // the same statistics from all the traces at once
+    boolean isStochastic = false;
+    double[] samples = new double[NUM_RUNS];
+    for (int t = 0; t < times.length; t++) {
+      double sum = 0;
+      for (int runIdx = 0; runIdx < NUM_RUNS; runIdx++) {
+        TimeSeriesTable timeSeriesTable = monteCarloResult.getTrace(runIdx).getTimeSeriesTable();
+        assertThat(timeSeriesTable.getTime(t)).isCloseTo(times[t], within(1e-12));
+        samples[runIdx] = timeSeriesTable.getValue(timeSeriesTable.getColumnIdx("I(M1)"), t);
+        sum += samples[runIdx];
+      }
+      double expectedMean = sum / NUM_RUNS;
+      double sumOfSquares = 0;
+      for (double sample : samples) {
+        sumOfSquares += (sample - expectedMean) * (sample - expectedMean);
+      }
+      Arrays.sort(samples);
+
+      assertThat(monteCarloResult.getCounts()[t]).isEqualTo(NUM_RUNS);
+      assertThat(mean[t]).isCloseTo(expectedMean, within(1e-9 * Math.abs(expectedMean) + 1e-18));
+      assertThat(variance[t]).isCloseTo(sumOfSquares / (NUM_RUNS - 1), within(1e-9 * sumOfSquares + 1e-30));
+      assertThat(median[t]).isCloseTo(samples[(NUM_RUNS - 1) / 2], within(0.01 * Math.abs(samples[(NUM_RUNS - 1) / 2]) + 1e-18));
+      isStochastic |= variance[t] > 0;
+    }
+    assertThat(isStochastic).isTrue();
+
+    // the driven voltage is the same in every run
+    double[] drivenVoltage = monteCarloResult.getMean("V(VDD)");
+    double[] drivenVoltageVariance = monteCarloResult.getVariance("V(VDD)");
+    for (int t = 0; t < times.length; t++) {
+      assertThat(drivenVoltage[t]).isCloseTo(0.5 * Math.sin(2 * Math.PI * 100 * times[t]), within(1e-9));
+      assertThat(drivenVoltageVariance[t]).isCloseTo(0.0, within(1e-20));
+    }
+  }
+
+  @Test
+  public void testRunsAreReproducible() {
+
+    MonteCarloAnalysis monteCarloAnalysis = new MonteCarloAnalysis(new V1MSSMemristor1(), getTransientConfig(), NUM_RUNS);
+    monteCarloAnalysis.setSeed(7);
+    monteCarloAnalysis.setRetainedRuns(5);
+    MonteCarloResult sequentialResult = monteCarloAnalysis.run();
+    monteCarloAnalysis.setParallelism(4);
+    MonteCarloResult parallelResult = monteCarloAnalysis.run();
+
+    // the quantiles do not depend on how the runs are spread over the threads, the means only up to rounding
+    assertThat(parallelResult.getQuantile("I(M1)", 0.9)).containsExactly(sequentialResult.getQuantile("I(M1)", 0.9));
+    double[] sequentialMean = sequentialResult.getMean("I(M1)");
+    double[] parallelMean = parallelResult.getMean("I(M1)");
+    for (int t = 0; t < sequentialMean.length; t++) {
+      assertThat(parallelMean[t]).isCloseTo(sequentialMean[t], within(1e-12 * Math.abs(sequentialMean[t]) + 1e-20));
+    }
+    assertThat(parallelResult.getTrace(5).getTimeSeriesTable().getColumn("I(M1)")).containsExactly(sequentialResult.getTrace(5)
+        .getTimeSeriesTable().getColumn("I(M1)"));
+
+    // a single run is repeated from its seed
+    Netlist netlist = new V1MSSMemristor1();
+    TransientAnalysis transientAnalysis = new TransientAnalysis(netlist, getTransientConfig());
+    transientAnalysis.setRandom(new Random(sequentialResult.getRunSeed(5)));
+    double[] trace = transientAnalysis.run().getTimeSeriesTable().getColumn("I(M1)");
+    assertThat(trace).containsExactly(sequentialResult.getTrace(5).getTimeSeriesTable().getColumn("I(M1)"));
+  }
+
+  @Test
+  public void testOnlyTheObservablesAreAccumulated() {
+
+    MonteCarloAnalysis monteCarloAnalysis = new MonteCarloAnalysis(new V1MSSMemristor1(), getTransientConfig(), NUM_RUNS);
+    monteCarloAnalysis.setSeed(3);
+    MonteCarloResult allResult = monteCarloAnalysis.run();
+    monteCarloAnalysis.setObservables("I(M1)");
+    monteCarloAnalysis.setQuantiles(false);
+    monteCarloAnalysis.setRetainedRuns(0);
+    MonteCarloResult observableResult = monteCarloAnalysis.run();
+
+    assertThat(allResult.getLabels().length).isGreaterThan(1);
+    assertThat(observableResult.getLabels()).containsExactly("I(M1)");
+    assertThat(observableResult.getTrace(0).getTimeSeriesTable().getColumnIdx("V(VDD)")).isEqualTo(-1);
+    assertThat(observableResult.getMean("I(M1)")).containsExactly(allResult.getMean("I(M1)"));
+    assertThat(observableResult.getVariance("I(M1)")).containsExactly(allResult.getVariance("I(M1)"));
+    try {
+      observableResult.getQuantile("I(M1)", 0.5);
+      fail("The quantiles were not accumulated!");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+}
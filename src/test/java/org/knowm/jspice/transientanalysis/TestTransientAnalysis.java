@@ -0,0 +1,307 @@
+/**
+ * jspice is distributed under the GNU General Public License version 3
+ * and is also available under alternative licenses negotiated directly
+ * with Knowm, Inc.
+ *
+ * Copyright (c) 2016-2017 Knowm Inc. www.knowm.org
+ *
+ * Knowm, Inc. holds copyright
+ * and/or sufficient licenses to all components of the jspice
+ * package, and therefore can grant, at its sole discretion, the ability
+ * for companies, individuals, or organizations to create proprietary or
+ * open source (even if not GPL) modules which may be dynamically linked at
+ * runtime with the portions of jspice which fall under our
+ * copyright/license umbrella, or are distributed under more flexible
+ * licenses than GPL.
+ *
+ * The 'Knowm' name and logos are trademarks owned by Knowm, Inc.
+ *
+ * If you have any questions regarding our licensing policy, please
+ * contact us at `contact@knowm.org`.
+ */
+package org.knowm.jspice.transientanalysis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.knowm.jspice.JSpice;
+import org.knowm.jspice.circuits.HalfWaveRectifier;
+import org.knowm.jspice.circuits.V1R1C1;
+import org.knowm.jspice.circuits.V1R1L1;
+import org.knowm.jspice.memristor.V1JoglekarMemristor1;
+import org.knowm.jspice.netlist.Netlist;
+import org.knowm.jspice.simulate.SimulationPlotData;
+import org.knowm.jspice.simulate.SimulationResult;
+import org.knowm.jspice.simulate.TimeSeriesTable;
+import org.knowm.jspice.simulate.XyceStdResultSink;
+import org.knowm.jspice.simulate.dcoperatingpoint.CircuitState;
+import org.knowm.jspice.simulate.transientanalysis.IntegrationMethod;
+import org.knowm.jspice.simulate.transientanalysis.TransientAnalysis;
+import org.knowm.jspice.simulate.transientanalysis.TransientConfig;
+import org.knowm.jspice.simulate.transientanalysis.driver.DC;
+import org.knowm.jspice.simulate.transientanalysis.driver.Sine;
+import org.knowm.jspice.simulate.transientanalysis.driver.Square;
+
+public class TestTransientAnalysis {
+
+  @Test
+  public void testHalfWaveRectifierCapacitorHoldsCharge() {
+
+    Netlist netlist = new HalfWaveRectifier();
+    TransientConfig transientConfig = new TransientConfig(".0333333333", ".0002", new Sine("Vsrc", 0, "0", 12, "60.0"));
+    netlist.setSimulationConfig(transientConfig);
+    SimulationResult simulationResult = JSpice.simulate(netlist);
+
+    // during the negative half cycle the diode blocks and C1 discharges into Rload with RC = 10 ms
+    List<Number> time = simulationResult.getSimulationPlotDataMap().get("V(out)").getxData();
+    List<Number> vOut = simulationResult.getSimulationPlotDataMap().get("V(out)").getyData();
+    List<Number> vIn = simulationResult.getSimulationPlotDataMap().get("V(in)").getyData();
+    for (int i = 0; i < time.size(); i++) {
+      double t = time.get(i).doubleValue();
+      if (t > 0.010 && t < 0.015) {
+        assertThat(vIn.get(i).doubleValue()).isLessThan(0.0);
+        assertThat(vOut.get(i).doubleValue()).isGreaterThan(3.0);
+      }
+    }
+  }
+
+  @Test
+  public void testPredictedTimePointsNeedFewerIterations() {
+
+    TransientConfig transientConfig = new TransientConfig(".0333333333", ".00002", new Sine("Vsrc", 0, "0", 12, "60.0"));
+    TransientAnalysis withoutPrediction = new TransientAnalysis(new HalfWaveRectifier(), transientConfig);
+    withoutPrediction.setPrediction(false);
+    SimulationResult reference = withoutPrediction.run();
+    TransientAnalysis withPrediction = new TransientAnalysis(new HalfWaveRectifier(), transientConfig);
+    SimulationResult simulationResult = withPrediction.run();
+
+    // System.out.println(withoutPrediction.getNumIterations() + " " + withPrediction.getNumIterations());
+    assertThat(withPrediction.getNumIterations()).isLessThan(withoutPrediction.getNumIterations() * 4 / 5);
+
+    // only the starting point of the Newton iterations differs, so both converge to the same solution
+    List<Number> vReference = reference.getSimulationPlotDataMap().get("V(out)").getyData();
+    List<Number> vOut = simulationResult.getSimulationPlotDataMap().get("V(out)").getyData();
+    assertThat(vOut).hasSize(vReference.size());
+    for (int i = 0; i < vOut.size(); i++) {
+      assertThat(vOut.get(i).doubleValue()).isCloseTo(vReference.get(i).doubleValue(), within(1e-5));
+    }
+  }
+
+  @Test
+  public void testRunContinuesFromTheStateOfThePreviousRun() {
+
+    Netlist netlist = new V1JoglekarMemristor1();
+    TransientConfig transientConfig = new TransientConfig(".1", ".001", new DC("Vdd", 1.0));
+
+    // one long run
+    TransientConfig longTransientConfig = new TransientConfig(".199", ".001", new DC("Vdd", 1.0));
+    double[] reference = new TransientAnalysis(netlist, longTransientConfig).run().getTimeSeriesTable().getColumn("R(M1)");
+
+    // two back to back runs of the same state
+    TransientAnalysis first = new TransientAnalysis(netlist, transientConfig);
+    first.setCircuitState(new CircuitState(netlist));
+    double[] firstPulse = first.run().getTimeSeriesTable().getColumn("R(M1)");
+    CircuitState circuitState = first.getCircuitState();
+    double x = circuitState.getSweepValue(circuitState.getComponentIdx("M1"));
+    assertThat(x).isNotEqualTo(netlist.getComponent("M1").getSweepableValue());
+
+    TransientAnalysis second = new TransientAnalysis(netlist, transientConfig);
+    second.setCircuitState(circuitState);
+    double[] secondPulse = second.run().getTimeSeriesTable().getColumn("R(M1)");
+
+    // the initial DC operating point of the second run leaves the state as the first run left it
+    assertThat(firstPulse).hasSize(99);
+    for (int i = 0; i < firstPulse.length; i++) {
+      assertThat(firstPulse[i]).isCloseTo(reference[i], within(1e-9));
+      assertThat(secondPulse[i]).isCloseTo(reference[firstPulse.length + i], within(1e-9));
+    }
+
+    // the netlist is left as it is, and a run without a state set starts over
+    assertThat(new TransientAnalysis(netlist, transientConfig).run().getTimeSeriesTable().getColumn("R(M1)")).containsExactly(firstPulse);
+  }
+
+  @Test
+  public void testLinearCircuitIsFactoredOnce() {
+
+    Netlist netlist = new V1R1C1();
+    TransientConfig transientConfig = new TransientConfig("2", ".01", new Square("V1", 2.5, "0", 2.5, "1.0"));
+    TransientAnalysis transientAnalysis = new TransientAnalysis(netlist, transientConfig);
+    SimulationResult simulationResult = transientAnalysis.run();
+
+    assertThat(transientAnalysis.getNumFactorizations()).isEqualTo(1);
+
+    // backward Euler: V(2)_n = (V(2)_n-1 + h / RC * V(1)_n) / (1 + h / RC)
+    double hOverRC = 0.01 / (160000 * 16E-8);
+    List<Number> v1 = simulationResult.getSimulationPlotDataMap().get("V(1)").getyData();
+    List<Number> v2 = simulationResult.getSimulationPlotDataMap().get("V(2)").getyData();
+    for (int i = 1; i < v2.size(); i++) {
+      double expected = (v2.get(i - 1).doubleValue() + hOverRC * v1.get(i).doubleValue()) / (1 + hOverRC);
+      assertThat(v2.get(i).doubleValue()).isCloseTo(expected, within(1e-9));
+    }
+  }
+
+  @Test
+  public void testResultIsStoredColumnWise() {
+
+    Netlist netlist = new V1R1C1();
+    netlist.setSimulationConfig(new TransientConfig(".2", ".001", new Sine("V1", 0, "0", 2.5, "10.0")));
+    SimulationResult simulationResult = JSpice.simulate(netlist);
+
+    // 199 rows, more than the initial capacity, sharing one time column
+    TimeSeriesTable timeSeriesTable = simulationResult.getTimeSeriesTable();
+    assertThat(timeSeriesTable.getSize()).isEqualTo(199);
+    assertThat(timeSeriesTable.getLabels()).containsExactlyElementsOf(simulationResult.getSimulationPlotDataMap().keySet());
+
+    double[] time = timeSeriesTable.getTimeColumn();
+    double[] v2 = timeSeriesTable.getColumn("V(2)");
+    SimulationPlotData simulationPlotData = simulationResult.getSimulationPlotDataMap().get("V(2)");
+    assertThat(simulationPlotData.getxData()).hasSize(199);
+    for (int i = 0; i < time.length; i++) {
+      assertThat(time[i]).isCloseTo(0.001 * (i + 1), within(1e-15));
+      assertThat(simulationPlotData.getxData().get(i).doubleValue()).isEqualTo(time[i]);
+      assertThat(simulationPlotData.getyData().get(i).doubleValue()).isEqualTo(v2[i]);
+    }
+    assertThat(simulationPlotData.getyValues()).containsExactly(v2);
+  }
+
+  @Test
+  public void testSinkReceivesTheSamplesAsTheyAreProduced() {
+
+    Netlist netlist = new V1R1C1();
+    TransientConfig transientConfig = new TransientConfig(".2", ".001", new Sine("V1", 0, "0", 2.5, "10.0"));
+    SimulationResult simulationResult = new TransientAnalysis(netlist, transientConfig).run();
+
+    // streamed to a writer, without collecting the trace first
+    netlist = new V1R1C1();
+    StringWriter stringWriter = new StringWriter();
+    new TransientAnalysis(netlist, transientConfig).run(new XyceStdResultSink(stringWriter));
+
+    assertThat(stringWriter.toString()).isEqualTo(simulationResult.toXyceString());
+  }
+
+  @Test
+  public void testOnlyTheSelectedSignalsAreRecorded() {
+
+    Netlist netlist = new V1R1C1();
+    TransientConfig transientConfig = new TransientConfig(".2", ".001", new Sine("V1", 0, "0", 2.5, "10.0"));
+    netlist.setSimulationConfig(transientConfig);
+    SimulationResult reference = JSpice.simulate(netlist);
+
+    netlist = new V1R1C1();
+    netlist.setSimulationConfig(transientConfig);
+    netlist.setPrintProbes(Arrays.asList("v(2)", "I(R1)", "V(1,2)"));
+    SimulationResult simulationResult = JSpice.simulate(netlist);
+
+    assertThat(simulationResult.getTimeSeriesTable().getLabels()).containsExactly("V(2)", "I(R1)", "V(1,2)");
+    double[] v1 = reference.getTimeSeriesTable().getColumn("V(1)");
+    double[] v2 = reference.getTimeSeriesTable().getColumn("V(2)");
+    assertThat(simulationResult.getTimeSeriesTable().getColumn("V(2)")).containsExactly(v2);
+    assertThat(simulationResult.getTimeSeriesTable().getColumn("I(R1)")).containsExactly(reference.getTimeSeriesTable().getColumn("I(R1)"));
+    double[] v12 = simulationResult.getTimeSeriesTable().getColumn("V(1,2)");
+    for (int i = 0; i < v12.length; i++) {
+      assertThat(v12[i]).isCloseTo(v1[i] - v2[i], within(1e-15));
+    }
+  }
+
+  @Test
+  public void testAdaptiveTimeStepMatchesFineFixedTimeStep() {
+
+    // reference solution with a fine fixed time step
+    Netlist netlist = new V1R1C1();
+    netlist.setSimulationConfig(new TransientConfig(".2", ".0001", new Sine("V1", 0, "0", 2.5, "10.0")));
+    SimulationResult reference = JSpice.simulate(netlist);
+    List<Number> vReference = reference.getSimulationPlotDataMap().get("V(2)").getyData();
+
+    netlist = new V1R1C1();
+    TransientConfig transientConfig = new TransientConfig(".2", ".01", new Sine("V1", 0, "0", 2.5, "10.0"));
+    transientConfig.setAdaptive(true);
+    netlist.setSimulationConfig(transientConfig);
+    SimulationResult simulationResult = JSpice.simulate(netlist);
+
+    // reported on the same grid as a fixed step analysis, and the LTE tolerance is 0.7% of the signal per step, as in SPICE
+    List<Number> time = simulationResult.getSimulationPlotDataMap().get("V(2)").getxData();
+    List<Number> v2 = simulationResult.getSimulationPlotDataMap().get("V(2)").getyData();
+    assertThat(time).hasSize(19);
+    for (int i = 0; i < time.size(); i++) {
+      assertThat(time.get(i).doubleValue()).isCloseTo(0.01 * (i + 1), within(1e-12));
+      assertThat(v2.get(i).doubleValue()).isCloseTo(vReference.get(100 * (i + 1) - 1).doubleValue(), within(0.1));
+    }
+  }
+
+  @Test
+  public void testAdaptiveTimeStepLandsOnSquareEdges() {
+
+    // reference solution with a fine fixed time step
+    Netlist netlist = new V1R1C1();
+    netlist.setSimulationConfig(new TransientConfig(".2", ".0001", new Square("V1", 2.5, "0", 2.5, "10.0")));
+    SimulationResult reference = JSpice.simulate(netlist);
+    List<Number> vReference = reference.getSimulationPlotDataMap().get("V(2)").getyData();
+
+    netlist = new V1R1C1();
+    TransientConfig transientConfig = new TransientConfig(".2", ".01", new Square("V1", 2.5, "0", 2.5, "10.0"));
+    transientConfig.setAdaptive(true);
+    netlist.setSimulationConfig(transientConfig);
+    SimulationResult simulationResult = JSpice.simulate(netlist);
+
+    // the falling edge at .05 is not smeared into the steps before it
+    List<Number> v2 = simulationResult.getSimulationPlotDataMap().get("V(2)").getyData();
+    assertThat(v2.get(3).doubleValue()).isCloseTo(5.0, within(1e-9));
+    assertThat(v2.get(4).doubleValue()).isCloseTo(vReference.get(499).doubleValue(), within(0.05));
+    for (int i = 0; i < v2.size(); i++) {
+      assertThat(v2.get(i).doubleValue()).isCloseTo(vReference.get(100 * (i + 1) - 1).doubleValue(), within(0.15));
+    }
+  }
+
+  @Test
+  public void testSecondOrderIntegrationMethods() {
+
+    // RC low pass, V(2) = A / (1 + (w * tau)^2) * (sin(w * t) - w * tau * cos(w * t) + w * tau * exp(-t / tau))
+    verifySecondOrder(new V1R1C1(), new V1R1C1(), "V(2)", ".2", ".005", "10.0", 2.5, 160000 * 16E-8);
+
+    // RL low pass, I(L1) is the same with A / R
+    verifySecondOrder(new V1R1L1(), new V1R1L1(), "I(L1)", ".00004", ".0000004", "50000.0", 2.5 / 100, 200E-6 / 100);
+  }
+
+  private static void verifySecondOrder(Netlist netlist, Netlist netlistHalfStep, String label, String stopTime, String timeStep, String frequency,
+      double amplitude, double tau) {
+
+    String halfTimeStep = new BigDecimal(timeStep).divide(new BigDecimal(2)).toString();
+    double backwardEulerError = getMaxError(netlist, label, IntegrationMethod.BACKWARD_EULER, stopTime, timeStep, frequency, amplitude, tau);
+    for (IntegrationMethod integrationMethod : new IntegrationMethod[]{IntegrationMethod.TRAPEZOIDAL, IntegrationMethod.GEAR2}) {
+
+      double error = getMaxError(netlist, label, integrationMethod, stopTime, timeStep, frequency, amplitude, tau);
+      double errorHalfStep = getMaxError(netlistHalfStep, label, integrationMethod, stopTime, halfTimeStep, frequency, amplitude, tau);
+      // System.out.println(integrationMethod + " " + backwardEulerError + " " + error + " " + errorHalfStep);
+
+      assertThat(error).isLessThan(backwardEulerError / 3);
+      // the error of a second order method drops by 4 when the time step is halved
+      assertThat(errorHalfStep).isLessThan(error / 3.5);
+    }
+  }
+
+  private static double getMaxError(Netlist netlist, String label, IntegrationMethod integrationMethod, String stopTime, String timeStep,
+      String frequency, double amplitude, double tau) {
+
+    TransientConfig transientConfig = new TransientConfig(stopTime, timeStep, new Sine("V1", 0, "0", 2.5, frequency));
+    transientConfig.setIntegrationMethod(integrationMethod);
+    netlist.setSimulationConfig(transientConfig);
+    SimulationResult simulationResult = JSpice.simulate(netlist);
+
+    double wTau = 2 * Math.PI * Double.parseDouble(frequency) * tau;
+    List<Number> time = simulationResult.getSimulationPlotDataMap().get(label).getxData();
+    List<Number> values = simulationResult.getSimulationPlotDataMap().get(label).getyData();
+    double maxError = 0.0;
+    for (int i = 0; i < time.size(); i++) {
+      double wt = 2 * Math.PI * Double.parseDouble(frequency) * time.get(i).doubleValue();
+      double expected = amplitude / (1 + wTau * wTau) * (Math.sin(wt) - wTau * Math.cos(wt) + wTau * Math.exp(-time.get(i).doubleValue() / tau));
+      maxError = Math.max(maxError, Math.abs(values.get(i).doubleValue() - expected));
+    }
+    return maxError;
+  }
+}
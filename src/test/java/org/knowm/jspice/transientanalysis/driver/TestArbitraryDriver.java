@@ -76,4 +76,16 @@ public class TestArbitraryDriver extends TestDrivers {
 
     //    plotData("V(in)", xData, yData);
   }
+
+  @Test
+  public void testBreakpoints() {
+
+    Driver driver = new Arbitrary("Arbitrary", 0, "0", 1, "1.0", new String[]{".1", ".2", ".5", ".6"});
+
+    double t = 0.0;
+    for (double expected : new double[]{.1, .2, .5, .6, 1.1, 1.2}) {
+      t = driver.getNextBreakpoint(t);
+      assertThat(t).isCloseTo(expected, within(1e-12));
+    }
+  }
 }
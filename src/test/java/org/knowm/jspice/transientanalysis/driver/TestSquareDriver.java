@@ -76,4 +76,20 @@ public class TestSquareDriver extends TestDrivers {
 
 //        plotData("V(in)", xData, yData);
   }
+
+  @Test
+  public void testBreakpoints() {
+
+    Driver driver = new Square("Square", 5, ".2", 10, ".5");
+
+    assertThat(driver.getNextBreakpoint(0.0)).isCloseTo(0.8, within(1e-12));
+    assertThat(driver.getNextBreakpoint(0.8)).isCloseTo(1.8, within(1e-12));
+    assertThat(driver.getNextBreakpoint(1.8)).isCloseTo(2.8, within(1e-12));
+
+    // the signal switches exactly at the breakpoint, also if the time is the sum of inexact doubles
+    assertThat(driver.getSignal(0.7999)).isCloseTo(15, within(.01));
+    assertThat(driver.getSignal(0.8)).isCloseTo(-5, within(.01));
+    assertThat(driver.getSignal(0.1 + 0.7)).isCloseTo(-5, within(.01));
+    assertThat(driver.getSignal(driver.getNextBreakpoint(0.0))).isCloseTo(-5, within(.01));
+  }
 }